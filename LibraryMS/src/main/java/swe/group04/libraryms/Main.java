@@ -4,29 +4,95 @@
  *
  * Responsabilità principali:
  * - avviare il runtime JavaFX
+ * - caricare l'archivio da file una sola volta, prima di mostrare
+ *   l'interfaccia e fuori dal thread JavaFX
  * - caricare la scena iniziale (main.fxml)
  * - applicare il foglio di stile globale
  * - visualizzare la finestra principale dell'applicazione
+ * - segnalare gli errori di salvataggio in background e scrivere
+ *   le modifiche in sospeso alla chiusura
  *
  */
 package swe.group04.libraryms;
 
+import java.io.IOException;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.scene.Parent;
+import javafx.scene.control.Alert;
+import swe.group04.libraryms.service.SaveStatusListener;
+import swe.group04.libraryms.service.ServiceLocator;
 
 public class Main extends Application{
 
+    private IOException loadError; ///< Errore del caricamento iniziale (null se riuscito)
+
+    /**
+     * @brief Carica l'archivio all'avvio dell'applicazione.
+     *
+     * Eseguito da JavaFX sul thread del launcher, prima di start(): il
+     * caricamento non blocca il thread dell'interfaccia. L'archivio in
+     * memoria resta poi la fonte dei dati per tutta l'esecuzione; la
+     * navigazione tra le schermate non lo rilegge da disco.
+     */
+    @Override
+    public void init() {
+        try {
+            ServiceLocator.getArchiveService().loadArchive();
+            System.out.println("Archivio caricato correttamente.");
+        } catch (IOException e) {
+            loadError = e;
+            System.err.println("Impossibile caricare l'archivio: " + e.getMessage());
+        }
+    }
+
     @Override
     public void start(Stage stage) throws Exception {
+        ServiceLocator.getArchiveService().setSaveStatusListener(new SaveStatusListener() {
+            @Override
+            public void onSaved(int changes) {
+            }
+
+            @Override
+            public void onSaveFailed(IOException error, int pendingChanges) {
+                Platform.runLater(() -> {
+                    Alert alert = new Alert(Alert.AlertType.ERROR);
+                    alert.setTitle("Errore");
+                    alert.setHeaderText("Salvataggio dell'archivio non riuscito");
+                    alert.setContentText(pendingChanges + " modifiche non sono ancora state salvate: "
+                            + error.getMessage() + "\nIl salvataggio verrà ritentato alla prossima modifica.");
+                    alert.show();
+                });
+            }
+        });
+
         Parent root = FXMLLoader.load(getClass().getResource("/swe/group04/libraryms/view/main.fxml"));
         Scene scene = new Scene(root);
         scene.getStylesheets().add(getClass().getResource("/swe/group04/libraryms/css/style.css").toExternalForm());
         stage.setScene(scene);
         stage.setTitle("Library Management System");
         stage.show();
+
+        if (loadError != null) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Errore");
+            alert.setHeaderText("Caricamento dell'archivio non riuscito");
+            alert.setContentText(loadError.getMessage()
+                    + "\nÈ possibile riprovare con \"Ricarica archivio\" dalla schermata principale.");
+            alert.show();
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            ServiceLocator.getArchiveService().close();
+        } catch (IOException e) {
+            System.err.println("Impossibile salvare le ultime modifiche dell'archivio: " + e.getMessage());
+        }
     }
 
     public static void main(String[] args) {
@@ -123,6 +123,9 @@ public class BookCatalogController {
 
     /**
      * @brief Filtra i libri in base a una query testuale e aggiorna la tabella.
+     *
+     * Se la ricerca esatta non trova nulla, ripiega sulla ricerca tollerante
+     * agli errori di battitura (es. autori scritti in modo errato).
      */
     private void applySearch(String query) {
         if (query == null || query.isBlank()) {
@@ -131,6 +134,9 @@ public class BookCatalogController {
         }
 
         List<Book> filtered = bookService.searchBooks(query);
+        if (filtered.isEmpty()) {
+            filtered = bookService.searchBooksFuzzy(query);
+        }
         observableBooks = FXCollections.observableArrayList(filtered);
         bookTable.setItems(observableBooks);
     }
@@ -146,7 +146,9 @@ public class LoansListController {
         refreshTable();
 
         //  Imposta filtro
-        loanFilterChoiceBox.getItems().setAll("Tutti i prestiti", "Prestiti attivi");
+        loanFilterChoiceBox.getItems().setAll("Tutti i prestiti", "Prestiti attivi",
+                "Prestiti in ritardo", "In scadenza (7 giorni)",
+                "Ordina per data prestito", "Ordina per ID");
         loanFilterChoiceBox.getSelectionModel().select("Tutti i prestiti");
         loanFilterChoiceBox.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> applyFilter(newVal));
     }
@@ -192,11 +194,15 @@ public class LoansListController {
     }
 
     /**
-     * @brief Applica il filtro "Tutti i prestiti" / "Prestiti attivi".
+     * @brief Applica il filtro selezionato sui prestiti.
      *
      * La logica di filtraggio è delegata a LoanService:
-     *  - "Prestiti attivi" → getActiveLoan()
-     *  - altri valori      → getLoansSortedByDueDate()
+     *  - "Prestiti attivi"        → getActiveLoan()
+     *  - "Prestiti in ritardo"    → getOverdueLoans()
+     *  - "In scadenza (7 giorni)" → getLoansDueWithin(7)
+     *  - "Ordina per data prestito" → getLoansSortedByLoanDate()
+     *  - "Ordina per ID"          → getLoansSortedById()
+     *  - altri valori             → getLoansSortedByDueDate()
      *
      * @param filter Testo del filtro selezionato nella ChoiceBox (può essere null).
      *
@@ -214,6 +220,10 @@ public class LoansListController {
 
         switch (filter) {
             case "Prestiti attivi" -> list = loanService.getActiveLoan();
+            case "Prestiti in ritardo" -> list = loanService.getOverdueLoans();
+            case "In scadenza (7 giorni)" -> list = loanService.getLoansDueWithin(7);
+            case "Ordina per data prestito" -> list = loanService.getLoansSortedByLoanDate();
+            case "Ordina per ID" -> list = loanService.getLoansSortedById();
             default -> list = loanService.getLoansSortedByDueDate();
         }
 
@@ -14,6 +14,7 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.stage.Stage;
+import swe.group04.libraryms.models.LibraryArchive;
 import swe.group04.libraryms.service.ServiceLocator;
 
 import java.io.IOException;
@@ -23,8 +24,10 @@ import java.io.IOException;
  * @brief Controller JavaFX della schermata principale dell'applicazione.
  *
  * Gestisce la navigazione verso le principali funzionalità (catalogo libri,
- * lista utenti, gestione prestiti) e l'uscita dall'applicazione.
- * All'avvio tenta di caricare l'archivio tramite il servizio ottenuto da ServiceLocator.
+ * lista utenti, gestione prestiti), la ricarica esplicita dell'archivio
+ * e l'uscita dall'applicazione.
+ * L'archivio viene caricato una sola volta all'avvio (Main.init()): mostrare
+ * di nuovo la schermata principale non lo rilegge da disco.
  */
 public class MainController {
 
@@ -32,23 +35,33 @@ public class MainController {
     @FXML private Button bookCatalogBtn;
     @FXML private Button usersListBtn;
     @FXML private Button loansListBtn;
-    
+    @FXML private Button reloadBtn;
+
     /**
-     * @brief Inizializza la schermata principale caricando l'archivio applicativo.
+     * @brief Ricarica l'archivio da file, sostituendo quello in memoria.
      *
-     * Viene chiamato automaticamente da JavaFX dopo il caricamento del FXML.
+     * Le modifiche in attesa di scrittura vengono salvate prima della
+     * ricarica (vedi LibraryArchiveService.loadArchive()).
      *
+     * @param event Evento generato dal click sul pulsante "Ricarica archivio".
      * @pre ServiceLocator.getArchiveService() restituisce un servizio valido.
-     * @post Se il caricamento va a buon fine, i dati dell'archivio risultano disponibili in memoria.
-     * @post In caso di errore, l'applicazione rimane avviata ma l'archivio potrebbe non essere disponibile.
+     * @post Se il caricamento va a buon fine, l'archivio in memoria rispecchia il contenuto su file.
+     * @post In caso di errore, viene mostrato un Alert di errore e l'archivio in memoria resta invariato.
      */
     @FXML
-    public void initialize() {
+    private void reloadArchive(ActionEvent event) {
         try {
-            ServiceLocator.getArchiveService().loadArchive();
-            System.out.println("Archivio caricato correttamente.");
-        } catch (Exception e) {
-            System.err.println("Impossibile caricare l'archivio: " + e.getMessage());
+            LibraryArchive archive = ServiceLocator.getArchiveService().loadArchive();
+
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Archivio");
+            alert.setHeaderText("Archivio ricaricato");
+            alert.setContentText(archive.getBooks().size() + " libri, "
+                    + archive.getUsers().size() + " utenti, "
+                    + archive.getLoans().size() + " prestiti.");
+            alert.showAndWait();
+        } catch (IOException e) {
+            showError("Impossibile ricaricare l'archivio: " + e.getMessage());
         }
     }
     
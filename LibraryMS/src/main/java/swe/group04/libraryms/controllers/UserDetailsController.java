@@ -68,7 +68,7 @@ public class UserDetailsController {
         nameField.setText(user.getFirstName());
         surnameField.setText(user.getLastName());
         emailField.setText(user.getEmail());
-        activeLoansField.setText(String.valueOf(user.getActiveLoans()));
+        activeLoansField.setText(String.valueOf(user.getActiveLoanCount()));
 
         // Campi non modificabili
         codeField.setDisable(true);
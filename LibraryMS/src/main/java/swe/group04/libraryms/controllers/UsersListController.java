@@ -27,7 +27,6 @@ import javafx.stage.Stage;
 import swe.group04.libraryms.models.Book;
 import swe.group04.libraryms.models.User;
 import swe.group04.libraryms.service.BookService;
-import swe.group04.libraryms.service.LoanService;
 import swe.group04.libraryms.service.ServiceLocator;
 import swe.group04.libraryms.service.UserService;
 
@@ -45,7 +44,8 @@ import swe.group04.libraryms.service.UserService;
  *  - tornare alla schermata principale del sistema.
  *
  * La logica di business (ricerca, ordinamenti, vincoli su prestiti, ecc.)
- * è delegata a UserService e LoanService. Questo controller si occupa
+ * è delegata a UserService; il numero di prestiti attivi di ogni utente è
+ * mantenuto dall'archivio e letto in tempo costante. Questo controller si occupa
  * di collegare i dati alla view e reagire agli eventi dell’interfaccia utente.
  */
 public class UsersListController {
@@ -64,7 +64,6 @@ public class UsersListController {
 
     //  Acceso tramite ServiceLocator
     private final UserService userService = ServiceLocator.getUserService();
-    private final LoanService loanService = ServiceLocator.getLoanService();
 
     //  Lista osservabile popolata dai dati del servizio
     private ObservableList<User> observableUsers;
@@ -97,22 +96,15 @@ public class UsersListController {
         emailClm.setCellValueFactory(cell ->
                 new SimpleStringProperty(cell.getValue().getEmail()));
 
-        activeLoansClm.setCellValueFactory(cell -> {
-            int count = loanService
-                    .getActiveLoan()
-                    .stream()
-                    .filter(l -> l.getUser().equals(cell.getValue()))
-                    .toList()
-                    .size();
-
-            return new SimpleIntegerProperty(count).asObject();
-        });
+        activeLoansClm.setCellValueFactory(cell ->
+                new SimpleIntegerProperty(cell.getValue().getActiveLoanCount()).asObject());
 
         refreshTable();
 
         userFilterChoiceBox.getItems().setAll(
                 "Ordina per nome",
                 "Ordina per cognome",
+                "Ordina per matricola",
                 "Solo prestiti attivi",
                 "Solo prestiti non attivi",
                 "Mostra tutti"
@@ -174,8 +166,9 @@ public class UsersListController {
      * @brief Applica il filtro/ordinamento selezionato nella ChoiceBox.
      *
      * Filtri/ordinamenti gestiti:
-     *  - "Ordina per nome"         → ordina la lista attualmente visibile per firstName;
+     *  - "Ordina per nome"         → richiede al servizio la lista ordinata per firstName;
      *  - "Ordina per cognome"      → richiede al servizio la lista ordinata per lastName;
+     *  - "Ordina per matricola"    → richiede al servizio la lista ordinata per matricola;
      *  - "Solo prestiti attivi"    → mostra solo gli utenti che hanno almeno un prestito attivo;
      *  - "Solo prestiti non attivi"→ mostra gli utenti che non hanno prestiti attivi;
      *  - "Mostra tutti" (default)  → ricarica la lista completa ordinata per cognome.
@@ -195,29 +188,22 @@ public class UsersListController {
 
         switch (selected) {
             case "Ordina per nome" ->
-                    list = observableUsers.stream()
-                            .sorted((u1, u2) ->
-                                    u1.getFirstName()
-                                            .compareToIgnoreCase(u2.getFirstName()))
-                            .toList();
+                    list = userService.getUsersSortedByFirstName();
 
             case "Ordina per cognome" ->
                     list = userService.getUsersSortedByLastName();
 
+            case "Ordina per matricola" ->
+                    list = userService.getUsersSortedByCode();
+
             case "Solo prestiti attivi" ->
                     list = observableUsers.stream()
-                            .filter(u ->
-                                    loanService.getActiveLoan()
-                                            .stream()
-                                            .anyMatch(l -> l.getUser().equals(u)))
+                            .filter(User::hasActiveLoans)
                             .toList();
 
             case "Solo prestiti non attivi" ->
                     list = observableUsers.stream()
-                            .filter(u ->
-                                    loanService.getActiveLoan()
-                                            .stream()
-                                            .noneMatch(l -> l.getUser().equals(u)))
+                            .filter(u -> !u.hasActiveLoans())
                             .toList();
 
             default -> // Mostra tutti
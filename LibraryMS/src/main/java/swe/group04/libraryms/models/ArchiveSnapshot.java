@@ -0,0 +1,476 @@
+/**
+ * @file ArchiveSnapshot.java
+ * @brief Versione immutabile del contenuto di un LibraryArchive.
+ *
+ * L'archivio conserva il proprio stato in un unico riferimento a
+ * un'istanza di questa classe: ogni modifica ne costruisce una nuova,
+ * che condivide con la precedente le parti non toccate (liste, mappe e
+ * indici sono tutti persistenti), e la pubblica con una sola scrittura.
+ *
+ * Chi legge ottiene quindi, senza lock e senza copie, una versione
+ * coerente di libri, utenti, prestiti e indici, che resta valida anche
+ * mentre l'archivio viene modificato: letture lunghe (es. report) non
+ * bloccano le modifiche e non ne vedono gli effetti parziali.
+ *
+ * Oltre a quali oggetti compongono l'archivio e come sono indicizzati,
+ * la versione registra lo stato di ciascun libro, utente e prestito
+ * (Book.State, User.State, Loan.State, immutabili): i getter degli
+ * oggetti restituiscono sempre i valori correnti, stateOf() quelli di
+ * questa versione. Gli stati sono i valori degli indici per chiave (ISBN,
+ * matricola, ID prestito) e puntano all'oggetto a cui appartengono: non
+ * esiste una seconda copia, e l'oggetto stesso fa riferimento allo stato
+ * dell'ultima versione pubblicata.
+ */
+package swe.group04.libraryms.models;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @brief Stato dell'archivio in un dato istante.
+ */
+public final class ArchiveSnapshot {
+
+    static final ArchiveSnapshot EMPTY = new ArchiveSnapshot(
+            PersistentVector.empty(), PersistentHashMap.empty(), 0,
+            PersistentVector.empty(), PersistentHashMap.empty(), 0,
+            PersistentVector.empty(), PersistentIntMap.empty(),
+            PersistentHashMap.empty(), PersistentHashMap.empty(),
+            PersistentSortedMap.empty(), 0, null);
+
+    final PersistentVector<Book> books;
+    final PersistentHashMap<String, Book.State> booksByIsbn;  ///< Stato del primo libro per ISBN
+    final long booksVersion;
+
+    final PersistentVector<User> users;
+    final PersistentHashMap<String, User.State> usersByCode;  ///< Stato del primo utente per matricola
+    final long usersVersion;
+
+    final PersistentVector<Loan> loans;
+    final PersistentIntMap<Loan.State> loansById;             ///< Stato del primo prestito per ID
+    final PersistentHashMap<String, LoanPartition> loansByUser;
+    final PersistentHashMap<String, LoanPartition> loansByBook;
+    final PersistentSortedMap<DueKey, Loan> activeByDueDate;
+    final long loansVersion;
+
+    private volatile LoanColumns loanColumns; ///< Vista a colonne, calcolata alla prima richiesta o ereditata
+
+    ArchiveSnapshot(PersistentVector<Book> books, PersistentHashMap<String, Book.State> booksByIsbn,
+                    long booksVersion,
+                    PersistentVector<User> users, PersistentHashMap<String, User.State> usersByCode,
+                    long usersVersion,
+                    PersistentVector<Loan> loans, PersistentIntMap<Loan.State> loansById,
+                    PersistentHashMap<String, LoanPartition> loansByUser,
+                    PersistentHashMap<String, LoanPartition> loansByBook,
+                    PersistentSortedMap<DueKey, Loan> activeByDueDate, long loansVersion,
+                    LoanColumns loanColumns) {
+        this.books = books;
+        this.booksByIsbn = booksByIsbn;
+        this.booksVersion = booksVersion;
+        this.users = users;
+        this.usersByCode = usersByCode;
+        this.usersVersion = usersVersion;
+        this.loans = loans;
+        this.loansById = loansById;
+        this.loansByUser = loansByUser;
+        this.loansByBook = loansByBook;
+        this.activeByDueDate = activeByDueDate;
+        this.loansVersion = loansVersion;
+        this.loanColumns = loanColumns;
+    }
+
+    ArchiveSnapshot withBooks(PersistentVector<Book> books, PersistentHashMap<String, Book.State> booksByIsbn,
+                              long booksVersion, LoanColumns loanColumns) {
+        return new ArchiveSnapshot(books, booksByIsbn, booksVersion,
+                users, usersByCode, usersVersion,
+                loans, loansById, loansByUser, loansByBook, activeByDueDate, loansVersion, loanColumns);
+    }
+
+    ArchiveSnapshot withUsers(PersistentVector<User> users, PersistentHashMap<String, User.State> usersByCode,
+                              long usersVersion, LoanColumns loanColumns) {
+        return new ArchiveSnapshot(books, booksByIsbn, booksVersion,
+                users, usersByCode, usersVersion,
+                loans, loansById, loansByUser, loansByBook, activeByDueDate, loansVersion, loanColumns);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                        Stato degli oggetti                              */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce i valori di un libro in questa versione.
+     *
+     * Lo stato è registrato per il libro indicizzato per ISBN: per un
+     * duplicato non indicizzato restituisce null, come per un libro che
+     * non appartiene a questa versione.
+     *
+     * @param book Libro dell'archivio.
+     * @return Stato del libro in questa versione, oppure null se il libro
+     *         non è indicizzato in questa versione.
+     */
+    public Book.State stateOf(Book book) {
+        Book.State s = booksByIsbn.get(book.getIsbn());
+        return s != null && s.book == book ? s : null;
+    }
+
+    /**
+     * @brief Restituisce i valori di un utente in questa versione.
+     *
+     * Come per i libri, lo stato è registrato per l'utente indicizzato
+     * per matricola.
+     *
+     * @param user Utente dell'archivio.
+     * @return Stato dell'utente in questa versione, oppure null se l'utente
+     *         non è indicizzato in questa versione.
+     */
+    public User.State stateOf(User user) {
+        User.State s = usersByCode.get(user.getCode());
+        return s != null && s.user == user ? s : null;
+    }
+
+    /**
+     * @brief Restituisce i valori di un prestito in questa versione.
+     *
+     * Come per i libri, lo stato è registrato per il prestito indicizzato
+     * per ID.
+     *
+     * @param loan Prestito dell'archivio.
+     * @return Stato del prestito in questa versione, oppure null se il
+     *         prestito non è indicizzato in questa versione.
+     */
+    public Loan.State stateOf(Loan loan) {
+        Loan.State s = loansById.get(loan.getLoanId());
+        return s != null && s.loan == loan ? s : null;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                                Libri                                    */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce i libri di questa versione.
+     *
+     * @return Lista immutabile dei libri.
+     */
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * @brief Cerca un libro tramite ISBN.
+     *
+     * @param isbn Codice ISBN del libro da cercare.
+     * @return Il libro corrispondente oppure null se non trovato.
+     */
+    public Book findBookByIsbn(String isbn) {
+        Book.State s = isbn == null ? null : booksByIsbn.get(isbn);
+        return s == null ? null : s.book;
+    }
+
+    /**
+     * @brief Restituisce il contatore delle modifiche al catalogo.
+     *
+     * @return Numero di inserimenti e rimozioni di libri fino a questa versione.
+     */
+    public long getBooksVersion() {
+        return booksVersion;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                                Utenti                                   */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce gli utenti di questa versione.
+     *
+     * @return Lista immutabile degli utenti.
+     */
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * @brief Trova un utente tramite la matricola.
+     *
+     * @param code Matricola dell'utente.
+     * @return L'utente corrispondente oppure null se non esiste.
+     */
+    public User findUserByCode(String code) {
+        User.State s = code == null ? null : usersByCode.get(code);
+        return s == null ? null : s.user;
+    }
+
+    /**
+     * @brief Restituisce il contatore delle modifiche al registro utenti.
+     *
+     * @return Numero di inserimenti e rimozioni di utenti fino a questa versione.
+     */
+    public long getUsersVersion() {
+        return usersVersion;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                                Prestiti                                 */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce i prestiti di questa versione.
+     *
+     * @return Lista immutabile dei prestiti.
+     */
+    public List<Loan> getLoans() {
+        return loans;
+    }
+
+    /**
+     * @brief Trova un prestito a partire dal suo ID.
+     *
+     * @param id Identificativo del prestito.
+     * @return Il prestito corrispondente oppure null se non esiste.
+     */
+    public Loan findLoanById(int id) {
+        Loan.State s = loansById.get(id);
+        return s == null ? null : s.loan;
+    }
+
+    /**
+     * @brief Restituisce il contatore delle modifiche ai prestiti.
+     *
+     * @return Numero di modifiche ai prestiti fino a questa versione.
+     */
+    public long getLoansVersion() {
+        return loansVersion;
+    }
+
+    /**
+     * @brief Restituisce i prestiti di questa versione copiati per colonne.
+     *
+     * La copia viene costruita alla prima chiamata e poi riusata; la riga i
+     * corrisponde a getLoans().get(i). Le versioni pubblicate in seguito
+     * ricevono la copia già aggiornata dall'archivio, senza ricostruirla.
+     *
+     * @return Vista a colonne dei prestiti, per statistiche su tutto lo storico.
+     */
+    public LoanColumns getLoanColumns() {
+        LoanColumns c = loanColumns;
+        if (c == null) {
+            //  Due thread possono calcolarla insieme: il risultato è equivalente
+            c = LoanColumns.of(this);
+            loanColumns = c;
+        }
+        return c;
+    }
+
+    /**
+     * @brief Restituisce la vista a colonne se è già stata calcolata.
+     *
+     * @return Vista a colonne di questa versione, oppure null.
+     */
+    LoanColumns cachedLoanColumns() {
+        return loanColumns;
+    }
+
+    /**
+     * @brief Restituisce i prestiti di un utente, divisi per stato.
+     *
+     * @param user Utente (può essere null).
+     * @return Partizione dei prestiti dell'utente, oppure null se non ne ha.
+     */
+    LoanPartition partitionOf(User user) {
+        return user == null ? null : loansByUser.get(user.getCode());
+    }
+
+    /**
+     * @brief Restituisce i prestiti di un libro, divisi per stato.
+     *
+     * @param book Libro (può essere null).
+     * @return Partizione dei prestiti del libro, oppure null se non ne ha.
+     */
+    LoanPartition partitionOf(Book book) {
+        return book == null ? null : loansByBook.get(book.getIsbn());
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi, ordinati per scadenza (nulle in fondo) e ID.
+     *
+     * @return Nuova lista modificabile.
+     */
+    public List<Loan> getActiveLoans() {
+        return activeByDueDate.values();
+    }
+
+    /**
+     * @brief Restituisce il numero di prestiti attivi.
+     *
+     * @return Numero di prestiti attivi.
+     */
+    public int countActiveLoans() {
+        return activeByDueDate.size();
+    }
+
+    /**
+     * @brief Verifica se esiste un prestito attivo con l'ID indicato.
+     *
+     * @param id Identificativo del prestito.
+     * @return true se il prestito con quell'ID è attivo in questa versione.
+     */
+    public boolean isLoanActive(int id) {
+        Loan.State s = loansById.get(id);
+        return s != null && s.active;
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi con scadenza precedente a una data.
+     *
+     * @param date Data di riferimento (non nulla).
+     * @return Nuova lista modificabile, ordinata per scadenza.
+     */
+    List<Loan> activeDueBefore(LocalDate date) {
+        return activeByDueDate.valuesBetween(null, true, new DueKey(date, Integer.MIN_VALUE), false);
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi con scadenza in un intervallo chiuso di date.
+     *
+     * @param from Prima data (non nulla).
+     * @param to   Ultima data (non nulla, non precedente a from).
+     * @return Nuova lista modificabile, ordinata per scadenza.
+     */
+    List<Loan> activeDueBetween(LocalDate from, LocalDate to) {
+        return activeByDueDate.valuesBetween(
+                new DueKey(from, Integer.MIN_VALUE), true,
+                new DueKey(to, Integer.MAX_VALUE), true);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Strutture degli indici                             */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Prestiti di un utente o di un libro, divisi tra attivi e restituiti.
+     *
+     * Immutabile: le modifiche restituiscono una nuova partizione. Entrambe
+     * le parti sono indicizzate per ID del prestito, per cui ricerca,
+     * spostamento e rimozione costano O(log n) e le letture sono già in
+     * ordine di ID, indipendentemente dalla lunghezza dello storico.
+     */
+    static final class LoanPartition {
+        static final LoanPartition EMPTY = new LoanPartition(PersistentSortedMap.empty(), PersistentSortedMap.empty());
+
+        private final PersistentSortedMap<Integer, Loan> active;
+        private final PersistentSortedMap<Integer, Loan> returned;
+
+        private LoanPartition(PersistentSortedMap<Integer, Loan> active, PersistentSortedMap<Integer, Loan> returned) {
+            this.active = active;
+            this.returned = returned;
+        }
+
+        LoanPartition plus(Loan loan) {
+            Integer id = loan.getLoanId();
+            if (Boolean.TRUE.equals(loan.getStatus())) {
+                return active.get(id) != null ? this : new LoanPartition(active.plus(id, loan), returned);
+            }
+            return returned.get(id) != null ? this : new LoanPartition(active, returned.plus(id, loan));
+        }
+
+        LoanPartition minus(Loan loan) {
+            Integer id = loan.getLoanId();
+            PersistentSortedMap<Integer, Loan> a = active.minus(id);
+            if (a != active) {
+                return new LoanPartition(a, returned);
+            }
+            PersistentSortedMap<Integer, Loan> r = returned.minus(id);
+            return r != returned ? new LoanPartition(active, r) : this;
+        }
+
+        /**
+         * @brief Sposta un prestito nella parte corrispondente al suo stato attuale.
+         */
+        LoanPartition moved(Loan loan, boolean wasActive) {
+            Integer id = loan.getLoanId();
+            PersistentSortedMap<Integer, Loan> from = wasActive ? active : returned;
+            PersistentSortedMap<Integer, Loan> remaining = from.minus(id);
+            if (remaining == from) {
+                return this;
+            }
+            LoanPartition detached = wasActive
+                    ? new LoanPartition(remaining, returned)
+                    : new LoanPartition(active, remaining);
+            return detached.plus(loan);
+        }
+
+        boolean isEmpty() {
+            return active.size() == 0 && returned.size() == 0;
+        }
+
+        int countActive() {
+            return active.size();
+        }
+
+        /**
+         * @brief Restituisce i prestiti attivi in ordine di ID.
+         */
+        List<Loan> active() {
+            return active.values();
+        }
+
+        /**
+         * @brief Restituisce i prestiti restituiti in ordine di ID.
+         */
+        List<Loan> returned() {
+            return returned.values();
+        }
+
+        /**
+         * @brief Restituisce tutti i prestiti della partizione in ordine di ID.
+         *
+         * Le due parti sono già ordinate: basta fonderle.
+         */
+        List<Loan> all() {
+            List<Loan> a = active.values();
+            List<Loan> r = returned.values();
+            List<Loan> result = new ArrayList<>(a.size() + r.size());
+            int i = 0;
+            int j = 0;
+            while (i < a.size() && j < r.size()) {
+                result.add(a.get(i).getLoanId() <= r.get(j).getLoanId() ? a.get(i++) : r.get(j++));
+            }
+            result.addAll(a.subList(i, a.size()));
+            result.addAll(r.subList(j, r.size()));
+            return result;
+        }
+    }
+
+    /**
+     * @brief Chiave dell'indice per scadenza: giorno di scadenza (assente = in fondo) e poi ID.
+     */
+    static final class DueKey implements Comparable<DueKey> {
+        final int dueDay;  ///< Giorni dall'epoca, oppure Loan.NO_DATE
+        final int loanId;
+
+        DueKey(int dueDay, int loanId) {
+            this.dueDay = dueDay;
+            this.loanId = loanId;
+        }
+
+        DueKey(LocalDate dueDate, int loanId) {
+            this(Loan.toDay(dueDate), loanId);
+        }
+
+        static DueKey of(Loan loan) {
+            return new DueKey(loan.getDueDay(), loan.getLoanId());
+        }
+
+        @Override
+        public int compareTo(DueKey other) {
+            if (dueDay != other.dueDay) {
+                if (dueDay == Loan.NO_DATE || other.dueDay == Loan.NO_DATE) {
+                    return dueDay == Loan.NO_DATE ? 1 : -1;
+                }
+                return Integer.compare(dueDay, other.dueDay);
+            }
+            return Integer.compare(loanId, other.loanId);
+        }
+    }
+}
@@ -1,13 +1,26 @@
 /**
  * @file Book.java
  * @brief Rappresenta un libro nel catalogo della biblioteca.
+ *
+ * I campi modificabili sono raccolti in un Book.State immutabile, che i
+ * setter sostituiscono: l'archivio registra in ogni sua versione lo stato
+ * di ciascun libro (ArchiveSnapshot.stateOf()). Per un libro catalogato
+ * il nuovo stato viene calcolato dall'archivio sotto il proprio lock, così
+ * modifiche concorrenti (es. due prestiti dello stesso libro) non si
+ * sovrascrivono. La forma serializzata resta quella originale.
  */
 package swe.group04.libraryms.models;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 /**
  * @brief Modello di dominio per un libro.
@@ -21,14 +34,128 @@ import java.util.Objects;
  */
 public class Book implements Serializable {
 
+    /**
+     * Versione di serializzazione fissata al valore calcolato sulla forma
+     * originale della classe, per continuare a leggere gli archivi già salvati.
+     */
+    private static final long serialVersionUID = -2627016844474036336L;
+
+    /**
+     * Campi della forma serializzata originale, scritti e letti da
+     * writeObject() e readObject() a partire dallo stato corrente.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("title", String.class),
+        new ObjectStreamField("authors", List.class),
+        new ObjectStreamField("releaseYear", int.class),
+        new ObjectStreamField("isbn", String.class),
+        new ObjectStreamField("totalCopies", int.class),
+        new ObjectStreamField("availableCopies", int.class)
+    };
+
+    /**
+     * @brief Stato immutabile di un libro in un dato istante.
+     *
+     * Ogni modifica del libro crea un nuovo stato; quello registrato in una
+     * versione dell'archivio non cambia più.
+     */
+    public static final class State {
+        final Book book;            ///< Libro a cui appartiene lo stato
+        final String title;
+        final List<String> authors; ///< Lista non modificabile
+        final int releaseYear;
+        final int totalCopies;
+        final int availableCopies;
+
+        State(Book book, String title, List<String> authors, int releaseYear, int totalCopies, int availableCopies) {
+            this.book = book;
+            this.title = title;
+            this.authors = authors;
+            this.releaseYear = releaseYear;
+            this.totalCopies = totalCopies;
+            this.availableCopies = availableCopies;
+        }
+
+        /**
+         * @brief Restituisce il titolo del libro.
+         *
+         * @return Titolo del libro.
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @brief Restituisce la lista degli autori.
+         *
+         * @return Copia della lista degli autori.
+         */
+        public List<String> getAuthors() {
+            return new ArrayList<>(authors);
+        }
+
+        /**
+         * @brief Restituisce l'anno di pubblicazione.
+         *
+         * @return Anno di pubblicazione.
+         */
+        public int getReleaseYear() {
+            return releaseYear;
+        }
+
+        /**
+         * @brief Restituisce il numero totale di copie.
+         *
+         * @return Numero totale di copie.
+         */
+        public int getTotalCopies() {
+            return totalCopies;
+        }
+
+        /**
+         * @brief Restituisce il numero di copie disponibili.
+         *
+         * @return Numero di copie disponibili.
+         */
+        public int getAvailableCopies() {
+            return availableCopies;
+        }
+
+        State withAvailableCopies(int availableCopies) {
+            return new State(book, title, authors, releaseYear, totalCopies, availableCopies);
+        }
+
+        /**
+         * @brief Restituisce lo stato con le copie disponibili variate di delta.
+         *
+         * @param delta Variazione delle copie disponibili.
+         * @return Nuovo stato.
+         *
+         * @throws IllegalStateException Se le copie disponibili uscirebbero
+         *                               dall'intervallo [0, totalCopies].
+         */
+        State withCopiesAdjusted(int delta) {
+            int available = availableCopies + delta;
+            if (delta < 0 && available < 0) {
+                throw new IllegalStateException(
+                        "Impossibile decrementare le copie disponibili: il valore è già 0."
+                );
+            }
+            if (delta > 0 && available > totalCopies) {
+                throw new IllegalStateException(
+                        "Impossibile incrementare le copie disponibili: ha già raggiunto il numero totale di copie."
+                );
+            }
+            return withAvailableCopies(available);
+        }
+    }
+
     /// Spazio degli Attributi
-  
-    private String title;
-    private List<String> authors;
-    private int releaseYear;
-    private final String isbn; ///< Attributo identificativo => Non modificabile
-    private int totalCopies;
-    private int availableCopies;
+
+    private String isbn; ///< Attributo identificativo => Non modificabile (assegnato solo alla creazione o alla lettura)
+    private transient volatile State state; ///< Valori correnti dei campi modificabili
+
+    private transient volatile LibraryArchive archive; ///< Archivio che cataloga il libro (null se non registrato)
 
     /**
     * @brief Crea un nuovo libro con le informazioni specificate.
@@ -53,12 +180,9 @@ public class Book implements Serializable {
     * @post getAvailableCopies() == totalCopies
     */
     public Book(String title, List<String> authors, int releaseYear, String isbn, int totalCopies) {
-        this.title = title;
-        this.authors = new ArrayList<>(authors);
-        this.releaseYear = releaseYear;
         this.isbn = isbn;
-        this.totalCopies = totalCopies;
-        availableCopies = totalCopies; ///< Al momento della creazione, non ci sono prestiti attivi
+        this.state = new State(this, title, copyOf(authors), releaseYear, totalCopies,
+                totalCopies); ///< Al momento della creazione, non ci sono prestiti attivi
     }
    
     /**
@@ -67,7 +191,7 @@ public class Book implements Serializable {
      * @return Titolo del libro.
      */
     public String getTitle() { 
-        return title; 
+        return state.title; 
     }
     
     /**
@@ -76,7 +200,7 @@ public class Book implements Serializable {
      * @return Copia della lista degli autori.
      */
     public List<String> getAuthors() { 
-        return new ArrayList<>(authors); 
+        return new ArrayList<>(state.authors); 
     }
     
     /**
@@ -85,7 +209,7 @@ public class Book implements Serializable {
      * @return Anno di pubblicazione.
      */
     public int getReleaseYear() { 
-        return releaseYear; 
+        return state.releaseYear; 
     }
     
     /**
@@ -103,7 +227,7 @@ public class Book implements Serializable {
      * @return Numero totale di copie (>= 0).
      */
     public int getTotalCopies() { 
-        return totalCopies; 
+        return state.totalCopies; 
     }
     
     /**
@@ -112,7 +236,16 @@ public class Book implements Serializable {
      * @return Numero di copie attualmente disponibili (>= 0).
      */
     public int getAvailableCopies() { 
-        return availableCopies; 
+        return state.availableCopies; 
+    }
+
+    /**
+     * @brief Restituisce i valori correnti del libro.
+     *
+     * @return Stato immutabile corrente.
+     */
+    public State getState() {
+        return state;
     }
     
     /**
@@ -121,7 +254,7 @@ public class Book implements Serializable {
      * @param title Nuovo titolo.
      */
     public void setTitle(String title) { 
-        this.title = title; 
+        update(s -> new State(s.book, title, s.authors, s.releaseYear, s.totalCopies, s.availableCopies));
     }
     
     /**
@@ -130,7 +263,8 @@ public class Book implements Serializable {
      * @param authors Nuova lista di autori.
      */
     public void setAuthors(List<String> authors) { 
-        this.authors = new ArrayList<>(authors); 
+        List<String> copy = copyOf(authors);
+        update(s -> new State(s.book, s.title, copy, s.releaseYear, s.totalCopies, s.availableCopies));
     }
     
     /**
@@ -139,7 +273,7 @@ public class Book implements Serializable {
      * @param releaseYear Nuovo anno di pubblicazione.
      */
     public void setReleaseYear(int releaseYear) { 
-        this.releaseYear = releaseYear; 
+        update(s -> new State(s.book, s.title, s.authors, releaseYear, s.totalCopies, s.availableCopies));
     }
     
     /**
@@ -148,7 +282,7 @@ public class Book implements Serializable {
      * @param totalCopies Nuovo numero totale di copie (>= 0).
      */
     public void setTotalCopies(int totalCopies) {
-        this.totalCopies = totalCopies; 
+        update(s -> new State(s.book, s.title, s.authors, s.releaseYear, totalCopies, s.availableCopies));
     }
     
     /**
@@ -157,7 +291,7 @@ public class Book implements Serializable {
      * @param availableCopies Nuovo numero di copie disponibili (>= 0).
      */
     public void setAvailableCopies(int availableCopies) { 
-        this.availableCopies = availableCopies; 
+        update(s -> s.withAvailableCopies(availableCopies));
     }
     
     /**
@@ -166,7 +300,7 @@ public class Book implements Serializable {
      * @return true se esiste almeno una copia disponibile, false altrimenti.
      */
     public boolean hasAvailableCopies() {
-        return availableCopies > 0;
+        return state.availableCopies > 0;
     }
 
     /**
@@ -182,13 +316,7 @@ public class Book implements Serializable {
      *                               (availableCopies <= 0).
      */
     public void decrementAvailableCopies() {
-        if (this.availableCopies <= 0) {
-            throw new IllegalStateException(
-                    "Impossibile decrementare le copie disponibili: il valore è già 0."
-            );
-        }
-
-        this.availableCopies--;
+        update(s -> s.withCopiesAdjusted(-1));
     }
 
     /**
@@ -204,13 +332,38 @@ public class Book implements Serializable {
      *                               di copie disponibili.
      */
     public void incrementAvailableCopies() {
-        if (this.availableCopies >= this.totalCopies) {
-            throw new IllegalStateException(
-                    "Impossibile incrementare le copie disponibili: ha già raggiunto il numero totale di copie."
-            );
-        }
+        update(s -> s.withCopiesAdjusted(1));
+    }
 
-        this.availableCopies++;
+    /**
+     * @brief Registra l'archivio che pubblica le modifiche del libro.
+     *
+     * Invocato dall'archivio sotto il proprio lock.
+     *
+     * @param archive Archivio che cataloga il libro (null per scollegarlo).
+     */
+    synchronized void setArchive(LibraryArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @brief Sostituisce lo stato corrente.
+     *
+     * Invocato dall'archivio sotto il proprio lock e quello del libro.
+     *
+     * @param state Nuovo stato.
+     */
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @brief Restituisce l'archivio che cataloga il libro.
+     *
+     * @return Archivio in cui il libro è registrato, oppure null.
+     */
+    LibraryArchive getArchive() {
+        return archive;
     }
 
     /**
@@ -257,13 +410,92 @@ public class Book implements Serializable {
      */
     @Override
     public String toString() {
+        State s = state;
         StringBuilder sb = new StringBuilder();
-        sb.append("Title: ").append(title).append("\n");
-        sb.append("Authors: ").append(authors).append("\n");
-        sb.append("ReleaseYear: ").append(releaseYear).append("\n");
+        sb.append("Title: ").append(s.title).append("\n");
+        sb.append("Authors: ").append(s.authors).append("\n");
+        sb.append("ReleaseYear: ").append(s.releaseYear).append("\n");
         sb.append("ISBN: ").append(isbn).append("\n");
-        sb.append("Total Copies: ").append(totalCopies).append("\n");
-        sb.append("Available Copies: ").append(availableCopies).append("\n");
+        sb.append("Total Copies: ").append(s.totalCopies).append("\n");
+        sb.append("Available Copies: ").append(s.availableCopies).append("\n");
         return sb.toString();
     }
+
+    /* ---------------------------------------------------------------------- */
+    /*                            Serializzazione                              */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Scrive il libro nella forma serializzata originale.
+     *
+     * @param out Stream di output.
+     * @throws IOException In caso di errore di scrittura.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        State s = state;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("title", s.title);
+        fields.put("authors", new ArrayList<>(s.authors));
+        fields.put("releaseYear", s.releaseYear);
+        fields.put("isbn", isbn);
+        fields.put("totalCopies", s.totalCopies);
+        fields.put("availableCopies", s.availableCopies);
+        out.writeFields();
+    }
+
+    /**
+     * @brief Legge il libro dalla forma serializzata originale.
+     *
+     * @param in Stream di input.
+     * @throws IOException            In caso di errore di lettura.
+     * @throws ClassNotFoundException Se una classe serializzata non è disponibile.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<String> authors = (List<String>) fields.get("authors", null);
+        isbn = (String) fields.get("isbn", null);
+        state = new State(this,
+                (String) fields.get("title", null),
+                authors != null ? copyOf(authors) : Collections.emptyList(),
+                fields.get("releaseYear", 0),
+                fields.get("totalCopies", 0),
+                fields.get("availableCopies", 0));
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Applica una modifica allo stato corrente.
+     *
+     * Un libro catalogato delega all'archivio, che calcola e pubblica il
+     * nuovo stato sotto il proprio lock; altrimenti lo stato viene sostituito
+     * sotto il lock del libro. Se nel frattempo il libro è stato aggiunto o
+     * rimosso dall'archivio si riprova.
+     *
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     */
+    private void update(UnaryOperator<State> change) {
+        while (true) {
+            LibraryArchive a = archive;
+            if (a != null) {
+                if (a.updateBook(this, change)) {
+                    return;
+                }
+            } else {
+                synchronized (this) {
+                    if (archive == null) {
+                        state = change.apply(state);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<String> copyOf(List<String> authors) {
+        return Collections.unmodifiableList(new ArrayList<>(authors));
+    }
 }
@@ -10,19 +10,45 @@
  * Questa classe funge da "aggregate root" per il modello di dominio
  * e fornisce metodi di utilità per aggiungere/rimuovere elementi e
  * effettuare ricerche basilari.
+ *
+ * Le ricerche per chiave (ISBN, matricola, ID prestito) usano indici hash
+ * mantenuti allineati dai metodi di inserimento e rimozione e ricostruiti
+ * alla deserializzazione: il costo non dipende dalla dimensione dell'archivio.
+ * Allo stesso modo i prestiti sono indicizzati per utente e per libro,
+ * separando attivi e restituiti: contare i prestiti attivi di un utente
+ * non dipende dalla lunghezza dello storico. I prestiti attivi sono
+ * inoltre ordinati per data di scadenza, così che prestiti in ritardo
+ * e in scadenza si ottengano come intervalli dell'indice. I prestiti
+ * registrati passano dall'archivio per cambi di stato, date e riferimenti.
+ *
+ * Liste e indici sono strutture persistenti raccolte in un ArchiveSnapshot
+ * immutabile, pubblicato tramite un unico riferimento volatile: ogni
+ * modifica costruisce una nuova versione, che condivide con la precedente
+ * le parti non toccate, e la rende visibile con una sola scrittura.
+ * Le letture non acquisiscono lock e vedono sempre una versione completa;
+ * le modifiche sono serializzate tra loro (metodi synchronized).
+ * I getter restituiscono quindi la versione corrente senza copiarla, e chi
+ * la sta percorrendo non vede le modifiche successive; snapshot() fornisce
+ * una versione coerente di tutte le collezioni insieme. Le modifiche di
+ * libri, utenti e prestiti registrati sono eseguite dall'archivio sotto lo
+ * stesso lock: il nuovo stato immutabile viene calcolato da quello corrente
+ * e pubblicato insieme agli indici (ArchiveSnapshot.stateOf()). Operazioni
+ * composte come registerLoan() e returnLoan() pubblicano un'unica versione.
  */
 package swe.group04.libraryms.models;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import swe.group04.libraryms.models.ArchiveSnapshot.DueKey;
+import swe.group04.libraryms.models.ArchiveSnapshot.LoanPartition;
 
 /**
  * @brief Archivio contenente i dati principali del sistema (libri, utenti, prestiti).
@@ -34,22 +60,36 @@ import java.util.List;
  *
  * Rappresenta il punto di accesso principale ai dati della biblioteca.
  *
- * @invariant books != null
- * @invariant users != null
- * @invariant loans != null
+ * @invariant state != null
  * @invariant nextLoanId > 0
  */
 public class LibraryArchive implements Serializable {
 
     /**
-     * Collezioni osservabili.
-     * Marcate come transient per gestire manualmente la serializzazione.
+     * Versione di serializzazione fissata al valore calcolato sulla forma
+     * originale della classe, per continuare a leggere gli archivi già salvati.
+     */
+    private static final long serialVersionUID = 459760692922764483L;
+
+    /**
+     * Versione corrente di liste e indici, sostituita ad ogni modifica.
+     * Marcata come transient per gestire manualmente la serializzazione:
+     * gli indici vengono ricostruiti alla deserializzazione e, a parità di
+     * chiave, indicizzano il primo elemento della lista, come la ricerca
+     * lineare che sostituiscono.
      */
-    private transient ObservableList<Book> books;
-    private transient ObservableList<User> users;
-    private transient ObservableList<Loan> loans;
+    private transient volatile ArchiveSnapshot state;
 
-    private int nextLoanId = 1;
+    private volatile int nextLoanId = 1;
+
+    /**
+     * Posizione di ogni utente e libro nelle liste della versione corrente,
+     * usata per le righe aggiunte alla vista a colonne dei prestiti.
+     * Costruite alla prima necessità, accedute solo sotto il lock
+     * dell'archivio e scartate quando una rimozione sposta le posizioni.
+     */
+    private transient Map<User, Integer> userPositions;
+    private transient Map<Book, Integer> bookPositions;
 
     /**
      * @brief Crea un archivio vuoto.
@@ -59,40 +99,56 @@ public class LibraryArchive implements Serializable {
      * @post getLoans().isEmpty()
      */
     public LibraryArchive() {
-        this.books = FXCollections.observableArrayList();
-        this.users = FXCollections.observableArrayList();
-        this.loans = FXCollections.observableArrayList();
+        this.state = ArchiveSnapshot.EMPTY;
+    }
+
+    /**
+     * @brief Restituisce la versione corrente dell'archivio.
+     *
+     * La versione è immutabile: libri, utenti, prestiti e indici restano
+     * quelli del momento della chiamata anche se l'archivio viene
+     * modificato, senza bloccare chi lo modifica.
+     *
+     * @return Versione corrente (mai null).
+     */
+    public ArchiveSnapshot snapshot() {
+        return state;
     }
     
     /**
      * @brief Restituisce i libri gestiti dall'archivio.
      *
-     * Viene restituita una **copia** della lista interna, in modo da preservare
-     * l'incapsulamento: modificare la lista restituita non modifica lo stato
-     * dell'archivio.
+     * Viene restituita la versione corrente della lista interna, senza
+     * copiarla: la lista è immutabile (i metodi di modifica lanciano
+     * UnsupportedOperationException) e non cambia se in seguito l'archivio
+     * viene modificato.
      *
-     * @return Copia della lista dei libri attualmente presenti in archivio.
+     * @return Lista immutabile dei libri attualmente presenti in archivio.
      */
     public List<Book> getBooks() {
-        return new ArrayList<>(books);
+        return state.getBooks();
     }
 
     /**
      * @brief Restituisce la lista completa degli utenti.
      *
-     * @return Lista degli utenti registrati.
+     * Come getBooks(), la lista è immutabile e non viene copiata.
+     *
+     * @return Lista immutabile degli utenti registrati.
      */
     public List<User> getUsers() {
-        return new ArrayList<>(users);
+        return state.getUsers();
     }
     
     /**
      * @brief Restituisce la lista completa dei prestiti.
      *
-     * @return Lista di tutti i prestiti registrati.
+     * Come getBooks(), la lista è immutabile e non viene copiata.
+     *
+     * @return Lista immutabile di tutti i prestiti registrati.
      */
     public List<Loan> getLoans() {
-        return new ArrayList<>(loans);
+        return state.getLoans();
     }
 
     /**
@@ -103,8 +159,16 @@ public class LibraryArchive implements Serializable {
      *
      * @param book [in] Libro da inserire.
      */
-    public void addBook(Book book) {
-        books.add(book);
+    public synchronized void addBook(Book book) {
+        ArchiveSnapshot s = state;
+        book.setArchive(this);
+        if (bookPositions != null) {
+            bookPositions.putIfAbsent(book, s.books.size());
+        }
+        LoanColumns columns = s.cachedLoanColumns();
+        state = s.withBooks(s.books.plus(book), s.booksByIsbn.plusIfAbsent(book.getIsbn(), book.getState()),
+                s.booksVersion + 1,
+                columns == null ? null : columns.withCounts(s.users.size(), s.books.size() + 1));
     }
     
     /**
@@ -115,8 +179,42 @@ public class LibraryArchive implements Serializable {
      *
      * @param book [in] Libro da rimuovere.
      */
-    public void removeBook(Book book) {
-        books.remove(book);
+    public synchronized void removeBook(Book book) {
+        ArchiveSnapshot s = state;
+        int i = s.books.indexOf(book);
+        if (i >= 0) {
+            Book removed = s.books.get(i);
+            PersistentVector<Book> remaining = s.books.minus(i);
+            PersistentHashMap<String, Book.State> byIsbn = s.booksByIsbn.minus(book.getIsbn());
+            //  Un eventuale duplicato con lo stesso ISBN torna ad essere indicizzato
+            for (Book other : remaining) {
+                if (other.equals(book)) {
+                    byIsbn = byIsbn.plus(other.getIsbn(), other.getState());
+                    break;
+                }
+            }
+            int replacement = indexOfInstance(remaining, removed);
+            if (replacement < 0 && removed.getArchive() == this) {
+                removed.setArchive(null);
+            }
+            bookPositions = null;
+            LoanColumns columns = s.cachedLoanColumns();
+            state = s.withBooks(remaining, byIsbn, s.booksVersion + 1,
+                    columns == null ? null : columns.withoutBook(i, replacement < 0 ? LoanColumns.NO_ORDINAL : replacement));
+        }
+    }
+
+    /**
+     * @brief Restituisce il contatore delle modifiche al catalogo.
+     *
+     * Il valore aumenta di uno ad ogni inserimento o rimozione di un libro:
+     * i servizi che mantengono indici derivati dal catalogo lo usano per
+     * accorgersi di modifiche non eseguite tramite loro.
+     *
+     * @return Numero di inserimenti e rimozioni di libri dalla creazione dell'archivio.
+     */
+    public long getBooksVersion() {
+        return state.getBooksVersion();
     }
 
     /**
@@ -126,13 +224,7 @@ public class LibraryArchive implements Serializable {
      * @return Il libro corrispondente oppure null se non trovato.
      */
     public Book findBookByIsbn(String isbn) {
-        if (isbn == null) { return null; }
-        for (Book book : books) {
-            if (book.getIsbn().equals(isbn)) {
-                return book;
-            }
-        }
-        return null;
+        return state.findBookByIsbn(isbn);
     }
 
     /**
@@ -143,8 +235,16 @@ public class LibraryArchive implements Serializable {
      *
      * @param user [in] Utente da aggiungere.
      */
-    public void addUser(User user) {
-        users.add(user);
+    public synchronized void addUser(User user) {
+        ArchiveSnapshot s = state;
+        user.setArchive(this);
+        if (userPositions != null) {
+            userPositions.putIfAbsent(user, s.users.size());
+        }
+        LoanColumns columns = s.cachedLoanColumns();
+        state = s.withUsers(s.users.plus(user), s.usersByCode.plusIfAbsent(user.getCode(), user.getState()),
+                s.usersVersion + 1,
+                columns == null ? null : columns.withCounts(s.users.size() + 1, s.books.size()));
     }
     
     /**
@@ -155,8 +255,39 @@ public class LibraryArchive implements Serializable {
      *
      * @param user [in] Utente da rimuovere.
      */
-    public void removeUser(User user) {
-        users.remove(user);
+    public synchronized void removeUser(User user) {
+        ArchiveSnapshot s = state;
+        int i = s.users.indexOf(user);
+        if (i >= 0) {
+            User removed = s.users.get(i);
+            PersistentVector<User> remaining = s.users.minus(i);
+            PersistentHashMap<String, User.State> byCode = s.usersByCode.minus(user.getCode());
+            for (User other : remaining) {
+                if (other.equals(user)) {
+                    byCode = byCode.plus(other.getCode(), other.getState());
+                    break;
+                }
+            }
+            int replacement = indexOfInstance(remaining, removed);
+            if (replacement < 0 && removed.getArchive() == this) {
+                removed.setArchive(null);
+            }
+            userPositions = null;
+            LoanColumns columns = s.cachedLoanColumns();
+            state = s.withUsers(remaining, byCode, s.usersVersion + 1,
+                    columns == null ? null : columns.withoutUser(i, replacement < 0 ? LoanColumns.NO_ORDINAL : replacement));
+        }
+    }
+
+    /**
+     * @brief Restituisce il contatore delle modifiche al registro utenti.
+     *
+     * @return Numero di inserimenti e rimozioni di utenti dalla creazione dell'archivio.
+     *
+     * @see getBooksVersion()
+     */
+    public long getUsersVersion() {
+        return state.getUsersVersion();
     }
 
     /**
@@ -166,13 +297,7 @@ public class LibraryArchive implements Serializable {
      * @return L'utente corrispondente oppure null se non esiste.
      */
     public User findUserByCode(String code) {
-        if (code == null ) { return null; }
-        for (User user : users) {
-            if (user.getCode().equals(code)) {
-                return user;
-            }
-        }
-        return null;
+        return state.findUserByCode(code);
     }
 
      /**
@@ -180,10 +305,39 @@ public class LibraryArchive implements Serializable {
      *
      * @return Numero intero incrementale da usare come ID prestito.
      */
-    public int generateLoanId() {
+    public synchronized int generateLoanId() {
         return nextLoanId++;
     }
-    
+
+    /**
+     * @brief Restituisce il prossimo ID che verrà assegnato a un prestito.
+     *
+     * @return Valore corrente del generatore di ID.
+     */
+    public int getNextLoanId() {
+        return nextLoanId;
+    }
+
+    /**
+     * @brief Imposta il prossimo ID da assegnare a un prestito.
+     *
+     * Usato durante il ripristino dell'archivio da un formato che
+     * memorizza esplicitamente lo stato del generatore.
+     *
+     * @pre  nextLoanId > 0
+     * @post getNextLoanId() == nextLoanId
+     *
+     * @param nextLoanId [in] Nuovo valore del generatore di ID.
+     *
+     * @throws IllegalArgumentException Se nextLoanId non è positivo.
+     */
+    public synchronized void setNextLoanId(int nextLoanId) {
+        if (nextLoanId <= 0) {
+            throw new IllegalArgumentException("Il prossimo ID prestito deve essere positivo.");
+        }
+        this.nextLoanId = nextLoanId;
+    }
+
     /**
      * @brief Aggiunge un prestito all'archivio.
      *
@@ -191,13 +345,37 @@ public class LibraryArchive implements Serializable {
      * @post loans.contains(loan)
      *
      */
-    public Loan addLoan(User user, Book book, LocalDate dueDate) {
+    public synchronized Loan addLoan(User user, Book book, LocalDate dueDate) {
         int id = generateLoanId(); ///< Generazione ID Univoco
         Loan loan = new Loan(id, user, book, LocalDate.now(), dueDate, true); ///< Istanzia nuovo prestito
-        loans.add(loan);
+        LoanEdit edit = new LoanEdit(state);
+        edit.add(loan);
+        edit.publish(true);
         return loan;
     }
 
+    /**
+     * @brief Reinserisce nell'archivio un prestito già esistente, mantenendone l'ID.
+     *
+     * Usato durante il ripristino dell'archivio (es. replay del journal):
+     * il generatore di ID viene portato oltre l'ID del prestito ripristinato,
+     * così che i prestiti successivi non collidano.
+     *
+     * @pre  loan != null
+     * @post loans.contains(loan)
+     * @post nextLoanId > loan.getLoanId()
+     *
+     * @param loan [in] Prestito da reinserire.
+     */
+    public synchronized void restoreLoan(Loan loan) {
+        LoanEdit edit = new LoanEdit(state);
+        edit.add(loan);
+        edit.publish(true);
+        if (loan.getLoanId() >= nextLoanId) {
+            nextLoanId = loan.getLoanId() + 1;
+        }
+    }
+
     /**
      * @brief Rimuove un prestito dall'archivio.
      *
@@ -206,10 +384,139 @@ public class LibraryArchive implements Serializable {
      *
      * @param loan [in] Prestito da rimuovere.
      */
-    public void removeLoan(Loan loan) {
-        loans.remove(loan);
+    public synchronized void removeLoan(Loan loan) {
+        LoanEdit edit = new LoanEdit(state);
+        int i = edit.loans.indexOf(loan);
+        if (i >= 0) {
+            Loan removed = edit.loans.get(i);
+            PersistentVector<Loan> remaining = edit.loans.minus(i);
+            edit.loans = remaining;
+            edit.byId = edit.byId.minus(loan.getLoanId());
+            edit.unindex(removed, removed.getUser(), removed.getBook());
+            if (indexOfInstance(remaining, removed) < 0 && removed.getArchive() == this) {
+                removed.setArchive(null);
+            }
+            edit.columns = null; ///< Le righe successive scalano: la vista va ricostruita
+            for (Loan other : remaining) {
+                if (other.equals(loan)) {
+                    edit.byId = edit.byId.plus(other.getLoanId(), other.getState());
+                    break;
+                }
+            }
+            edit.publish(true);
+        }
     }
     
+    /**
+     * @brief Registra un nuovo prestito e ne decrementa le copie disponibili.
+     *
+     * Creazione del prestito, aggiornamento degli indici e delle copie del
+     * libro avvengono sotto il lock dell'archivio e sono pubblicati in
+     * un'unica versione: chi legge non vede mai il prestito senza la copia
+     * decrementata, e due prestiti concorrenti dell'ultima copia non
+     * possono riuscire entrambi.
+     *
+     * @pre  user != null
+     * @pre  book != null
+     * @post loans.contains(loan)
+     * @post book.getAvailableCopies() == book.getAvailableCopies()@pre - 1
+     *
+     * @param user    [in] Utente che riceve il prestito.
+     * @param book    [in] Libro prestato.
+     * @param dueDate [in] Data di scadenza.
+     * @return Il prestito creato.
+     *
+     * @throws IllegalArgumentException Se user o book sono nulli, o book appartiene a un altro archivio.
+     * @throws IllegalStateException    Se il libro non ha copie disponibili.
+     */
+    public synchronized Loan registerLoan(User user, Book book, LocalDate dueDate) {
+        if (user == null || book == null) {
+            throw new IllegalArgumentException("Utente e libro del prestito non possono essere nulli.");
+        }
+        synchronized (book) {
+            requireOwned(book.getArchive());
+            Book.State copies = book.getState().withCopiesAdjusted(-1);
+            Loan loan = new Loan(generateLoanId(), user, book, LocalDate.now(), dueDate, true);
+            LoanEdit edit = new LoanEdit(state);
+            edit.add(loan);
+            edit.replace(book, copies);
+            edit.publish(true);
+            return loan;
+        }
+    }
+
+    /**
+     * @brief Registra la restituzione di un prestito e ne incrementa le copie disponibili.
+     *
+     * Data di restituzione, stato del prestito, indici e copie del libro
+     * vengono aggiornati sotto il lock dell'archivio e pubblicati in
+     * un'unica versione; se una verifica fallisce nulla viene modificato.
+     *
+     * @pre  loan != null
+     * @post !loan.isActive()
+     *
+     * @param loan       [in] Prestito da chiudere.
+     * @param returnDate [in] Data di restituzione.
+     *
+     * @throws IllegalArgumentException Se loan è nullo o appartiene a un altro archivio.
+     * @throws IllegalStateException    Se il prestito è già chiuso o il libro ha già tutte le copie disponibili.
+     */
+    public synchronized void returnLoan(Loan loan, LocalDate returnDate) {
+        if (loan == null) {
+            throw new IllegalArgumentException("Il prestito non può essere nullo.");
+        }
+        int returnDay = Loan.toDay(returnDate);
+        synchronized (loan) {
+            requireOwned(loan.getArchive());
+            Loan.State s = loan.getState();
+            if (!s.active) {
+                throw new IllegalStateException("Il prestito risulta già chiuso.");
+            }
+            LoanEdit edit = new LoanEdit(state);
+            if (s.book != null) {
+                synchronized (s.book) {
+                    requireOwned(s.book.getArchive());
+                    edit.replace(s.book, s.book.getState().withCopiesAdjusted(1));
+                }
+            }
+            edit.replace(loan, new Loan.State(s.loan, s.user, s.book, s.loanDay, s.dueDay, returnDay, false));
+            edit.publish(false);
+        }
+    }
+
+    /**
+     * @brief Varia le copie disponibili di un libro del catalogo.
+     *
+     * La verifica dei limiti e la modifica avvengono sotto il lock
+     * dell'archivio, in un'unica versione.
+     *
+     * @param book  [in] Libro da modificare.
+     * @param delta [in] Variazione delle copie disponibili.
+     *
+     * @throws IllegalArgumentException Se book è nullo o non appartiene all'archivio.
+     * @throws IllegalStateException    Se le copie disponibili uscirebbero da [0, totalCopies].
+     */
+    public synchronized void adjustCopies(Book book, int delta) {
+        if (book == null || !updateBook(book, s -> s.withCopiesAdjusted(delta))) {
+            throw new IllegalArgumentException("Il libro non appartiene all'archivio.");
+        }
+    }
+
+    /**
+     * @brief Restituisce il contatore delle modifiche ai prestiti.
+     *
+     * Oltre a inserimenti e rimozioni conta le modifiche alla data di
+     * apertura e alla data di scadenza dei prestiti registrati, che
+     * determinano gli ordinamenti mantenuti dai servizi.
+     *
+     * @return Numero di modifiche ai prestiti dalla creazione dell'archivio.
+     *
+     * @see getBooksVersion()
+     */
+    public long getLoansVersion() {
+        return state.getLoansVersion();
+    }
+
     /**
      * @brief Trova un prestito a partire dal suo ID numerico.
      *
@@ -217,59 +524,164 @@ public class LibraryArchive implements Serializable {
      * @return Il prestito corrispondente oppure null se non esiste.
      */
     public Loan findLoanById(int id) {
-        for (Loan loan : loans) {
-            if (loan.getLoanId() == id) {
-                return loan;
-            }
-        }
-        return null;
+        return state.findLoanById(id);
     }
     
     /**
      * @brief Restituisce tutti i prestiti effettuati da un determinato utente.
      *
      * @param user [in] Utente di cui cercare i prestiti.
-     * @return Lista dei prestiti appartenenti all'utente.
+     * @return Lista dei prestiti appartenenti all'utente, in ordine di ID.
      */
     public List<Loan> findLoansByUser(User user) {
-        List<Loan> result = new ArrayList<>();
-        for (Loan l : loans) {
-            if (l.getUser().equals(user)) {
-                result.add(l);
-            }
-        }
-        return result;
+        LoanPartition p = state.partitionOf(user);
+        return p == null ? new ArrayList<>() : p.all();
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi di un utente.
+     *
+     * @param user [in] Utente di cui cercare i prestiti.
+     * @return Lista dei prestiti attivi dell'utente, in ordine di ID.
+     */
+    public List<Loan> findActiveLoansByUser(User user) {
+        LoanPartition p = state.partitionOf(user);
+        return p == null ? new ArrayList<>() : p.active();
+    }
+
+    /**
+     * @brief Restituisce i prestiti già restituiti di un utente.
+     *
+     * @param user [in] Utente di cui cercare i prestiti.
+     * @return Lista dei prestiti restituiti dell'utente, in ordine di ID.
+     */
+    public List<Loan> findReturnedLoansByUser(User user) {
+        LoanPartition p = state.partitionOf(user);
+        return p == null ? new ArrayList<>() : p.returned();
+    }
+
+    /**
+     * @brief Conta i prestiti attivi di un utente in tempo costante.
+     *
+     * @param user [in] Utente di cui contare i prestiti.
+     * @return Numero di prestiti attivi dell'utente (0 se user è null).
+     */
+    public int countActiveLoansByUser(User user) {
+        LoanPartition p = state.partitionOf(user);
+        return p == null ? 0 : p.countActive();
     }
     
     /**
      * @brief Restituisce tutti i prestiti relativi a un determinato libro.
      *
      * @param book [in] Libro di cui cercare i prestiti.
-     * @return Lista dei prestiti associati al libro.
+     * @return Lista dei prestiti associati al libro, in ordine di ID.
      */
     public List<Loan> findLoansByBook(Book book) {
-        List<Loan> result = new ArrayList<>();
-        for (Loan l : loans) {
-            if (l.getBook().equals(book)) {
-                result.add(l);
-            }
-        }
-        return result;
+        LoanPartition p = state.partitionOf(book);
+        return p == null ? new ArrayList<>() : p.all();
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi di un libro.
+     *
+     * @param book [in] Libro di cui cercare i prestiti.
+     * @return Lista dei prestiti attivi del libro, in ordine di ID.
+     */
+    public List<Loan> findActiveLoansByBook(Book book) {
+        LoanPartition p = state.partitionOf(book);
+        return p == null ? new ArrayList<>() : p.active();
+    }
+
+    /**
+     * @brief Restituisce i prestiti già restituiti di un libro.
+     *
+     * @param book [in] Libro di cui cercare i prestiti.
+     * @return Lista dei prestiti restituiti del libro, in ordine di ID.
+     */
+    public List<Loan> findReturnedLoansByBook(Book book) {
+        LoanPartition p = state.partitionOf(book);
+        return p == null ? new ArrayList<>() : p.returned();
+    }
+
+    /**
+     * @brief Conta i prestiti attivi di un libro in tempo costante.
+     *
+     * @param book [in] Libro di cui contare i prestiti.
+     * @return Numero di prestiti attivi del libro (0 se book è null).
+     */
+    public int countActiveLoansByBook(Book book) {
+        LoanPartition p = state.partitionOf(book);
+        return p == null ? 0 : p.countActive();
     }
     
     /**
      * @brief Restituisce la lista dei prestiti attualmente attivi.
      *
-     * @return Lista dei prestiti per i quali non è ancora registrata la restituzione.
+     * @return Lista dei prestiti per i quali non è ancora registrata la restituzione,
+     *         ordinata per data di scadenza (scadenze nulle in fondo) e poi per ID.
      */
     public List<Loan> getActiveLoans() {
-        List<Loan> result = new ArrayList<>();
-        for (Loan l : loans) {
-            if (l.isActive()) {
-                result.add(l);
-            }
+        return state.getActiveLoans();
+    }
+
+    /**
+     * @brief Restituisce il numero di prestiti attivi.
+     *
+     * @return Numero di prestiti attivi.
+     */
+    public int countActiveLoans() {
+        return state.countActiveLoans();
+    }
+
+    /**
+     * @brief Restituisce i prestiti copiati per colonne, per statistiche e report.
+     *
+     * @return Vista a colonne dei prestiti della versione corrente.
+     */
+    public LoanColumns getLoanColumns() {
+        return state.getLoanColumns();
+    }
+
+    /**
+     * @brief Verifica se un prestito è attivo, a partire dal suo ID.
+     *
+     * @param id [in] Identificativo del prestito.
+     * @return true se esiste un prestito attivo con quell'ID.
+     */
+    public boolean isLoanActive(int id) {
+        return state.isLoanActive(id);
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi scaduti prima di una data.
+     *
+     * @param date [in] Data di riferimento (tipicamente oggi).
+     * @return Prestiti attivi con scadenza precedente a date, ordinati per scadenza.
+     *
+     * @throws IllegalArgumentException Se date è nulla.
+     */
+    public List<Loan> getOverdueLoans(LocalDate date) {
+        if (date == null) {
+            throw new IllegalArgumentException("La data di riferimento non può essere nulla.");
         }
-        return result;
+        return state.activeDueBefore(date);
+    }
+
+    /**
+     * @brief Restituisce i prestiti attivi in scadenza in un intervallo di date.
+     *
+     * @param from [in] Prima data dell'intervallo (inclusa).
+     * @param to   [in] Ultima data dell'intervallo (inclusa).
+     * @return Prestiti attivi con scadenza in [from, to], ordinati per scadenza.
+     *
+     * @throws IllegalArgumentException Se una delle date è nulla o from è successiva a to.
+     */
+    public List<Loan> getLoansDueBetween(LocalDate from, LocalDate to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            throw new IllegalArgumentException("Intervallo di date non valido.");
+        }
+        return state.activeDueBetween(from, to);
     }
     
     /**
@@ -279,7 +691,7 @@ public class LibraryArchive implements Serializable {
      */
     public List<Loan> getReturnedLoans() {
         List<Loan> result = new ArrayList<>();
-        for (Loan l : loans) {
+        for (Loan l : state.loans) {
             if (!l.isActive()) {
                 result.add(l);
             }
@@ -290,26 +702,29 @@ public class LibraryArchive implements Serializable {
     /**
      * @brief Serializzazione personalizzata dell'oggetto LibraryArchive.
      *
-     * Poiché le liste interne sono ObservableList (non serializzabili),
-     * le serializziamo come semplici ArrayList e le ricostruiamo alla lettura.
+     * Le liste interne vengono serializzate come semplici ArrayList, lo
+     * stesso formato usato dalle versioni precedenti dell'archivio, e
+     * ricostruite alla lettura.
      *
      * @param out stream di output usato per la serializzazione.
      * @throws IOException in caso di errori di I/O.
      */
-    private void writeObject(ObjectOutputStream out) throws IOException {
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        ArchiveSnapshot s = state;
+
         /// Serializzazione standard degli oggetti default (nextLoanID)
         out.defaultWriteObject();
 
         /// Serializzazione del contenuto delle liste come ArrayList "semplici"
-        out.writeObject(new ArrayList<>(books));
-        out.writeObject(new ArrayList<>(users));
-        out.writeObject(new ArrayList<>(loans));
+        out.writeObject(new ArrayList<>(s.books));
+        out.writeObject(new ArrayList<>(s.users));
+        out.writeObject(new ArrayList<>(s.loans));
     }
 
     /**
      * @brief Deserializzazione personalizzata dell'oggetto LibraryArchive.
      *
-     * Ricostruisce le ObservableList a partire dalle liste serializzate.
+     * Ricostruisce le liste immutabili a partire dalle liste serializzate.
      *
      * @param in stream di input usato per la deserializzazione.
      * @throws IOException in caso di errori di I/O.
@@ -325,16 +740,419 @@ public class LibraryArchive implements Serializable {
         List<User> serializedUsers = (List<User>) in.readObject();
         List<Loan> serializedLoans = (List<Loan>) in.readObject();
 
-        /// Ricostruisce le ObservableList, gestendo eventuali null
-        this.books = FXCollections.observableArrayList(
-                serializedBooks != null ? serializedBooks : new ArrayList<>()
-        );
-        this.users = FXCollections.observableArrayList(
-                serializedUsers != null ? serializedUsers : new ArrayList<>()
-        );
-        this.loans = FXCollections.observableArrayList(
-                serializedLoans != null ? serializedLoans : new ArrayList<>()
-        );
+        /// Ricostruisce le liste immutabili, gestendo eventuali null
+        rebuildIndexes(
+                serializedBooks != null ? serializedBooks : new ArrayList<>(),
+                serializedUsers != null ? serializedUsers : new ArrayList<>(),
+                serializedLoans != null ? serializedLoans : new ArrayList<>());
     }
-}
 
+    /**
+     * @brief Ricostruisce liste e indici a partire dalle liste indicate.
+     *
+     * @post Ogni chiave presente nelle liste è indicizzata sul primo
+     *       elemento che la possiede.
+     */
+    private void rebuildIndexes(List<Book> books, List<User> users, List<Loan> loans) {
+        //  I prestiti attivi degli utenti vengono ricalcolati dai prestiti
+        for (User u : users) {
+            u.clearLoans();
+        }
+        for (Loan l : loans) {
+            if (l.getUser() != null) {
+                l.getUser().clearLoans();
+            }
+        }
+
+        PersistentHashMap<String, Book.State> booksByIsbn = PersistentHashMap.empty();
+        for (Book b : books) {
+            booksByIsbn = booksByIsbn.plusIfAbsent(b.getIsbn(), b.getState());
+            b.setArchive(this);
+        }
+        PersistentHashMap<String, User.State> usersByCode = PersistentHashMap.empty();
+        for (User u : users) {
+            usersByCode = usersByCode.plusIfAbsent(u.getCode(), u.getState());
+            u.setArchive(this);
+        }
+        ArchiveSnapshot s = ArchiveSnapshot.EMPTY
+                .withBooks(PersistentVector.copyOf(books), booksByIsbn, 0, null)
+                .withUsers(PersistentVector.copyOf(users), usersByCode, 0, null);
+        userPositions = null;
+        bookPositions = null;
+
+        LoanEdit edit = new LoanEdit(s);
+        for (Loan l : loans) {
+            edit.add(l);
+        }
+        state = edit.snapshot(0);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Modifica degli indici dei prestiti                  */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Copia di lavoro delle strutture dei prestiti.
+     *
+     * Parte da una versione dell'archivio, accumula le modifiche sostituendo
+     * le strutture persistenti e le pubblica tutte insieme con publish(),
+     * insieme allo stato corrente dei prestiti, libri e utenti toccati.
+     * Va usata solo all'interno dei metodi synchronized dell'archivio.
+     */
+    private final class LoanEdit {
+        final ArchiveSnapshot base;
+        PersistentVector<Loan> loans;
+        PersistentIntMap<Loan.State> byId;
+        PersistentHashMap<String, LoanPartition> byUser;
+        PersistentHashMap<String, LoanPartition> byBook;
+        PersistentSortedMap<DueKey, Loan> byDueDate;
+        PersistentHashMap<String, Book.State> booksByIsbn;
+        PersistentHashMap<String, User.State> usersByCode;
+        LoanColumns columns; ///< Vista a colonne mantenuta, oppure null se non calcolata
+
+        LoanEdit(ArchiveSnapshot base) {
+            this.base = base;
+            this.loans = base.loans;
+            this.byId = base.loansById;
+            this.byUser = base.loansByUser;
+            this.byBook = base.loansByBook;
+            this.byDueDate = base.activeByDueDate;
+            this.booksByIsbn = base.booksByIsbn;
+            this.usersByCode = base.usersByCode;
+            this.columns = base.cachedLoanColumns();
+        }
+
+        /**
+         * @brief Accoda un prestito alla lista e lo inserisce negli indici.
+         */
+        void add(Loan loan) {
+            loans = loans.plus(loan);
+            byId = byId.plusIfAbsent(loan.getLoanId(), loan.getState());
+            index(loan);
+            if (columns != null) {
+                Loan.State s = loan.getState();
+                columns = columns.appended(loan.getLoanId(), userPosition(s.user), bookPosition(s.book), s);
+            }
+        }
+
+        /**
+         * @brief Inserisce un prestito negli indici per utente, per libro e per scadenza.
+         *
+         * Un prestito attivo viene aggiunto anche ai prestiti attivi dell'utente.
+         */
+        void index(Loan loan) {
+            loan.setArchive(LibraryArchive.this);
+            touch(loan);
+            if (Boolean.TRUE.equals(loan.getStatus())) {
+                activate(loan);
+                if (loan.getUser() != null) {
+                    touch(loan.getUser(), loan.getUser().attachLoan(loan));
+                }
+            }
+            if (loan.getUser() != null) {
+                byUser = plus(byUser, loan.getUser().getCode(), loan);
+            }
+            if (loan.getBook() != null) {
+                byBook = plus(byBook, loan.getBook().getIsbn(), loan);
+            }
+        }
+
+        /**
+         * @brief Rimuove un prestito dagli indici, usando i riferimenti indicati.
+         */
+        void unindex(Loan loan, User user, Book book) {
+            deactivate(loan);
+            if (user != null) {
+                touch(user, user.detachLoan(loan));
+                byUser = minus(byUser, user.getCode(), loan);
+            }
+            if (book != null) {
+                byBook = minus(byBook, book.getIsbn(), loan);
+            }
+        }
+
+        /**
+         * @brief Inserisce un prestito nell'indice dei prestiti attivi per scadenza.
+         */
+        void activate(Loan loan) {
+            byDueDate = byDueDate.plus(DueKey.of(loan), loan);
+        }
+
+        /**
+         * @brief Toglie un prestito dall'indice dei prestiti attivi per scadenza.
+         */
+        void deactivate(Loan loan) {
+            byDueDate = byDueDate.minus(DueKey.of(loan));
+        }
+
+        /**
+         * @brief Sostituisce lo stato di un prestito, aggiornando gli indici toccati.
+         *
+         * Un prestito non registrato in questo archivio riceve solo il nuovo stato.
+         *
+         * @return true se cambiano data di apertura o scadenza (modifica da contare).
+         */
+        boolean replace(Loan loan, Loan.State next) {
+            Loan.State previous = loan.getState();
+            if (loan.getArchive() != LibraryArchive.this) {
+                loan.setState(next);
+                return false;
+            }
+            boolean references = previous.user != next.user || previous.book != next.book;
+            boolean moved = previous.active != next.active;
+            if (references) {
+                unindex(loan, previous.user, previous.book);
+            } else if (previous.active && (moved || previous.dueDay != next.dueDay)) {
+                deactivate(loan);
+            }
+            loan.setState(next);
+            patchColumns(loan, next);
+            if (references) {
+                index(loan);
+            } else {
+                touch(loan);
+                if (next.active && (moved || previous.dueDay != next.dueDay)) {
+                    activate(loan);
+                }
+                if (moved && next.user != null) {
+                    User user = next.user;
+                    touch(user, next.active ? user.attachLoan(loan) : user.detachLoan(loan));
+                    byUser = LibraryArchive.moved(byUser, user.getCode(), loan, previous.active);
+                }
+                if (moved && next.book != null) {
+                    byBook = LibraryArchive.moved(byBook, next.book.getIsbn(), loan, previous.active);
+                }
+            }
+            return previous.loanDay != next.loanDay || previous.dueDay != next.dueDay;
+        }
+
+        /**
+         * @brief Aggiorna la riga di un prestito nella vista a colonne.
+         *
+         * Se la riga non si trova per ID la vista viene scartata, e sarà
+         * ricostruita alla prossima richiesta.
+         */
+        void patchColumns(Loan loan, Loan.State next) {
+            if (columns != null) {
+                int row = columns.rowOf(loan.getLoanId());
+                columns = row >= 0 && loans.get(row) == loan
+                        ? columns.patched(row, userPosition(next.user), bookPosition(next.book), next)
+                        : null;
+            }
+        }
+
+        /**
+         * @brief Sostituisce lo stato di un libro, registrandolo se appartiene all'archivio.
+         */
+        void replace(Book book, Book.State next) {
+            Book.State previous = book.getState();
+            book.setState(next);
+            if (booksByIsbn.get(book.getIsbn()) == previous) {
+                booksByIsbn = booksByIsbn.plus(book.getIsbn(), next);
+            }
+        }
+
+        /**
+         * @brief Registra lo stato corrente di un prestito, se è quello indicizzato per ID.
+         */
+        void touch(Loan loan) {
+            Loan.State indexed = byId.get(loan.getLoanId());
+            if (indexed != null && indexed.loan == loan) {
+                byId = byId.plus(loan.getLoanId(), loan.getState());
+            }
+        }
+
+        /**
+         * @brief Registra il nuovo stato di un utente, se è quello indicizzato per matricola.
+         */
+        void touch(User user, User.State userState) {
+            User.State indexed = usersByCode.get(user.getCode());
+            if (indexed != null && indexed.user == user) {
+                usersByCode = usersByCode.plus(user.getCode(), userState);
+            }
+        }
+
+        /**
+         * @brief Costruisce la nuova versione con le strutture modificate.
+         */
+        ArchiveSnapshot snapshot(long versionIncrement) {
+            return new ArchiveSnapshot(base.books, booksByIsbn, base.booksVersion,
+                    base.users, usersByCode, base.usersVersion,
+                    loans, byId, byUser, byBook, byDueDate, base.loansVersion + versionIncrement, columns);
+        }
+
+        /**
+         * @brief Pubblica la nuova versione dell'archivio.
+         *
+         * @param countAsChange true se la modifica va contata in getLoansVersion().
+         */
+        void publish(boolean countAsChange) {
+            state = snapshot(countAsChange ? 1 : 0);
+        }
+    }
+
+    /**
+     * @brief Verifica che un oggetto non appartenga a un altro archivio.
+     *
+     * @throws IllegalArgumentException Se owner è un archivio diverso da questo.
+     */
+    private void requireOwned(LibraryArchive owner) {
+        if (owner != null && owner != this) {
+            throw new IllegalArgumentException("L'oggetto appartiene a un altro archivio.");
+        }
+    }
+
+    /**
+     * @brief Restituisce la posizione di proprio l'oggetto indicato (non solo di uno uguale).
+     *
+     * @return Prima posizione dell'oggetto, oppure -1 se assente.
+     */
+    private static int indexOfInstance(List<?> list, Object element) {
+        int i = 0;
+        for (Object o : list) {
+            if (o == element) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @brief Restituisce la posizione di un utente nella versione corrente, per la vista a colonne.
+     *
+     * @return Prima posizione dell'utente in getUsers(), oppure LoanColumns.NO_ORDINAL.
+     */
+    private int userPosition(User user) {
+        if (user == null) {
+            return LoanColumns.NO_ORDINAL;
+        }
+        if (userPositions == null) {
+            userPositions = positionsOf(state.users);
+        }
+        return userPositions.getOrDefault(user, LoanColumns.NO_ORDINAL);
+    }
+
+    /**
+     * @brief Restituisce la posizione di un libro nella versione corrente, per la vista a colonne.
+     *
+     * @return Prima posizione del libro in getBooks(), oppure LoanColumns.NO_ORDINAL.
+     */
+    private int bookPosition(Book book) {
+        if (book == null) {
+            return LoanColumns.NO_ORDINAL;
+        }
+        if (bookPositions == null) {
+            bookPositions = positionsOf(state.books);
+        }
+        return bookPositions.getOrDefault(book, LoanColumns.NO_ORDINAL);
+    }
+
+    private static <T> Map<T, Integer> positionsOf(List<T> list) {
+        Map<T, Integer> positions = new IdentityHashMap<>(list.size());
+        int i = 0;
+        for (T element : list) {
+            positions.putIfAbsent(element, i++);
+        }
+        return positions;
+    }
+
+    private static PersistentHashMap<String, LoanPartition> plus(
+            PersistentHashMap<String, LoanPartition> index, String key, Loan loan) {
+        LoanPartition p = index.get(key);
+        return index.plus(key, (p != null ? p : LoanPartition.EMPTY).plus(loan));
+    }
+
+    private static PersistentHashMap<String, LoanPartition> minus(
+            PersistentHashMap<String, LoanPartition> index, String key, Loan loan) {
+        LoanPartition p = index.get(key);
+        if (p == null) {
+            return index;
+        }
+        LoanPartition updated = p.minus(loan);
+        return updated.isEmpty() ? index.minus(key) : index.plus(key, updated);
+    }
+
+    private static PersistentHashMap<String, LoanPartition> moved(
+            PersistentHashMap<String, LoanPartition> index, String key, Loan loan, boolean wasActive) {
+        LoanPartition p = index.get(key);
+        return p == null ? index : index.plus(key, p.moved(loan, wasActive));
+    }
+
+    /**
+     * @brief Applica una modifica a un prestito registrato e pubblica la nuova versione.
+     *
+     * Invocato dai setter di Loan: il nuovo stato è calcolato da quello
+     * corrente sotto il lock dell'archivio, e indici e versione vengono
+     * aggiornati in un'unica pubblicazione. Contano come modifica dei
+     * prestiti solo i cambi di data di apertura o di scadenza.
+     *
+     * @param loan   Prestito da modificare.
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     * @return false se il prestito non è (più) registrato in questo archivio.
+     */
+    synchronized boolean updateLoan(Loan loan, UnaryOperator<Loan.State> change) {
+        synchronized (loan) {
+            if (loan.getArchive() != this) {
+                return false;
+            }
+            LoanEdit edit = new LoanEdit(state);
+            edit.publish(edit.replace(loan, change.apply(loan.getState())));
+            return true;
+        }
+    }
+
+    /**
+     * @brief Applica una modifica a un libro del catalogo e pubblica la nuova versione.
+     *
+     * Invocato dai setter di Book; la nuova versione non conta come
+     * modifica del catalogo.
+     *
+     * @param book   Libro da modificare.
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     * @return false se il libro non è (più) catalogato in questo archivio.
+     */
+    synchronized boolean updateBook(Book book, UnaryOperator<Book.State> change) {
+        synchronized (book) {
+            if (book.getArchive() != this) {
+                return false;
+            }
+            Book.State previous = book.getState();
+            Book.State next = change.apply(previous);
+            book.setState(next);
+            ArchiveSnapshot s = state;
+            if (s.booksByIsbn.get(book.getIsbn()) == previous) {
+                state = s.withBooks(s.books, s.booksByIsbn.plus(book.getIsbn(), next), s.booksVersion,
+                        s.cachedLoanColumns());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @brief Applica una modifica a un utente registrato e pubblica la nuova versione.
+     *
+     * Invocato dai setter di User; la nuova versione non conta come
+     * modifica del registro utenti.
+     *
+     * @param user   Utente da modificare.
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     * @return false se l'utente non è (più) registrato in questo archivio.
+     */
+    synchronized boolean updateUser(User user, UnaryOperator<User.State> change) {
+        synchronized (user) {
+            if (user.getArchive() != this) {
+                return false;
+            }
+            User.State previous = user.getState();
+            User.State next = change.apply(previous);
+            user.setState(next);
+            ArchiveSnapshot s = state;
+            if (s.usersByCode.get(user.getCode()) == previous) {
+                state = s.withUsers(s.users, s.usersByCode.plus(user.getCode(), next), s.usersVersion,
+                        s.cachedLoanColumns());
+            }
+            return true;
+        }
+    }
+}
@@ -1,12 +1,34 @@
 /**
  * @file Loan.java
  * @brief Rappresenta un prestito di un libro a un utente.
+ *
+ * Le date sono conservate come giorni dall'epoca (int) e lo stato come
+ * boolean: i getter creano il LocalDate solo quando viene richiesto e i
+ * confronti tra date (es. ritardo) sono confronti tra interi. La forma
+ * serializzata resta quella originale (tre LocalDate e un Boolean), così
+ * gli archivi già salvati continuano a essere letti e viceversa.
+ *
+ * I campi modificabili sono raccolti in un Loan.State immutabile, che i
+ * setter sostituiscono: l'archivio registra in ogni sua versione lo stato
+ * di ciascun prestito, così chi legge una versione (ArchiveSnapshot.stateOf())
+ * non vede le modifiche successive. Per un prestito registrato il nuovo
+ * stato viene calcolato e pubblicato dall'archivio sotto il proprio lock,
+ * così due modifiche concorrenti non si sovrascrivono. Il prestito resta
+ * quindi composto da due oggetti (il Loan e il suo stato corrente): la
+ * separazione costa un'intestazione e un riferimento in più rispetto a un
+ * unico oggetto, ma resta molto meno dei LocalDate che sostituisce.
  */
 package swe.group04.libraryms.models;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 /**
  * @brief Modello di dominio per un prestito.
@@ -16,16 +38,117 @@ import java.util.Objects;
  */
 public class Loan implements Serializable {
 
+    /**
+     * Versione di serializzazione fissata al valore calcolato sulla forma
+     * originale della classe, per continuare a leggere gli archivi già salvati.
+     */
+    private static final long serialVersionUID = -5027267413375089857L;
+
+    /**
+     * Campi della forma serializzata originale, scritti e letti da
+     * writeObject() e readObject() a partire dalla rappresentazione interna.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("loanId", int.class),
+        new ObjectStreamField("user", User.class),
+        new ObjectStreamField("book", Book.class),
+        new ObjectStreamField("loanDate", LocalDate.class),
+        new ObjectStreamField("dueDate", LocalDate.class),
+        new ObjectStreamField("returnDate", LocalDate.class),
+        new ObjectStreamField("status", Boolean.class)
+    };
+
+    /**
+     * Valore dei campi di data per una data assente.
+     */
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    /**
+     * @brief Stato immutabile di un prestito in un dato istante.
+     *
+     * Ogni modifica del prestito crea un nuovo stato; quello registrato in
+     * una versione dell'archivio non cambia più.
+     */
+    public static final class State {
+        final Loan loan;      ///< Prestito a cui appartiene lo stato
+        final User user;      ///< Utente coinvolto
+        final Book book;      ///< Libro prestato
+        final int loanDay;    ///< Data del prestito (giorni dall'epoca, NO_DATE = assente)
+        final int dueDay;     ///< Data di scadenza prevista (giorni dall'epoca, NO_DATE = assente)
+        final int returnDay;  ///< Data restituzione effettiva (NO_DATE = non restituito)
+        final boolean active; ///< Stato del prestito (true = attivo)
+
+        State(Loan loan, User user, Book book, int loanDay, int dueDay, int returnDay, boolean active) {
+            this.loan = loan;
+            this.user = user;
+            this.book = book;
+            this.loanDay = loanDay;
+            this.dueDay = dueDay;
+            this.returnDay = returnDay;
+            this.active = active;
+        }
+
+        /**
+         * @brief Restituisce l'utente coinvolto nel prestito.
+         *
+         * @return Utente associato al prestito.
+         */
+        public User getUser() {
+            return user;
+        }
+
+        /**
+         * @brief Restituisce il libro prestato.
+         *
+         * @return Libro associato al prestito.
+         */
+        public Book getBook() {
+            return book;
+        }
+
+        /**
+         * @brief Restituisce la data di apertura del prestito.
+         *
+         * @return Data del prestito.
+         */
+        public LocalDate getLoanDate() {
+            return toDate(loanDay);
+        }
+
+        /**
+         * @brief Restituisce la data di scadenza prevista.
+         *
+         * @return Data di scadenza del prestito.
+         */
+        public LocalDate getDueDate() {
+            return toDate(dueDay);
+        }
+
+        /**
+         * @brief Restituisce la data di restituzione effettiva.
+         *
+         * @return Data di restituzione, oppure null se il prestito non è restituito.
+         */
+        public LocalDate getReturnDate() {
+            return toDate(returnDay);
+        }
+
+        /**
+         * @brief Indica se il prestito è attivo.
+         *
+         * @return true se attivo, false se restituito.
+         */
+        public boolean isActive() {
+            return active;
+        }
+    }
+
     /// Spazio degli Attributi
-    
-    private final int loanId; ///< Identificativo univoco del prestito
-    private User user; ///< Utente coinvolto
-    private Book book; ///< Libro prestato
 
-    private LocalDate loanDate; ///< Data del prestito
-    private LocalDate dueDate; ///< Data di scadenza prevista
-    private LocalDate returnDate; ///< Data restituzione effettiva (null = non restituito)
-    private Boolean status; ///< Stato del prestito
+    private int loanId; ///< Identificativo univoco del prestito (assegnato solo alla creazione o alla lettura)
+    private transient volatile State state; ///< Valori correnti dei campi modificabili
+
+    private transient volatile LibraryArchive archive; ///< Archivio che indicizza il prestito (null se non registrato)
 
     /**
      * @brief Crea un nuovo prestito attivo.
@@ -38,7 +161,7 @@ public class Loan implements Serializable {
      * @param book     Libro oggetto del prestito (non nullo).
      * @param loanDate Data in cui il prestito viene registrato (non nulla).
      * @param dueDate  Data entro cui il libro deve essere restituito (non nulla).
-     * @param status   Rappresenta lo stato del prestito: se attivo -> true.
+     * @param status   Rappresenta lo stato del prestito: se attivo -> true (null equivale a false).
      *
      * @pre  user != null
      * @pre  book != null
@@ -54,12 +177,9 @@ public class Loan implements Serializable {
      */
     public Loan(int loanId, User user, Book book, LocalDate loanDate, LocalDate dueDate, Boolean status) {
         this.loanId = loanId;
-        this.user = user;
-        this.book = book;
-        this.loanDate = loanDate;
-        this.dueDate = dueDate;
-        this.returnDate = null; ///< Prestito attivo alla creazione
-        this.status = status;
+        this.state = new State(this, user, book, toDay(loanDate), toDay(dueDate),
+                NO_DATE, ///< Prestito attivo alla creazione
+                Boolean.TRUE.equals(status));
     }
 
     /**
@@ -67,53 +187,66 @@ public class Loan implements Serializable {
      *
      * @return Identificativo univoco del prestito.
      */
-    public int getLoanId() { 
-        return loanId; 
+    public int getLoanId() {
+        return loanId;
     }
-    
+
     /**
      * @brief Restituisce l'utente coinvolto nel prestito.
      *
      * @return Utente associato al prestito.
      */
-    public User getUser() { 
-        return user; 
+    public User getUser() {
+        return state.user;
     }
-    
+
     /**
      * @brief Restituisce il libro prestato.
      *
      * @return Libro associato al prestito.
      */
-    public Book getBook() { 
-        return book; 
+    public Book getBook() {
+        return state.book;
     }
-    
+
     /**
      * @brief Restituisce la data di apertura del prestito.
      *
      * @return Data del prestito.
      */
-    public LocalDate getLoanDate() { 
-        return loanDate; 
+    public LocalDate getLoanDate() {
+        return toDate(state.loanDay);
     }
-    
+
     /**
      * @brief Restituisce la data di scadenza prevista.
      *
      * @return Data di scadenza del prestito.
      */
-    public LocalDate getDueDate() { 
-        return dueDate; 
+    public LocalDate getDueDate() {
+        return toDate(state.dueDay);
     }
-    
+
     /**
      * @brief Restituisce la data di restituzione effettiva.
      *
      * @return Data di restituzione, oppure null se il prestito non è ancora restituito.
      */
-    public LocalDate getReturnDate() { 
-        return returnDate; 
+    public LocalDate getReturnDate() {
+        return toDate(state.returnDay);
+    }
+
+    /**
+     * @brief Verifica se la scadenza del prestito precede una data.
+     *
+     * Confronta direttamente i giorni dall'epoca, senza creare LocalDate.
+     *
+     * @param date Data di riferimento (non nulla).
+     * @return true se il prestito ha una scadenza ed è precedente a date.
+     */
+    public boolean isDueBefore(LocalDate date) {
+        int dueDay = state.dueDay;
+        return dueDay != NO_DATE && dueDay < date.toEpochDay();
     }
 
 
@@ -122,9 +255,27 @@ public class Loan implements Serializable {
      * @return true se attivo, false se restituito
      */
     public Boolean getStatus() {
-        return status;
+        return state.active;
+    }
+
+    /**
+     * @brief Restituisce i valori correnti del prestito.
+     *
+     * @return Stato immutabile corrente.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @brief Restituisce la scadenza in giorni dall'epoca.
+     *
+     * @return Giorni dall'epoca, oppure NO_DATE.
+     */
+    int getDueDay() {
+        return state.dueDay;
     }
-    
+
     /**
      * @brief Imposta l'utente associato al prestito.
      *
@@ -133,54 +284,58 @@ public class Loan implements Serializable {
      *
      * @param user Nuovo utente.
      */
-    public void setUser(User user) { 
-        this.user = user; 
+    public void setUser(User user) {
+        update(s -> new State(s.loan, user, s.book, s.loanDay, s.dueDay, s.returnDay, s.active));
     }
-    
+
     /**
      * @brief Imposta il libro associato al prestito.
      *
      * @param book Nuovo libro.
      */
-    public void setBook(Book book) { 
-        this.book = book; 
+    public void setBook(Book book) {
+        update(s -> new State(s.loan, s.user, book, s.loanDay, s.dueDay, s.returnDay, s.active));
     }
-    
+
     /**
      * @brief Imposta la data di apertura del prestito.
      *
      * @param loanDate Nuova data del prestito.
      */
-    public void setLoanDate(LocalDate loanDate) { 
-        this.loanDate = loanDate; 
+    public void setLoanDate(LocalDate loanDate) {
+        int loanDay = toDay(loanDate);
+        update(s -> new State(s.loan, s.user, s.book, loanDay, s.dueDay, s.returnDay, s.active));
     }
-    
+
     /**
      * @brief Imposta la data di scadenza del prestito.
      *
      * @param dueDate Nuova data di scadenza.
      */
-    public void setDueDate(LocalDate dueDate) { 
-        this.dueDate = dueDate; 
+    public void setDueDate(LocalDate dueDate) {
+        int dueDay = toDay(dueDate);
+        update(s -> new State(s.loan, s.user, s.book, s.loanDay, dueDay, s.returnDay, s.active));
     }
-    
+
     /**
      * @brief Imposta la data di restituzione del prestito.
      *
      * @param returnDate Data di restituzione (null se non ancora restituito).
      */
-    public void setReturnDate(LocalDate returnDate) { 
-        this.returnDate = returnDate; 
+    public void setReturnDate(LocalDate returnDate) {
+        int returnDay = toDay(returnDate);
+        update(s -> new State(s.loan, s.user, s.book, s.loanDay, s.dueDay, returnDay, s.active));
     }
-    
+
     /**
      * @brief Verifica se il prestito è stato restituito.
      *
      * @return true se esiste una data di restituzione, false altrimenti.
      */
     public boolean setStatus(Boolean status) {
-        this.status = status;
-        return status;
+        boolean active = Boolean.TRUE.equals(status);
+        update(s -> s.active == active ? s : new State(s.loan, s.user, s.book, s.loanDay, s.dueDay, s.returnDay, active));
+        return active;
     }
 
     /**
@@ -189,7 +344,38 @@ public class Loan implements Serializable {
      * @return true se attivo, false se non.
      */
     public boolean isActive(){
-        return getStatus();
+        return state.active;
+    }
+
+    /**
+     * @brief Restituisce l'archivio che indicizza il prestito.
+     *
+     * @return Archivio in cui il prestito è registrato, oppure null.
+     */
+    LibraryArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * @brief Registra l'archivio che pubblica le modifiche del prestito.
+     *
+     * Invocato dall'archivio sotto il proprio lock.
+     *
+     * @param archive Archivio che indicizza il prestito (null per scollegarlo).
+     */
+    synchronized void setArchive(LibraryArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @brief Sostituisce lo stato corrente.
+     *
+     * Invocato dall'archivio sotto il proprio lock e quello del prestito.
+     *
+     * @param state Nuovo stato.
+     */
+    void setState(State state) {
+        this.state = state;
     }
 
     /**
@@ -205,7 +391,7 @@ public class Loan implements Serializable {
         hash = 31 * hash + Objects.hashCode(this.loanId);
         return hash;
     }
-    
+
     /**
      * @brief Confronta questo prestito con un altro oggetto.
      *
@@ -223,7 +409,7 @@ public class Loan implements Serializable {
         final Loan other = (Loan) obj;
         return Objects.equals(this.loanId, other.loanId);
     }
-    
+
     /**
      * @brief Restituisce una rappresentazione testuale del prestito.
      *
@@ -234,11 +420,116 @@ public class Loan implements Serializable {
      */
     @Override
     public String toString() {
+        State s = state;
         return "Loan ID: " + loanId + "\n" +
-                "User: " + user.getCode() + "\n" +
-                "Book: " + book.getIsbn() + "\n" +
-                "Loan Date: " + loanDate + "\n" +
-                "Due Date: " + dueDate + "\n" +
-                "Return Date: " + (returnDate != null ? returnDate : "Not returned") + "\n";
+                "User: " + s.user.getCode() + "\n" +
+                "Book: " + s.book.getIsbn() + "\n" +
+                "Loan Date: " + s.getLoanDate() + "\n" +
+                "Due Date: " + s.getDueDate() + "\n" +
+                "Return Date: " + (s.returnDay != NO_DATE ? s.getReturnDate() : "Not returned") + "\n";
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                            Serializzazione                              */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Scrive il prestito nella forma serializzata originale.
+     *
+     * @param out Stream di output.
+     * @throws IOException In caso di errore di scrittura.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        State s = state;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("loanId", loanId);
+        fields.put("user", s.user);
+        fields.put("book", s.book);
+        fields.put("loanDate", s.getLoanDate());
+        fields.put("dueDate", s.getDueDate());
+        fields.put("returnDate", s.getReturnDate());
+        fields.put("status", Boolean.valueOf(s.active));
+        out.writeFields();
+    }
+
+    /**
+     * @brief Legge il prestito dalla forma serializzata originale.
+     *
+     * @param in Stream di input.
+     * @throws IOException            In caso di errore di lettura o di data non rappresentabile.
+     * @throws ClassNotFoundException Se una classe serializzata non è disponibile.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        try {
+            loanId = fields.get("loanId", 0);
+            state = new State(this,
+                    (User) fields.get("user", null),
+                    (Book) fields.get("book", null),
+                    toDay((LocalDate) fields.get("loanDate", null)),
+                    toDay((LocalDate) fields.get("dueDate", null)),
+                    toDay((LocalDate) fields.get("returnDate", null)),
+                    Boolean.TRUE.equals(fields.get("status", null)));
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new InvalidObjectException("Prestito non valido: " + e.getMessage());
+        }
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Converte una data in giorni dall'epoca.
+     *
+     * @param date Data (può essere null).
+     * @return Giorni dall'epoca, oppure NO_DATE se date è nulla.
+     *
+     * @throws IllegalArgumentException Se la data è fuori dall'intervallo rappresentabile.
+     */
+    static int toDay(LocalDate date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        long day = date.toEpochDay();
+        if (day <= NO_DATE || day > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Data fuori dall'intervallo supportato: " + date);
+        }
+        return (int) day;
+    }
+
+    /**
+     * @brief Applica una modifica allo stato corrente.
+     *
+     * Un prestito registrato delega all'archivio, che calcola il nuovo stato,
+     * aggiorna gli indici e pubblica la nuova versione in un'unica operazione;
+     * altrimenti lo stato viene sostituito sotto il lock del prestito. Se nel
+     * frattempo il prestito è stato registrato o rimosso si riprova.
+     *
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     */
+    private void update(UnaryOperator<State> change) {
+        while (true) {
+            LibraryArchive a = archive;
+            if (a != null) {
+                if (a.updateLoan(this, change)) {
+                    return;
+                }
+            } else {
+                synchronized (this) {
+                    if (archive == null) {
+                        state = change.apply(state);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Converte giorni dall'epoca in data.
+     */
+    private static LocalDate toDate(int day) {
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
     }
 }
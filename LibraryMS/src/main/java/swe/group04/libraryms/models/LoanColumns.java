@@ -0,0 +1,579 @@
+/**
+ * @file LoanColumns.java
+ * @brief Copia per colonne dello storico prestiti, per statistiche e report.
+ *
+ * Ogni prestito è un oggetto separato, con riferimenti a utente e libro:
+ * scorrere tutto lo storico per un'aggregazione significa seguire
+ * puntatori sparsi nello heap. Questa classe ricopia i campi dei
+ * prestiti di una versione dell'archivio in array paralleli di int (ID,
+ * posizione di utente e libro, date come giorni dall'epoca) e in una
+ * maschera di bit per lo stato, così le aggregazioni sono cicli su array
+ * contigui.
+ *
+ * La riga i corrisponde al prestito getLoans().get(i) della versione da
+ * cui è costruita, che resta il riferimento per leggere il prestito
+ * completo. La copia è immutabile e viene calcolata alla prima richiesta
+ * (ArchiveSnapshot.getLoanColumns()) a partire dallo stato dei prestiti
+ * registrato nella versione (ArchiveSnapshot.stateOf()).
+ *
+ * Le colonne sono divise in blocchi di CHUNK righe, raccolti in vettori
+ * persistenti. Una volta calcolata, la copia viene mantenuta dall'archivio
+ * versione per versione invece di essere ricostruita: un nuovo prestito
+ * scrive la propria riga nello spazio libero dell'ultimo blocco (le
+ * versioni precedenti non leggono oltre la propria dimensione), una
+ * modifica copia solo i blocchi che cambiano, e le versioni che toccano
+ * soltanto libri o utenti riusano la copia, aggiornando al più le posizioni.
+ */
+package swe.group04.libraryms.models;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @brief Vista a colonne, immutabile, dei prestiti di una versione dell'archivio.
+ */
+public final class LoanColumns {
+
+    /**
+     * @brief Valore delle colonne di date per una data assente.
+     */
+    public static final int NO_DATE = Loan.NO_DATE;
+
+    /**
+     * @brief Valore delle colonne di posizione per un utente o libro assente
+     *        o non più presente nell'archivio.
+     */
+    public static final int NO_ORDINAL = -1;
+
+    private static final int SHIFT = 8;
+    private static final int CHUNK = 1 << SHIFT;  ///< Righe per blocco
+    private static final int MASK = CHUNK - 1;
+
+    private final int size;
+    private final PersistentVector<int[]> ids;          ///< ID del prestito
+    private final PersistentVector<int[]> userOrdinals; ///< Posizione dell'utente in getUsers()
+    private final PersistentVector<int[]> bookOrdinals; ///< Posizione del libro in getBooks()
+    private final PersistentVector<int[]> loanDays;     ///< Data del prestito (giorni dall'epoca)
+    private final PersistentVector<int[]> dueDays;      ///< Scadenza (giorni dall'epoca)
+    private final PersistentVector<int[]> returnDays;   ///< Restituzione (giorni dall'epoca)
+    private final PersistentVector<long[]> active;      ///< Bit i del blocco = riga attiva
+    private final int userCount;
+    private final int bookCount;
+    private final boolean sortedById; ///< ID strettamente crescenti: le righe si trovano per bisezione
+
+    private LoanColumns(int size, PersistentVector<int[]> ids,
+                        PersistentVector<int[]> userOrdinals, PersistentVector<int[]> bookOrdinals,
+                        PersistentVector<int[]> loanDays, PersistentVector<int[]> dueDays,
+                        PersistentVector<int[]> returnDays, PersistentVector<long[]> active,
+                        int userCount, int bookCount, boolean sortedById) {
+        this.size = size;
+        this.ids = ids;
+        this.userOrdinals = userOrdinals;
+        this.bookOrdinals = bookOrdinals;
+        this.loanDays = loanDays;
+        this.dueDays = dueDays;
+        this.returnDays = returnDays;
+        this.active = active;
+        this.userCount = userCount;
+        this.bookCount = bookCount;
+        this.sortedById = sortedById;
+    }
+
+    /**
+     * @brief Costruisce la vista a colonne di una versione dell'archivio.
+     *
+     * @param snapshot Versione da copiare (non nulla).
+     * @return Nuova vista a colonne.
+     */
+    static LoanColumns of(ArchiveSnapshot snapshot) {
+        List<User> users = snapshot.getUsers();
+        List<Book> books = snapshot.getBooks();
+        List<Loan> loans = snapshot.getLoans();
+
+        Map<User, Integer> userOrdinal = new IdentityHashMap<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            userOrdinal.putIfAbsent(users.get(i), i);
+        }
+        Map<Book, Integer> bookOrdinal = new IdentityHashMap<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            bookOrdinal.putIfAbsent(books.get(i), i);
+        }
+
+        int chunks = (loans.size() + MASK) >>> SHIFT;
+        int[][] ids = new int[chunks][CHUNK];
+        int[][] userOrdinals = new int[chunks][CHUNK];
+        int[][] bookOrdinals = new int[chunks][CHUNK];
+        int[][] loanDays = new int[chunks][CHUNK];
+        int[][] dueDays = new int[chunks][CHUNK];
+        int[][] returnDays = new int[chunks][CHUNK];
+        long[][] active = new long[chunks][CHUNK >>> 6];
+        boolean sorted = true;
+        int row = 0;
+        for (Loan l : loans) {
+            Loan.State s = snapshot.stateOf(l);
+            if (s == null) {
+                s = l.getState(); ///< Duplicato non indicizzato per ID
+            }
+            int c = row >>> SHIFT;
+            int i = row & MASK;
+            ids[c][i] = l.getLoanId();
+            userOrdinals[c][i] = userOrdinal.getOrDefault(s.user, NO_ORDINAL);
+            bookOrdinals[c][i] = bookOrdinal.getOrDefault(s.book, NO_ORDINAL);
+            loanDays[c][i] = s.loanDay;
+            dueDays[c][i] = s.dueDay;
+            returnDays[c][i] = s.returnDay;
+            if (s.active) {
+                active[c][i >>> 6] |= 1L << i;
+            }
+            sorted &= row == 0 || ids[(row - 1) >>> SHIFT][(row - 1) & MASK] < l.getLoanId();
+            row++;
+        }
+        return new LoanColumns(row, vectorOf(ids), vectorOf(userOrdinals), vectorOf(bookOrdinals),
+                vectorOf(loanDays), vectorOf(dueDays), vectorOf(returnDays), vectorOf(active),
+                users.size(), books.size(), sorted);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                     Aggiornamento tra versioni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce la vista con una riga in più in fondo.
+     *
+     * La riga viene scritta nell'ultimo blocco, oltre la dimensione di
+     * questa vista: va invocato solo sulla vista dell'ultima versione, e
+     * solo dall'archivio sotto il proprio lock.
+     *
+     * @param loanId      ID del prestito.
+     * @param userOrdinal Posizione dell'utente, oppure NO_ORDINAL.
+     * @param bookOrdinal Posizione del libro, oppure NO_ORDINAL.
+     * @param state       Stato del prestito.
+     * @return Nuova vista.
+     */
+    LoanColumns appended(int loanId, int userOrdinal, int bookOrdinal, Loan.State state) {
+        int row = size;
+        int i = row & MASK;
+        PersistentVector<int[]> ids = this.ids;
+        PersistentVector<int[]> userOrdinals = this.userOrdinals;
+        PersistentVector<int[]> bookOrdinals = this.bookOrdinals;
+        PersistentVector<int[]> loanDays = this.loanDays;
+        PersistentVector<int[]> dueDays = this.dueDays;
+        PersistentVector<int[]> returnDays = this.returnDays;
+        PersistentVector<long[]> active = this.active;
+        if (row >>> SHIFT == ids.size()) {
+            ids = ids.plus(new int[CHUNK]);
+            userOrdinals = userOrdinals.plus(new int[CHUNK]);
+            bookOrdinals = bookOrdinals.plus(new int[CHUNK]);
+            loanDays = loanDays.plus(new int[CHUNK]);
+            dueDays = dueDays.plus(new int[CHUNK]);
+            returnDays = returnDays.plus(new int[CHUNK]);
+            active = active.plus(new long[CHUNK >>> 6]);
+        }
+        int c = row >>> SHIFT;
+        ids.get(c)[i] = loanId;
+        userOrdinals.get(c)[i] = userOrdinal;
+        bookOrdinals.get(c)[i] = bookOrdinal;
+        loanDays.get(c)[i] = state.loanDay;
+        dueDays.get(c)[i] = state.dueDay;
+        returnDays.get(c)[i] = state.returnDay;
+        long[] bits = active.get(c);
+        bits[i >>> 6] = state.active ? bits[i >>> 6] | (1L << i) : bits[i >>> 6] & ~(1L << i);
+        boolean sorted = sortedById && (row == 0 || loanId(row - 1) < loanId);
+        return new LoanColumns(row + 1, ids, userOrdinals, bookOrdinals, loanDays, dueDays, returnDays,
+                active, userCount, bookCount, sorted);
+    }
+
+    /**
+     * @brief Restituisce la vista con una riga aggiornata.
+     *
+     * Vengono copiati solo i blocchi i cui valori cambiano.
+     *
+     * @param row         Riga da aggiornare (0 <= row < size()).
+     * @param userOrdinal Posizione dell'utente, oppure NO_ORDINAL.
+     * @param bookOrdinal Posizione del libro, oppure NO_ORDINAL.
+     * @param state       Nuovo stato del prestito.
+     * @return Nuova vista (questa stessa se nulla cambia).
+     */
+    LoanColumns patched(int row, int userOrdinal, int bookOrdinal, Loan.State state) {
+        int c = row >>> SHIFT;
+        int i = row & MASK;
+        PersistentVector<long[]> active = this.active;
+        long[] bits = active.get(c);
+        if (((bits[i >>> 6] & (1L << i)) != 0) != state.active) {
+            bits = bits.clone();
+            bits[i >>> 6] ^= 1L << i;
+            active = active.with(c, bits);
+        }
+        LoanColumns patched = new LoanColumns(size, ids,
+                with(userOrdinals, row, userOrdinal), with(bookOrdinals, row, bookOrdinal),
+                with(loanDays, row, state.loanDay), with(dueDays, row, state.dueDay),
+                with(returnDays, row, state.returnDay), active,
+                userCount, bookCount, sortedById);
+        return patched.sameColumns(this) ? this : patched;
+    }
+
+    /**
+     * @brief Restituisce la riga di un prestito a partire dal suo ID.
+     *
+     * @param loanId ID del prestito.
+     * @return Riga del prestito, oppure -1 se non presente o se gli ID
+     *         non sono in ordine strettamente crescente.
+     */
+    int rowOf(int loanId) {
+        if (!sortedById) {
+            return -1;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = loanId(mid);
+            if (id < loanId) {
+                low = mid + 1;
+            } else if (id > loanId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @brief Restituisce la vista per un archivio con un numero diverso di utenti e libri.
+     *
+     * Le righe restano condivise: le posizioni già registrate non cambiano
+     * quando utenti o libri vengono aggiunti in fondo alle liste.
+     *
+     * @param userCount Numero di utenti.
+     * @param bookCount Numero di libri.
+     * @return Nuova vista (questa stessa se i numeri coincidono).
+     */
+    LoanColumns withCounts(int userCount, int bookCount) {
+        if (userCount == this.userCount && bookCount == this.bookCount) {
+            return this;
+        }
+        return new LoanColumns(size, ids, userOrdinals, bookOrdinals, loanDays, dueDays, returnDays,
+                active, userCount, bookCount, sortedById);
+    }
+
+    /**
+     * @brief Restituisce la vista dopo la rimozione dell'utente in una posizione.
+     *
+     * Le posizioni successive scalano di uno; le righe dell'utente rimosso
+     * passano a replacement (stesso oggetto presente più avanti nella
+     * lista, oppure NO_ORDINAL).
+     *
+     * @param position    Posizione rimossa.
+     * @param replacement Nuova posizione delle righe che puntavano a position.
+     * @return Nuova vista.
+     */
+    LoanColumns withoutUser(int position, int replacement) {
+        return new LoanColumns(size, ids, remap(userOrdinals, position, replacement),
+                bookOrdinals, loanDays, dueDays, returnDays, active, userCount - 1, bookCount, sortedById);
+    }
+
+    /**
+     * @brief Restituisce la vista dopo la rimozione del libro in una posizione.
+     *
+     * @param position    Posizione rimossa.
+     * @param replacement Nuova posizione delle righe che puntavano a position.
+     * @return Nuova vista.
+     *
+     * @see withoutUser()
+     */
+    LoanColumns withoutBook(int position, int replacement) {
+        return new LoanColumns(size, ids, userOrdinals, remap(bookOrdinals, position, replacement),
+                loanDays, dueDays, returnDays, active, userCount, bookCount - 1, sortedById);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                           Accesso per riga                              */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce il numero di righe (prestiti).
+     *
+     * @return Numero di prestiti copiati.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @brief Restituisce l'ID del prestito di una riga.
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return ID del prestito.
+     */
+    public int loanId(int row) {
+        return cell(ids, row);
+    }
+
+    /**
+     * @brief Restituisce la posizione dell'utente di una riga in getUsers().
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return Posizione dell'utente, oppure NO_ORDINAL.
+     */
+    public int userOrdinal(int row) {
+        return cell(userOrdinals, row);
+    }
+
+    /**
+     * @brief Restituisce la posizione del libro di una riga in getBooks().
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return Posizione del libro, oppure NO_ORDINAL.
+     */
+    public int bookOrdinal(int row) {
+        return cell(bookOrdinals, row);
+    }
+
+    /**
+     * @brief Restituisce la data del prestito di una riga.
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return Giorni dall'epoca, oppure NO_DATE.
+     */
+    public int loanDay(int row) {
+        return cell(loanDays, row);
+    }
+
+    /**
+     * @brief Restituisce la scadenza del prestito di una riga.
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return Giorni dall'epoca, oppure NO_DATE.
+     */
+    public int dueDay(int row) {
+        return cell(dueDays, row);
+    }
+
+    /**
+     * @brief Restituisce la data di restituzione del prestito di una riga.
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return Giorni dall'epoca, oppure NO_DATE se non restituito.
+     */
+    public int returnDay(int row) {
+        return cell(returnDays, row);
+    }
+
+    /**
+     * @brief Indica se il prestito di una riga è attivo.
+     *
+     * @param row Riga (0 <= row < size()).
+     * @return true se il prestito è attivo.
+     */
+    public boolean isActive(int row) {
+        return (active.get(row >>> SHIFT)[(row & MASK) >>> 6] & (1L << row)) != 0;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                              Aggregazioni                               */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Conta i prestiti attivi.
+     *
+     * @return Numero di righe con stato attivo.
+     */
+    public int countActive() {
+        int n = 0;
+        for (int c = 0; c < active.size(); c++) {
+            long[] bits = active.get(c);
+            int rows = rowsIn(c);
+            for (int w = 0; w << 6 < rows; w++) {
+                int valid = rows - (w << 6);
+                long word = bits[w];
+                n += Long.bitCount(valid >= 64 ? word : word & ((1L << valid) - 1));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @brief Conta i prestiti attivi con scadenza precedente a una data.
+     *
+     * @param date Data di riferimento (non nulla).
+     * @return Numero di prestiti attivi scaduti prima di date.
+     *
+     * @throws IllegalArgumentException Se date è nulla.
+     */
+    public int countOverdue(LocalDate date) {
+        int day = requireDay(date);
+        int n = 0;
+        for (int c = 0; c < dueDays.size(); c++) {
+            int[] due = dueDays.get(c);
+            long[] bits = active.get(c);
+            int rows = rowsIn(c);
+            for (int i = 0; i < rows; i++) {
+                int d = due[i];
+                if (d != NO_DATE && d < day && (bits[i >>> 6] & (1L << i)) != 0) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @brief Conta i prestiti aperti in un intervallo chiuso di date.
+     *
+     * @param from Prima data (non nulla).
+     * @param to   Ultima data (non nulla).
+     * @return Numero di prestiti con data di apertura in [from, to].
+     *
+     * @throws IllegalArgumentException Se una delle date è nulla.
+     */
+    public int countOpenedBetween(LocalDate from, LocalDate to) {
+        int first = requireDay(from);
+        int last = requireDay(to);
+        int n = 0;
+        for (int c = 0; c < loanDays.size(); c++) {
+            int[] days = loanDays.get(c);
+            int rows = rowsIn(c);
+            for (int i = 0; i < rows; i++) {
+                int d = days[i];
+                if (d != NO_DATE && d >= first && d <= last) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @brief Conta i prestiti di ogni utente.
+     *
+     * @return Array indicizzato per posizione in getUsers() (i prestiti di
+     *         utenti assenti dall'archivio non sono contati).
+     */
+    public int[] countByUser() {
+        return histogram(userOrdinals, userCount);
+    }
+
+    /**
+     * @brief Conta i prestiti di ogni libro.
+     *
+     * @return Array indicizzato per posizione in getBooks() (i prestiti di
+     *         libri assenti dall'archivio non sono contati).
+     */
+    public int[] countByBook() {
+        return histogram(bookOrdinals, bookCount);
+    }
+
+    /**
+     * @brief Calcola la durata media dei prestiti restituiti.
+     *
+     * @return Media dei giorni tra apertura e restituzione, oppure 0 se
+     *         nessun prestito ha entrambe le date.
+     */
+    public double averageReturnedDuration() {
+        long total = 0;
+        int n = 0;
+        for (int c = 0; c < loanDays.size(); c++) {
+            int[] starts = loanDays.get(c);
+            int[] ends = returnDays.get(c);
+            int rows = rowsIn(c);
+            for (int i = 0; i < rows; i++) {
+                int start = starts[i];
+                int end = ends[i];
+                if (start != NO_DATE && end != NO_DATE) {
+                    total += end - start;
+                    n++;
+                }
+            }
+        }
+        return n == 0 ? 0 : (double) total / n;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    private static int requireDay(LocalDate date) {
+        if (date == null) {
+            throw new IllegalArgumentException("La data non può essere nulla.");
+        }
+        return Loan.toDay(date);
+    }
+
+    private int[] histogram(PersistentVector<int[]> ordinals, int buckets) {
+        int[] counts = new int[buckets];
+        for (int c = 0; c < ordinals.size(); c++) {
+            int[] chunk = ordinals.get(c);
+            int rows = rowsIn(c);
+            for (int i = 0; i < rows; i++) {
+                int o = chunk[i];
+                if (o != NO_ORDINAL) {
+                    counts[o]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @brief Restituisce il numero di righe valide di un blocco.
+     */
+    private int rowsIn(int chunk) {
+        return Math.min(CHUNK, size - (chunk << SHIFT));
+    }
+
+    private static int cell(PersistentVector<int[]> column, int row) {
+        return column.get(row >>> SHIFT)[row & MASK];
+    }
+
+    /**
+     * @brief Restituisce la colonna con un valore sostituito, copiando solo il blocco toccato.
+     */
+    private static PersistentVector<int[]> with(PersistentVector<int[]> column, int row, int value) {
+        int[] chunk = column.get(row >>> SHIFT);
+        if (chunk[row & MASK] == value) {
+            return column;
+        }
+        int[] copy = chunk.clone();
+        copy[row & MASK] = value;
+        return column.with(row >>> SHIFT, copy);
+    }
+
+    /**
+     * @brief Aggiorna le posizioni dopo la rimozione di un elemento, copiando solo i blocchi toccati.
+     */
+    private PersistentVector<int[]> remap(PersistentVector<int[]> ordinals, int position, int replacement) {
+        PersistentVector<int[]> result = ordinals;
+        for (int c = 0; c < ordinals.size(); c++) {
+            int[] chunk = ordinals.get(c);
+            int[] copy = null;
+            int rows = rowsIn(c);
+            for (int i = 0; i < rows; i++) {
+                int o = chunk[i];
+                if (o >= position) {
+                    if (copy == null) {
+                        copy = chunk.clone();
+                    }
+                    copy[i] = o == position ? replacement : o - 1;
+                }
+            }
+            if (copy != null) {
+                result = result.with(c, copy);
+            }
+        }
+        return result;
+    }
+
+    private boolean sameColumns(LoanColumns other) {
+        return userOrdinals == other.userOrdinals && bookOrdinals == other.bookOrdinals
+                && loanDays == other.loanDays && dueDays == other.dueDays
+                && returnDays == other.returnDays && active == other.active;
+    }
+
+    private static <T> PersistentVector<T> vectorOf(T[] chunks) {
+        return PersistentVector.copyOf(Arrays.asList(chunks));
+    }
+}
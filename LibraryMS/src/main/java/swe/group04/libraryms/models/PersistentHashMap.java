@@ -0,0 +1,356 @@
+/**
+ * @file PersistentHashMap.java
+ * @brief Mappa hash immutabile con condivisione strutturale.
+ *
+ * Le associazioni sono memorizzate in un albero indicizzato dai bit del
+ * codice hash della chiave, 5 bit per livello (hash array mapped trie):
+ * ogni nodo contiene solo i figli presenti, individuati da una maschera
+ * di 32 bit. Inserire o rimuovere una chiave copia solo i nodi sul
+ * cammino dalla radice alla chiave (O(log32 n)); la mappa di partenza
+ * resta invariata e condivide con la nuova tutti gli altri nodi.
+ *
+ * Le chiavi con lo stesso codice hash vengono raccolte in un nodo di
+ * collisione e confrontate con equals().
+ */
+package swe.group04.libraryms.models;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * @brief Mappa persistente (immutabile) basata su hash.
+ *
+ * Sono ammesse chiavi e valori null.
+ *
+ * @param <K> Tipo delle chiavi.
+ * @param <V> Tipo dei valori.
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Object NULL_KEY = new Object();   ///< Segnaposto della chiave null
+    private static final Object NOT_FOUND = new Object();  ///< Esito di una ricerca senza risultato
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(0, null);
+
+    private final int size;  ///< Numero di associazioni
+    private final Node root; ///< Radice (null se la mappa è vuota)
+
+    private PersistentHashMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    /**
+     * @brief Restituisce la mappa vuota.
+     *
+     * @return Mappa vuota condivisa.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @brief Restituisce il numero di associazioni.
+     *
+     * @return Numero di chiavi presenti.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @brief Indica se la mappa è vuota.
+     *
+     * @return true se non contiene associazioni.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @brief Restituisce il valore associato a una chiave.
+     *
+     * @param key Chiave da cercare.
+     * @return Valore associato, oppure null se la chiave non è presente.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object result = find(key);
+        return result == NOT_FOUND ? null : (V) result;
+    }
+
+    /**
+     * @brief Verifica se una chiave è presente.
+     *
+     * @param key Chiave da cercare.
+     * @return true se la chiave è presente (anche se associata a null).
+     */
+    public boolean containsKey(Object key) {
+        return find(key) != NOT_FOUND;
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa con la chiave associata al valore indicato.
+     *
+     * @param key   Chiave.
+     * @param value Valore (sostituisce quello eventualmente presente).
+     * @return Nuova mappa, oppure questa stessa mappa se l'associazione era già presente.
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Object k = mask(key);
+        boolean[] added = new boolean[1];
+        Node start = root != null ? root : BitmapNode.EMPTY;
+        Node newRoot = start.plus(0, k.hashCode(), k, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(added[0] ? size + 1 : size, newRoot);
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa con la chiave aggiunta solo se assente.
+     *
+     * @param key   Chiave.
+     * @param value Valore da associare se la chiave non è presente.
+     * @return Nuova mappa, oppure questa stessa mappa se la chiave era già presente.
+     */
+    public PersistentHashMap<K, V> plusIfAbsent(K key, V value) {
+        return containsKey(key) ? this : plus(key, value);
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa senza la chiave indicata.
+     *
+     * @param key Chiave da rimuovere.
+     * @return Nuova mappa, oppure questa stessa mappa se la chiave non era presente.
+     */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (root == null) {
+            return this;
+        }
+        Object k = mask(key);
+        Node newRoot = root.minus(0, k.hashCode(), k);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentHashMap<>(size - 1, newRoot);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    private Object find(Object key) {
+        if (root == null) {
+            return NOT_FOUND;
+        }
+        Object k = mask(key);
+        return root.find(0, k.hashCode(), k);
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    /**
+     * @brief Nodo dell'albero.
+     *
+     * Le operazioni restituiscono il nodo stesso se non cambia nulla e
+     * null se il nodo resta vuoto dopo una rimozione.
+     */
+    private abstract static class Node {
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node plus(int shift, int hash, Object key, Object value, boolean[] added);
+
+        abstract Node minus(int shift, int hash, Object key);
+    }
+
+    /**
+     * @brief Nodo con al più 32 posizioni, occupate secondo la maschera bitmap.
+     *
+     * Ogni posizione occupa due celle di array: chiave e valore, oppure
+     * null e nodo figlio.
+     */
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                return ((Node) v).find(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? v : NOT_FOUND;
+        }
+
+        @Override
+        Node plus(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, 2 * i);
+                newArray[2 * i] = key;
+                newArray[2 * i + 1] = value;
+                System.arraycopy(array, 2 * i, newArray, 2 * i + 2, array.length - 2 * i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).plus(shift + BITS, hash, key, value, added);
+                return child == v ? this : replace(2 * i + 1, child);
+            }
+            if (key.equals(k)) {
+                return v == value ? this : replace(2 * i + 1, value);
+            }
+            //  Due chiavi nella stessa posizione: si scende di un livello
+            added[0] = true;
+            Node child = pair(shift + BITS, k, v, hash, key, value);
+            Object[] newArray = array.clone();
+            newArray[2 * i] = null;
+            newArray[2 * i + 1] = child;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        Node minus(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).minus(shift + BITS, hash, key);
+                if (child == v) {
+                    return this;
+                }
+                return child != null ? replace(2 * i + 1, child) : removeSlot(bit, i);
+            }
+            return key.equals(k) ? removeSlot(bit, i) : this;
+        }
+
+        private BitmapNode replace(int cell, Object value) {
+            Object[] newArray = array.clone();
+            newArray[cell] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private BitmapNode removeSlot(int bit, int i) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * i);
+            System.arraycopy(array, 2 * i + 2, newArray, 2 * i, array.length - 2 * i - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        /**
+         * @brief Crea il nodo che contiene due chiavi distinte a partire dal livello indicato.
+         */
+        private static Node pair(int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+            int h1 = k1.hashCode();
+            if (h1 == h2) {
+                return new CollisionNode(h1, new Object[] { k1, v1, k2, v2 });
+            }
+            boolean[] ignored = new boolean[1];
+            return EMPTY.plus(shift, h1, k1, v1, ignored).plus(shift, h2, k2, v2, ignored);
+        }
+    }
+
+    /**
+     * @brief Nodo che raccoglie chiavi diverse con lo stesso codice hash.
+     */
+    private static final class CollisionNode extends Node {
+
+        final int hash;
+        final Object[] array; ///< Coppie chiave, valore
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (Objects.equals(key, array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        Node plus(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                //  Si inserisce il nodo in un nodo a maschera e si ripete l'inserimento
+                BitmapNode wrapper = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] { null, this });
+                return wrapper.plus(shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        Node minus(int shift, int hash, Object key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new CollisionNode(hash, newArray);
+        }
+    }
+}
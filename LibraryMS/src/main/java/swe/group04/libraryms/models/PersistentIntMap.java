@@ -0,0 +1,293 @@
+/**
+ * @file PersistentIntMap.java
+ * @brief Mappa immutabile con chiavi int primitive e condivisione strutturale.
+ *
+ * Variante di PersistentHashMap specializzata per chiavi int (es. ID dei
+ * prestiti): le chiavi sono memorizzate in array int[] all'interno dei
+ * nodi, senza creare un Integer per ogni associazione, e l'albero è
+ * indicizzato direttamente dai bit della chiave, 5 bit per livello.
+ * Chiavi diverse differiscono sempre in qualche gruppo di bit, quindi non
+ * servono nodi di collisione.
+ *
+ * Ogni nodo tiene separate, con due maschere di 32 bit, le posizioni che
+ * contengono un'associazione e quelle che contengono un figlio; dopo una
+ * rimozione un figlio rimasto con una sola associazione viene riassorbito
+ * dal padre, così l'albero resta compatto.
+ *
+ * Inserire o rimuovere una chiave copia solo i nodi sul cammino dalla
+ * radice alla chiave (O(log32 n)); la mappa di partenza resta invariata.
+ */
+package swe.group04.libraryms.models;
+
+/**
+ * @brief Mappa persistente (immutabile) da int a valori non nulli.
+ *
+ * @param <V> Tipo dei valori.
+ */
+public final class PersistentIntMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final PersistentIntMap<?> EMPTY =
+            new PersistentIntMap<>(0, new Node(0, 0, NO_KEYS, NO_VALUES, NO_CHILDREN));
+
+    private final int size;  ///< Numero di associazioni
+    private final Node root; ///< Radice (mai null)
+
+    private PersistentIntMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    /**
+     * @brief Restituisce la mappa vuota.
+     *
+     * @return Mappa vuota condivisa.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    /**
+     * @brief Restituisce il numero di associazioni.
+     *
+     * @return Numero di chiavi presenti.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @brief Indica se la mappa è vuota.
+     *
+     * @return true se non contiene associazioni.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @brief Restituisce il valore associato a una chiave.
+     *
+     * @param key Chiave da cercare.
+     * @return Valore associato, oppure null se la chiave non è presente.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((key >>> shift) & MASK);
+            if ((node.dataMap & bit) != 0) {
+                int i = Integer.bitCount(node.dataMap & (bit - 1));
+                return node.keys[i] == key ? (V) node.values[i] : null;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return null;
+            }
+            node = node.children[Integer.bitCount(node.nodeMap & (bit - 1))];
+        }
+    }
+
+    /**
+     * @brief Verifica se una chiave è presente.
+     *
+     * @param key Chiave da cercare.
+     * @return true se la chiave è presente.
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa con la chiave associata al valore indicato.
+     *
+     * @param key   Chiave.
+     * @param value Valore (non nullo; sostituisce quello eventualmente presente).
+     * @return Nuova mappa, oppure questa stessa mappa se l'associazione era già presente.
+     *
+     * @throws IllegalArgumentException Se value è nullo.
+     */
+    public PersistentIntMap<V> plus(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Il valore non può essere nullo.");
+        }
+        boolean[] added = new boolean[1];
+        Node newRoot = plus(root, 0, key, value, added);
+        return newRoot == root ? this : new PersistentIntMap<>(added[0] ? size + 1 : size, newRoot);
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa con la chiave aggiunta solo se assente.
+     *
+     * @param key   Chiave.
+     * @param value Valore (non nullo) da associare se la chiave non è presente.
+     * @return Nuova mappa, oppure questa stessa mappa se la chiave era già presente.
+     */
+    public PersistentIntMap<V> plusIfAbsent(int key, V value) {
+        return containsKey(key) ? this : plus(key, value);
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa senza la chiave indicata.
+     *
+     * @param key Chiave da rimuovere.
+     * @return Nuova mappa, oppure questa stessa mappa se la chiave non era presente.
+     */
+    public PersistentIntMap<V> minus(int key) {
+        Node newRoot = minus(root, 0, key);
+        return newRoot == root ? this : new PersistentIntMap<>(size - 1, newRoot);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Nodo dell'albero: associazioni (keys/values) e figli, in ordine di posizione.
+     */
+    private static final class Node {
+        final int dataMap;     ///< Posizioni occupate da un'associazione
+        final int nodeMap;     ///< Posizioni occupate da un figlio
+        final int[] keys;
+        final Object[] values;
+        final Node[] children;
+
+        Node(int dataMap, int nodeMap, int[] keys, Object[] values, Node[] children) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+        }
+    }
+
+    private static Node plus(Node node, int shift, int key, Object value, boolean[] added) {
+        int bit = 1 << ((key >>> shift) & MASK);
+        if ((node.dataMap & bit) != 0) {
+            int i = Integer.bitCount(node.dataMap & (bit - 1));
+            if (node.keys[i] == key) {
+                if (node.values[i] == value) {
+                    return node;
+                }
+                Object[] values = node.values.clone();
+                values[i] = value;
+                return new Node(node.dataMap, node.nodeMap, node.keys, values, node.children);
+            }
+            //  Posizione occupata da un'altra chiave: entrambe scendono in un figlio
+            added[0] = true;
+            Node child = pair(shift + BITS, node.keys[i], node.values[i], key, value);
+            int j = Integer.bitCount(node.nodeMap & (bit - 1));
+            return new Node(node.dataMap ^ bit, node.nodeMap | bit,
+                    removeInt(node.keys, i), removeObject(node.values, i), insertNode(node.children, j, child));
+        }
+        if ((node.nodeMap & bit) != 0) {
+            int j = Integer.bitCount(node.nodeMap & (bit - 1));
+            Node child = plus(node.children[j], shift + BITS, key, value, added);
+            if (child == node.children[j]) {
+                return node;
+            }
+            Node[] children = node.children.clone();
+            children[j] = child;
+            return new Node(node.dataMap, node.nodeMap, node.keys, node.values, children);
+        }
+        added[0] = true;
+        int i = Integer.bitCount(node.dataMap & (bit - 1));
+        return new Node(node.dataMap | bit, node.nodeMap,
+                insertInt(node.keys, i, key), insertObject(node.values, i, value), node.children);
+    }
+
+    private static Node minus(Node node, int shift, int key) {
+        int bit = 1 << ((key >>> shift) & MASK);
+        if ((node.dataMap & bit) != 0) {
+            int i = Integer.bitCount(node.dataMap & (bit - 1));
+            if (node.keys[i] != key) {
+                return node;
+            }
+            return new Node(node.dataMap ^ bit, node.nodeMap,
+                    removeInt(node.keys, i), removeObject(node.values, i), node.children);
+        }
+        if ((node.nodeMap & bit) == 0) {
+            return node;
+        }
+        int j = Integer.bitCount(node.nodeMap & (bit - 1));
+        Node child = minus(node.children[j], shift + BITS, key);
+        if (child == node.children[j]) {
+            return node;
+        }
+        if (child.nodeMap == 0 && child.keys.length == 1) {
+            //  Il figlio ha una sola associazione: viene riassorbito
+            int i = Integer.bitCount(node.dataMap & (bit - 1));
+            return new Node(node.dataMap | bit, node.nodeMap ^ bit,
+                    insertInt(node.keys, i, child.keys[0]), insertObject(node.values, i, child.values[0]),
+                    removeNode(node.children, j));
+        }
+        Node[] children = node.children.clone();
+        children[j] = child;
+        return new Node(node.dataMap, node.nodeMap, node.keys, node.values, children);
+    }
+
+    /**
+     * @brief Crea il nodo che contiene due chiavi distinte a partire dal livello indicato.
+     */
+    private static Node pair(int shift, int k1, Object v1, int k2, Object v2) {
+        int b1 = (k1 >>> shift) & MASK;
+        int b2 = (k2 >>> shift) & MASK;
+        if (b1 == b2) {
+            return new Node(0, 1 << b1, NO_KEYS, NO_VALUES, new Node[] { pair(shift + BITS, k1, v1, k2, v2) });
+        }
+        return b1 < b2
+                ? new Node((1 << b1) | (1 << b2), 0, new int[] { k1, k2 }, new Object[] { v1, v2 }, NO_CHILDREN)
+                : new Node((1 << b1) | (1 << b2), 0, new int[] { k2, k1 }, new Object[] { v2, v1 }, NO_CHILDREN);
+    }
+
+    private static int[] insertInt(int[] a, int i, int v) {
+        int[] r = new int[a.length + 1];
+        System.arraycopy(a, 0, r, 0, i);
+        r[i] = v;
+        System.arraycopy(a, i, r, i + 1, a.length - i);
+        return r;
+    }
+
+    private static int[] removeInt(int[] a, int i) {
+        int[] r = new int[a.length - 1];
+        System.arraycopy(a, 0, r, 0, i);
+        System.arraycopy(a, i + 1, r, i, a.length - i - 1);
+        return r;
+    }
+
+    private static Object[] insertObject(Object[] a, int i, Object v) {
+        Object[] r = new Object[a.length + 1];
+        System.arraycopy(a, 0, r, 0, i);
+        r[i] = v;
+        System.arraycopy(a, i, r, i + 1, a.length - i);
+        return r;
+    }
+
+    private static Object[] removeObject(Object[] a, int i) {
+        Object[] r = new Object[a.length - 1];
+        System.arraycopy(a, 0, r, 0, i);
+        System.arraycopy(a, i + 1, r, i, a.length - i - 1);
+        return r;
+    }
+
+    private static Node[] insertNode(Node[] a, int i, Node v) {
+        Node[] r = new Node[a.length + 1];
+        System.arraycopy(a, 0, r, 0, i);
+        r[i] = v;
+        System.arraycopy(a, i, r, i + 1, a.length - i);
+        return r;
+    }
+
+    private static Node[] removeNode(Node[] a, int i) {
+        Node[] r = new Node[a.length - 1];
+        System.arraycopy(a, 0, r, 0, i);
+        System.arraycopy(a, i + 1, r, i, a.length - i - 1);
+        return r;
+    }
+}
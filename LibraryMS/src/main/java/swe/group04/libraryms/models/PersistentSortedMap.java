@@ -0,0 +1,268 @@
+/**
+ * @file PersistentSortedMap.java
+ * @brief Mappa ordinata immutabile con condivisione strutturale.
+ *
+ * Le associazioni sono memorizzate in un albero AVL: inserire o rimuovere
+ * una chiave crea nuovi nodi solo lungo il cammino dalla radice alla
+ * chiave (O(log n)), mentre la mappa di partenza resta invariata e
+ * condivide con la nuova tutti gli altri nodi.
+ *
+ * Gli elementi si leggono in ordine di chiave, per intero o per
+ * intervalli, visitando solo i nodi che ricadono nell'intervallo.
+ */
+package swe.group04.libraryms.models;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @brief Mappa persistente (immutabile) ordinata per chiave.
+ *
+ * @param <K> Tipo delle chiavi (non nulle).
+ * @param <V> Tipo dei valori.
+ */
+public final class PersistentSortedMap<K, V> {
+
+    /**
+     * @brief Nodo dell'albero, con altezza e dimensione del sottoalbero.
+     */
+    private static final class Node {
+        final Object key;
+        final Object value;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+
+        Node(Object key, Object value, Node left, Node right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private final Comparator<? super K> comparator; ///< Ordine delle chiavi
+    private final Node root;                        ///< Radice (null se la mappa è vuota)
+
+    private PersistentSortedMap(Comparator<? super K> comparator, Node root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    /**
+     * @brief Crea una mappa vuota ordinata secondo l'ordine naturale delle chiavi.
+     *
+     * @return Mappa vuota.
+     */
+    public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return new PersistentSortedMap<>(Comparator.<K>naturalOrder(), null);
+    }
+
+    /**
+     * @brief Crea una mappa vuota ordinata secondo un comparatore.
+     *
+     * @param comparator Ordine delle chiavi.
+     * @return Mappa vuota.
+     *
+     * @throws IllegalArgumentException Se comparator è nullo.
+     */
+    public static <K, V> PersistentSortedMap<K, V> empty(Comparator<? super K> comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException("Il comparatore non può essere nullo.");
+        }
+        return new PersistentSortedMap<>(comparator, null);
+    }
+
+    /**
+     * @brief Restituisce il numero di associazioni.
+     *
+     * @return Numero di chiavi presenti.
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * @brief Restituisce il valore associato a una chiave.
+     *
+     * @param key Chiave da cercare.
+     * @return Valore associato, oppure null se la chiave non è presente.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Node n = root;
+        while (n != null) {
+            int c = compare(key, n.key);
+            if (c == 0) {
+                return (V) n.value;
+            }
+            n = c < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa con la chiave associata al valore indicato.
+     *
+     * @param key   Chiave.
+     * @param value Valore (sostituisce quello eventualmente presente).
+     * @return Nuova mappa; quella corrente non cambia.
+     */
+    public PersistentSortedMap<K, V> plus(K key, V value) {
+        Node newRoot = insert(root, key, value);
+        return newRoot == root ? this : new PersistentSortedMap<>(comparator, newRoot);
+    }
+
+    /**
+     * @brief Restituisce una nuova mappa senza la chiave indicata.
+     *
+     * @param key Chiave da rimuovere.
+     * @return Nuova mappa, oppure questa stessa mappa se la chiave non era presente.
+     */
+    public PersistentSortedMap<K, V> minus(K key) {
+        Node newRoot = delete(root, key);
+        return newRoot == root ? this : new PersistentSortedMap<>(comparator, newRoot);
+    }
+
+    /**
+     * @brief Restituisce tutti i valori in ordine di chiave.
+     *
+     * @return Nuova lista modificabile (mai null).
+     */
+    public List<V> values() {
+        return valuesBetween(null, true, null, true);
+    }
+
+    /**
+     * @brief Restituisce, in ordine di chiave, i valori con chiave in un intervallo.
+     *
+     * @param from          Estremo inferiore (null = nessun limite).
+     * @param fromInclusive true se l'estremo inferiore è incluso.
+     * @param to            Estremo superiore (null = nessun limite).
+     * @param toInclusive   true se l'estremo superiore è incluso.
+     * @return Nuova lista modificabile (mai null).
+     */
+    public List<V> valuesBetween(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        List<V> result = new ArrayList<>();
+        collect(root, from, fromInclusive, to, toInclusive, result);
+        return result;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object a, Object b) {
+        return comparator.compare((K) a, (K) b);
+    }
+
+    private static int height(Node n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private Node insert(Node n, K key, V value) {
+        if (n == null) {
+            return new Node(key, value, null, null);
+        }
+        int c = compare(key, n.key);
+        if (c < 0) {
+            Node left = insert(n.left, key, value);
+            return left == n.left ? n : balance(n.key, n.value, left, n.right);
+        }
+        if (c > 0) {
+            Node right = insert(n.right, key, value);
+            return right == n.right ? n : balance(n.key, n.value, n.left, right);
+        }
+        return n.value == value ? n : new Node(key, value, n.left, n.right);
+    }
+
+    private Node delete(Node n, K key) {
+        if (n == null) {
+            return null;
+        }
+        int c = compare(key, n.key);
+        if (c < 0) {
+            Node left = delete(n.left, key);
+            return left == n.left ? n : balance(n.key, n.value, left, n.right);
+        }
+        if (c > 0) {
+            Node right = delete(n.right, key);
+            return right == n.right ? n : balance(n.key, n.value, n.left, right);
+        }
+        if (n.left == null) {
+            return n.right;
+        }
+        if (n.right == null) {
+            return n.left;
+        }
+        Node min = n.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.key, min.value, n.left, deleteMin(n.right));
+    }
+
+    private static Node deleteMin(Node n) {
+        if (n.left == null) {
+            return n.right;
+        }
+        return balance(n.key, n.value, deleteMin(n.left), n.right);
+    }
+
+    /**
+     * @brief Crea un nodo ripristinando il bilanciamento AVL con al più due rotazioni.
+     */
+    private static Node balance(Object key, Object value, Node left, Node right) {
+        int hl = height(left);
+        int hr = height(right);
+        if (hl > hr + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.key, left.value, left.left, new Node(key, value, left.right, right));
+            }
+            Node lr = left.right;
+            return new Node(lr.key, lr.value,
+                    new Node(left.key, left.value, left.left, lr.left),
+                    new Node(key, value, lr.right, right));
+        }
+        if (hr > hl + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(right.key, right.value, new Node(key, value, left, right.left), right.right);
+            }
+            Node rl = right.left;
+            return new Node(rl.key, rl.value,
+                    new Node(key, value, left, rl.left),
+                    new Node(right.key, right.value, rl.right, right.right));
+        }
+        return new Node(key, value, left, right);
+    }
+
+    /**
+     * @brief Visita in ordine i nodi con chiave nell'intervallo, saltando i sottoalberi esterni.
+     */
+    @SuppressWarnings("unchecked")
+    private void collect(Node n, K from, boolean fromInclusive, K to, boolean toInclusive, List<V> out) {
+        if (n == null) {
+            return;
+        }
+        int cFrom = from == null ? 1 : compare(n.key, from);
+        int cTo = to == null ? -1 : compare(n.key, to);
+        if (cFrom > 0) {
+            collect(n.left, from, fromInclusive, to, toInclusive, out);
+        }
+        if ((cFrom > 0 || (cFrom == 0 && fromInclusive)) && (cTo < 0 || (cTo == 0 && toInclusive))) {
+            out.add((V) n.value);
+        }
+        if (cTo < 0) {
+            collect(n.right, from, fromInclusive, to, toInclusive, out);
+        }
+    }
+}
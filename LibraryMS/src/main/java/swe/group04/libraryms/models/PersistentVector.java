@@ -0,0 +1,301 @@
+/**
+ * @file PersistentVector.java
+ * @brief Lista immutabile con condivisione strutturale.
+ *
+ * Gli elementi sono memorizzati in un albero con 32 figli per nodo più un
+ * blocco finale ("coda") di al più 32 elementi. Ogni modifica restituisce
+ * una nuova lista che condivide con la precedente tutti i nodi non
+ * toccati: aggiungere in fondo o sostituire un elemento copia solo il
+ * cammino dalla radice alla foglia (O(log32 n)), mentre la lista di
+ * partenza resta invariata.
+ *
+ * Chi ha ottenuto una lista può quindi percorrerla senza copiarla e senza
+ * che cambi mentre l'archivio viene modificato.
+ *
+ * La rimozione di un elemento diverso dall'ultimo ricostruisce la parte
+ * successiva all'elemento (O(n)): nel dominio è un'operazione rara
+ * rispetto a inserimenti e letture.
+ */
+package swe.group04.libraryms.models;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * @brief Vettore persistente (immutabile) a 32 vie.
+ *
+ * I metodi di modifica di java.util.List lanciano
+ * UnsupportedOperationException: le versioni modificate si ottengono con
+ * plus(), with(), minus() e without().
+ *
+ * @param <E> Tipo degli elementi.
+ */
+public final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int BITS = 5;               ///< Bit di indice per livello
+    private static final int WIDTH = 1 << BITS;      ///< Figli per nodo (32)
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[0];
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, EMPTY_NODE, EMPTY_NODE);
+
+    private final int size;      ///< Numero di elementi
+    private final int shift;     ///< Bit di spostamento del livello radice
+    private final Object[] root; ///< Radice dell'albero (elementi prima della coda)
+    private final Object[] tail; ///< Ultimi elementi (da 0 a 32)
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * @brief Restituisce la lista vuota.
+     *
+     * @return Lista vuota condivisa.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    /**
+     * @brief Crea una lista con gli elementi di una collezione, nello stesso ordine.
+     *
+     * Le foglie vengono riempite direttamente, senza passare per una
+     * sequenza di plus().
+     *
+     * @param elements Elementi da copiare.
+     * @return Nuova lista.
+     */
+    public static <E> PersistentVector<E> copyOf(Collection<? extends E> elements) {
+        if (elements instanceof PersistentVector) {
+            @SuppressWarnings("unchecked")
+            PersistentVector<E> v = (PersistentVector<E>) elements;
+            return v;
+        }
+        Object[] all = elements.toArray();
+        int n = all.length;
+        if (n == 0) {
+            return empty();
+        }
+
+        //  La coda contiene gli ultimi elementi (1..32), il resto va nell'albero
+        int tailOffset = ((n - 1) >>> BITS) << BITS;
+        Object[] tail = Arrays.copyOfRange(all, tailOffset, n);
+
+        Object[] level = new Object[tailOffset >>> BITS];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = Arrays.copyOfRange(all, i << BITS, (i + 1) << BITS);
+        }
+        int shift = BITS;
+        while (level.length > WIDTH) {
+            Object[] parents = new Object[(level.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Arrays.copyOfRange(level, i << BITS, Math.min((i + 1) << BITS, level.length));
+            }
+            level = parents;
+            shift += BITS;
+        }
+        return new PersistentVector<>(n, shift, level, tail);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    /**
+     * @brief Restituisce una nuova lista con l'elemento aggiunto in fondo.
+     *
+     * @param element Elemento da aggiungere.
+     * @return Nuova lista; quella corrente non cambia.
+     */
+    public PersistentVector<E> plus(E element) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+
+        //  Coda piena: diventa una foglia dell'albero
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[] { root, newPath(shift, tail) };
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] { element });
+    }
+
+    /**
+     * @brief Restituisce una nuova lista con l'elemento in posizione index sostituito.
+     *
+     * @param index   Posizione da sostituire.
+     * @param element Nuovo elemento.
+     * @return Nuova lista; quella corrente non cambia.
+     *
+     * @throws IndexOutOfBoundsException Se index non è valido.
+     */
+    public PersistentVector<E> with(int index, E element) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, assoc(shift, root, index, element), tail);
+    }
+
+    /**
+     * @brief Restituisce una nuova lista senza l'elemento in posizione index.
+     *
+     * @param index Posizione da rimuovere.
+     * @return Nuova lista; quella corrente non cambia.
+     *
+     * @throws IndexOutOfBoundsException Se index non è valido.
+     */
+    public PersistentVector<E> minus(int index) {
+        checkIndex(index);
+        if (index == size - 1 && tail.length > 1) {
+            return new PersistentVector<>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        Object[] all = toArray();
+        Object[] rest = new Object[size - 1];
+        System.arraycopy(all, 0, rest, 0, index);
+        System.arraycopy(all, index + 1, rest, index, size - index - 1);
+        @SuppressWarnings("unchecked")
+        PersistentVector<E> result = (PersistentVector<E>) copyOf(Arrays.asList(rest));
+        return result;
+    }
+
+    /**
+     * @brief Restituisce una nuova lista senza la prima occorrenza di un elemento.
+     *
+     * @param element Elemento da rimuovere (confronto con equals()).
+     * @return Nuova lista, oppure questa stessa lista se l'elemento non è presente.
+     */
+    public PersistentVector<E> without(Object element) {
+        int index = indexOf(element);
+        return index < 0 ? this : minus(index);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int index;
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((index & MASK) == 0 || leaf == null) {
+                    leaf = leafFor(index);
+                }
+                return (E) leaf[index++ & MASK];
+            }
+        };
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] result = new Object[size];
+        int offset = 0;
+        while (offset < size) {
+            Object[] leaf = leafFor(offset);
+            System.arraycopy(leaf, 0, result, offset, leaf.length);
+            offset += leaf.length;
+        }
+        return result;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    private int tailOffset() {
+        return size - tail.length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Indice " + index + " fuori dall'intervallo [0, " + size + ")");
+        }
+    }
+
+    /**
+     * @brief Restituisce la foglia (o la coda) che contiene l'elemento index.
+     */
+    private Object[] leafFor(int index) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * @brief Inserisce una foglia piena come ultimo figlio, copiando il cammino.
+     */
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int subIndex = ((size - 1) >>> level) & MASK;
+        Object[] result = Arrays.copyOf(parent, subIndex + 1);
+        Object[] child;
+        if (level == BITS) {
+            child = leaf;
+        } else if (subIndex < parent.length) {
+            child = pushTail(level - BITS, (Object[]) parent[subIndex], leaf);
+        } else {
+            child = newPath(level - BITS, leaf);
+        }
+        result[subIndex] = child;
+        return result;
+    }
+
+    /**
+     * @brief Crea un cammino di nodi con un solo figlio fino alla foglia.
+     */
+    private static Object[] newPath(int level, Object[] leaf) {
+        return level == 0 ? leaf : new Object[] { newPath(level - BITS, leaf) };
+    }
+
+    /**
+     * @brief Sostituisce un elemento dell'albero copiando il cammino.
+     */
+    private static Object[] assoc(int level, Object[] node, int index, Object element) {
+        Object[] result = node.clone();
+        if (level == 0) {
+            result[index & MASK] = element;
+        } else {
+            int subIndex = (index >>> level) & MASK;
+            result[subIndex] = assoc(level - BITS, (Object[]) node[subIndex], index, element);
+        }
+        return result;
+    }
+}
@@ -1,13 +1,26 @@
 /**
  * @file User.java
  * @brief Rappresenta un utente registrato nel sistema della biblioteca.
+ *
+ * I campi modificabili, compresi i prestiti attivi, sono raccolti in uno
+ * User.State immutabile, che i setter sostituiscono: l'archivio registra
+ * in ogni sua versione lo stato di ciascun utente (ArchiveSnapshot.stateOf())
+ * e chi scorre i prestiti attivi non vede le modifiche concorrenti. Per
+ * un utente registrato il nuovo stato viene calcolato dall'archivio sotto
+ * il proprio lock, così modifiche concorrenti non si sovrascrivono. La
+ * forma serializzata resta quella originale.
  */
 package swe.group04.libraryms.models;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 /**
  * @brief Modello di dominio per un utente.
@@ -15,16 +28,110 @@ import java.util.Objects;
  * Un oggetto User descrive un utente identificato da un codice univoco
  * (matricola), con le principali informazioni anagrafiche e la lista
  * dei prestiti attivi.
+ *
+ * La lista dei prestiti attivi è mantenuta dall'archivio in cui i prestiti
+ * sono registrati (apertura, restituzione, rimozione) e ricostruita al
+ * caricamento: il numero di prestiti attivi si legge in tempo costante.
+ * setActiveLoans(), addLoan() e removeLoan() sono quindi ammessi solo su
+ * un utente non ancora registrato in un archivio.
  */
 public class User implements Serializable {
 
+    /**
+     * Versione di serializzazione fissata al valore calcolato sulla forma
+     * originale della classe, per continuare a leggere gli archivi già salvati.
+     */
+    private static final long serialVersionUID = 4716215633449204731L;
+
+    /**
+     * Campi della forma serializzata originale, scritti e letti da
+     * writeObject() e readObject() a partire dallo stato corrente.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("firstName", String.class),
+        new ObjectStreamField("lastName", String.class),
+        new ObjectStreamField("email", String.class),
+        new ObjectStreamField("code", String.class),
+        new ObjectStreamField("activeLoans", List.class)
+    };
+
+    /**
+     * @brief Stato immutabile di un utente in un dato istante.
+     *
+     * Ogni modifica dell'utente crea un nuovo stato; quello registrato in
+     * una versione dell'archivio non cambia più.
+     */
+    public static final class State {
+        final User user;    ///< Utente a cui appartiene lo stato
+        final String firstName;
+        final String lastName;
+        final String email;
+        final PersistentVector<Loan> activeLoans; ///< Prestiti attivamente in corso
+
+        State(User user, String firstName, String lastName, String email, PersistentVector<Loan> activeLoans) {
+            this.user = user;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.email = email;
+            this.activeLoans = activeLoans;
+        }
+
+        /**
+         * @brief Restituisce il nome dell'utente.
+         *
+         * @return Nome.
+         */
+        public String getFirstName() {
+            return firstName;
+        }
+
+        /**
+         * @brief Restituisce il cognome dell'utente.
+         *
+         * @return Cognome.
+         */
+        public String getLastName() {
+            return lastName;
+        }
+
+        /**
+         * @brief Restituisce l'indirizzo email dell'utente.
+         *
+         * @return Email.
+         */
+        public String getEmail() {
+            return email;
+        }
+
+        /**
+         * @brief Restituisce i prestiti attivi dell'utente.
+         *
+         * @return Lista immutabile dei prestiti attivi.
+         */
+        public List<Loan> getActiveLoans() {
+            return activeLoans;
+        }
+
+        /**
+         * @brief Restituisce il numero di prestiti attivi.
+         *
+         * @return Numero di prestiti attivi.
+         */
+        public int getActiveLoanCount() {
+            return activeLoans.size();
+        }
+
+        State withActiveLoans(PersistentVector<Loan> activeLoans) {
+            return activeLoans == this.activeLoans ? this : new State(user, firstName, lastName, email, activeLoans);
+        }
+    }
+
     /// Spazio degli Attributi
     
-    private String firstName;
-    private String lastName;
-    private String email;
-    private final String code; ///< Identificativo univoco: Matricola
-    private List<Loan> activeLoans; ///< Prestiti attivamente in corso
+    private String code; ///< Identificativo univoco: Matricola (assegnato solo alla creazione o alla lettura)
+    private transient volatile State state; ///< Valori correnti dei campi modificabili
+
+    private transient volatile LibraryArchive archive; ///< Archivio che registra l'utente (null se non registrato)
 
     /**
      * @brief Crea un nuovo utente con i dati specificati.
@@ -41,11 +148,9 @@ public class User implements Serializable {
      * @param code      Codice univoco (matricola).
      */
     public User(String firstName, String lastName, String email, String code) {
-        this.firstName = firstName;
-        this.lastName = lastName;
-        this.email = email;
         this.code = code;
-        this.activeLoans = new ArrayList<>();   ///< Nessun prestito attivo alla creazione
+        this.state = new State(this, firstName, lastName, email,
+                PersistentVector.empty()); ///< Nessun prestito attivo alla creazione
     }
 
     /**
@@ -54,7 +159,7 @@ public class User implements Serializable {
      * @return Nome.
      */
     public String getFirstName() { 
-        return firstName; 
+        return state.firstName; 
     }
     
     /**
@@ -63,7 +168,7 @@ public class User implements Serializable {
      * @return Cognome.
      */
     public String getLastName() { 
-        return lastName; 
+        return state.lastName; 
     }
     
     /**
@@ -72,7 +177,7 @@ public class User implements Serializable {
      * @return Email.
      */
     public String getEmail() { 
-        return email; 
+        return state.email; 
     }
     
     /**
@@ -93,7 +198,16 @@ public class User implements Serializable {
      * @return Copia della lista dei prestiti attivi (può essere vuota).
      */
     public List<Loan> getActiveLoans() {
-        return new ArrayList<>(activeLoans);
+        return new ArrayList<>(state.activeLoans);
+    }
+
+    /**
+     * @brief Restituisce i valori correnti dell'utente.
+     *
+     * @return Stato immutabile corrente.
+     */
+    public State getState() {
+        return state;
     }
 
     /**
@@ -102,7 +216,7 @@ public class User implements Serializable {
      * @param firstName Nuovo nome.
      */
     public void setFirstName(String firstName) { 
-        this.firstName = firstName; 
+        update(s -> new State(s.user, firstName, s.lastName, s.email, s.activeLoans));
     }
     
     /**
@@ -111,7 +225,7 @@ public class User implements Serializable {
      * @param lastName Nuovo cognome.
      */
     public void setLastName(String lastName) { 
-        this.lastName = lastName; 
+        update(s -> new State(s.user, s.firstName, lastName, s.email, s.activeLoans));
     }
     
     /**
@@ -120,7 +234,7 @@ public class User implements Serializable {
      * @param email Nuovo indirizzo email.
      */
     public void setEmail(String email) { 
-        this.email = email; 
+        update(s -> new State(s.user, s.firstName, s.lastName, email, s.activeLoans));
     }
     
     /**
@@ -130,18 +244,35 @@ public class User implements Serializable {
      * La lista passata viene copiata internamente.
      *
      * @param loans Nuova lista di prestiti attivi (o null).
+     *
+     * @pre  L'utente non è registrato in un archivio
+     *
+     * @throws IllegalArgumentException Se la lista contiene elementi nulli.
+     * @throws IllegalStateException    Se l'utente è registrato in un archivio,
+     *                                  che ne mantiene i prestiti attivi.
      */
     public void setActiveLoans(List<Loan> loans) {
-        this.activeLoans = (loans != null) ? new ArrayList<>(loans) : new ArrayList<>();
+        PersistentVector<Loan> copy = loans != null ? PersistentVector.copyOf(loans) : PersistentVector.empty();
+        if (copy.contains(null)) {
+            throw new IllegalArgumentException("La lista dei prestiti non può contenere elementi nulli.");
+        }
+        updateDetached(s -> s.withActiveLoans(copy));
     }
 
     /**
      * @brief Aggiunge un prestito alla lista dei prestiti attivi.
      *
      * @param loan Prestito da aggiungere.
+     *
+     * @pre  loan != null
+     * @pre  L'utente non è registrato in un archivio
+     *
+     * @throws IllegalArgumentException Se loan è nullo.
+     * @throws IllegalStateException    Se l'utente è registrato in un archivio.
      */
     public void addLoan(Loan loan) {
-        this.activeLoans.add(loan);
+        requireLoan(loan);
+        updateDetached(s -> s.withActiveLoans(s.activeLoans.plus(loan)));
     }
     
     /**
@@ -150,9 +281,79 @@ public class User implements Serializable {
      * Se il prestito non è presente, la lista rimane invariata.
      *
      * @param loan Prestito da rimuovere.
+     *
+     * @pre  loan != null
+     * @pre  L'utente non è registrato in un archivio
+     *
+     * @throws IllegalArgumentException Se loan è nullo.
+     * @throws IllegalStateException    Se l'utente è registrato in un archivio.
      */
     public void removeLoan(Loan loan) {
-        this.activeLoans.remove(loan);
+        requireLoan(loan);
+        updateDetached(s -> s.withActiveLoans(s.activeLoans.without(loan)));
+    }
+
+    /**
+     * @brief Aggiunge un prestito attivo senza notificare l'archivio.
+     *
+     * Usato dall'archivio, sotto il proprio lock, che registra da sé il
+     * nuovo stato.
+     *
+     * @param loan Prestito da aggiungere.
+     * @return Nuovo stato dell'utente.
+     */
+    synchronized State attachLoan(Loan loan) {
+        State s = state;
+        return state = s.withActiveLoans(s.activeLoans.plus(loan));
+    }
+
+    /**
+     * @brief Rimuove un prestito attivo senza notificare l'archivio.
+     *
+     * @param loan Prestito da rimuovere.
+     * @return Nuovo stato dell'utente.
+     */
+    synchronized State detachLoan(Loan loan) {
+        State s = state;
+        return state = s.withActiveLoans(s.activeLoans.without(loan));
+    }
+
+    /**
+     * @brief Svuota i prestiti attivi senza notificare l'archivio.
+     */
+    synchronized void clearLoans() {
+        state = state.withActiveLoans(PersistentVector.empty());
+    }
+
+    /**
+     * @brief Registra l'archivio che pubblica le modifiche dell'utente.
+     *
+     * Invocato dall'archivio sotto il proprio lock.
+     *
+     * @param archive Archivio che registra l'utente (null per scollegarlo).
+     */
+    synchronized void setArchive(LibraryArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @brief Sostituisce lo stato corrente.
+     *
+     * Invocato dall'archivio sotto il proprio lock e quello dell'utente.
+     *
+     * @param state Nuovo stato.
+     */
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @brief Restituisce l'archivio che registra l'utente.
+     *
+     * @return Archivio in cui l'utente è registrato, oppure null.
+     */
+    LibraryArchive getArchive() {
+        return archive;
     }
     
     /**
@@ -161,7 +362,16 @@ public class User implements Serializable {
      * @return true se esiste almeno un prestito attivo, false altrimenti.
      */
     public boolean hasActiveLoans() {
-        return !activeLoans.isEmpty();
+        return !state.activeLoans.isEmpty();
+    }
+
+    /**
+     * @brief Restituisce il numero di prestiti attivi dell'utente in tempo costante.
+     *
+     * @return Numero di prestiti attivi.
+     */
+    public int getActiveLoanCount() {
+        return state.activeLoans.size();
     }
 
     /**
@@ -207,12 +417,108 @@ public class User implements Serializable {
      */
     @Override
     public String toString() {
+        State s = state;
         StringBuilder sb = new StringBuilder();
         sb.append("Code: ").append(code).append("\n");
-        sb.append("First Name: ").append(firstName).append("\n");
-        sb.append("Last Name: ").append(lastName).append("\n");
-        sb.append("Email: ").append(email).append("\n");
-        sb.append("Active Loans: ").append(activeLoans.size()).append("\n");
+        sb.append("First Name: ").append(s.firstName).append("\n");
+        sb.append("Last Name: ").append(s.lastName).append("\n");
+        sb.append("Email: ").append(s.email).append("\n");
+        sb.append("Active Loans: ").append(s.activeLoans.size()).append("\n");
         return sb.toString();
     }
+
+    /* ---------------------------------------------------------------------- */
+    /*                            Serializzazione                              */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Scrive l'utente nella forma serializzata originale.
+     *
+     * @param out Stream di output.
+     * @throws IOException In caso di errore di scrittura.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        State s = state;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("firstName", s.firstName);
+        fields.put("lastName", s.lastName);
+        fields.put("email", s.email);
+        fields.put("code", code);
+        fields.put("activeLoans", new ArrayList<>(s.activeLoans));
+        out.writeFields();
+    }
+
+    /**
+     * @brief Legge l'utente dalla forma serializzata originale.
+     *
+     * @param in Stream di input.
+     * @throws IOException            In caso di errore di lettura.
+     * @throws ClassNotFoundException Se una classe serializzata non è disponibile.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<Loan> loans = (List<Loan>) fields.get("activeLoans", null);
+        code = (String) fields.get("code", null);
+        state = new State(this,
+                (String) fields.get("firstName", null),
+                (String) fields.get("lastName", null),
+                (String) fields.get("email", null),
+                loans != null ? PersistentVector.copyOf(loans) : PersistentVector.empty());
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Applica una modifica allo stato corrente.
+     *
+     * Un utente registrato delega all'archivio, che calcola e pubblica il
+     * nuovo stato sotto il proprio lock; altrimenti lo stato viene sostituito
+     * sotto il lock dell'utente. Se nel frattempo l'utente è stato aggiunto
+     * o rimosso dall'archivio si riprova.
+     *
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     */
+    private void update(UnaryOperator<State> change) {
+        while (true) {
+            LibraryArchive a = archive;
+            if (a != null) {
+                if (a.updateUser(this, change)) {
+                    return;
+                }
+            } else {
+                synchronized (this) {
+                    if (archive == null) {
+                        state = change.apply(state);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Modifica i prestiti attivi di un utente non registrato.
+     *
+     * Per un utente registrato la lista è mantenuta dall'archivio insieme
+     * agli indici dei prestiti: modificarla da qui la renderebbe incoerente.
+     *
+     * @param change Funzione che calcola il nuovo stato da quello corrente.
+     *
+     * @throws IllegalStateException Se l'utente è registrato in un archivio.
+     */
+    private synchronized void updateDetached(UnaryOperator<State> change) {
+        if (archive != null) {
+            throw new IllegalStateException("I prestiti attivi di un utente registrato sono gestiti dall'archivio.");
+        }
+        state = change.apply(state);
+    }
+
+    private static void requireLoan(Loan loan) {
+        if (loan == null) {
+            throw new IllegalArgumentException("Il prestito non può essere nullo.");
+        }
+    }
 }
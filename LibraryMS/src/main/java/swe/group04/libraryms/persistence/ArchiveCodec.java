@@ -0,0 +1,988 @@
+/**
+ * @file ArchiveCodec.java
+ * @brief Codifica binaria compatta e versionata dei segmenti dell'archivio.
+ *
+ * Sostituisce la serializzazione Java standard di LibraryArchive, che scrive
+ * descrittori di classe, Boolean boxed, oggetti LocalDate completi e l'intero
+ * grafo Loan → User/Book per ogni prestito.
+ *
+ * L'archivio è salvato in segmenti indipendenti (vedi ArchiveSegment).
+ * Formato di un segmento (versione 2):
+ * - intestazione: magic number "LMSA" (int), versione del formato (short),
+ *   codice del segmento (byte);
+ * - numero di blocchi, seguito da ogni blocco preceduto dalla sua lunghezza.
+ *
+ * Ogni blocco contiene al più RECORDS_PER_BLOCK record ed è autonomo:
+ * - tabella delle stringhe: ogni stringa distinta è scritta una sola volta,
+ *   i campi testuali sono riferimenti alla tabella;
+ * - record del segmento.
+ * I blocchi possono quindi essere decodificati in parallelo su un
+ * ForkJoinPool; l'ordine dei record viene comunque preservato.
+ *
+ * I prestiti riferiscono utente e libro tramite chiave (matricola, ISBN),
+ * con date come giorni epocali e stato in un byte di flag; il blocco
+ * contiene anche i libri e gli utenti "staccati", non più in archivio ma
+ * ancora riferiti da prestiti storici, e quelli non ancora presenti nei
+ * segmenti su disco (vedi encodeLoans(ArchiveSnapshot, ArchiveSnapshot,
+ * ArchiveSnapshot)). Un riferimento che non si risolve né sugli uni né
+ * sugli altri rende il segmento non valido.
+ *
+ * Interi e riferimenti sono scritti come varint (7 bit per byte).
+ *
+ * La codifica legge una versione immutabile dell'archivio (ArchiveSnapshot)
+ * e i valori che questa registra per ogni entità: può quindi avvenire su un
+ * thread diverso da quello che modifica l'archivio.
+ *
+ * @note La classe è priva di stato: tutti i metodi sono statici.
+ */
+package swe.group04.libraryms.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+import swe.group04.libraryms.models.ArchiveSnapshot;
+import swe.group04.libraryms.models.Book;
+import swe.group04.libraryms.models.LibraryArchive;
+import swe.group04.libraryms.models.Loan;
+import swe.group04.libraryms.models.User;
+
+/**
+ * @brief Codec binario dei segmenti di LibraryArchive.
+ */
+public final class ArchiveCodec {
+
+    /** Magic number dell'intestazione ("LMSA") */
+    public static final int MAGIC = 0x4C4D5341;
+
+    /** Versione corrente del formato */
+    public static final short FORMAT_VERSION = 2;
+
+    /** Dimensione dell'intestazione di un segmento in byte */
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + 1;
+
+    /** Numero massimo di record (libri, utenti o prestiti) in un blocco */
+    public static final int RECORDS_PER_BLOCK = 4096;
+
+    /** Flag del prestito: prestito attivo */
+    private static final int FLAG_ACTIVE = 1;
+
+    private ArchiveCodec() {
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                               Codifica                                  */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Verifica se un contenuto è codificato con questo codec.
+     *
+     * @param data Contenuto da esaminare.
+     * @return true se il contenuto inizia con il magic number del codec.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length >= Integer.BYTES
+                && ((data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16
+                    | (data[2] & 0xFF) << 8 | (data[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * @brief Codifica il segmento dei metadati dell'archivio.
+     *
+     * @param archive Archivio di cui codificare i metadati.
+     * @return Segmento META.
+     *
+     * @pre archive != null
+     */
+    public static byte[] encodeMeta(LibraryArchive archive) {
+        if (archive == null) {
+            throw new IllegalArgumentException("L'archivio da codificare non può essere nullo.");
+        }
+        return encodeMeta(archive.snapshot(), archive.getNextLoanId());
+    }
+
+    /**
+     * @brief Codifica il segmento dei metadati di una versione dell'archivio.
+     *
+     * @param snapshot   Versione da codificare.
+     * @param nextLoanId Prossimo ID prestito, letto insieme alla versione.
+     * @return Segmento META.
+     *
+     * @pre snapshot != null
+     */
+    public static byte[] encodeMeta(ArchiveSnapshot snapshot, int nextLoanId) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("La versione da codificare non può essere nulla.");
+        }
+        try {
+            BlockWriter block = new BlockWriter(snapshot);
+            block.writeVarInt(nextLoanId);
+            block.writeVarInt(snapshot.getBooks().size());
+            block.writeVarInt(snapshot.getUsers().size());
+            block.writeVarInt(snapshot.getLoans().size());
+            return segment(ArchiveSegment.META, List.of(block.toByteArray()));
+        } catch (IOException e) {
+            //  Non può accadere scrivendo in memoria
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @brief Codifica il segmento dei libri.
+     *
+     * @param books Libri dell'archivio.
+     * @return Segmento BOOKS.
+     *
+     * @pre books != null
+     */
+    public static byte[] encodeBooks(List<Book> books) {
+        return encodeBooks(books, null);
+    }
+
+    private static byte[] encodeBooks(List<Book> books, ArchiveSnapshot snapshot) {
+        try {
+            List<byte[]> blocks = new ArrayList<>();
+            for (List<Book> chunk : chunks(books)) {
+                BlockWriter block = new BlockWriter(snapshot);
+                block.writeBooks(chunk);
+                blocks.add(block.toByteArray());
+            }
+            return segment(ArchiveSegment.BOOKS, blocks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @brief Codifica il segmento degli utenti.
+     *
+     * @param users Utenti dell'archivio.
+     * @return Segmento USERS.
+     *
+     * @pre users != null
+     */
+    public static byte[] encodeUsers(List<User> users) {
+        return encodeUsers(users, null);
+    }
+
+    private static byte[] encodeUsers(List<User> users, ArchiveSnapshot snapshot) {
+        try {
+            List<byte[]> blocks = new ArrayList<>();
+            for (List<User> chunk : chunks(users)) {
+                BlockWriter block = new BlockWriter(snapshot);
+                block.writeUsers(chunk);
+                blocks.add(block.toByteArray());
+            }
+            return segment(ArchiveSegment.USERS, blocks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @brief Codifica il segmento dei prestiti.
+     *
+     * Utenti e libri riferiti dai prestiti ma assenti da users/books vengono
+     * scritti nel blocco dei prestiti che li riferiscono, così che lo storico
+     * resti leggibile e ogni blocco decodificabile da solo.
+     *
+     * @param loans Prestiti dell'archivio.
+     * @param books Libri presenti in archivio.
+     * @param users Utenti presenti in archivio.
+     * @return Segmento LOANS.
+     *
+     * @pre loans != null, books != null, users != null
+     */
+    public static byte[] encodeLoans(List<Loan> loans, List<Book> books, List<User> users) {
+        return encodeLoans(loans, books, users, null);
+    }
+
+    /**
+     * @brief Codifica il segmento dei prestiti di una versione, rispetto ai segmenti su disco.
+     *
+     * Un libro (utente) riferito da un prestito è scritto come riferimento
+     * solo se la sua chiave compare sia nella versione codificata sia in
+     * quella già scritta nel segmento BOOKS (USERS) su disco; altrimenti ne
+     * viene scritta una copia staccata. Il segmento dei prestiti si risolve
+     * così sia con i libri e gli utenti vecchi sia con quelli nuovi, e può
+     * essere scritto prima di essi.
+     *
+     * @param snapshot     Versione da codificare.
+     * @param booksOnDisk  Versione dei libri nel segmento su disco (null = snapshot).
+     * @param usersOnDisk  Versione degli utenti nel segmento su disco (null = snapshot).
+     * @return Segmento LOANS.
+     *
+     * @pre snapshot != null
+     */
+    public static byte[] encodeLoans(ArchiveSnapshot snapshot, ArchiveSnapshot booksOnDisk,
+                                     ArchiveSnapshot usersOnDisk) {
+        Set<String> isbns = new HashSet<>();
+        for (Book b : snapshot.getBooks()) {
+            if (booksOnDisk == null || booksOnDisk.findBookByIsbn(b.getIsbn()) != null) {
+                isbns.add(b.getIsbn());
+            }
+        }
+        Set<String> codes = new HashSet<>();
+        for (User u : snapshot.getUsers()) {
+            if (usersOnDisk == null || usersOnDisk.findUserByCode(u.getCode()) != null) {
+                codes.add(u.getCode());
+            }
+        }
+        return encodeLoans(snapshot.getLoans(), isbns, codes, snapshot);
+    }
+
+    private static byte[] encodeLoans(List<Loan> loans, List<Book> books, List<User> users,
+                                      ArchiveSnapshot snapshot) {
+        Set<String> isbns = new HashSet<>();
+        for (Book b : books) {
+            isbns.add(b.getIsbn());
+        }
+        Set<String> codes = new HashSet<>();
+        for (User u : users) {
+            codes.add(u.getCode());
+        }
+        return encodeLoans(loans, isbns, codes, snapshot);
+    }
+
+    private static byte[] encodeLoans(List<Loan> loans, Set<String> isbns, Set<String> codes,
+                                      ArchiveSnapshot snapshot) {
+        try {
+            List<byte[]> blocks = new ArrayList<>();
+            for (List<Loan> chunk : chunks(loans)) {
+                BlockWriter block = new BlockWriter(snapshot);
+                block.writeLoans(chunk, isbns, codes);
+                blocks.add(block.toByteArray());
+            }
+            return segment(ArchiveSegment.LOANS, blocks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @brief Codifica il segmento indicato a partire dall'archivio.
+     *
+     * @param segment Segmento da codificare.
+     * @param archive Archivio sorgente.
+     * @return Contenuto del segmento.
+     *
+     * @pre segment != null, archive != null
+     */
+    public static byte[] encode(ArchiveSegment segment, LibraryArchive archive) {
+        return encode(segment, archive.snapshot(), archive.getNextLoanId());
+    }
+
+    /**
+     * @brief Codifica il segmento indicato a partire da una versione dell'archivio.
+     *
+     * Libri, utenti e prestiti sono scritti con i valori registrati nella
+     * versione, anche se nel frattempo sono stati modificati.
+     *
+     * @param segment    Segmento da codificare.
+     * @param snapshot   Versione sorgente.
+     * @param nextLoanId Prossimo ID prestito, letto insieme alla versione.
+     * @return Contenuto del segmento.
+     *
+     * @pre segment != null, snapshot != null
+     */
+    public static byte[] encode(ArchiveSegment segment, ArchiveSnapshot snapshot, int nextLoanId) {
+        switch (segment) {
+            case META:
+                return encodeMeta(snapshot, nextLoanId);
+            case BOOKS:
+                return encodeBooks(snapshot.getBooks(), snapshot);
+            case USERS:
+                return encodeUsers(snapshot.getUsers(), snapshot);
+            default:
+                return encodeLoans(snapshot, null, null);
+        }
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                              Decodifica                                 */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Restituisce il tipo di segmento di un contenuto codificato.
+     *
+     * @param data Contenuto da esaminare.
+     * @return Segmento indicato nell'intestazione.
+     *
+     * @throws IOException Se il contenuto non è un segmento valido o ha una
+     *                     versione non supportata.
+     */
+    public static ArchiveSegment segmentOf(byte[] data) throws IOException {
+        if (!isEncoded(data) || data.length < HEADER_SIZE) {
+            throw new IOException("Il contenuto non rappresenta un segmento dell'archivio.");
+        }
+        short version = (short) ((data[4] & 0xFF) << 8 | (data[5] & 0xFF));
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Versione dell'archivio non supportata: " + version);
+        }
+        return ArchiveSegment.fromCode(data[6]);
+    }
+
+    /**
+     * @brief Decodifica il segmento dei metadati.
+     *
+     * @param data Contenuto del segmento META.
+     * @return Prossimo ID prestito memorizzato.
+     *
+     * @throws IOException Se il contenuto non è un segmento META valido.
+     */
+    public static int decodeNextLoanId(byte[] data) throws IOException {
+        List<byte[]> blocks = blocks(data, ArchiveSegment.META);
+        if (blocks.isEmpty()) {
+            throw new IOException("Segmento dei metadati vuoto.");
+        }
+        return new BlockReader(blocks.get(0)).readVarInt();
+    }
+
+    /**
+     * @brief Decodifica il segmento dei libri sul thread corrente.
+     *
+     * @param data Contenuto del segmento BOOKS.
+     * @return Libri, nell'ordine in cui sono stati salvati.
+     *
+     * @throws IOException Se il contenuto non è un segmento BOOKS valido.
+     */
+    public static List<Book> decodeBooks(byte[] data) throws IOException {
+        return decodeBooks(data, null);
+    }
+
+    /**
+     * @brief Decodifica il segmento dei libri, un blocco per task.
+     *
+     * @param data Contenuto del segmento BOOKS.
+     * @param pool Pool su cui decodificare i blocchi (null = thread corrente).
+     * @return Libri, nell'ordine in cui sono stati salvati.
+     *
+     * @throws IOException Se il contenuto non è un segmento BOOKS valido.
+     */
+    public static List<Book> decodeBooks(byte[] data, ForkJoinPool pool) throws IOException {
+        List<Book> books = new ArrayList<>();
+        for (List<Book> chunk : decodeBlocks(blocks(data, ArchiveSegment.BOOKS), pool, BlockReader::readBooks)) {
+            books.addAll(chunk);
+        }
+        return books;
+    }
+
+    /**
+     * @brief Decodifica il segmento degli utenti sul thread corrente.
+     *
+     * @param data Contenuto del segmento USERS.
+     * @return Utenti, nell'ordine in cui sono stati salvati.
+     *
+     * @throws IOException Se il contenuto non è un segmento USERS valido.
+     */
+    public static List<User> decodeUsers(byte[] data) throws IOException {
+        return decodeUsers(data, null);
+    }
+
+    /**
+     * @brief Decodifica il segmento degli utenti, un blocco per task.
+     *
+     * @param data Contenuto del segmento USERS.
+     * @param pool Pool su cui decodificare i blocchi (null = thread corrente).
+     * @return Utenti, nell'ordine in cui sono stati salvati.
+     *
+     * @throws IOException Se il contenuto non è un segmento USERS valido.
+     */
+    public static List<User> decodeUsers(byte[] data, ForkJoinPool pool) throws IOException {
+        List<User> users = new ArrayList<>();
+        for (List<User> chunk : decodeBlocks(blocks(data, ArchiveSegment.USERS), pool, BlockReader::readUsers)) {
+            users.addAll(chunk);
+        }
+        return users;
+    }
+
+    /**
+     * @brief Decodifica il segmento dei prestiti sul thread corrente.
+     *
+     * I prestiti restituiti non hanno ancora utente e libro: i riferimenti
+     * vanno risolti con DecodedLoans.resolve() dopo aver letto gli altri segmenti.
+     *
+     * @param data Contenuto del segmento LOANS.
+     * @return Prestiti decodificati con le chiavi dei riferimenti.
+     *
+     * @throws IOException Se il contenuto non è un segmento LOANS valido.
+     */
+    public static DecodedLoans decodeLoans(byte[] data) throws IOException {
+        return decodeLoans(data, null);
+    }
+
+    /**
+     * @brief Decodifica il segmento dei prestiti, un blocco per task.
+     *
+     * @param data Contenuto del segmento LOANS.
+     * @param pool Pool su cui decodificare i blocchi (null = thread corrente).
+     * @return Prestiti decodificati con le chiavi dei riferimenti.
+     *
+     * @throws IOException Se il contenuto non è un segmento LOANS valido.
+     */
+    public static DecodedLoans decodeLoans(byte[] data, ForkJoinPool pool) throws IOException {
+        DecodedLoans result = new DecodedLoans();
+        for (DecodedLoans chunk : decodeBlocks(blocks(data, ArchiveSegment.LOANS), pool, BlockReader::readLoans)) {
+            result.append(chunk);
+        }
+        return result;
+    }
+
+    /**
+     * @brief Prestiti decodificati in attesa della risoluzione dei riferimenti.
+     */
+    public static final class DecodedLoans {
+
+        private final List<Loan> loans = new ArrayList<>();
+        private final List<String> userCodes = new ArrayList<>();
+        private final List<String> isbns = new ArrayList<>();
+        private final Map<String, User> detachedUsers = new HashMap<>();
+        private final Map<String, Book> detachedBooks = new HashMap<>();
+
+        /**
+         * @brief Restituisce i prestiti decodificati.
+         *
+         * @return Prestiti, nell'ordine in cui sono stati salvati.
+         */
+        public List<Loan> getLoans() {
+            return loans;
+        }
+
+        /**
+         * @brief Accoda i prestiti decodificati da un blocco successivo.
+         */
+        private void append(DecodedLoans chunk) {
+            loans.addAll(chunk.loans);
+            userCodes.addAll(chunk.userCodes);
+            isbns.addAll(chunk.isbns);
+            chunk.detachedUsers.forEach(detachedUsers::putIfAbsent);
+            chunk.detachedBooks.forEach(detachedBooks::putIfAbsent);
+        }
+
+        /**
+         * @brief Collega ogni prestito al proprio utente e al proprio libro.
+         *
+         * Le chiavi vengono cercate prima tra le entità dell'archivio,
+         * poi tra quelle staccate memorizzate nel segmento.
+         *
+         * @param usersByCode Utenti dell'archivio per matricola.
+         * @param booksByIsbn Libri dell'archivio per ISBN.
+         *
+         * @throws IOException Se una chiave non corrisponde né a un'entità
+         *                     dell'archivio né a una staccata (segmenti incoerenti).
+         */
+        public void resolve(Map<String, User> usersByCode, Map<String, Book> booksByIsbn) throws IOException {
+            try {
+                for (int i = 0; i < loans.size(); i++) {
+                    resolve(i, usersByCode, booksByIsbn);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * @brief Collega i prestiti ai riferimenti suddividendo il lavoro sul pool.
+         *
+         * Le mappe vengono solo lette e ogni prestito è modificato da un solo
+         * task: il completamento del metodo rende visibili le modifiche al chiamante.
+         *
+         * @param usersByCode Utenti dell'archivio per matricola.
+         * @param booksByIsbn Libri dell'archivio per ISBN.
+         * @param pool        Pool su cui eseguire la risoluzione (null = thread corrente).
+         *
+         * @throws InterruptedIOException Se il thread viene interrotto durante l'attesa.
+         * @throws IOException            Se un riferimento non si risolve (vedi resolve(Map, Map)).
+         */
+        public void resolve(Map<String, User> usersByCode, Map<String, Book> booksByIsbn, ForkJoinPool pool)
+                throws IOException {
+            if (pool == null || loans.size() <= RECORDS_PER_BLOCK) {
+                resolve(usersByCode, booksByIsbn);
+                return;
+            }
+            ForkJoinTask<?> task = pool.submit(() -> IntStream.range(0, loans.size()).parallel()
+                    .forEach(i -> resolve(i, usersByCode, booksByIsbn)));
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Caricamento dell'archivio interrotto.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw unchecked(e.getCause());
+            }
+        }
+
+        private void resolve(int i, Map<String, User> usersByCode, Map<String, Book> booksByIsbn) {
+            Loan loan = loans.get(i);
+            String code = userCodes.get(i);
+            String isbn = isbns.get(i);
+            if (code != null) {
+                User u = usersByCode.get(code);
+                loan.setUser(u != null ? u : require(detachedUsers.get(code), loan, "utente", code));
+            }
+            if (isbn != null) {
+                Book b = booksByIsbn.get(isbn);
+                loan.setBook(b != null ? b : require(detachedBooks.get(isbn), loan, "libro", isbn));
+            }
+        }
+
+        private static <T> T require(T entity, Loan loan, String kind, String key) {
+            if (entity == null) {
+                throw new UncheckedIOException(new IOException(
+                        "Prestito " + loan.getLoanId() + ": " + kind + " " + key + " non presente nei segmenti"));
+            }
+            return entity;
+        }
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                          Struttura del segmento                         */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Compone un segmento a partire dai blocchi già codificati.
+     */
+    private static byte[] segment(ArchiveSegment kind, List<byte[]> blocks) throws IOException {
+        int size = HEADER_SIZE + 5;
+        for (byte[] b : blocks) {
+            size += b.length + 5;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeByte(kind.getCode());
+        writeVarLong(out, blocks.size());
+        for (byte[] b : blocks) {
+            writeVarLong(out, b.length);
+            out.write(b);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @brief Verifica l'intestazione di un segmento e ne separa i blocchi.
+     */
+    private static List<byte[]> blocks(byte[] data, ArchiveSegment expected) throws IOException {
+        ArchiveSegment kind = segmentOf(data);
+        if (kind != expected) {
+            throw new IOException("Segmento inatteso: " + kind + " invece di " + expected);
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data, HEADER_SIZE, data.length - HEADER_SIZE));
+            int count = (int) readVarLong(in);
+            List<byte[]> blocks = new ArrayList<>(Math.min(Math.max(count, 0), 1024));
+            for (int i = 0; i < count; i++) {
+                byte[] block = new byte[(int) readVarLong(in)];
+                in.readFully(block);
+                blocks.add(block);
+            }
+            return blocks;
+        } catch (EOFException | NegativeArraySizeException e) {
+            throw new IOException("Segmento dell'archivio troncato: " + expected, e);
+        }
+    }
+
+    /**
+     * @brief Decodificatore del contenuto di un blocco.
+     */
+    @FunctionalInterface
+    private interface BlockDecoder<T> {
+        T decode(BlockReader block) throws IOException;
+    }
+
+    /**
+     * @brief Decodifica i blocchi, in parallelo se è indicato un pool.
+     *
+     * I risultati sono restituiti nell'ordine dei blocchi; il primo errore
+     * incontrato viene propagato al chiamante.
+     */
+    private static <T> List<T> decodeBlocks(List<byte[]> blocks, ForkJoinPool pool, BlockDecoder<T> decoder)
+            throws IOException {
+        List<T> results = new ArrayList<>(blocks.size());
+        if (pool == null || blocks.size() < 2) {
+            for (byte[] block : blocks) {
+                results.add(decoder.decode(new BlockReader(block)));
+            }
+            return results;
+        }
+
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(blocks.size());
+        for (byte[] block : blocks) {
+            tasks.add(pool.submit(() -> decoder.decode(new BlockReader(block))));
+        }
+        try {
+            for (ForkJoinTask<T> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Caricamento dell'archivio interrotto.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw unchecked(e.getCause());
+        } finally {
+            for (ForkJoinTask<T> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @brief Rilancia la causa non controllata di un task fallito.
+     */
+    private static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+    }
+
+    /**
+     * @brief Suddivide una lista in porzioni di al più RECORDS_PER_BLOCK elementi.
+     *
+     * Una lista vuota produce un'unica porzione vuota, così che ogni
+     * segmento contenga almeno un blocco.
+     */
+    private static <T> List<List<T>> chunks(List<T> list) {
+        List<List<T>> result = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += RECORDS_PER_BLOCK) {
+            result.add(list.subList(from, Math.min(list.size(), from + RECORDS_PER_BLOCK)));
+        }
+        if (result.isEmpty()) {
+            result.add(list);
+        }
+        return result;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Varint non valido.");
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                               Scrittura                                 */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Scrittore di un blocco con tabella delle stringhe.
+     *
+     * I record vengono scritti in un buffer separato mentre la tabella delle
+     * stringhe viene costruita; toByteArray() antepone la tabella ai record.
+     */
+    private static final class BlockWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final ArchiveSnapshot snapshot; ///< Versione da cui leggere i valori (null = valori correnti)
+
+        BlockWriter(ArchiveSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        void writeBooks(Iterable<Book> books) throws IOException {
+            List<Book> list = new ArrayList<>();
+            books.forEach(list::add);
+            writeVarInt(list.size());
+            for (Book b : list) {
+                Book.State s = stateOf(b);
+                writeString(b.getIsbn());
+                writeString(s.getTitle());
+                List<String> authors = s.getAuthors();
+                writeVarInt(authors.size());
+                for (String a : authors) {
+                    writeString(a);
+                }
+                writeVarInt(s.getReleaseYear());
+                writeVarInt(s.getTotalCopies());
+                writeVarInt(s.getAvailableCopies());
+            }
+        }
+
+        void writeUsers(Iterable<User> users) throws IOException {
+            List<User> list = new ArrayList<>();
+            users.forEach(list::add);
+            writeVarInt(list.size());
+            for (User u : list) {
+                User.State s = stateOf(u);
+                writeString(u.getCode());
+                writeString(s.getFirstName());
+                writeString(s.getLastName());
+                writeString(s.getEmail());
+            }
+        }
+
+        /**
+         * @brief Scrive le entità staccate riferite dai prestiti e poi i prestiti.
+         */
+        void writeLoans(List<Loan> loans, Set<String> isbns, Set<String> codes) throws IOException {
+            List<Loan.State> states = new ArrayList<>(loans.size());
+            Map<String, Book> detachedBooks = new LinkedHashMap<>();
+            Map<String, User> detachedUsers = new LinkedHashMap<>();
+            for (Loan l : loans) {
+                Loan.State s = stateOf(l);
+                states.add(s);
+                if (s.getBook() != null && !isbns.contains(s.getBook().getIsbn())) {
+                    detachedBooks.putIfAbsent(s.getBook().getIsbn(), s.getBook());
+                }
+                if (s.getUser() != null && !codes.contains(s.getUser().getCode())) {
+                    detachedUsers.putIfAbsent(s.getUser().getCode(), s.getUser());
+                }
+            }
+            writeBooks(detachedBooks.values());
+            writeUsers(detachedUsers.values());
+
+            writeVarInt(loans.size());
+            for (int i = 0; i < loans.size(); i++) {
+                Loan.State s = states.get(i);
+                writeVarInt(loans.get(i).getLoanId());
+                writeString(s.getUser() != null ? s.getUser().getCode() : null);
+                writeString(s.getBook() != null ? s.getBook().getIsbn() : null);
+                writeDate(s.getLoanDate());
+                writeDate(s.getDueDate());
+                writeDate(s.getReturnDate());
+                out.writeByte(s.isActive() ? FLAG_ACTIVE : 0);
+            }
+        }
+
+        //  Valori di un'entità nella versione codificata: libri e utenti
+        //  staccati non vi sono registrati e se ne leggono i valori correnti
+
+        private Book.State stateOf(Book book) {
+            Book.State s = snapshot != null ? snapshot.stateOf(book) : null;
+            return s != null ? s : book.getState();
+        }
+
+        private User.State stateOf(User user) {
+            User.State s = snapshot != null ? snapshot.stateOf(user) : null;
+            return s != null ? s : user.getState();
+        }
+
+        private Loan.State stateOf(Loan loan) {
+            Loan.State s = snapshot != null ? snapshot.stateOf(loan) : null;
+            return s != null ? s : loan.getState();
+        }
+
+        /**
+         * @brief Scrive un riferimento alla tabella delle stringhe (0 = null).
+         */
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(value, id);
+                strings.add(value);
+            }
+            writeVarInt(id + 1);
+        }
+
+        /**
+         * @brief Scrive una data come giorno epocale in zig-zag (0 = null).
+         */
+        void writeDate(LocalDate date) throws IOException {
+            if (date == null) {
+                writeVarLong(out, 0);
+                return;
+            }
+            long day = date.toEpochDay();
+            writeVarLong(out, ((day << 1) ^ (day >> 63)) + 1);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            writeVarLong(out, value & 0xFFFFFFFFL);
+        }
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.size() + strings.size() * 16 + 8);
+            DataOutputStream header = new DataOutputStream(result);
+            writeVarLong(header, strings.size());
+            for (String s : strings) {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(header, utf8.length);
+                header.write(utf8);
+            }
+            header.flush();
+            bytes.writeTo(result);
+            return result.toByteArray();
+        }
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                                Lettura                                  */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Lettore di un blocco codificato.
+     */
+    private static final class BlockReader {
+
+        private final DataInputStream in;
+        private final String[] strings;
+
+        BlockReader(byte[] block) throws IOException {
+            this.in = new DataInputStream(new ByteArrayInputStream(block));
+            try {
+                int count = readVarInt();
+                if (count < 0 || count > block.length) {
+                    throw new IOException("Tabella delle stringhe non valida.");
+                }
+                strings = new String[count];
+                for (int i = 0; i < count; i++) {
+                    byte[] utf8 = new byte[readVarInt()];
+                    in.readFully(utf8);
+                    strings[i] = new String(utf8, StandardCharsets.UTF_8);
+                }
+            } catch (EOFException | NegativeArraySizeException e) {
+                throw new IOException("Blocco dell'archivio troncato.", e);
+            }
+        }
+
+        List<Book> readBooks() throws IOException {
+            try {
+                int count = readVarInt();
+                List<Book> books = new ArrayList<>(Math.min(Math.max(count, 0), 1 << 16));
+                for (int i = 0; i < count; i++) {
+                    String isbn = readString();
+                    String title = readString();
+                    int authorsCount = readVarInt();
+                    List<String> authors = new ArrayList<>(Math.min(Math.max(authorsCount, 0), 64));
+                    for (int a = 0; a < authorsCount; a++) {
+                        authors.add(readString());
+                    }
+                    int releaseYear = readVarInt();
+                    int totalCopies = readVarInt();
+                    int availableCopies = readVarInt();
+
+                    Book b = new Book(title, authors, releaseYear, isbn, totalCopies);
+                    b.setAvailableCopies(availableCopies);
+                    books.add(b);
+                }
+                return books;
+            } catch (EOFException e) {
+                throw new IOException("Blocco dei libri troncato.", e);
+            }
+        }
+
+        List<User> readUsers() throws IOException {
+            try {
+                int count = readVarInt();
+                List<User> users = new ArrayList<>(Math.min(Math.max(count, 0), 1 << 16));
+                for (int i = 0; i < count; i++) {
+                    String code = readString();
+                    String firstName = readString();
+                    String lastName = readString();
+                    String email = readString();
+                    users.add(new User(firstName, lastName, email, code));
+                }
+                return users;
+            } catch (EOFException e) {
+                throw new IOException("Blocco degli utenti troncato.", e);
+            }
+        }
+
+        DecodedLoans readLoans() throws IOException {
+            DecodedLoans result = new DecodedLoans();
+            for (Book b : readBooks()) {
+                result.detachedBooks.putIfAbsent(b.getIsbn(), b);
+            }
+            for (User u : readUsers()) {
+                result.detachedUsers.putIfAbsent(u.getCode(), u);
+            }
+
+            try {
+                int count = readVarInt();
+                for (int i = 0; i < count; i++) {
+                    int loanId = readVarInt();
+                    String userCode = readString();
+                    String isbn = readString();
+                    LocalDate loanDate = readDate();
+                    LocalDate dueDate = readDate();
+                    LocalDate returnDate = readDate();
+                    int flags = in.readUnsignedByte();
+
+                    Loan loan = new Loan(loanId, null, null, loanDate, dueDate, (flags & FLAG_ACTIVE) != 0);
+                    loan.setReturnDate(returnDate);
+                    result.loans.add(loan);
+                    result.userCodes.add(userCode);
+                    result.isbns.add(isbn);
+                }
+                return result;
+            } catch (EOFException e) {
+                throw new IOException("Blocco dei prestiti troncato.", e);
+            }
+        }
+
+        String readString() throws IOException {
+            int ref = readVarInt();
+            if (ref == 0) {
+                return null;
+            }
+            if (ref < 0 || ref > strings.length) {
+                throw new IOException("Riferimento a stringa non valido: " + ref);
+            }
+            return strings[ref - 1];
+        }
+
+        LocalDate readDate() throws IOException {
+            long encoded = readVarLong(in);
+            if (encoded == 0) {
+                return null;
+            }
+            long zigzag = encoded - 1;
+            return LocalDate.ofEpochDay((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+
+        int readVarInt() throws IOException {
+            return (int) readVarLong(in);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * @file ArchiveConverter.java
+ * @brief Conversione degli archivi dal formato di serializzazione Java al formato ArchiveCodec.
+ *
+ * Può essere eseguito da riga di comando:
+ *
+ *     java swe.group04.libraryms.persistence.ArchiveConverter sorgente.dat [destinazione.dat]
+ *
+ * Se la destinazione non è indicata il file sorgente viene sostituito,
+ * conservandone una copia con estensione ".bak". L'archivio convertito è
+ * composto dal file indicato (metadati) e dai file dei segmenti
+ * (".books", ".users", ".loans").
+ *
+ * @note La conversione esplicita è facoltativa: ArchiveFileService legge
+ *       comunque i file nel formato precedente e li riscrive nel nuovo
+ *       formato al primo salvataggio.
+ */
+package swe.group04.libraryms.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import swe.group04.libraryms.models.LibraryArchive;
+
+/**
+ * @brief Converte un archivio serializzato nel formato binario compatto.
+ */
+public final class ArchiveConverter {
+
+    private ArchiveConverter() {
+    }
+
+    /**
+     * @brief Converte il file sorgente e scrive il risultato sul file di destinazione.
+     *
+     * Se il file sorgente è già nel nuovo formato viene semplicemente riscritto.
+     * Il journal dell'archivio sorgente non viene considerato.
+     *
+     * @param sourcePath Percorso dell'archivio da convertire.
+     * @param targetPath Percorso del file convertito (può coincidere con sourcePath).
+     * @return Archivio letto dal file sorgente.
+     *
+     * @pre sourcePath != null
+     * @pre targetPath != null
+     *
+     * @throws IllegalArgumentException Se uno dei percorsi è nullo.
+     * @throws IOException Se la lettura fallisce, il contenuto non è un archivio
+     *                     valido o la scrittura fallisce.
+     */
+    public static LibraryArchive convert(String sourcePath, String targetPath) throws IOException {
+        if (sourcePath == null || targetPath == null) {
+            throw new IllegalArgumentException("I percorsi di conversione non possono essere nulli.");
+        }
+
+        FileService fileService = new FileService();
+        LibraryArchive archive = new ArchiveFileService(sourcePath, fileService).loadArchive();
+
+        ArchiveFileService target = new ArchiveFileService(targetPath, fileService);
+        target.saveArchive(archive);
+        return archive;
+    }
+
+    /**
+     * @brief Punto di ingresso da riga di comando.
+     *
+     * @param args Percorso sorgente ed eventuale percorso di destinazione.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Uso: ArchiveConverter <sorgente> [destinazione]");
+            System.exit(2);
+        }
+
+        String source = args[0];
+        String target = args.length == 2 ? args[1] : source;
+
+        try {
+            long before = Files.size(Paths.get(source));
+            if (target.equals(source)) {
+                Files.copy(Paths.get(source), Paths.get(source + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            LibraryArchive archive = convert(source, target);
+            long after = 0;
+            for (ArchiveSegment segment : ArchiveSegment.values()) {
+                after += Files.size(Paths.get(segment.pathFor(target)));
+            }
+
+            System.out.println("Archivio convertito: " + archive.getBooks().size() + " libri, "
+                    + archive.getUsers().size() + " utenti, "
+                    + archive.getLoans().size() + " prestiti ("
+                    + before + " -> " + after + " byte).");
+        } catch (IOException e) {
+            System.err.println("Conversione non riuscita: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
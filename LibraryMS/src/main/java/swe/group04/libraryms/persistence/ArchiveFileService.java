@@ -5,16 +5,73 @@
  * Questa classe appartiene al livello di persistenza dell'applicazione
  * ed è responsabile della serializzazione e deserializzazione
  * dell'oggetto.
+ * Lo snapshot è scritto nel formato binario compatto di ArchiveCodec,
+ * suddiviso in segmenti indipendenti (libri, utenti, prestiti, metadati;
+ * vedi ArchiveSegment), ciascuno in un proprio file. Il servizio tiene
+ * traccia dei segmenti modificati dall'ultimo snapshot ("dirty") e
+ * riscrive solo quelli: la restituzione di un prestito non riscrive
+ * il registro degli utenti. I segmenti vengono scritti nell'ordine
+ * prestiti, libri, utenti e, per ultimo, metadati (nel file principale):
+ * il segmento dei prestiti contiene una copia staccata di ogni libro o
+ * utente riferito che manca dalla versione nuova o da quella su disco,
+ * così un crash tra una scrittura e l'altra lascia prestiti sempre
+ * risolvibili. Un prestito che al caricamento non si risolve rende il
+ * caricamento non valido.
+ * Al caricamento i segmenti vengono letti e decodificati in parallelo su
+ * un ForkJoinPool, blocco per blocco; i riferimenti dei prestiti a utenti
+ * e libri sono risolti in un passaggio finale.
+ * I file scritti con la serializzazione Java delle versioni precedenti
+ * vengono ancora letti (su un solo thread) e convertiti al primo salvataggio.
  * Il servizio delega le operazioni di I/O a basso livello al FileService,
  * mantenendo separata la logica di accesso ai file dalla logica di dominio.
  *
+ * Opzionalmente il servizio può operare con un journal delle modifiche
+ * (ArchiveJournal): ogni mutazione viene accodata come record compatto
+ * invece di riscrivere l'intero archivio, e al caricamento il journal
+ * viene riapplicato sopra l'ultimo snapshot.
+ *
+ * Quando il journal supera una soglia di dimensione o di numero di record,
+ * viene avviata una compattazione: il journal corrente viene sigillato in
+ * una "generazione" numerata insieme alla cattura della versione immutabile
+ * dell'archivio (LibraryArchive.snapshot(), senza copie), e un thread in
+ * background la codifica e scrive il nuovo snapshot (sostituzione atomica),
+ * eliminando poi le generazioni sigillate ormai incluse. Il tempo di avvio
+ * resta così limitato al caricamento dello snapshot più un breve replay.
+ *
+ * Le modifiche accodate al journal vengono forzate su disco (fsync) ad ogni
+ * commit; un commit può contenere più record (vedi saveChanges()), così che
+ * una raffica di modifiche paghi un solo fsync (group commit).
+ *
  * @note Questa classe non esegue validazioni di business
  *       sull'archivio caricato o salvato.
  */
 package swe.group04.libraryms.persistence;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import swe.group04.libraryms.models.ArchiveSnapshot;
+import swe.group04.libraryms.models.Book;
 import swe.group04.libraryms.models.LibraryArchive;
+import swe.group04.libraryms.models.Loan;
+import swe.group04.libraryms.models.User;
 
 /**
  * @brief Implementa la persistenza dell'archivio tramite file.
@@ -22,12 +79,65 @@ import swe.group04.libraryms.models.LibraryArchive;
  */
 public class ArchiveFileService {
 
-    /** Percorso del file contenente l'archivio serializzato */
+    /** Percorso del file contenente lo snapshot dell'archivio */
     private String archiveFilePath;
 
     /** Servizio di I/O per la gestione dei file */
     private FileService fileService;
 
+    /** Journal delle modifiche (null se il journaling è disabilitato) */
+    private ArchiveJournal journal;
+
+    /** Suffisso del file di journal rispetto al file dell'archivio */
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    /** Dimensione di default (byte) del journal oltre la quale avviare la compattazione */
+    public static final long DEFAULT_COMPACTION_MAX_BYTES = 4L * 1024 * 1024;
+
+    /** Numero di default di record del journal oltre il quale avviare la compattazione */
+    public static final int DEFAULT_COMPACTION_MAX_RECORDS = 10_000;
+
+    /** Soglia corrente in byte per la compattazione */
+    private long compactionMaxBytes = DEFAULT_COMPACTION_MAX_BYTES;
+
+    /** Soglia corrente in record per la compattazione */
+    private int compactionMaxRecords = DEFAULT_COMPACTION_MAX_RECORDS;
+
+    /** Esecutore (lazy) a thread singolo delle compattazioni */
+    private ExecutorService compactionExecutor;
+
+    /** Compattazione in corso o ultima avviata (null se mai avviata) */
+    private Future<?> pendingCompaction;
+
+    /** Numero della prossima generazione sigillata del journal */
+    private long nextGeneration = 1;
+
+    /** Se true, ogni commit sul journal viene forzato su disco */
+    private boolean syncOnCommit = true;
+
+    /** Segmenti modificati rispetto allo snapshot su disco (protetto da commitLock) */
+    private final EnumSet<ArchiveSegment> dirtySegments = EnumSet.allOf(ArchiveSegment.class);
+
+    /** Archivio a cui si riferiscono i segmenti dirty (ultimo caricato o salvato) */
+    private LibraryArchive trackedArchive;
+
+    /** Versione contenuta nel segmento dei libri su disco (null = non nota; protetto da commitLock) */
+    private ArchiveSnapshot writtenBooks;
+
+    /** Versione contenuta nel segmento degli utenti su disco (null = non nota; protetto da commitLock) */
+    private ArchiveSnapshot writtenUsers;
+
+    /** Rende atomici commit sul journal e cattura dei segmenti per la compattazione */
+    private final Object commitLock = new Object();
+
+    /** Ordine di scrittura dei segmenti (vedi writeSegments()) */
+    private static final ArchiveSegment[] WRITE_ORDER = {
+            ArchiveSegment.LOANS, ArchiveSegment.BOOKS, ArchiveSegment.USERS, ArchiveSegment.META
+    };
+
+    /** Pool su cui decodificare i segmenti al caricamento (null = thread chiamante) */
+    private ForkJoinPool loadPool = ForkJoinPool.commonPool();
+
     /**
      * @brief Costruisce un servizio di persistenza per l'archivio.
      *
@@ -52,6 +162,15 @@ public class ArchiveFileService {
      */
     public void setArchiveFilePath(String path) {
         this.archiveFilePath = path;
+        markAllSegmentsDirty();
+        synchronized (commitLock) {
+            writtenBooks = null;
+            writtenUsers = null;
+        }
+        if (journal != null) {
+            closeJournal();
+            journal = new ArchiveJournal(path + JOURNAL_SUFFIX);
+        }
     }
 
     /**
@@ -75,37 +194,213 @@ public class ArchiveFileService {
         this.fileService = fileService;
     }
 
+    /**
+     * @brief Abilita o disabilita il journal delle modifiche.
+     *
+     * Con journal abilitato, saveChange() accoda un record al file
+     * archiveFilePath + JOURNAL_SUFFIX invece di riscrivere l'intero archivio.
+     *
+     * @param enabled true per abilitare il journaling.
+     *
+     * @post isJournalEnabled() == enabled
+     */
+    public void setJournalEnabled(boolean enabled) {
+        if (enabled && journal == null) {
+            journal = new ArchiveJournal(archiveFilePath + JOURNAL_SUFFIX);
+        } else if (!enabled && journal != null) {
+            closeJournal();
+            journal = null;
+        }
+    }
+
+    /**
+     * @brief Indica se il journal delle modifiche è abilitato.
+     *
+     * @return true se le modifiche vengono accodate al journal.
+     */
+    public boolean isJournalEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * @brief Restituisce il journal delle modifiche.
+     *
+     * @return Journal corrente, oppure null se il journaling è disabilitato.
+     */
+    public ArchiveJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @brief Imposta se i commit sul journal vengono forzati su disco.
+     *
+     * Con la sincronizzazione disabilitata i record restano nella cache
+     * del sistema operativo: un'interruzione di corrente può far perdere
+     * le ultime modifiche (mai corrompere quelle precedenti).
+     *
+     * @param syncOnCommit true per forzare su disco ogni commit (default).
+     */
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * @brief Indica se i commit sul journal vengono forzati su disco.
+     *
+     * @return true se ogni commit viene forzato su disco.
+     */
+    public boolean isSyncOnCommit() {
+        return syncOnCommit;
+    }
+
+    /**
+     * @brief Imposta il pool su cui decodificare i segmenti al caricamento.
+     *
+     * Di default viene usato ForkJoinPool.commonPool(), dimensionato sul
+     * numero di core disponibili.
+     *
+     * @param loadPool Pool da usare, oppure null per caricare sul thread chiamante.
+     */
+    public void setLoadPool(ForkJoinPool loadPool) {
+        this.loadPool = loadPool;
+    }
+
+    /**
+     * @brief Restituisce il pool su cui vengono decodificati i segmenti.
+     *
+     * @return Pool corrente, oppure null se il caricamento è sequenziale.
+     */
+    public ForkJoinPool getLoadPool() {
+        return loadPool;
+    }
+
+    /**
+     * @brief Restituisce i segmenti modificati dall'ultimo snapshot.
+     *
+     * @return Copia dell'insieme dei segmenti da riscrivere.
+     */
+    public Set<ArchiveSegment> getDirtySegments() {
+        synchronized (commitLock) {
+            return EnumSet.copyOf(dirtySegments);
+        }
+    }
+
+    /**
+     * @brief Segna tutti i segmenti come da riscrivere.
+     *
+     * Da invocare quando l'archivio è stato modificato senza passare da
+     * saveChange()/saveChanges(), così che il salvataggio successivo
+     * riscriva lo snapshot completo.
+     *
+     * @post getDirtySegments() contiene tutti i segmenti.
+     */
+    public void markAllSegmentsDirty() {
+        synchronized (commitLock) {
+            dirtySegments.addAll(EnumSet.allOf(ArchiveSegment.class));
+        }
+    }
+
+    /**
+     * @brief Imposta le soglie che avviano la compattazione del journal.
+     *
+     * La compattazione parte quando il journal raggiunge maxBytes byte
+     * oppure maxRecords record, a seconda di quale soglia viene superata prima.
+     *
+     * @param maxBytes   Dimensione massima del journal in byte (> 0).
+     * @param maxRecords Numero massimo di record del journal (> 0).
+     *
+     * @throws IllegalArgumentException Se una delle soglie non è positiva.
+     */
+    public void setCompactionThresholds(long maxBytes, int maxRecords) {
+        if (maxBytes <= 0 || maxRecords <= 0) {
+            throw new IllegalArgumentException("Le soglie di compattazione devono essere positive.");
+        }
+        this.compactionMaxBytes = maxBytes;
+        this.compactionMaxRecords = maxRecords;
+    }
+
     /**
      * @brief Carica l'archivio della biblioteca da file.
      *
-     * Il metodo legge il contenuto del file configurato e
-     * verifica che l'oggetto deserializzato sia di tipo LibraryArchive.
+     * Il metodo legge il segmento dei metadati dal file configurato e poi
+     * i segmenti di libri, utenti e prestiti, risolvendo infine i riferimenti
+     * dei prestiti; se il file è nel formato di serializzazione Java
+     * precedente, verifica che l'oggetto deserializzato sia di tipo LibraryArchive.
+     * Se il journal è abilitato, vengono riapplicate nell'ordine le
+     * generazioni sigillate non ancora compattate e poi il journal corrente,
+     * sopra lo snapshot letto (o su un archivio vuoto se lo snapshot
+     * non esiste ancora).
      *
      * @return Archivio della biblioteca caricato da file.
      *
      * @pre  archiveFilePath != null
      * @pre  fileService != null
      *
+     * @throws FileNotFoundException Se né lo snapshot né alcun journal esistono.
      * @throws IOException Se:
      *         - la lettura del file fallisce;
-     *         - il contenuto del file non rappresenta un LibraryArchive valido.
+     *         - il contenuto del file non rappresenta un LibraryArchive valido;
+     *         - un segmento è mancante o danneggiato;
+     *         - il journal contiene record non applicabili.
      */
     public LibraryArchive loadArchive() throws IOException {
 
-        Object data = fileService.readFromFile(archiveFilePath);
+        awaitCompaction();
 
-        if (!(data instanceof LibraryArchive)) {
-            throw new IOException("Il contenuto del file non rappresenta un archivio valido.");
+        List<Path> sealed = journal != null ? sealedGenerations(journal.getPath()) : new ArrayList<>();
+
+        LibraryArchive archive;
+        boolean segmented;
+        ArchiveSnapshot onDisk = null; ///< Versione dei segmenti letti, prima del replay
+        try {
+            byte[] meta = fileService.readBytesFromFile(archiveFilePath);
+            segmented = ArchiveCodec.isEncoded(meta);
+            archive = segmented ? readSegments(meta) : readLegacySnapshot(meta);
+            if (segmented) {
+                onDisk = archive.snapshot();
+            }
+        } catch (FileNotFoundException e) {
+            if (journal == null || (!journal.exists() && sealed.isEmpty())) {
+                throw e;
+            }
+            archive = new LibraryArchive(); ///< Solo journal: nessuno snapshot ancora scritto
+            segmented = false;
         }
 
-        return (LibraryArchive) data;
+        int replayed = 0;
+        if (journal != null) {
+            for (Path generation : sealed) {
+                replayed += new ArchiveJournal(generation.toString()).replay(archive);
+                nextGeneration = Math.max(nextGeneration, generationOf(generation) + 1);
+            }
+            replayed += journal.replay(archive);
+        }
+
+        synchronized (commitLock) {
+            trackedArchive = archive;
+            writtenBooks = onDisk;
+            writtenUsers = onDisk;
+            dirtySegments.clear();
+            //  Formato precedente, nessuno snapshot o modifiche riapplicate dal journal:
+            //  lo snapshot su disco non rispecchia l'archivio, va riscritto per intero
+            if (!segmented || replayed > 0) {
+                dirtySegments.addAll(EnumSet.allOf(ArchiveSegment.class));
+            }
+        }
+
+        return archive;
     }
 
     /**
      * @brief Salva l'archivio corrente su file.
      *
-     * Serializza l'oggetto LibraryArchive e lo scrive
-     * nel file configurato.
+     * Codifica con ArchiveCodec i segmenti modificati dall'ultimo snapshot
+     * e li scrive con sostituzione atomica, il segmento dei metadati per
+     * ultimo. Se l'archivio non è quello caricato o salvato per ultimo da
+     * questo servizio, vengono riscritti tutti i segmenti.
+     * Se il journal è abilitato, il journal corrente viene sigillato insieme
+     * alla cattura dei segmenti ed eliminato dopo la scrittura dello snapshot,
+     * poiché le modifiche registrate sono ormai incluse nello snapshot.
      *
      * @param archive Archivio da salvare.
      *
@@ -116,6 +411,508 @@ public class ArchiveFileService {
      * @throws IOException Se la scrittura su file fallisce.
      */
     public void saveArchive(LibraryArchive archive) throws IOException {
-        fileService.writeToFile(archiveFilePath, archive);
+        awaitCompaction();
+
+        //  Come nella compattazione, il journal viene sigillato insieme alla cattura
+        //  dei segmenti: i record accodati nel frattempo finiscono nel nuovo journal
+        long generation = 0;
+        String journalPath = null;
+        Set<ArchiveSegment> segments;
+        ArchiveSnapshot state;
+        ArchiveSnapshot booksOnDisk;
+        ArchiveSnapshot usersOnDisk;
+        int nextLoanId;
+        synchronized (commitLock) {
+            if (archive != trackedArchive) {
+                dirtySegments.addAll(EnumSet.allOf(ArchiveSegment.class));
+            }
+            segments = EnumSet.copyOf(dirtySegments);
+            dirtySegments.clear();
+            trackedArchive = archive;
+            state = archive.snapshot();
+            nextLoanId = archive.getNextLoanId();
+            booksOnDisk = writtenBooks;
+            usersOnDisk = writtenUsers;
+            if (journal != null) {
+                generation = nextGeneration++;
+                journalPath = journal.getPath();
+                journal.sealTo(sealedPath(journalPath, generation).toString());
+            }
+        }
+
+        writeSnapshot(archiveFilePath, state, nextLoanId, segments, booksOnDisk, usersOnDisk,
+                journalPath, generation);
+    }
+
+    /**
+     * @brief Rende persistente una singola modifica dell'archivio.
+     *
+     * - con journal abilitato: accoda il record al journal e, se le soglie
+     *   sono superate, avvia una compattazione in background;
+     * - altrimenti: salva l'intero archivio tramite saveArchive().
+     *
+     * @param archive Archivio modificato.
+     * @param record  Record che descrive la modifica.
+     *
+     * @pre archive != null
+     * @pre record != null
+     *
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public void saveChange(LibraryArchive archive, JournalRecord record) throws IOException {
+        saveChanges(archive, List.of(record));
+        compactIfDue(archive);
+    }
+
+    /**
+     * @brief Rende persistente un gruppo di modifiche dell'archivio.
+     *
+     * - con journal abilitato: accoda tutti i record con un'unica scrittura
+     *   e, se syncOnCommit è attivo, li forza su disco con un solo fsync;
+     * - altrimenti: salva una sola volta, tramite saveArchive(), i segmenti
+     *   interessati dalle modifiche.
+     *
+     * Non avvia compattazioni (vedi compactIfDue()).
+     *
+     * @param archive Archivio modificato.
+     * @param records Record che descrivono le modifiche, in ordine.
+     *
+     * @pre archive != null
+     * @pre records != null
+     *
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public void saveChanges(LibraryArchive archive, List<JournalRecord> records) throws IOException {
+        if (journal != null) {
+            //  Segmenti segnati prima dell'accodamento e nello stesso blocco:
+            //  una compattazione non può sigillare i record senza catturarne i segmenti
+            synchronized (commitLock) {
+                markDirty(records);
+                journal.appendAll(records);
+            }
+            if (syncOnCommit) {
+                journal.force();
+            }
+        } else {
+            synchronized (commitLock) {
+                markDirty(records);
+            }
+            saveArchive(archive);
+        }
+    }
+
+    /**
+     * @brief Avvia una compattazione se il journal ha superato le soglie.
+     *
+     * @param archive Archivio di cui scrivere lo snapshot.
+     * @return true se la compattazione è stata avviata, false altrimenti.
+     *
+     * @pre archive != null
+     *
+     * @throws IOException Se la cattura dello stato o la sigillatura del journal falliscono.
+     */
+    public boolean compactIfDue(LibraryArchive archive) throws IOException {
+        return journal != null && isCompactionDue() && requestCompaction(archive);
+    }
+
+    /**
+     * @brief Avvia una compattazione del journal in background.
+     *
+     * - sigilla il journal corrente in una nuova generazione numerata e,
+     *   nello stesso blocco, cattura la versione corrente dell'archivio;
+     * - in background codifica i segmenti modificati dall'ultimo snapshot,
+     *   li scrive con sostituzione atomica ed elimina le generazioni
+     *   sigillate che essi includono.
+     *
+     * Il thread chiamante non codifica nulla: la versione catturata è
+     * immutabile e può essere letta mentre l'archivio viene modificato.
+     *
+     * Se una compattazione è già in corso la richiesta viene ignorata:
+     * i record continuano ad essere accodati al journal corrente.
+     *
+     * @param archive Archivio di cui scrivere lo snapshot.
+     * @return true se la compattazione è stata avviata, false altrimenti.
+     *
+     * @pre archive != null
+     *
+     * @throws IOException Se la cattura dello stato o la sigillatura del journal falliscono.
+     */
+    public boolean requestCompaction(LibraryArchive archive) throws IOException {
+        if (journal == null || isCompactionRunning()) {
+            return false;
+        }
+
+        long generation = nextGeneration++;
+        String journalPath = journal.getPath();
+        Set<ArchiveSegment> segments;
+        ArchiveSnapshot state;
+        ArchiveSnapshot booksOnDisk;
+        ArchiveSnapshot usersOnDisk;
+        int nextLoanId;
+        synchronized (commitLock) {
+            if (archive != trackedArchive || !Files.exists(Paths.get(archiveFilePath))) {
+                dirtySegments.addAll(EnumSet.allOf(ArchiveSegment.class));
+            }
+            segments = EnumSet.copyOf(dirtySegments);
+            dirtySegments.clear();
+            trackedArchive = archive;
+            //  Tutte le modifiche sigillate sono già applicate all'archivio in memoria
+            state = archive.snapshot();
+            nextLoanId = archive.getNextLoanId();
+            booksOnDisk = writtenBooks;
+            usersOnDisk = writtenUsers;
+            journal.sealTo(sealedPath(journalPath, generation).toString());
+        }
+        String snapshotPath = archiveFilePath;
+
+        pendingCompaction = executor().submit(() -> {
+            try {
+                writeSnapshot(snapshotPath, state, nextLoanId, segments, booksOnDisk, usersOnDisk,
+                        journalPath, generation);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Compattazione dell'archivio non riuscita: " + e.getMessage());
+                throw e;
+            }
+            return null;
+        });
+        return true;
+    }
+
+    /**
+     * @brief Attende il termine dell'eventuale compattazione in corso.
+     *
+     * @post Nessuna compattazione è in esecuzione.
+     */
+    public void awaitCompaction() {
+        Future<?> pending = pendingCompaction;
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            //  Errore già segnalato dal thread di compattazione: i dati restano nel journal
+        }
+    }
+
+    /**
+     * @brief Rilascia le risorse del servizio.
+     *
+     * Attende l'eventuale compattazione in corso, arresta il thread
+     * di compattazione e chiude il journal.
+     */
+    public void close() {
+        awaitCompaction();
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdown();
+            compactionExecutor = null;
+        }
+        if (journal != null) {
+            closeJournal();
+        }
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                          Metodi di supporto                             */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Verifica se il journal ha superato le soglie di compattazione.
+     */
+    private boolean isCompactionDue() throws IOException {
+        return journal.getRecordCount() >= compactionMaxRecords
+                || journal.size() >= compactionMaxBytes;
+    }
+
+    /**
+     * @brief Verifica se una compattazione è in corso.
+     */
+    private boolean isCompactionRunning() {
+        return pendingCompaction != null && !pendingCompaction.isDone();
+    }
+
+    /**
+     * @brief Codifica e scrive uno snapshot catturato ed elimina le generazioni che include.
+     *
+     * I segmenti vengono scritti con sostituzione atomica: in caso di crash
+     * restano validi i segmenti precedenti e le generazioni sigillate, che
+     * al caricamento vengono riapplicate. Se la codifica o la scrittura
+     * falliscono, i segmenti catturati tornano ad essere dirty.
+     *
+     * @param state       Versione dell'archivio catturata.
+     * @param nextLoanId  Prossimo ID prestito, catturato insieme alla versione.
+     * @param segments    Segmenti da scrivere.
+     * @param booksOnDisk Versione del segmento dei libri su disco (null = non nota).
+     * @param usersOnDisk Versione del segmento degli utenti su disco (null = non nota).
+     * @param journalPath Percorso del journal (null se il journal è disabilitato).
+     * @param generation  Ultima generazione sigillata inclusa nello snapshot.
+     */
+    private void writeSnapshot(String snapshotPath, ArchiveSnapshot state, int nextLoanId,
+                               Set<ArchiveSegment> segments, ArchiveSnapshot booksOnDisk,
+                               ArchiveSnapshot usersOnDisk, String journalPath, long generation)
+            throws IOException {
+        try {
+            writeSegments(snapshotPath, state,
+                    encodeSegments(state, nextLoanId, segments, booksOnDisk, usersOnDisk));
+        } catch (IOException | RuntimeException e) {
+            synchronized (commitLock) {
+                dirtySegments.addAll(segments);
+            }
+            throw e;
+        }
+
+        if (journalPath != null) {
+            for (Path sealed : sealedGenerations(journalPath)) {
+                if (generationOf(sealed) <= generation) {
+                    Files.deleteIfExists(sealed);
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Restituisce l'esecutore delle compattazioni, creandolo se necessario.
+     *
+     * Il thread è daemon: un'eventuale compattazione interrotta all'uscita
+     * non corrompe i dati grazie alla sostituzione atomica dello snapshot.
+     */
+    private ExecutorService executor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "archive-compaction");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return compactionExecutor;
+    }
+
+    /**
+     * @brief Percorso della generazione sigillata indicata.
+     */
+    private static Path sealedPath(String journalPath, long generation) {
+        return Paths.get(journalPath + "." + generation);
+    }
+
+    /**
+     * @brief Elenca le generazioni sigillate presenti su disco, in ordine crescente.
+     */
+    private static List<Path> sealedGenerations(String journalPath) throws IOException {
+        Path path = Paths.get(journalPath).toAbsolutePath();
+        Path dir = path.getParent();
+        String prefix = path.getFileName() + ".";
+
+        List<Path> result = new ArrayList<>();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    result.add(file);
+                }
+            }
+        }
+        result.sort((a, b) -> Long.compare(generationOf(a), generationOf(b)));
+        return result;
+    }
+
+    /**
+     * @brief Ricava il numero di generazione dal nome di un file sigillato.
+     */
+    private static long generationOf(Path sealed) {
+        String name = sealed.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * @brief Segna come dirty i segmenti interessati dai record indicati.
+     */
+    private void markDirty(List<JournalRecord> records) {
+        for (JournalRecord record : records) {
+            dirtySegments.addAll(ArchiveSegment.affectedBy(record.getType()));
+        }
+    }
+
+    /**
+     * @brief Codifica in memoria i segmenti indicati di una versione dell'archivio.
+     *
+     * Il segmento dei prestiti è codificato rispetto sia alla versione nuova
+     * sia a quelle dei libri e degli utenti su disco (vedi
+     * ArchiveCodec.encodeLoans(ArchiveSnapshot, ArchiveSnapshot, ArchiveSnapshot)).
+     */
+    private static Map<ArchiveSegment, byte[]> encodeSegments(ArchiveSnapshot state, int nextLoanId,
+                                                              Set<ArchiveSegment> segments,
+                                                              ArchiveSnapshot booksOnDisk,
+                                                              ArchiveSnapshot usersOnDisk) {
+        Map<ArchiveSegment, byte[]> encoded = new EnumMap<>(ArchiveSegment.class);
+        for (ArchiveSegment segment : segments) {
+            encoded.put(segment, segment == ArchiveSegment.LOANS
+                    ? ArchiveCodec.encodeLoans(state, booksOnDisk, usersOnDisk)
+                    : ArchiveCodec.encode(segment, state, nextLoanId));
+        }
+        return encoded;
+    }
+
+    /**
+     * @brief Scrive i segmenti codificati: prestiti, libri, utenti e metadati per ultimo.
+     *
+     * I prestiti precedono libri e utenti perché contengono le copie
+     * staccate delle entità che i segmenti dei libri e degli utenti, vecchi
+     * o nuovi, non contengono; il file principale (metadati) viene creato
+     * solo quando gli altri segmenti sono già su disco. Dopo ogni scrittura
+     * dei libri o degli utenti viene registrata la versione ora su disco.
+     */
+    private void writeSegments(String snapshotPath, ArchiveSnapshot state,
+                               Map<ArchiveSegment, byte[]> segments) throws IOException {
+        for (ArchiveSegment segment : WRITE_ORDER) {
+            byte[] bytes = segments.get(segment);
+            if (bytes == null) {
+                continue;
+            }
+            fileService.writeBytesAtomically(segment.pathFor(snapshotPath), bytes);
+            synchronized (commitLock) {
+                if (!snapshotPath.equals(archiveFilePath)) {
+                    continue;
+                }
+                if (segment == ArchiveSegment.BOOKS) {
+                    writtenBooks = state;
+                } else if (segment == ArchiveSegment.USERS) {
+                    writtenUsers = state;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Legge i segmenti dello snapshot e ricostruisce l'archivio.
+     *
+     * @param meta Contenuto del segmento dei metadati (file principale).
+     *
+     * @throws IOException Se un segmento manca o è danneggiato, o se un
+     *                     prestito riferisce un libro o un utente assente.
+     */
+    private LibraryArchive readSegments(byte[] meta) throws IOException {
+        int nextLoanId = ArchiveCodec.decodeNextLoanId(meta);
+
+        List<Book> books;
+        List<User> users;
+        ArchiveCodec.DecodedLoans loans;
+        ForkJoinPool pool = loadPool;
+        if (pool == null) {
+            books = ArchiveCodec.decodeBooks(readSegment(ArchiveSegment.BOOKS));
+            users = ArchiveCodec.decodeUsers(readSegment(ArchiveSegment.USERS));
+            loans = ArchiveCodec.decodeLoans(readSegment(ArchiveSegment.LOANS));
+        } else {
+            //  I tre segmenti sono indipendenti: lettura e decodifica procedono in
+            //  parallelo, e ogni decodifica suddivide a sua volta il lavoro per blocchi
+            ForkJoinTask<List<Book>> booksTask = pool.submit(
+                    () -> ArchiveCodec.decodeBooks(readSegment(ArchiveSegment.BOOKS), pool));
+            ForkJoinTask<List<User>> usersTask = pool.submit(
+                    () -> ArchiveCodec.decodeUsers(readSegment(ArchiveSegment.USERS), pool));
+            ForkJoinTask<ArchiveCodec.DecodedLoans> loansTask = pool.submit(
+                    () -> ArchiveCodec.decodeLoans(readSegment(ArchiveSegment.LOANS), pool));
+            try {
+                books = await(booksTask);
+                users = await(usersTask);
+                loans = await(loansTask);
+            } finally {
+                booksTask.cancel(false);
+                usersTask.cancel(false);
+                loansTask.cancel(false);
+            }
+        }
+
+        LibraryArchive archive = new LibraryArchive();
+        Map<String, Book> booksByIsbn = new HashMap<>();
+        for (Book b : books) {
+            archive.addBook(b);
+            booksByIsbn.put(b.getIsbn(), b);
+        }
+        Map<String, User> usersByCode = new HashMap<>();
+        for (User u : users) {
+            archive.addUser(u);
+            usersByCode.put(u.getCode(), u);
+        }
+
+        //  Passaggio finale: risoluzione dei riferimenti prestito → utente/libro
+        loans.resolve(usersByCode, booksByIsbn, pool);
+        for (Loan l : loans.getLoans()) {
+            archive.restoreLoan(l);
+        }
+
+        archive.setNextLoanId(Math.max(Math.max(nextLoanId, 1), archive.getNextLoanId()));
+        return archive;
+    }
+
+    /**
+     * @brief Attende il risultato di un task di caricamento.
+     *
+     * @throws IOException Se il task è fallito con un errore di I/O o se
+     *                     il thread viene interrotto.
+     */
+    private static <T> T await(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Caricamento dell'archivio interrotto.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @brief Legge il contenuto di un segmento dello snapshot.
+     *
+     * Un segmento mancante a fronte di un file dei metadati presente indica
+     * uno snapshot danneggiato: l'errore non viene segnalato come
+     * FileNotFoundException, che indicherebbe un archivio inesistente.
+     */
+    private byte[] readSegment(ArchiveSegment segment) throws IOException {
+        String path = segment.pathFor(archiveFilePath);
+        try {
+            return fileService.readBytesFromFile(path);
+        } catch (FileNotFoundException e) {
+            throw new IOException("Segmento dell'archivio mancante: " + path, e);
+        }
+    }
+
+    /**
+     * @brief Legge uno snapshot scritto con la serializzazione Java (formato precedente).
+     */
+    private LibraryArchive readLegacySnapshot(byte[] content) throws IOException {
+
+        Object data = fileService.deserialize(content);
+
+        if (!(data instanceof LibraryArchive)) {
+            throw new IOException("Il contenuto del file non rappresenta un archivio valido.");
+        }
+
+        return (LibraryArchive) data;
+    }
+
+    /**
+     * @brief Chiude il journal corrente ignorando eventuali errori di chiusura.
+     */
+    private void closeJournal() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Impossibile chiudere il journal: " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
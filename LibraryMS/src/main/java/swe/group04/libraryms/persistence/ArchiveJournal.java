@@ -0,0 +1,397 @@
+/**
+ * @file ArchiveJournal.java
+ * @brief Journal append-only delle modifiche dell'archivio (write-ahead log).
+ *
+ * Invece di riscrivere l'intero archivio ad ogni modifica, ogni mutazione
+ * viene accodata al journal come singolo record compatto. Al caricamento
+ * il journal viene riapplicato sopra l'ultimo snapshot salvato.
+ *
+ * Formato del file:
+ * - intestazione: magic number (int) + versione del formato (short);
+ * - sequenza di record: lunghezza (int), tipo (byte), payload, CRC32 (int)
+ *   calcolato su tipo e payload.
+ *
+ * I record vengono scritti con write() e resi durevoli solo da force():
+ * chi accoda più record può così pagare un solo fsync per gruppo
+ * (group commit).
+ *
+ * @note Un record incompleto o corrotto in coda al file (es. crash durante
+ *       la scrittura) viene scartato al replay e il file viene troncato
+ *       all'ultimo record valido.
+ */
+package swe.group04.libraryms.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import swe.group04.libraryms.models.LibraryArchive;
+
+/**
+ * @brief Gestisce il file di journal associato a un archivio.
+ *
+ * @invariant path != null
+ */
+public class ArchiveJournal {
+
+    /** Magic number dell'intestazione ("LMSJ") */
+    static final int MAGIC = 0x4C4D534A;
+
+    /** Versione corrente del formato del journal */
+    static final short FORMAT_VERSION = 1;
+
+    /** Dimensione dell'intestazione in byte */
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+
+    /** Dimensione massima accettata per un singolo record (protezione da file corrotti) */
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final Path path; ///< Percorso del file di journal
+
+    private FileChannel channel; ///< Canale aperto in append (lazy)
+
+    private int recordCount; ///< Record presenti nel journal (noti a questa istanza)
+
+    private boolean created; ///< File creato da questa istanza e cartella non ancora forzata
+
+    /**
+     * @brief Crea un journal associato al percorso indicato.
+     *
+     * Il file non viene creato finché non viene accodato il primo record.
+     *
+     * @param path Percorso del file di journal.
+     *
+     * @pre path != null
+     */
+    public ArchiveJournal(String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Il percorso del journal non può essere nullo.");
+        }
+        this.path = Paths.get(path);
+    }
+
+    /**
+     * @brief Restituisce il percorso del file di journal.
+     *
+     * @return Percorso del journal.
+     */
+    public String getPath() {
+        return path.toString();
+    }
+
+    /**
+     * @brief Verifica se il file di journal esiste su disco.
+     *
+     * @return true se il file esiste, false altrimenti.
+     */
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * @brief Restituisce la dimensione attuale del journal in byte.
+     *
+     * @return Dimensione del file, 0 se non esiste.
+     *
+     * @throws IOException Se la dimensione non può essere letta.
+     */
+    public synchronized long size() throws IOException {
+        if (channel != null) {
+            return channel.size();
+        }
+        return Files.exists(path) ? Files.size(path) : 0L;
+    }
+
+    /**
+     * @brief Restituisce il numero di record contenuti nel journal.
+     *
+     * Il conteggio comprende i record riapplicati dall'ultimo replay
+     * e quelli accodati successivamente.
+     *
+     * @return Numero di record.
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @brief Accoda un record al journal.
+     *
+     * @param record Record da accodare.
+     *
+     * @pre  record != null
+     * @post Il record è scritto in coda al file.
+     *
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public synchronized void append(JournalRecord record) throws IOException {
+        if (record == null) {
+            throw new IllegalArgumentException("Il record non può essere nullo.");
+        }
+
+        FileChannel ch = openChannel();
+        ByteBuffer buffer = frame(record);
+        while (buffer.hasRemaining()) {
+            ch.write(buffer);
+        }
+        recordCount++;
+    }
+
+    /**
+     * @brief Accoda più record al journal con un'unica scrittura.
+     *
+     * Usato dalla persistenza write-behind per scrivere in un colpo solo
+     * le modifiche accumulate durante una raffica di operazioni.
+     *
+     * @param records Record da accodare, nell'ordine in cui sono stati prodotti.
+     *
+     * @pre  records != null
+     * @post Tutti i record sono scritti in coda al file.
+     *
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public synchronized void appendAll(List<JournalRecord> records) throws IOException {
+        if (records == null) {
+            throw new IllegalArgumentException("La lista dei record non può essere nulla.");
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+
+        List<ByteBuffer> frames = new ArrayList<>(records.size());
+        int total = 0;
+        for (JournalRecord record : records) {
+            if (record == null) {
+                throw new IllegalArgumentException("Il record non può essere nullo.");
+            }
+            ByteBuffer frame = frame(record);
+            frames.add(frame);
+            total += frame.remaining();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (ByteBuffer frame : frames) {
+            buffer.put(frame);
+        }
+        buffer.flip();
+
+        FileChannel ch = openChannel();
+        while (buffer.hasRemaining()) {
+            ch.write(buffer);
+        }
+        recordCount += records.size();
+    }
+
+    /**
+     * @brief Forza su disco i record accodati finora.
+     *
+     * Se il file è stato appena creato, viene forzata anche la cartella
+     * che lo contiene, così che il file stesso sopravviva a un crash.
+     *
+     * @post I record accodati prima della chiamata sono durevoli.
+     *
+     * @throws IOException Se la sincronizzazione fallisce.
+     */
+    public synchronized void force() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channel.force(false);
+        if (created) {
+            FileService.forceDirectory(path.toAbsolutePath().getParent());
+            created = false;
+        }
+    }
+
+    /**
+     * @brief Riapplica tutti i record del journal sull'archivio indicato.
+     *
+     * Se in coda al file è presente un record incompleto o con CRC non valido,
+     * il replay si interrompe e il file viene troncato all'ultimo record valido.
+     *
+     * @param archive Archivio (tipicamente caricato dallo snapshot) da aggiornare.
+     * @return Numero di record riapplicati.
+     *
+     * @pre archive != null
+     *
+     * @throws IOException Se l'intestazione non è valida o un record integro
+     *                     non può essere applicato.
+     */
+    public synchronized int replay(LibraryArchive archive) throws IOException {
+        close();
+        recordCount = 0;
+
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        byte[] content = Files.readAllBytes(path);
+        if (content.length == 0) {
+            return 0;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (content.length < HEADER_SIZE || in.readInt() != MAGIC) {
+            throw new IOException("Il file non rappresenta un journal valido: " + path);
+        }
+        short version = in.readShort();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Versione del journal non supportata: " + version);
+        }
+
+        long validLength = HEADER_SIZE;
+        int applied = 0;
+
+        while (true) {
+            JournalRecord record;
+            int frameLength;
+            try {
+                int length = in.readInt();
+                if (length < 1 || length > MAX_RECORD_SIZE) {
+                    break; ///< Coda corrotta
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                int crc = in.readInt();
+                if (crc != crcOf(body)) {
+                    break; ///< Coda corrotta
+                }
+                byte[] payload = new byte[length - 1];
+                System.arraycopy(body, 1, payload, 0, payload.length);
+                record = new JournalRecord(JournalRecord.Type.fromCode(body[0]), payload);
+                frameLength = Integer.BYTES + length + Integer.BYTES;
+            } catch (EOFException e) {
+                break; ///< Fine file o record troncato
+            }
+
+            record.applyTo(archive);
+            validLength += frameLength;
+            applied++;
+        }
+
+        //  Rimozione di un'eventuale coda incompleta
+        if (validLength < content.length) {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(validLength);
+            }
+        }
+
+        recordCount = applied;
+        return applied;
+    }
+
+    /**
+     * @brief Svuota il journal.
+     *
+     * Da invocare dopo che uno snapshot completo dell'archivio è stato
+     * scritto con successo.
+     *
+     * @post !exists()
+     *
+     * @throws IOException Se il file non può essere eliminato.
+     */
+    public synchronized void truncate() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        recordCount = 0;
+    }
+
+    /**
+     * @brief Sigilla il journal corrente spostandolo sul percorso indicato.
+     *
+     * Il file sigillato non riceve più record; i record successivi vengono
+     * accodati a un nuovo file sul percorso originale.
+     *
+     * @param target Percorso su cui spostare il journal corrente.
+     * @return true se esisteva un journal da sigillare, false altrimenti.
+     *
+     * @pre  target != null
+     * @post getRecordCount() == 0
+     *
+     * @throws IOException Se lo spostamento fallisce.
+     */
+    public synchronized boolean sealTo(String target) throws IOException {
+        if (channel != null) {
+            channel.force(false); ///< I record sigillati restano durevoli fino alla compattazione
+        }
+        close();
+        recordCount = 0;
+
+        if (!Files.exists(path)) {
+            return false;
+        }
+        Files.move(path, Paths.get(target), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * @brief Chiude il canale eventualmente aperto sul journal.
+     *
+     * @throws IOException Se la chiusura fallisce.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                          Metodi di supporto                             */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Apre (se necessario) il canale in append, scrivendo l'intestazione sui file nuovi.
+     */
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putShort(FORMAT_VERSION).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                created = true;
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * @brief Costruisce la rappresentazione su file di un record.
+     */
+    private static ByteBuffer frame(JournalRecord record) {
+        byte[] payload = record.getPayload();
+        byte[] body = new byte[payload.length + 1];
+        body[0] = record.getType().getCode();
+        System.arraycopy(payload, 0, body, 1, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + body.length + Integer.BYTES);
+        buffer.putInt(body.length).put(body).putInt(crcOf(body)).flip();
+        return buffer;
+    }
+
+    private static int crcOf(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * @file ArchiveSegment.java
+ * @brief Segmenti in cui è suddiviso lo snapshot dell'archivio su disco.
+ *
+ * Ogni segmento è salvato in un file separato, così che una modifica
+ * riscriva solo i segmenti che la riguardano e che i segmenti possano
+ * essere letti indipendentemente l'uno dall'altro:
+ * - META: prossimo ID prestito e numerosità delle collezioni, nel file
+ *   principale dell'archivio (scritto per ultimo);
+ * - BOOKS, USERS, LOANS: nei file con il suffisso corrispondente (LOANS
+ *   è scritto per primo, perché contiene le copie staccate delle entità
+ *   che BOOKS e USERS, vecchi o nuovi, non contengono).
+ */
+package swe.group04.libraryms.persistence;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * @brief Tipo di segmento dello snapshot.
+ */
+public enum ArchiveSegment {
+
+    META((byte) 0, ""),
+    BOOKS((byte) 1, ".books"),
+    USERS((byte) 2, ".users"),
+    LOANS((byte) 3, ".loans");
+
+    private final byte code;     ///< Codice scritto nell'intestazione del segmento
+    private final String suffix; ///< Suffisso del file rispetto al file dell'archivio
+
+    ArchiveSegment(byte code, String suffix) {
+        this.code = code;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @brief Restituisce il codice del segmento.
+     *
+     * @return Codice su un byte.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @brief Restituisce il percorso del file del segmento.
+     *
+     * @param archiveFilePath Percorso del file principale dell'archivio.
+     * @return Percorso del file che contiene il segmento.
+     */
+    public String pathFor(String archiveFilePath) {
+        return archiveFilePath + suffix;
+    }
+
+    /**
+     * @brief Restituisce i segmenti da riscrivere dopo una modifica del tipo indicato.
+     *
+     * - libri e utenti: il proprio segmento; la rimozione riguarda anche i
+     *   prestiti, che conservano l'entità rimossa come riferimento storico;
+     * - prestiti: i prestiti, i libri (copie disponibili) e i metadati
+     *   (prossimo ID prestito).
+     *
+     * @param type Tipo del record del journal.
+     * @return Insieme dei segmenti modificati.
+     */
+    public static Set<ArchiveSegment> affectedBy(JournalRecord.Type type) {
+        switch (type) {
+            case ADD_BOOK:
+            case UPDATE_BOOK:
+                return EnumSet.of(BOOKS);
+            case REMOVE_BOOK:
+                return EnumSet.of(BOOKS, LOANS);
+            case ADD_USER:
+            case UPDATE_USER:
+                return EnumSet.of(USERS);
+            case REMOVE_USER:
+                return EnumSet.of(USERS, LOANS);
+            case REMOVE_LOAN:
+                return EnumSet.of(LOANS);
+            default:
+                return EnumSet.of(LOANS, BOOKS, META);
+        }
+    }
+
+    /**
+     * @brief Restituisce il segmento corrispondente a un codice.
+     *
+     * @param code Codice letto dall'intestazione.
+     * @return Segmento corrispondente.
+     *
+     * @throws IOException Se il codice non corrisponde ad alcun segmento.
+     */
+    static ArchiveSegment fromCode(byte code) throws IOException {
+        for (ArchiveSegment s : values()) {
+            if (s.code == code) {
+                return s;
+            }
+        }
+        throw new IOException("Segmento dell'archivio sconosciuto: " + code);
+    }
+}
@@ -4,13 +4,27 @@
  *
  * Fornisce metodi generici per:
  * - scrivere un oggetto su file (serializzazione);
- * - leggere un oggetto da file (deserializzazione).
+ * - sostituire atomicamente e in modo durevole il contenuto di un file;
+ * - leggere un oggetto da file (deserializzazione);
+ * - leggere il contenuto grezzo di un file e deserializzarlo in memoria.
+ *
+ * Tutte le scritture passano da un file temporaneo forzato su disco
+ * (FileChannel.force) e rinominato atomicamente sul percorso finale:
+ * un crash durante il salvataggio lascia intatto il file precedente.
  *
  * @note non contiene logica di business e non valida la correttezza semantica dei dati.
  */
 package swe.group04.libraryms.persistence;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * @brief Servizio di utilità per operazioni generiche su file.
@@ -31,6 +45,9 @@ public class FileService {
      *
      * @throws IllegalArgumentException Se path è nullo o se data è nullo.
      * @throws IOException Se si verifica un errore di I/O durante la scrittura.
+     *
+     * @note La scrittura avviene tramite writeBytesAtomically(): il file
+     *       precedente resta valido fino al completamento del salvataggio.
      */
     public void writeToFile(String path, Object data) throws IOException {
 
@@ -41,13 +58,86 @@ public class FileService {
             throw new IllegalArgumentException("L'oggetto da salvare non può essere nullo.");
         }
 
-        try (
-        FileOutputStream fos = new FileOutputStream(path);
-        BufferedOutputStream bos = new BufferedOutputStream(fos);
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        ) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
             oos.writeObject(data);
         }
+        writeBytesAtomically(path, bytes.toByteArray());
+    }
+
+    /**
+     * @brief Scrive un contenuto su file sostituendo atomicamente il file esistente.
+     *
+     * Il contenuto viene scritto su un file temporaneo nella stessa cartella,
+     * forzato su disco e poi rinominato sul percorso finale: un lettore vede
+     * sempre o il vecchio contenuto o quello nuovo, mai un file parziale.
+     * Dopo la rinomina viene forzata anche la cartella, così che la nuova
+     * voce sopravviva a un'interruzione di corrente.
+     *
+     * @param path Percorso del file di destinazione.
+     * @param data Contenuto da scrivere.
+     *
+     * @pre  path != null
+     * @pre  data != null
+     *
+     * @post Il file indicato da path contiene esattamente data.
+     *
+     * @throws IllegalArgumentException Se path è nullo o se data è nullo.
+     * @throws IOException Se la scrittura o la rinomina falliscono.
+     */
+    public void writeBytesAtomically(String path, byte[] data) throws IOException {
+
+        if(path == null) {
+            throw new IllegalArgumentException("Il percorso del file non può essere nullo.");
+        }
+        if(data == null) {
+            throw new IllegalArgumentException("Il contenuto da salvare non può essere nullo.");
+        }
+
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (FileChannel ch = FileChannel.open(temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            ch.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        forceDirectory(target.getParent());
+    }
+
+    /**
+     * @brief Forza su disco le voci di una cartella (best effort).
+     *
+     * Rende durevoli creazioni e rinomine di file nella cartella.
+     * Su alcuni sistemi (es. Windows) una cartella non può essere aperta
+     * come canale: in tal caso l'operazione viene ignorata.
+     *
+     * @param dir Cartella da forzare (ignorata se null).
+     */
+    public static void forceDirectory(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            //  Non supportato dal sistema: la rinomina resta comunque atomica
+        }
     }
 
     /**
@@ -77,4 +167,50 @@ public class FileService {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * @brief Legge l'intero contenuto di un file.
+     *
+     * @param path Percorso del file da cui leggere.
+     *
+     * @pre  path != null
+     *
+     * @return Contenuto del file.
+     *
+     * @throws IllegalArgumentException Se path è nullo.
+     * @throws FileNotFoundException Se il file non esiste o non è accessibile.
+     * @throws IOException Se si verifica un errore di I/O durante la lettura.
+     */
+    public byte[] readBytesFromFile(String path) throws IOException {
+
+        if(path == null) {
+            throw new IllegalArgumentException("Il percorso del file non può essere nullo.");
+        }
+
+        try (FileInputStream fis = new FileInputStream(path)) {
+            return fis.readAllBytes();
+        }
+    }
+
+    /**
+     * @brief Deserializza un oggetto da un contenuto in memoria.
+     *
+     * @param data Contenuto prodotto dalla serializzazione Java.
+     *
+     * @pre  data != null
+     *
+     * @return Oggetto deserializzato.
+     *
+     * @throws IOException Se il contenuto non è una serializzazione valida.
+     * @throws RuntimeException Se la classe dell'oggetto deserializzato non è disponibile
+     *                          (wrapping della ClassNotFoundException).
+     */
+    public Object deserialize(byte[] data) throws IOException {
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Errore di deserializzazione del contenuto.", e);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * @file JournalRecord.java
+ * @brief Record del journal delle modifiche dell'archivio.
+ *
+ * Ogni record descrive una singola mutazione dell'archivio
+ * (inserimento/aggiornamento/rimozione di libri, utenti e prestiti,
+ * restituzione di un prestito) in forma binaria compatta.
+ *
+ * Il contenuto viene codificato al momento della creazione del record:
+ * il record "fotografa" lo stato dell'entità in quell'istante ed è quindi
+ * indipendente da modifiche successive dell'oggetto di dominio.
+ *
+ * @note I record sono idempotenti: riapplicare più volte lo stesso record
+ *       sullo stesso archivio produce lo stesso risultato. Questo rende sicuro
+ *       il replay di un journal già parzialmente incluso in uno snapshot.
+ *       Per lo stesso motivo, durante il replay i record che riferiscono
+ *       entità rimosse successivamente (e quindi assenti da uno snapshot
+ *       più recente) vengono ignorati.
+ */
+package swe.group04.libraryms.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import swe.group04.libraryms.models.Book;
+import swe.group04.libraryms.models.LibraryArchive;
+import swe.group04.libraryms.models.Loan;
+import swe.group04.libraryms.models.User;
+
+/**
+ * @brief Singola mutazione dell'archivio, serializzata in forma compatta.
+ *
+ * @invariant type != null
+ * @invariant payload != null
+ */
+public final class JournalRecord {
+
+    /**
+     * @brief Tipologie di mutazione registrabili nel journal.
+     *
+     * Il codice numerico è quello scritto su file: non va modificato
+     * per le voci esistenti.
+     */
+    public enum Type {
+        ADD_BOOK(1),
+        UPDATE_BOOK(2),
+        REMOVE_BOOK(3),
+        ADD_USER(4),
+        UPDATE_USER(5),
+        REMOVE_USER(6),
+        ADD_LOAN(7),
+        RETURN_LOAN(8),
+        REMOVE_LOAN(9);
+
+        private final byte code; ///< Codice persistito su file
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * @brief Restituisce il codice persistito del tipo.
+         *
+         * @return Codice numerico del tipo di record.
+         */
+        public byte getCode() {
+            return code;
+        }
+
+        /**
+         * @brief Ricava il tipo a partire dal codice letto da file.
+         *
+         * @param code Codice numerico letto dal journal.
+         * @return Tipo corrispondente.
+         *
+         * @throws IOException Se il codice non corrisponde ad alcun tipo noto.
+         */
+        static Type fromCode(byte code) throws IOException {
+            for (Type t : values()) {
+                if (t.code == code) {
+                    return t;
+                }
+            }
+            throw new IOException("Tipo di record del journal sconosciuto: " + code);
+        }
+    }
+
+    private final Type type; ///< Tipo di mutazione
+    private final byte[] payload; ///< Dati della mutazione codificati
+
+    /**
+     * @brief Costruisce un record a partire da tipo e contenuto già codificato.
+     *
+     * @param type    Tipo di mutazione.
+     * @param payload Contenuto codificato.
+     */
+    JournalRecord(Type type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * @brief Restituisce il tipo di mutazione descritta dal record.
+     *
+     * @return Tipo del record.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @brief Restituisce il contenuto codificato del record.
+     *
+     * @return Array di byte del payload (non copiato).
+     */
+    byte[] getPayload() {
+        return payload;
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                          Factory dei record                             */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Crea il record di inserimento di un libro.
+     *
+     * @param book Libro inserito.
+     * @return Record che descrive l'inserimento.
+     *
+     * @pre book != null
+     */
+    public static JournalRecord addBook(Book book) {
+        return new JournalRecord(Type.ADD_BOOK, encode(out -> writeBook(out, book)));
+    }
+
+    /**
+     * @brief Crea il record di aggiornamento dei dati di un libro.
+     *
+     * @param book Libro aggiornato.
+     * @return Record che descrive l'aggiornamento.
+     *
+     * @pre book != null
+     */
+    public static JournalRecord updateBook(Book book) {
+        return new JournalRecord(Type.UPDATE_BOOK, encode(out -> writeBook(out, book)));
+    }
+
+    /**
+     * @brief Crea il record di rimozione di un libro.
+     *
+     * @param book Libro rimosso.
+     * @return Record che descrive la rimozione.
+     *
+     * @pre book != null
+     */
+    public static JournalRecord removeBook(Book book) {
+        return new JournalRecord(Type.REMOVE_BOOK, encode(out -> out.writeUTF(book.getIsbn())));
+    }
+
+    /**
+     * @brief Crea il record di inserimento di un utente.
+     *
+     * @param user Utente inserito.
+     * @return Record che descrive l'inserimento.
+     *
+     * @pre user != null
+     */
+    public static JournalRecord addUser(User user) {
+        return new JournalRecord(Type.ADD_USER, encode(out -> writeUser(out, user)));
+    }
+
+    /**
+     * @brief Crea il record di aggiornamento dei dati di un utente.
+     *
+     * @param user Utente aggiornato.
+     * @return Record che descrive l'aggiornamento.
+     *
+     * @pre user != null
+     */
+    public static JournalRecord updateUser(User user) {
+        return new JournalRecord(Type.UPDATE_USER, encode(out -> writeUser(out, user)));
+    }
+
+    /**
+     * @brief Crea il record di rimozione di un utente.
+     *
+     * @param user Utente rimosso.
+     * @return Record che descrive la rimozione.
+     *
+     * @pre user != null
+     */
+    public static JournalRecord removeUser(User user) {
+        return new JournalRecord(Type.REMOVE_USER, encode(out -> out.writeUTF(user.getCode())));
+    }
+
+    /**
+     * @brief Crea il record di registrazione di un prestito.
+     *
+     * Oltre ai dati del prestito viene registrato il numero di copie
+     * disponibili del libro dopo la registrazione.
+     *
+     * @param loan Prestito registrato.
+     * @return Record che descrive la registrazione.
+     *
+     * @pre loan != null
+     * @pre loan.getUser() != null && loan.getBook() != null
+     */
+    public static JournalRecord addLoan(Loan loan) {
+        return new JournalRecord(Type.ADD_LOAN, encode(out -> {
+            out.writeInt(loan.getLoanId());
+            out.writeUTF(loan.getUser().getCode());
+            out.writeUTF(loan.getBook().getIsbn());
+            writeDate(out, loan.getLoanDate());
+            writeDate(out, loan.getDueDate());
+            out.writeInt(loan.getBook().getAvailableCopies());
+        }));
+    }
+
+    /**
+     * @brief Crea il record di restituzione di un prestito.
+     *
+     * Oltre alla data di restituzione viene registrato il numero di copie
+     * disponibili del libro dopo la restituzione.
+     *
+     * @param loan Prestito restituito.
+     * @return Record che descrive la restituzione.
+     *
+     * @pre loan != null
+     */
+    public static JournalRecord returnLoan(Loan loan) {
+        return new JournalRecord(Type.RETURN_LOAN, encode(out -> {
+            out.writeInt(loan.getLoanId());
+            writeDate(out, loan.getReturnDate());
+            out.writeInt(loan.getBook() != null ? loan.getBook().getAvailableCopies() : -1);
+        }));
+    }
+
+    /**
+     * @brief Crea il record di rimozione di un prestito.
+     *
+     * @param loan Prestito rimosso.
+     * @return Record che descrive la rimozione.
+     *
+     * @pre loan != null
+     */
+    public static JournalRecord removeLoan(Loan loan) {
+        return new JournalRecord(Type.REMOVE_LOAN, encode(out -> out.writeInt(loan.getLoanId())));
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                          Replay sull'archivio                           */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Applica la mutazione descritta dal record a un archivio.
+     *
+     * @param archive Archivio su cui riapplicare la mutazione.
+     *
+     * @pre archive != null
+     *
+     * @throws IOException Se il contenuto del record non è valido.
+     */
+    public void applyTo(LibraryArchive archive) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        switch (type) {
+            case ADD_BOOK, UPDATE_BOOK -> applyBook(archive, in, type == Type.ADD_BOOK);
+
+            case REMOVE_BOOK -> {
+                Book book = archive.findBookByIsbn(in.readUTF());
+                if (book != null) {
+                    archive.removeBook(book);
+                }
+            }
+
+            case ADD_USER, UPDATE_USER -> applyUser(archive, in, type == Type.ADD_USER);
+
+            case REMOVE_USER -> {
+                User user = archive.findUserByCode(in.readUTF());
+                if (user != null) {
+                    archive.removeUser(user);
+                }
+            }
+
+            case ADD_LOAN -> applyAddLoan(archive, in);
+
+            case RETURN_LOAN -> {
+                Loan loan = archive.findLoanById(in.readInt());
+                if (loan == null) {
+                    return; ///< Prestito rimosso dopo la restituzione
+                }
+                loan.setReturnDate(readDate(in));
+                loan.setStatus(false);
+                int available = in.readInt();
+                if (loan.getBook() != null && available >= 0) {
+                    loan.getBook().setAvailableCopies(available);
+                }
+            }
+
+            case REMOVE_LOAN -> {
+                Loan loan = archive.findLoanById(in.readInt());
+                if (loan != null) {
+                    archive.removeLoan(loan);
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Riapplica inserimento/aggiornamento di un libro.
+     *
+     * Un inserimento di un libro già presente (replay ripetuto) si comporta
+     * come un aggiornamento; un aggiornamento di un libro assente è ignorato.
+     */
+    private static void applyBook(LibraryArchive archive, DataInputStream in, boolean insert) throws IOException {
+        String isbn = in.readUTF();
+        String title = readNullableString(in);
+        int authorsCount = in.readInt();
+        List<String> authors = new ArrayList<>(authorsCount);
+        for (int i = 0; i < authorsCount; i++) {
+            authors.add(readNullableString(in));
+        }
+        int releaseYear = in.readInt();
+        int totalCopies = in.readInt();
+        int availableCopies = in.readInt();
+
+        Book book = archive.findBookByIsbn(isbn);
+        if (book == null) {
+            if (!insert) {
+                return;
+            }
+            book = new Book(title, authors, releaseYear, isbn, totalCopies);
+            book.setAvailableCopies(availableCopies);
+            archive.addBook(book);
+            return;
+        }
+
+        book.setTitle(title);
+        book.setAuthors(authors);
+        book.setReleaseYear(releaseYear);
+        book.setTotalCopies(totalCopies);
+        book.setAvailableCopies(availableCopies);
+    }
+
+    /**
+     * @brief Riapplica inserimento/aggiornamento di un utente.
+     */
+    private static void applyUser(LibraryArchive archive, DataInputStream in, boolean insert) throws IOException {
+        String code = in.readUTF();
+        String firstName = readNullableString(in);
+        String lastName = readNullableString(in);
+        String email = readNullableString(in);
+
+        User user = archive.findUserByCode(code);
+        if (user == null) {
+            if (insert) {
+                archive.addUser(new User(firstName, lastName, email, code));
+            }
+            return;
+        }
+
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setEmail(email);
+    }
+
+    /**
+     * @brief Riapplica la registrazione di un prestito, mantenendone l'ID originale.
+     */
+    private static void applyAddLoan(LibraryArchive archive, DataInputStream in) throws IOException {
+        int loanId = in.readInt();
+        String userCode = in.readUTF();
+        String isbn = in.readUTF();
+        LocalDate loanDate = readDate(in);
+        LocalDate dueDate = readDate(in);
+        int available = in.readInt();
+
+        Loan existing = archive.findLoanById(loanId);
+        if (existing != null) {
+            //  Prestito già incluso nello snapshot: si ripristinano solo le copie
+            if (existing.getBook() != null) {
+                existing.getBook().setAvailableCopies(available);
+            }
+            return;
+        }
+
+        User user = archive.findUserByCode(userCode);
+        Book book = archive.findBookByIsbn(isbn);
+        if (user == null || book == null) {
+            return; ///< Entità rimosse dopo la registrazione del prestito
+        }
+
+        archive.restoreLoan(new Loan(loanId, user, book, loanDate, dueDate, true));
+        book.setAvailableCopies(available);
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                       Metodi di codifica interni                        */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Scrittura del payload su un DataOutputStream.
+     */
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * @brief Codifica il payload in un array di byte.
+     */
+    private static byte[] encode(PayloadWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            //  Non può accadere scrivendo in memoria
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBook(DataOutputStream out, Book book) throws IOException {
+        out.writeUTF(book.getIsbn());
+        writeNullableString(out, book.getTitle());
+        List<String> authors = book.getAuthors();
+        out.writeInt(authors.size());
+        for (String author : authors) {
+            writeNullableString(out, author);
+        }
+        out.writeInt(book.getReleaseYear());
+        out.writeInt(book.getTotalCopies());
+        out.writeInt(book.getAvailableCopies());
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeUTF(user.getCode());
+        writeNullableString(out, user.getFirstName());
+        writeNullableString(out, user.getLastName());
+        writeNullableString(out, user.getEmail());
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @brief Scrive una data come giorno epocale (Long.MIN_VALUE = null).
+     */
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date != null ? date.toEpochDay() : Long.MIN_VALUE);
+    }
+
+    private static LocalDate readDate(DataInputStream in) throws IOException {
+        long epochDay = in.readLong();
+        return epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
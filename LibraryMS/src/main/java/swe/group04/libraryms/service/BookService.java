@@ -13,12 +13,18 @@
 package swe.group04.libraryms.service;
 
 import java.io.IOException;
+import java.text.CollationKey;
 import java.time.Year;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import swe.group04.libraryms.exceptions.*;
 import swe.group04.libraryms.models.*;
+import swe.group04.libraryms.persistence.JournalRecord;
 
 /**
  * @brief Implementa la logica di alto livello per la gestione del catalogo libri.
@@ -32,16 +38,89 @@ public class BookService {
     private LibraryArchiveService libraryArchiveService; //<    Servizio per la persistenza dell'archivio
 
     /**
-     * @brief Comparatore case-insensitive per ordinare i libri per titolo.
+     * @brief Indice per trigrammi di titolo, autori e ISBN, usato da searchBooks().
+     */
+    private final TrigramIndex<Book> searchIndex = new TrigramIndex<>(b -> {
+        List<String> fields = new ArrayList<>();
+        fields.add(b.getTitle());
+        if (b.getAuthors() != null) {
+            fields.addAll(b.getAuthors());
+        }
+        fields.add(b.getIsbn());
+        return fields;
+    });
+
+    /**
+     * @brief Indice invertito per termini, usato da searchBooksByTerms().
      *
-     * Se il titolo è null, viene considerata la stringa vuota.
+     * Indicizza titolo, autori e ISBN; l'ISBN è indicizzato anche senza
+     * trattini e spazi, così che sia trovato in entrambe le forme.
      */
-    private static final Comparator<Book> BY_TITLE_COMPARATOR =
-            Comparator.comparing(
-                    b -> b.getTitle() == null
-                            ? ""
-                            : b.getTitle().toLowerCase()
-            );
+    private final TokenIndex<Book> termIndex = new TokenIndex<>(b -> {
+        List<String> fields = new ArrayList<>();
+        fields.add(b.getTitle());
+        if (b.getAuthors() != null) {
+            fields.addAll(b.getAuthors());
+        }
+        if (b.getIsbn() != null) {
+            fields.add(b.getIsbn());
+            fields.add(b.getIsbn().replace("-", "").replace(" ", ""));
+        }
+        return fields;
+    });
+
+    /**
+     * @brief Indice delle parole di titolo e autori, usato da searchBooksFuzzy().
+     */
+    private final FuzzyIndex<Book> fuzzyIndex = new FuzzyIndex<>(b -> {
+        List<String> fields = new ArrayList<>();
+        fields.add(b.getTitle());
+        if (b.getAuthors() != null) {
+            fields.addAll(b.getAuthors());
+        }
+        return fields;
+    });
+
+    /**
+     * @brief Distanza di modifica predefinita della ricerca tollerante.
+     */
+    public static final int DEFAULT_FUZZY_DISTANCE = 2;
+
+    /**
+     * @brief Criteri di ordinamento del catalogo.
+     */
+    public enum SortOrder {
+        TITLE,  ///< Titolo, in ordine alfabetico italiano (case-insensitive)
+        AUTHOR, ///< Primo autore, in ordine alfabetico italiano (case-insensitive)
+        YEAR    ///< Anno di pubblicazione
+    }
+
+    /**
+     * @brief Viste ordinate del catalogo, una per criterio.
+     *
+     * Le chiavi sono calcolate una volta per libro, all'inserimento o
+     * all'aggiornamento; a parità di chiave vale l'ordine dell'archivio,
+     * come nell'ordinamento stabile di una copia della lista.
+     */
+    private final Map<SortOrder, SortedView<Book, ?>> sortedViews = new EnumMap<>(Map.of(
+            SortOrder.TITLE, SortedView.natural(BookService::titleKey),
+            SortOrder.AUTHOR, SortedView.natural(BookService::authorKey),
+            SortOrder.YEAR, SortedView.<Book, Integer>natural(Book::getReleaseYear)
+    ));
+
+    /**
+     * @brief Prefisso dei token di continuazione della ricerca paginata.
+     */
+    private static final String SEARCH_TOKEN = "SEARCH";
+
+    /**
+     * @brief Rapporto tra libri e candidati sotto il quale la ricerca paginata
+     *        ordina i soli candidati invece di scorrere l'ordine per titolo.
+     */
+    private static final int CANDIDATE_RATIO = 8;
+
+    private LibraryArchive indexedArchive;   ///< Archivio a cui si riferiscono indice e viste
+    private long indexedVersion = -1;        ///< Versione dei libri indicizzata
 
     /**
      * @brief Costruttore del servizio.
@@ -94,9 +173,11 @@ public class BookService {
         validateIsbnFormat(book.getIsbn());
         validateIsbnUniquenessOnAdd(book.getIsbn());
 
-        getArchive().addBook(book); //< Aggiunge il libro all'archivio
+        LibraryArchive archive = getArchive();
+        archive.addBook(book); //< Aggiunge il libro all'archivio
+        indexAfterChange(archive, book, false);
 
-        persistChanges(); //<   Persistenza delle modifiche
+        persistChanges(JournalRecord.addBook(book)); //<   Persistenza delle modifiche
     }
 
     /**
@@ -118,10 +199,21 @@ public class BookService {
      * @throws RuntimeException        Se il salvataggio dell'archivio fallisce (wrapping di IOException).
      */
     public void updateBook(Book book) throws MandatoryFieldException, InvalidIsbnException{
+        //  I campi sono già stati modificati: il libro va reindicizzato
+        //  anche se i nuovi valori vengono poi rifiutati
+        if (book != null && getArchive() == indexedArchive && indexedArchive.getBooksVersion() == indexedVersion) {
+            searchIndex.add(book);
+            termIndex.add(book);
+            fuzzyIndex.add(book);
+            for (SortedView<Book, ?> view : sortedViews.values()) {
+                view.add(book);
+            }
+        }
+
         validateBookMandatoryFields(book);
         validateIsbnFormat(book.getIsbn());
 
-        persistChanges(); // Persistenza delle modifiche
+        persistChanges(JournalRecord.updateBook(book)); // Persistenza delle modifiche
     }
 
     /**
@@ -148,23 +240,23 @@ public class BookService {
             throw new IllegalArgumentException("Il libro non può essere nullo");
         }
 
-        List<Loan> loansForBook = getArchive().findLoansByBook(book);
-        for (Loan loan : loansForBook) {
-            if(loan != null && loan.isActive()){
-                throw new UserHasActiveLoanException(
-                        "Impossibile rimuovere il libro: sono presenti prestiti attivi associati."
-                );
-            }
+        if (getArchive().countActiveLoansByBook(book) > 0) {
+            throw new UserHasActiveLoanException(
+                    "Impossibile rimuovere il libro: sono presenti prestiti attivi associati."
+            );
         }
 
-        getArchive().removeBook(book); //<  Rimozione Effettiva
-        persistChanges(); //<   Persistenza delle modifiche
+        LibraryArchive archive = getArchive();
+        archive.removeBook(book); //<  Rimozione Effettiva
+        indexAfterChange(archive, book, true);
+        persistChanges(JournalRecord.removeBook(book)); //<   Persistenza delle modifiche
     }
 
     /**
-     * @brief Restituisce tutti i libri ordinati per titolo (case-insensitive).
+     * @brief Restituisce tutti i libri ordinati per titolo (ordine alfabetico italiano, case-insensitive).
      *
-     * L'ordinamento è effettuato su una copia della lista restituita dall'archivio.
+     * L'ordine è mantenuto dal servizio a ogni modifica: la lettura copia
+     * la vista senza riordinare.
      *
      * @pre  libraryArchiveService != null
      * @post true
@@ -172,15 +264,13 @@ public class BookService {
      * @return Lista di libri ordinata per titolo (mai null).
      */
     public List<Book> getBooksSortedByTitle() {
-        List<Book> books = new ArrayList<>(getArchive().getBooks());
-        books.sort(BY_TITLE_COMPARATOR);
-        return books;
+        return view(SortOrder.TITLE).toList();
     }
 
     /**
      * @brief Restituisce tutti i libri ordinati per autore.
      *
-     * Criterio: confronto case-insensitive sul primo autore della lista.
+     * Criterio: ordine alfabetico italiano, case-insensitive, sul primo autore della lista.
      * Se la lista autori è vuota, viene usata stringa vuota come chiave.
      *
      * @pre  libraryArchiveService != null
@@ -189,13 +279,7 @@ public class BookService {
      * @return Lista di libri ordinata per autore (mai null).
      */
     public List<Book> getBooksSortedByAuthor() {
-        return getArchive().getBooks().stream()
-                .sorted((b1, b2) -> {
-                    String a1 = b1.getAuthors().isEmpty() ? "" : b1.getAuthors().get(0).toLowerCase();
-                    String a2 = b2.getAuthors().isEmpty() ? "" : b2.getAuthors().get(0).toLowerCase();
-                    return a1.compareTo(a2);
-                })
-                .toList();
+        return view(SortOrder.AUTHOR).toList();
     }
 
     /**
@@ -207,9 +291,64 @@ public class BookService {
      * @return Lista di libri ordinata per anno (mai null).
      */
     public List<Book> getBooksSortedByYear() {
-        return getArchive().getBooks().stream()
-                .sorted(Comparator.comparingInt(Book::getReleaseYear))
-                .toList();
+        return view(SortOrder.YEAR).toList();
+    }
+
+    /**
+     * @brief Restituisce una pagina del catalogo ordinato.
+     *
+     * La pagina contiene i libri che seguono after nell'ordine richiesto;
+     * il costo dipende dalla dimensione della pagina, non del catalogo.
+     *
+     * @param order    Criterio di ordinamento.
+     * @param after    Ultimo libro della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di libri della pagina.
+     *
+     * @pre  order != null
+     * @pre  pageSize > 0
+     *
+     * @return Libri della pagina (mai null); vuota se after non è in catalogo.
+     *
+     * @throws IllegalArgumentException Se order è nullo o pageSize non è positivo.
+     */
+    public List<Book> getBooksPage(SortOrder order, Book after, int pageSize) {
+        if (order == null) {
+            throw new IllegalArgumentException("Il criterio di ordinamento non può essere nullo.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva.");
+        }
+        return view(order).page(after, pageSize);
+    }
+
+    /**
+     * @brief Restituisce una pagina del catalogo ordinato, con token di continuazione.
+     *
+     * La prima pagina si ottiene con token null; le successive passando il
+     * token restituito dalla pagina precedente con lo stesso criterio.
+     *
+     * @param order    Criterio di ordinamento.
+     * @param token    Token della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di libri della pagina.
+     *
+     * @pre  order != null
+     * @pre  pageSize > 0
+     *
+     * @return Pagina di libri (mai null).
+     *
+     * @throws IllegalArgumentException Se order è nullo, pageSize non è positivo o
+     *                                  il token non è valido (o non lo è più).
+     */
+    public Page<Book> pageBooks(SortOrder order, String token, int pageSize) {
+        if (order == null) {
+            throw new IllegalArgumentException("Il criterio di ordinamento non può essere nullo.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva.");
+        }
+        SortedView<Book, ?> view = view(order);
+        Book after = anchorOf(view, token, order.name());
+        return Page.of(view.page(after, pageSize + 1), pageSize, order.name(), Book::getIsbn);
     }
 
     /**
@@ -221,6 +360,12 @@ public class BookService {
      * - autori;
      * - ISBN.
      *
+     * I candidati sono ristretti dall'indice per trigrammi e verificati
+     * sui campi già normalizzati, senza scandire l'intero catalogo.
+     *
+     * Se nessun libro contiene la query per intero, si ripiega sulla
+     * ricerca per termini di searchBooksByTerms() (es. "tolkien signore").
+     *
      * Se la query è vuota (dopo trim), restituisce l'intero catalogo ordinato per titolo.
      *
      * @param query Testo di ricerca inserito dall'operatore.
@@ -230,7 +375,7 @@ public class BookService {
      *
      * @post true
      *
-     * @return Lista dei libri che soddisfano il criterio di ricerca (mai null).
+     * @return Lista dei libri che soddisfano il criterio di ricerca, ordinata per titolo (mai null).
      *
      * @throws IllegalArgumentException Se query è null.
      */
@@ -239,52 +384,254 @@ public class BookService {
             throw new IllegalArgumentException("La richiesta non può essere nulla.");
         }
 
-        String normalized = query.trim().toLowerCase(); // Trasforma in lower-case
+        String normalized = TrigramIndex.normalize(query.trim()); // Trasforma in lower-case
 
         //  Query vuota: restituisce tutti i libri ordinati
         if (normalized.isEmpty()) {
             return getBooksSortedByTitle();
         }
 
-        List<Book> result = new ArrayList<>(); // Lista che contiene risultato/i
-        for (Book book : getArchive().getBooks()) {
-            if (book == null) {
-                continue;
-            }
+        //  Ordinamento per titolo sulle chiavi già calcolate dalla vista:
+        //  a parità di titolo resta l'ordine dell'archivio, come nella
+        //  scansione lineare
+        SortedView<Book, ?> byTitle = view(SortOrder.TITLE);
+        List<Book> result = searchIndex.search(normalized);
+        if (result.isEmpty()) {
+            result = new ArrayList<>(termFallback(query));
+        }
+        result.sort(byTitle::compare);
+        return result;
+    }
 
-            boolean matches = false;
+    /**
+     * @brief Ricerca nel catalogo per termini.
+     *
+     * La query viene scomposta in termini (parole separate da spazi o
+     * punteggiatura, senza distinzione tra maiuscole e minuscole) e cercata
+     * nell'indice invertito di titolo, autori e ISBN: un libro corrisponde
+     * se contiene tutti i termini, in qualsiasi campo e in qualsiasi
+     * ordine; l'ultimo termine può essere l'inizio di una parola, così che
+     * la ricerca funzioni durante la digitazione.
+     *
+     * Se la query non contiene termini, restituisce l'intero catalogo ordinato per titolo.
+     *
+     * @param query Testo di ricerca inserito dall'operatore.
+     *
+     * @pre  query != null
+     *
+     * @return Lista dei libri che contengono tutti i termini, ordinata per titolo (mai null).
+     *
+     * @throws IllegalArgumentException Se query è null.
+     */
+    public List<Book> searchBooksByTerms(String query) {
+        if (query == null) {
+            throw new IllegalArgumentException("La richiesta non può essere nulla.");
+        }
+        SortedView<Book, ?> byTitle = view(SortOrder.TITLE);
+        List<Book> result = new ArrayList<>(termIndex.search(query));
+        result.sort(byTitle::compare);
+        return result;
+    }
 
-            //  Titolo
-            String title = book.getTitle();
-            if (title != null && title.toLowerCase().contains(normalized)) {
-                matches = true;
-            }
+    /**
+     * @brief Ricerca nel catalogo tollerante agli errori di battitura.
+     *
+     * Usa la distanza predefinita DEFAULT_FUZZY_DISTANCE.
+     *
+     * @param query Testo di ricerca inserito dall'operatore.
+     * @return Libri corrispondenti, ordinati per distanza e poi per titolo (mai null).
+     *
+     * @throws IllegalArgumentException Se query è null.
+     *
+     * @see searchBooksFuzzy(String, int)
+     */
+    public List<Book> searchBooksFuzzy(String query) {
+        return searchBooksFuzzy(query, DEFAULT_FUZZY_DISTANCE);
+    }
 
-            //  Autori
-            if (!matches && book.getAuthors() != null) {
-                for (String author : book.getAuthors()) {
-                    if (author != null && author.toLowerCase().contains(normalized)) {
-                        matches = true;
-                        break;
-                    }
-                }
+    /**
+     * @brief Ricerca nel catalogo tollerante agli errori di battitura.
+     *
+     * Un libro corrisponde se, per ogni parola della query, il titolo o uno
+     * degli autori contiene una parola a distanza di Levenshtein non
+     * superiore a maxDistance (ridotta per le parole più corte, vedi
+     * FuzzyIndex). Le parole simili sono cercate nel dizionario delle
+     * parole del catalogo (BK-tree), senza confrontare la query con ogni libro.
+     *
+     * I risultati sono ordinati per distanza complessiva crescente e, a
+     * parità di distanza, per titolo come searchBooks(). Se la query non
+     * contiene parole il risultato è vuoto.
+     *
+     * @param query       Testo di ricerca inserito dall'operatore.
+     * @param maxDistance Numero massimo di caratteri errati per parola.
+     * @return Libri corrispondenti, ordinati per distanza e poi per titolo (mai null).
+     *
+     * @throws IllegalArgumentException Se query è null o maxDistance è negativa.
+     */
+    public List<Book> searchBooksFuzzy(String query, int maxDistance) {
+        if (query == null) {
+            throw new IllegalArgumentException("La richiesta non può essere nulla.");
+        }
+        SortedView<Book, ?> byTitle = view(SortOrder.TITLE);
+        Map<Book, Integer> distances = fuzzyIndex.distances(query, maxDistance);
+        List<Book> result = new ArrayList<>(distances.keySet());
+        result.sort(Comparator.<Book>comparingInt(distances::get).thenComparing(byTitle::compare));
+        return result;
+    }
+
+    /**
+     * @brief Ricerca paginata nel catalogo, con token di continuazione.
+     *
+     * Stesso criterio di searchBooks(), compreso il ripiego sulla ricerca
+     * per termini: le pagine seguono l'ordine per titolo e il token va
+     * ripassato insieme alla stessa query.
+     *
+     * @param query    Testo di ricerca inserito dall'operatore.
+     * @param token    Token della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di libri della pagina.
+     *
+     * @pre  query != null
+     * @pre  pageSize > 0
+     *
+     * @return Pagina di libri che soddisfano il criterio di ricerca (mai null).
+     *
+     * @throws IllegalArgumentException Se query è null, pageSize non è positivo o
+     *                                  il token non è valido (o non lo è più).
+     */
+    public Page<Book> pageSearchBooks(String query, String token, int pageSize) {
+        if (query == null) {
+            throw new IllegalArgumentException("La richiesta non può essere nulla.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva.");
+        }
+
+        String normalized = TrigramIndex.normalize(query.trim());
+        SortedView<Book, ?> view = view(SortOrder.TITLE);
+        Book after = anchorOf(view, token, SEARCH_TOKEN);
+        List<Book> fetched;
+        if (normalized.isEmpty()) {
+            fetched = view.page(after, pageSize + 1);
+        } else if (after == null || searchIndex.matches(after, normalized)) {
+            //  Pochi candidati: si ordinano solo quelli; altrimenti si
+            //  scorre l'ordine per titolo fino a riempire la pagina
+            Collection<Book> candidates = searchIndex.candidates(normalized);
+            fetched = candidates.size() <= view.size() / CANDIDATE_RATIO
+                    ? view.pageWithin(candidates, after, pageSize + 1, b -> searchIndex.matches(b, normalized))
+                    : view.page(after, pageSize + 1, b -> searchIndex.matches(b, normalized));
+            if (fetched.isEmpty() && after == null) {
+                fetched = view.pageWithin(termFallback(query), null, pageSize + 1, b -> true);
             }
+        } else {
+            //  L'ultimo libro della pagina precedente non contiene la query:
+            //  la ricerca era già ripiegata sui termini
+            fetched = view.pageWithin(termFallback(query), after, pageSize + 1, b -> true);
+        }
+        return Page.of(fetched, pageSize, SEARCH_TOKEN, Book::getIsbn);
+    }
 
-            //  ISBN
-            if (!matches) {
-                String isbn = book.getIsbn();
-                if (isbn != null && isbn.toLowerCase().contains(normalized)) {
-                    matches = true;
+    /**
+     * @brief Ripiego della ricerca per sottostringa sulla ricerca per termini.
+     *
+     * @param query Testo di ricerca (non nullo).
+     * @return Libri che contengono tutti i termini; nessuno se la query non
+     *         contiene termini (es. solo punteggiatura).
+     */
+    private Set<Book> termFallback(String query) {
+        return TokenIndex.tokenize(query).isEmpty() ? Set.of() : termIndex.search(query);
+    }
+
+    /**
+     * @brief Risolve il libro a cui si riferisce un token di continuazione.
+     *
+     * @param view   Vista da paginare.
+     * @param token  Token ricevuto (null = prima pagina).
+     * @param prefix Prefisso atteso del token.
+     * @return Ultimo libro della pagina precedente, oppure null per la prima pagina.
+     *
+     * @throws IllegalArgumentException Se il token non è valido o il libro non è più in catalogo.
+     */
+    private Book anchorOf(SortedView<Book, ?> view, String token, String prefix) {
+        String isbn = Page.keyOf(token, prefix);
+        if (isbn == null) {
+            return null;
+        }
+        Book after = getArchive().findBookByIsbn(isbn);
+        if (after == null || !view.contains(after)) {
+            throw new IllegalArgumentException("Il token di continuazione non è più valido: ricominciare dalla prima pagina.");
+        }
+        return after;
+    }
+
+    /**
+     * @brief Restituisce la vista ordinata richiesta, allineata all'archivio corrente.
+     *
+     * @param order Criterio di ordinamento.
+     * @return Vista ordinata dei libri.
+     */
+    private SortedView<Book, ?> view(SortOrder order) {
+        syncIndexes();
+        return sortedViews.get(order);
+    }
+
+    /**
+     * @brief Allinea indice di ricerca e viste ordinate all'archivio corrente.
+     *
+     * Indice e viste vengono ricostruiti se l'archivio è stato sostituito
+     * (es. dopo un ricaricamento) o se i libri sono cambiati senza passare
+     * da questo servizio.
+     */
+    private void syncIndexes() {
+        LibraryArchive archive = getArchive();
+        if (archive != indexedArchive || archive.getBooksVersion() != indexedVersion) {
+            List<Book> books = new ArrayList<>();
+            for (Book book : archive.getBooks()) {
+                if (book != null) {
+                    books.add(book);
                 }
             }
-
-            if (matches) {
-                result.add(book);
+            searchIndex.rebuild(books);
+            termIndex.rebuild(books);
+            fuzzyIndex.rebuild(books);
+            for (SortedView<Book, ?> view : sortedViews.values()) {
+                view.rebuild(books);
             }
+            indexedArchive = archive;
+            indexedVersion = archive.getBooksVersion();
         }
+    }
 
-        result.sort(BY_TITLE_COMPARATOR);
-        return result;
+    /**
+     * @brief Aggiorna indice e viste dopo l'aggiunta o la rimozione di un libro.
+     *
+     * L'aggiornamento è incrementale solo se indice e viste erano allineati alla
+     * versione precedente alla modifica; altrimenti sarà ricostruito alla
+     * prossima lettura.
+     *
+     * @param archive Archivio modificato.
+     * @param book    Libro aggiunto o rimosso.
+     * @param removed true se il libro è stato rimosso.
+     */
+    private void indexAfterChange(LibraryArchive archive, Book book, boolean removed) {
+        if (archive != indexedArchive || archive.getBooksVersion() != indexedVersion + 1) {
+            return;
+        }
+        if (removed) {
+            searchIndex.remove(book);
+            termIndex.remove(book);
+            fuzzyIndex.remove(book);
+            for (SortedView<Book, ?> view : sortedViews.values()) {
+                view.remove(book);
+            }
+        } else {
+            searchIndex.add(book);
+            termIndex.add(book);
+            fuzzyIndex.add(book);
+            for (SortedView<Book, ?> view : sortedViews.values()) {
+                view.add(book);
+            }
+        }
+        indexedVersion = archive.getBooksVersion();
     }
 
     /* --------------------------------------------------------------------- */
@@ -365,16 +712,33 @@ public class BookService {
     /* ---------------------------------------------------------------------- */
     
     /**
-     * @brief Persiste le modifiche dell'archivio tramite LibraryArchiveService.
+     * @brief Persiste una modifica dell'archivio tramite LibraryArchiveService.
+     *
+     * @param record Record che descrive la modifica appena applicata.
      */
-    private void persistChanges() {
+    private void persistChanges(JournalRecord record) {
         try {
-            libraryArchiveService.saveArchive(getArchive());
+            libraryArchiveService.saveChange(record);
         } catch (IOException e) {
             throw new RuntimeException("Errore durante il salvataggio dell'archivio dei libri.", e);
         }
     }
 
+    /**
+     * @brief Chiave di ordinamento per titolo: chiave di collazione, titolo null = "".
+     */
+    private static CollationKey titleKey(Book book) {
+        return CollationKeys.of(book.getTitle());
+    }
+
+    /**
+     * @brief Chiave di ordinamento per autore: chiave di collazione del primo autore, "" se assente.
+     */
+    private static CollationKey authorKey(Book book) {
+        List<String> authors = book.getAuthors();
+        return CollationKeys.of(authors.isEmpty() ? null : authors.get(0));
+    }
+
     /**
      * @brief Verifica se una stringa è nulla o composta solo da spazi.
      */
@@ -0,0 +1,50 @@
+/**
+ * @file CollationKeys.java
+ * @brief Chiavi di ordinamento alfabetico secondo le regole della lingua italiana.
+ *
+ * Le viste ordinate di libri e utenti calcolano la chiave di ogni elemento
+ * una sola volta, all'inserimento o dopo una modifica dei suoi campi: con
+ * queste chiavi i confronti successivi sono confronti tra sequenze di byte,
+ * senza allocazioni, e rispettano l'ordine alfabetico italiano (le lettere
+ * accentate seguono la lettera base invece di finire dopo la "z").
+ *
+ * Il confronto ignora le differenze tra maiuscole e minuscole, come il
+ * precedente ordinamento per toLowerCase(), ma distingue le lettere
+ * accentate da quelle non accentate a parità di lettere base.
+ */
+package swe.group04.libraryms.service;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * @brief Generatore di chiavi di collazione per l'italiano.
+ */
+public final class CollationKeys {
+
+    /**
+     * @brief Collator condiviso; Collator non è thread-safe, l'accesso è sincronizzato.
+     */
+    private static final Collator COLLATOR = Collator.getInstance(Locale.ITALIAN);
+
+    static {
+        COLLATOR.setStrength(Collator.SECONDARY);
+        COLLATOR.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+    }
+
+    private CollationKeys() {
+    }
+
+    /**
+     * @brief Calcola la chiave di ordinamento di un testo.
+     *
+     * @param text Testo da ordinare (null equivale alla stringa vuota).
+     * @return Chiave confrontabile con le altre chiavi prodotte da questa classe.
+     */
+    public static CollationKey of(String text) {
+        synchronized (COLLATOR) {
+            return COLLATOR.getCollationKey(text == null ? "" : text);
+        }
+    }
+}
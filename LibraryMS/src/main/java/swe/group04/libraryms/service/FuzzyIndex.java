@@ -0,0 +1,335 @@
+/**
+ * @file FuzzyIndex.java
+ * @brief Indice per la ricerca tollerante agli errori di battitura.
+ *
+ * I campi testuali degli elementi vengono scomposti in parole (sequenze di
+ * lettere e cifre, in minuscolo). Le parole distinte formano un dizionario
+ * organizzato come BK-tree rispetto alla distanza di Levenshtein: ogni
+ * figlio di un nodo è etichettato con la sua distanza dal nodo e, per la
+ * disuguaglianza triangolare, una ricerca con tolleranza k visita solo i
+ * figli con etichetta in [d - k, d + k], dove d è la distanza tra query e
+ * nodo. Le parole simili alla query si trovano così senza confrontarla con
+ * tutto il dizionario, e tanto meno con tutti gli elementi.
+ *
+ * Un BK-tree non permette di togliere un nodo senza riorganizzare i
+ * sottoalberi: le parole che non compaiono più in alcun elemento restano
+ * nell'albero e vengono ignorate dalla ricerca. Quando superano la metà
+ * delle parole ancora in uso, l'albero viene ricostruito con le sole
+ * parole in uso, così che aggiornamenti ripetuti (ad esempio dello stesso
+ * titolo) non lo facciano crescere senza limite.
+ *
+ * @note La classe non è thread-safe: è pensata per essere usata dal
+ *       thread dell'interfaccia, come i servizi che la possiedono.
+ */
+package swe.group04.libraryms.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * @brief Indice di parole con ricerca per distanza di modifica.
+ *
+ * @param <T> Tipo degli elementi indicizzati (confrontati per identità).
+ */
+public final class FuzzyIndex<T> {
+
+    /**
+     * @brief Nodo del BK-tree: una parola e i figli indicizzati per distanza.
+     */
+    private static final class Node {
+        final String word;
+        Map<Integer, Node> children;
+
+        Node(String word) {
+            this.word = word;
+        }
+    }
+
+    private final Function<T, List<String>> fields; ///< Estrattore dei campi testuali
+
+    private final Map<String, Set<T>> postings = new HashMap<>();      ///< Parola → elementi
+    private final Map<T, String[]> entries = new IdentityHashMap<>();  ///< Elemento → parole indicizzate
+    private Node root;                                                 ///< Radice del dizionario
+    private int treeSize;                                              ///< Parole nell'albero (in uso e non)
+
+    /**
+     * @brief Crea un indice vuoto.
+     *
+     * @param fields Funzione che restituisce i campi testuali da indicizzare
+     *               (i valori null vengono ignorati).
+     *
+     * @throws IllegalArgumentException Se fields è nullo.
+     */
+    public FuzzyIndex(Function<T, List<String>> fields) {
+        if (fields == null) {
+            throw new IllegalArgumentException("L'estrattore dei campi non può essere nullo.");
+        }
+        this.fields = fields;
+    }
+
+    /**
+     * @brief Svuota l'indice e vi inserisce gli elementi indicati.
+     *
+     * @param elements Elementi da indicizzare.
+     */
+    public void rebuild(Iterable<T> elements) {
+        postings.clear();
+        entries.clear();
+        root = null;
+        treeSize = 0;
+        for (T e : elements) {
+            add(e);
+        }
+    }
+
+    /**
+     * @brief Indicizza un elemento (o lo reindicizza, se già presente).
+     *
+     * @param element Elemento da indicizzare.
+     */
+    public void add(T element) {
+        if (element == null) {
+            return;
+        }
+        unindex(element);
+
+        Set<String> words = new LinkedHashSet<>();
+        for (String field : fields.apply(element)) {
+            if (field != null) {
+                Collections.addAll(words, tokenize(field));
+            }
+        }
+        for (String w : words) {
+            Set<T> set = postings.get(w);
+            if (set == null) {
+                set = Collections.newSetFromMap(new IdentityHashMap<>());
+                postings.put(w, set);
+                insertWord(w);
+            }
+            set.add(element);
+        }
+        entries.put(element, words.toArray(new String[0]));
+        pruneIfNeeded();
+    }
+
+    /**
+     * @brief Rimuove un elemento dall'indice.
+     *
+     * Le parole rimaste senza elementi escono dal dizionario; l'albero viene
+     * ricostruito quando le parole non più in uso superano la metà di
+     * quelle in uso.
+     *
+     * @param element Elemento da rimuovere.
+     */
+    public void remove(T element) {
+        unindex(element);
+        pruneIfNeeded();
+    }
+
+    /**
+     * @brief Restituisce il numero di parole presenti nel BK-tree.
+     *
+     * @return Parole nell'albero, comprese quelle non più in uso.
+     */
+    int wordCount() {
+        return treeSize;
+    }
+
+    /**
+     * @brief Cerca gli elementi che contengono, per ogni parola della query,
+     *        una parola entro la distanza massima.
+     *
+     * La tolleranza effettiva per una parola della query è ridotta per le
+     * parole corte, min(maxDistance, (lunghezza - 1) / 2), così che parole
+     * di una o due lettere non corrispondano a qualunque parola breve.
+     *
+     * @param query       Testo di ricerca (non nullo).
+     * @param maxDistance Distanza di Levenshtein massima per parola (>= 0).
+     * @return Elementi corrispondenti associati alla somma, sulle parole della
+     *         query, della distanza dalla parola più vicina (mai null).
+     *
+     * @throws IllegalArgumentException Se maxDistance è negativa.
+     */
+    public Map<T, Integer> distances(String query, int maxDistance) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("La distanza massima non può essere negativa.");
+        }
+        Map<T, Integer> total = null;
+        for (String q : tokenize(query)) {
+            int k = Math.min(maxDistance, (q.length() - 1) / 2);
+
+            //  Distanza minima di ogni elemento da questa parola della query
+            Map<T, Integer> best = new IdentityHashMap<>();
+            Map<String, Integer> words = new HashMap<>();
+            collect(root, q, k, words);
+            for (Map.Entry<String, Integer> w : words.entrySet()) {
+                for (T e : postings.get(w.getKey())) {
+                    best.merge(e, w.getValue(), Math::min);
+                }
+            }
+
+            if (total == null) {
+                total = best;
+            } else {
+                Map<T, Integer> joined = new IdentityHashMap<>();
+                for (Map.Entry<T, Integer> e : total.entrySet()) {
+                    Integer d = best.get(e.getKey());
+                    if (d != null) {
+                        joined.put(e.getKey(), e.getValue() + d);
+                    }
+                }
+                total = joined;
+            }
+            if (total.isEmpty()) {
+                break;
+            }
+        }
+        return total == null ? new IdentityHashMap<>() : total;
+    }
+
+    /**
+     * @brief Scompone un testo in parole in minuscolo (lettere e cifre).
+     *
+     * @param text Testo da scomporre.
+     * @return Parole non vuote, nell'ordine in cui compaiono.
+     */
+    public static String[] tokenize(String text) {
+        String[] parts = text.toLowerCase().split("[^\\p{L}\\p{N}]+");
+        int n = 0;
+        for (String p : parts) {
+            if (!p.isEmpty()) {
+                parts[n++] = p;
+            }
+        }
+        return n == parts.length ? parts : Arrays.copyOf(parts, n);
+    }
+
+    /**
+     * @brief Calcola la distanza di Levenshtein tra due stringhe.
+     *
+     * @param a Prima stringa.
+     * @param b Seconda stringa.
+     * @return Numero minimo di inserimenti, cancellazioni e sostituzioni
+     *         di un carattere che trasformano a in b.
+     */
+    public static int levenshtein(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            curr[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            }
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Toglie un elemento dagli elenchi delle sue parole, e dal
+     *        dizionario le parole rimaste senza elementi.
+     */
+    private void unindex(T element) {
+        String[] words = entries.remove(element);
+        if (words == null) {
+            return;
+        }
+        for (String w : words) {
+            Set<T> set = postings.get(w);
+            if (set != null && set.remove(element) && set.isEmpty()) {
+                postings.remove(w);
+            }
+        }
+    }
+
+    /**
+     * @brief Ricostruisce il BK-tree se le parole non più in uso superano
+     *        la metà di quelle in uso.
+     */
+    private void pruneIfNeeded() {
+        if (treeSize - postings.size() > postings.size() / 2) {
+            rebuildTree();
+        }
+    }
+
+    /**
+     * @brief Ricostruisce il BK-tree con le sole parole in uso.
+     */
+    private void rebuildTree() {
+        root = null;
+        treeSize = 0;
+        for (String w : postings.keySet()) {
+            insertWord(w);
+        }
+    }
+
+    /**
+     * @brief Inserisce una parola nuova nel BK-tree.
+     *
+     * Una parola già presente (rimasta da un elemento rimosso) non viene duplicata.
+     */
+    private void insertWord(String word) {
+        if (root == null) {
+            root = new Node(word);
+            treeSize = 1;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = levenshtein(word, node.word);
+            if (d == 0) {
+                return;
+            }
+            if (node.children == null) {
+                node.children = new HashMap<>();
+            }
+            Node child = node.children.get(d);
+            if (child == null) {
+                node.children.put(d, new Node(word));
+                treeSize++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * @brief Raccoglie le parole del dizionario entro distanza k dalla query.
+     *
+     * Le parole che non compaiono più in alcun elemento vengono saltate.
+     */
+    private void collect(Node node, String query, int k, Map<String, Integer> out) {
+        if (node == null) {
+            return;
+        }
+        int d = levenshtein(query, node.word);
+        if (d <= k) {
+            if (postings.containsKey(node.word)) {
+                out.put(node.word, d);
+            }
+        }
+        if (node.children != null) {
+            for (int i = Math.max(1, d - k); i <= d + k; i++) {
+                collect(node.children.get(i), query, k, out);
+            }
+        }
+    }
+}
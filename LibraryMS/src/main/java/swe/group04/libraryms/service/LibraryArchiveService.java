@@ -7,7 +7,9 @@
  *
  * - mantiene un riferimento coerente all'istanza corrente di LibraryArchive;
  * - carica/salva l'archivio tramite ArchiveFileService;
- * - fornisce metodi di accesso alle collezioni aggregate.
+ * - fornisce metodi di accesso alle collezioni aggregate;
+ * - opzionalmente (write-behind) scrive le modifiche su un thread dedicato,
+ *   accorpando le raffiche di modifiche in un'unica scrittura.
  *
  * @note Questo servizio NON applica regole di business sui dati:
  *       tali responsabilità appartengono ai service specifici.
@@ -16,13 +18,20 @@ package swe.group04.libraryms.service;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import swe.group04.libraryms.models.Book;
 import swe.group04.libraryms.models.LibraryArchive;
 import swe.group04.libraryms.models.Loan;
 import swe.group04.libraryms.models.User;
 import swe.group04.libraryms.persistence.ArchiveFileService;
 import swe.group04.libraryms.persistence.FileService;
+import swe.group04.libraryms.persistence.JournalRecord;
 
 /**
  * @brief Servizio di alto livello per la gestione dell'archivio della biblioteca.
@@ -32,12 +41,24 @@ import swe.group04.libraryms.persistence.FileService;
  */
 public class LibraryArchiveService {
     
-    //  Archivio effettivamente gestito dal servizio
-    private LibraryArchive libraryArchive; //<  Archivio effettivo
+    //  Archivio effettivamente gestito dal servizio (letto anche dal thread di scrittura)
+    private volatile LibraryArchive libraryArchive; //<  Archivio effettivo
 
     //  Componente di persistenza incaricato della lettura/scrittura su file
     private ArchiveFileService archiveFileService; //<  Gestione I/O
 
+    /** Finestra di group commit (ms) usata dalla configurazione di default */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MILLIS = 20;
+
+    //  Persistenza write-behind
+    private boolean writeBehindEnabled; //<  Modifiche scritte in background
+    private final List<JournalRecord> pendingChanges = new ArrayList<>(); //<  Modifiche non ancora scritte
+    private boolean drainScheduled; //<  Scrittura già pianificata (protetto da pendingChanges)
+    private IOException lastFailure; //<  Ultimo errore di scrittura (protetto da pendingChanges)
+    private ExecutorService writer; //<  Thread di scrittura (lazy)
+    private volatile long groupCommitDelayMillis; //<  Finestra di raccolta prima di ogni commit
+    private volatile SaveStatusListener saveStatusListener; //<  Esito dei salvataggi in background
+
     /**
      * @brief Crea un nuovo LibraryArchiveService configurato con un servizio di persistenza.
      *
@@ -84,6 +105,75 @@ public class LibraryArchiveService {
                 "library-archive.dat",
                 new FileService()
         );
+
+        //  Le singole modifiche vengono accodate al journal invece di riscrivere l'archivio
+        this.archiveFileService.setJournalEnabled(true);
+
+        //  Le scritture non bloccano il thread dell'interfaccia e le raffiche
+        //  di modifiche condividono un solo fsync
+        this.writeBehindEnabled = true;
+        this.groupCommitDelayMillis = DEFAULT_GROUP_COMMIT_DELAY_MILLIS;
+    }
+
+    /**
+     * @brief Abilita o disabilita la persistenza write-behind.
+     *
+     * Con write-behind abilitato, saveChange() accoda la modifica e ritorna
+     * subito; un unico thread in background scrive le modifiche accumulate
+     * con una sola operazione. Gli errori vengono notificati al
+     * SaveStatusListener invece di essere sollevati al chiamante.
+     *
+     * Disabilitando la modalità, le modifiche in coda vengono prima scritte.
+     *
+     * @param enabled true per abilitare la scrittura in background.
+     *
+     * @post isWriteBehindEnabled() == enabled
+     *
+     * @throws IOException Se, disabilitando, la scrittura delle modifiche in coda fallisce.
+     */
+    public void setWriteBehindEnabled(boolean enabled) throws IOException {
+        if (!enabled && writeBehindEnabled) {
+            flush();
+        }
+        this.writeBehindEnabled = enabled;
+    }
+
+    /**
+     * @brief Indica se la persistenza write-behind è abilitata.
+     *
+     * @return true se le modifiche vengono scritte in background.
+     */
+    public boolean isWriteBehindEnabled() {
+        return writeBehindEnabled;
+    }
+
+    /**
+     * @brief Imposta la finestra di group commit della scrittura in background.
+     *
+     * Alla prima modifica di una raffica il thread di scrittura attende
+     * il tempo indicato prima di prelevare la coda: le modifiche arrivate
+     * nel frattempo finiscono nello stesso commit e condividono un solo
+     * fsync. Anche senza finestra, le modifiche arrivate durante un commit
+     * in corso vengono raccolte nel commit successivo.
+     *
+     * @param millis Durata della finestra in millisecondi (0 = nessuna attesa).
+     *
+     * @throws IllegalArgumentException Se millis è negativo.
+     */
+    public void setGroupCommitDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("La finestra di group commit non può essere negativa.");
+        }
+        this.groupCommitDelayMillis = millis;
+    }
+
+    /**
+     * @brief Imposta il listener dell'esito dei salvataggi in background.
+     *
+     * @param listener Listener da notificare (null per nessun listener).
+     */
+    public void setSaveStatusListener(SaveStatusListener listener) {
+        this.saveStatusListener = listener;
     }
 
     /**
@@ -136,12 +226,17 @@ public class LibraryArchiveService {
      *
      * @return L'archivio caricato (o creato vuoto).
      *
-     * @throws IOException Se si verifica un errore di I/O diverso da FileNotFoundException.
+     * @throws IOException Se si verifica un errore di I/O diverso da FileNotFoundException,
+     *                     oppure se le modifiche in coda (write-behind) non possono
+     *                     essere scritte prima del caricamento.
      *
      * @note Questo metodo aggiorna lo stato interno del servizio, rendendo
      *       disponibile l'archivio ai service applicativi che lo interrogano.
      */
     public LibraryArchive loadArchive() throws IOException {
+        //  Le modifiche non ancora scritte andrebbero perse sostituendo l'archivio
+        flush();
+
         try {
             LibraryArchive loaded = archiveFileService.loadArchive();
 
@@ -190,17 +285,112 @@ public class LibraryArchiveService {
         //  Aggiornamento del riferimento interno per mantenere coerenza
         this.libraryArchive = archive;
 
+        //  Salvataggio esplicito: l'archivio può essere stato modificato senza
+        //  record del journal, quindi vengono riscritti tutti i segmenti
+        archiveFileService.markAllSegmentsDirty();
+
         //  Delega ad ArchiveFileService della scrittura effettiva su disco
         archiveFileService.saveArchive(archive);
     }
     
+    /**
+     * @brief Rende persistente una singola modifica dell'archivio corrente.
+     *
+     * Delega ad ArchiveFileService.saveChange(...): con journal abilitato
+     * viene accodato solo il record della modifica, altrimenti viene
+     * salvato l'intero archivio.
+     *
+     * Con write-behind abilitato il record viene messo in coda e scritto
+     * dal thread in background, che avvia anche le compattazioni: il metodo
+     * non esegue I/O e gli errori sono notificati al SaveStatusListener.
+     *
+     * @param record Record che descrive la modifica appena applicata.
+     *
+     * @pre  record != null
+     * @pre  archiveFileService != null
+     *
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     * @throws IllegalArgumentException Se record è nullo.
+     */
+    public void saveChange(JournalRecord record) throws IOException {
+        if (record == null) {
+            throw new IllegalArgumentException("record non può essere nullo");
+        }
+
+        ensureArchiveInitialized();
+        if (!writeBehindEnabled) {
+            archiveFileService.saveChange(libraryArchive, record);
+            return;
+        }
+
+        synchronized (pendingChanges) {
+            pendingChanges.add(record);
+            if (!drainScheduled) {
+                drainScheduled = true;
+                writer().execute(() -> drainPendingChanges(true));
+            }
+        }
+    }
+
+    /**
+     * @brief Attende che tutte le modifiche in coda siano scritte su disco.
+     *
+     * Da invocare prima della chiusura dell'applicazione e nei test.
+     * Se una scrittura precedente era fallita, viene ritentata.
+     *
+     * @post Nessuna modifica è in attesa di scrittura (in assenza di eccezioni).
+     *
+     * @throws IOException Se alcune modifiche non possono essere scritte.
+     */
+    public void flush() throws IOException {
+        if (writer == null) {
+            return;
+        }
+
+        Future<?> done = writer.submit(() -> drainPendingChanges(false));
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attesa del salvataggio interrotta.");
+        } catch (ExecutionException e) {
+            throw new IOException("Errore durante il salvataggio dell'archivio.", e.getCause());
+        }
+
+        synchronized (pendingChanges) {
+            if (!pendingChanges.isEmpty()) {
+                throw new IOException(
+                        "Salvataggio non riuscito: " + pendingChanges.size() + " modifiche non scritte.",
+                        lastFailure);
+            }
+        }
+    }
+
+    /**
+     * @brief Scrive le modifiche in coda e rilascia le risorse del servizio.
+     *
+     * @throws IOException Se alcune modifiche non possono essere scritte.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
+            archiveFileService.close();
+        }
+    }
+
     /**
      * @brief Restituisce la lista completa dei libri presenti in archivio.
      *
      * @pre  true
      * @post libraryArchive != null
      *
-     * @return Lista di tutti i libri registrati (può essere vuota).
+     * @return Lista immutabile di tutti i libri registrati (può essere vuota),
+     *         condivisa con l'archivio senza copie.
      *
      * @note Il contenuto dipende dallo stato corrente dell'archivio:
      *       se non è stato caricato da file, potrebbe essere vuoto.
@@ -216,7 +406,8 @@ public class LibraryArchiveService {
      * @pre  true
      * @post libraryArchive != null
      *
-     * @return Lista di tutti gli utenti registrati (può essere vuota).
+     * @return Lista immutabile di tutti gli utenti registrati (può essere vuota),
+     *         condivisa con l'archivio senza copie.
      */
     public List<User> getAllUsers() {
         ensureArchiveInitialized();
@@ -229,10 +420,111 @@ public class LibraryArchiveService {
      * @pre  true
      * @post libraryArchive != null
      *
-     * @return Lista di tutti i prestiti (può essere vuota).
+     * @return Lista immutabile di tutti i prestiti (può essere vuota),
+     *         condivisa con l'archivio senza copie.
      */
     public List<Loan> getAllLoans() {
         ensureArchiveInitialized();
         return libraryArchive.getLoans();
     }
-}
\ No newline at end of file
+
+    /* ---------------------------------------------------------------------- */
+    /*                       Persistenza write-behind                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Scrive le modifiche in coda finché la coda non è vuota (thread di scrittura).
+     *
+     * Ad ogni giro vengono prelevate tutte le modifiche accumulate e scritte
+     * con un'unica operazione. In caso di errore il gruppo viene rimesso in
+     * testa alla coda e ritentato alla modifica successiva o al flush().
+     *
+     * @param gather true per attendere la finestra di group commit prima del primo giro.
+     */
+    private void drainPendingChanges(boolean gather) {
+        long delay = groupCommitDelayMillis;
+        if (gather && delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        while (true) {
+            List<JournalRecord> batch;
+            synchronized (pendingChanges) {
+                if (pendingChanges.isEmpty()) {
+                    drainScheduled = false;
+                    return;
+                }
+                batch = new ArrayList<>(pendingChanges);
+                pendingChanges.clear();
+            }
+
+            try {
+                archiveFileService.saveChanges(libraryArchive, batch);
+            } catch (Exception e) {
+                IOException error = e instanceof IOException
+                        ? (IOException) e
+                        : new IOException("Errore durante il salvataggio dell'archivio.", e);
+                synchronized (pendingChanges) {
+                    pendingChanges.addAll(0, batch);
+                    drainScheduled = false;
+                }
+                notifyFailure(error);
+                return;
+            }
+
+            synchronized (pendingChanges) {
+                lastFailure = null;
+            }
+            SaveStatusListener listener = saveStatusListener;
+            if (listener != null) {
+                listener.onSaved(batch.size());
+            }
+
+            //  La compattazione cattura una versione immutabile dell'archivio:
+            //  può essere avviata da qui, fuori dal thread che lo modifica
+            try {
+                archiveFileService.compactIfDue(libraryArchive);
+            } catch (IOException e) {
+                notifyFailure(e);
+            }
+        }
+    }
+
+    /**
+     * @brief Registra e notifica un errore di salvataggio.
+     */
+    private void notifyFailure(IOException error) {
+        int pending;
+        synchronized (pendingChanges) {
+            lastFailure = error;
+            pending = pendingChanges.size();
+        }
+
+        SaveStatusListener listener = saveStatusListener;
+        if (listener != null) {
+            listener.onSaveFailed(error, pending);
+        } else {
+            System.err.println("Salvataggio dell'archivio non riuscito: " + error.getMessage());
+        }
+    }
+
+    /**
+     * @brief Restituisce il thread di scrittura, creandolo se necessario.
+     *
+     * Il thread è daemon: prima dell'uscita occorre invocare flush() o close().
+     */
+    private ExecutorService writer() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "archive-writer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return writer;
+    }
+}
@@ -16,14 +16,16 @@ package swe.group04.libraryms.service;
 
 import java.io.IOException;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import swe.group04.libraryms.exceptions.*;
 import swe.group04.libraryms.models.Book;
 import swe.group04.libraryms.models.LibraryArchive;
 import swe.group04.libraryms.models.Loan;
 import swe.group04.libraryms.models.User;
+import swe.group04.libraryms.persistence.JournalRecord;
 
 /**
  * @brief Implementa la logica di alto livello per la gestione dei prestiti.
@@ -40,11 +42,28 @@ public class LoanService {
     private final LibraryArchiveService libraryArchiveService; //<  Servizio per la persistenza dell'archivio
 
     /**
-     * @brief Comparatore per ordinare i prestiti per data di scadenza (dueDate).
+     * @brief Criteri di ordinamento dei prestiti.
+     */
+    public enum SortOrder {
+        DUE_DATE,  ///< Data di scadenza (nulle in fondo)
+        LOAN_DATE, ///< Data di apertura (nulle in fondo)
+        ID         ///< ID del prestito
+    }
+
+    /**
+     * @brief Viste ordinate dei prestiti, una per criterio.
      *
-     * Le scadenze nulle sono poste in fondo (nullsLast).
+     * A parità di chiave vale l'ordine dell'archivio, come nell'ordinamento
+     * stabile di una copia della lista.
      */
-    private static final Comparator<Loan> BY_DUEDATE_COMPARATOR = Comparator.comparing(Loan::getDueDate, Comparator.nullsLast(Comparator.naturalOrder()));
+    private final Map<SortOrder, SortedView<Loan, ?>> sortedViews = new EnumMap<>(Map.of(
+            SortOrder.DUE_DATE, new SortedView<Loan, LocalDate>(Loan::getDueDate, Comparator.nullsLast(Comparator.naturalOrder())),
+            SortOrder.LOAN_DATE, new SortedView<Loan, LocalDate>(Loan::getLoanDate, Comparator.nullsLast(Comparator.naturalOrder())),
+            SortOrder.ID, SortedView.<Loan, Integer>natural(Loan::getLoanId)
+    ));
+
+    private LibraryArchive indexedArchive;   ///< Archivio a cui si riferiscono le viste
+    private long indexedVersion = -1;        ///< Versione dei prestiti ordinata
 
 
     /**
@@ -80,8 +99,8 @@ public class LoanService {
     /**
      * @brief Registra un nuovo prestito.
      *
-     * - crea un nuovo Loan nell'archivio tramite getArchive().addLoan(...);
-     * - decrementa le copie disponibili del libro (book.decrementAvailableCopies());
+     * - crea un nuovo Loan nell'archivio e decrementa le copie disponibili
+     *   del libro in un'unica operazione (getArchive().registerLoan(...));
      * - persiste l'archivio aggiornato tramite persistChanges().
      *
      * @param user Utente che richiede il prestito.
@@ -120,14 +139,8 @@ public class LoanService {
             throw new NoAvailableCopiesException("Non ci sono copie disponibili per questo libro.");
         }
 
-        //  Verifica limite massimo prestiti attivi per utente
-        int activeLoans = 0;
-        List<Loan> loansByUser = getArchive().findLoansByUser(user);
-        for(Loan loan : loansByUser) {
-            if(loan.isActive()) {
-                activeLoans++;
-            }
-        }
+        //  Verifica limite massimo prestiti attivi per utente (conteggio indicizzato)
+        int activeLoans = getArchive().countActiveLoansByUser(user);
         if (activeLoans >= 3) {
             throw new MaxLoansReachedException("L'utente ha già raggiunto il limite di 3 prestiti attivi.");
         }
@@ -138,14 +151,24 @@ public class LoanService {
                     "La data di restituzione non può essere precedente alla data odierna.");
         }
 
-        //  Creazione effettiva del prestito
-        Loan loan = getArchive().addLoan(user, book, dueDate);
-
-        //  Aggiornamento copie disponibili del libro
-        book.decrementAvailableCopies();
+        //  Creazione effettiva del prestito e aggiornamento copie del libro
+        LibraryArchive archive = getArchive();
+        Loan loan;
+        try {
+            loan = archive.registerLoan(user, book, dueDate);
+        } catch (IllegalStateException e) {
+            //  Ultima copia prestata da un'altra richiesta dopo la verifica
+            throw new NoAvailableCopiesException("Non ci sono copie disponibili per questo libro.");
+        }
+        if (archive == indexedArchive && archive.getLoansVersion() == indexedVersion + 1) {
+            for (SortedView<Loan, ?> view : sortedViews.values()) {
+                view.add(loan);
+            }
+            indexedVersion = archive.getLoansVersion();
+        }
 
         //  Persistenza
-        persistChanges();
+        persistChanges(JournalRecord.addLoan(loan));
 
         return loan;
     }
@@ -158,9 +181,9 @@ public class LoanService {
     /**
      * @brief Registra la restituzione del libro per un prestito.
      *
-     * - imposta la returnDate del prestito a LocalDate.now();
-     * - imposta lo stato del prestito a concluso (loan.setStatus(false));
-     * - incrementa le copie disponibili del libro associato, se presente;
+     * - imposta la returnDate del prestito a LocalDate.now(), lo stato a concluso
+     *   e incrementa le copie disponibili del libro associato, se presente,
+     *   in un'unica operazione (getArchive().returnLoan(...));
      * - persiste l'archivio aggiornato tramite persistChanges().
      *
      * @param loan Prestito da chiudere (restituire).
@@ -182,20 +205,19 @@ public class LoanService {
             throw new MandatoryFieldException("Il prestito risulta già chiuso.");
         }
 
-        //  Aggiorna data restituzione
-        loan.setReturnDate(LocalDate.now());
-
-        //  Aggiorna stato
-        loan.setStatus(false);
-
-        //  Incrementa copie del libro
-        Book book = loan.getBook();
-        if (book != null) {
-            book.incrementAvailableCopies();
+        //  Aggiorna data restituzione, stato e copie del libro
+        try {
+            getArchive().returnLoan(loan, LocalDate.now());
+        } catch (IllegalStateException e) {
+            if (!loan.isActive()) {
+                //  Restituito da un'altra richiesta dopo la verifica
+                throw new MandatoryFieldException("Il prestito risulta già chiuso.");
+            }
+            throw e;
         }
 
         //  Persistenza
-        persistChanges();
+        persistChanges(JournalRecord.returnLoan(loan));
     }
 
     /* ================================================================
@@ -206,7 +228,8 @@ public class LoanService {
      * @brief Restituisce tutti i prestiti attivi.
      *
      * Un prestito è considerato attivo se loan.isActive() == true.
-     * L’elenco restituito viene ordinato per dueDate tramite BY_DUEDATE_COMPARATOR.
+     * L’elenco è letto dall'indice per scadenza dell'archivio, quindi è già
+     * ordinato per dueDate (scadenze nulle in fondo) senza ordinamenti.
      *
      * @pre  libraryArchiveService != null
      * @post true
@@ -214,17 +237,40 @@ public class LoanService {
      * @return Lista dei prestiti attualmente attivi (può essere vuota, mai null).
      */
     public List<Loan> getActiveLoan() {
+        return getArchive().getActiveLoans();
+    }
 
-        List<Loan> result = new ArrayList<>();
+    /**
+     * @brief Restituisce i prestiti attivi in ritardo alla data odierna.
+     *
+     * @pre  libraryArchiveService != null
+     * @post Ogni prestito restituito soddisfa isLate(loan).
+     *
+     * @return Prestiti in ritardo ordinati per dueDate (può essere vuota, mai null).
+     */
+    public List<Loan> getOverdueLoans() {
+        return getArchive().getOverdueLoans(LocalDate.now());
+    }
 
-        for (Loan loan : getArchive().getLoans()) {
-            if (loan != null && loan.isActive()) {
-                result.add(loan);
-            }
+    /**
+     * @brief Restituisce i prestiti attivi in scadenza nei prossimi giorni.
+     *
+     * Sono inclusi i prestiti con scadenza da oggi a oggi + days (estremi inclusi).
+     *
+     * @param days Numero di giorni dell'intervallo (>= 0).
+     *
+     * @pre  libraryArchiveService != null
+     *
+     * @return Prestiti in scadenza ordinati per dueDate (può essere vuota, mai null).
+     *
+     * @throws IllegalArgumentException Se days è negativo.
+     */
+    public List<Loan> getLoansDueWithin(int days) {
+        if (days < 0) {
+            throw new IllegalArgumentException("Il numero di giorni non può essere negativo.");
         }
-
-        result.sort(BY_DUEDATE_COMPARATOR);
-        return result;
+        LocalDate today = LocalDate.now();
+        return getArchive().getLoansDueBetween(today, today.plusDays(days));
     }
 
     /**
@@ -242,19 +288,15 @@ public class LoanService {
      * @return true se il prestito è in ritardo, false altrimenti (anche per input null o non attivi).
      */
     public boolean isLate(Loan loan) {
-
-        if (loan == null || !loan.isActive() || loan.getDueDate() == null) {
-            return false;
-        }
-
-        return loan.getDueDate().isBefore(LocalDate.now());
+        //  Confronto tra giorni dall'epoca, senza creare la data di scadenza
+        return loan != null && loan.isActive() && loan.isDueBefore(LocalDate.now());
     }
 
     /**
      * @brief Restituisce tutti i prestiti ordinati per data di scadenza.
      *
-     * L’ordinamento avviene su una copia della lista ottenuta dall’archivio,
-     * quindi non modifica l’ordine interno mantenuto da LibraryArchive.
+     * L'ordine è mantenuto dal servizio a ogni modifica: la lettura copia
+     * la vista senza riordinare. Le scadenze nulle sono poste in fondo.
      *
      * @pre  libraryArchiveService != null
      * @post true
@@ -262,9 +304,99 @@ public class LoanService {
      * @return Lista di prestiti ordinata per dueDate (può essere vuota, mai null).
      */
     public List<Loan> getLoansSortedByDueDate() {
-        List<Loan> list = new ArrayList<>(getArchive().getLoans());
-        list.sort(BY_DUEDATE_COMPARATOR);
-        return list;
+        return view(SortOrder.DUE_DATE).toList();
+    }
+
+    /**
+     * @brief Restituisce tutti i prestiti ordinati per data di apertura.
+     *
+     * @pre  libraryArchiveService != null
+     * @post true
+     *
+     * @return Lista di prestiti ordinata per loanDate (può essere vuota, mai null).
+     */
+    public List<Loan> getLoansSortedByLoanDate() {
+        return view(SortOrder.LOAN_DATE).toList();
+    }
+
+    /**
+     * @brief Restituisce tutti i prestiti ordinati per ID.
+     *
+     * @pre  libraryArchiveService != null
+     * @post true
+     *
+     * @return Lista di prestiti ordinata per ID (può essere vuota, mai null).
+     */
+    public List<Loan> getLoansSortedById() {
+        return view(SortOrder.ID).toList();
+    }
+
+    /**
+     * @brief Restituisce una pagina dei prestiti ordinati.
+     *
+     * La pagina contiene i prestiti che seguono after nell'ordine richiesto;
+     * il costo dipende dalla dimensione della pagina, non del numero di prestiti.
+     *
+     * @param order    Criterio di ordinamento.
+     * @param after    Ultimo prestito della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di prestiti della pagina.
+     *
+     * @pre  order != null
+     * @pre  pageSize > 0
+     *
+     * @return Prestiti della pagina (mai null); vuota se after non è in archivio.
+     *
+     * @throws IllegalArgumentException Se order è nullo o pageSize non è positivo.
+     */
+    public List<Loan> getLoansPage(SortOrder order, Loan after, int pageSize) {
+        if (order == null) {
+            throw new IllegalArgumentException("Il criterio di ordinamento non può essere nullo.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva.");
+        }
+        return view(order).page(after, pageSize);
+    }
+
+    /**
+     * @brief Restituisce una pagina dei prestiti ordinati, con token di continuazione.
+     *
+     * La prima pagina si ottiene con token null; le successive passando il
+     * token restituito dalla pagina precedente con lo stesso criterio.
+     *
+     * @param order    Criterio di ordinamento.
+     * @param token    Token della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di prestiti della pagina.
+     *
+     * @pre  order != null
+     * @pre  pageSize > 0
+     *
+     * @return Pagina di prestiti (mai null).
+     *
+     * @throws IllegalArgumentException Se order è nullo, pageSize non è positivo o
+     *                                  il token non è valido (o non lo è più).
+     */
+    public Page<Loan> pageLoans(SortOrder order, String token, int pageSize) {
+        if (order == null) {
+            throw new IllegalArgumentException("Il criterio di ordinamento non può essere nullo.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva.");
+        }
+        SortedView<Loan, ?> view = view(order);
+        Loan after = null;
+        String id = Page.keyOf(token, order.name());
+        if (id != null) {
+            try {
+                after = getArchive().findLoanById(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Token di continuazione non valido per questa richiesta.", e);
+            }
+            if (after == null || !view.contains(after)) {
+                throw new IllegalArgumentException("Il token di continuazione non è più valido: ricominciare dalla prima pagina.");
+            }
+        }
+        return Page.of(view.page(after, pageSize + 1), pageSize, order.name(), l -> String.valueOf(l.getLoanId()));
     }
 
     /* ================================================================
@@ -272,16 +404,40 @@ public class LoanService {
        ================================================================ */
 
     /**
-     * @brief Persiste le modifiche dell'archivio tramite LibraryArchiveService.
+     * @brief Restituisce la vista ordinata richiesta, allineata all'archivio corrente.
+     *
+     * Le viste vengono ricostruite se l'archivio è stato sostituito o se i
+     * prestiti sono cambiati senza passare da questo servizio (compresa la
+     * modifica di una data, che ne sposta la posizione).
+     *
+     * @param order Criterio di ordinamento.
+     * @return Vista ordinata dei prestiti.
+     */
+    private SortedView<Loan, ?> view(SortOrder order) {
+        LibraryArchive archive = getArchive();
+        if (archive != indexedArchive || archive.getLoansVersion() != indexedVersion) {
+            for (SortedView<Loan, ?> view : sortedViews.values()) {
+                view.rebuild(archive.getLoans());
+            }
+            indexedArchive = archive;
+            indexedVersion = archive.getLoansVersion();
+        }
+        return sortedViews.get(order);
+    }
+
+    /**
+     * @brief Persiste una modifica dell'archivio tramite LibraryArchiveService.
      *
      * Converte eventuali IOException in RuntimeException, poiché un fallimento
      * della persistenza rappresenta un errore applicativo.
      *
+     * @param record Record che descrive la modifica appena applicata.
+     *
      * @throws RuntimeException Se il salvataggio fallisce (wrapping di IOException).
      */
-    private void persistChanges() {
+    private void persistChanges(JournalRecord record) {
         try {
-            libraryArchiveService.saveArchive(getArchive());
+            libraryArchiveService.saveChange(record);
         } catch (IOException e) {
             throw new RuntimeException("Errore durante il salvataggio dei prestiti.", e);
         }
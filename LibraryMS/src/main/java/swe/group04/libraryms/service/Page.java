@@ -0,0 +1,108 @@
+/**
+ * @file Page.java
+ * @brief Pagina di risultati con token di continuazione.
+ *
+ * I metodi paginati dei servizi restituiscono una pagina alla volta: la
+ * pagina successiva si ottiene ripassando al metodo il token della pagina
+ * corrente. Il token identifica l'ultimo elemento restituito (paginazione
+ * per chiave): le pagine restano coerenti anche se nel frattempo vengono
+ * inseriti o rimossi altri elementi. Se viene rimosso proprio l'elemento
+ * a cui il token si riferisce, il token non è più valido e la lettura va
+ * ripresa dalla prima pagina.
+ *
+ * Il token è opaco: va conservato e restituito così com'è.
+ */
+package swe.group04.libraryms.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * @brief Pagina immutabile di elementi.
+ *
+ * @param <T> Tipo degli elementi.
+ */
+public final class Page<T> {
+
+    private final List<T> items;     ///< Elementi della pagina
+    private final String nextToken;  ///< Token della pagina successiva (null se ultima)
+
+    /**
+     * @brief Crea una pagina.
+     *
+     * @param items     Elementi della pagina.
+     * @param nextToken Token della pagina successiva (null se non ce ne sono altre).
+     */
+    public Page(List<T> items, String nextToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * @brief Restituisce gli elementi della pagina.
+     *
+     * @return Lista non modificabile (mai null).
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @brief Restituisce il token da passare per ottenere la pagina successiva.
+     *
+     * @return Token di continuazione, oppure null se questa è l'ultima pagina.
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    /**
+     * @brief Indica se esistono altre pagine.
+     *
+     * @return true se getNextToken() != null.
+     */
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    /**
+     * @brief Costruisce una pagina a partire da limit + 1 elementi letti.
+     *
+     * Se sono stati letti più di pageSize elementi, l'elemento in eccesso
+     * viene scartato e la pagina riceve il token del suo ultimo elemento.
+     *
+     * @param fetched  Elementi letti (al più pageSize + 1).
+     * @param pageSize Dimensione della pagina.
+     * @param prefix   Prefisso del token (es. criterio di ordinamento).
+     * @param keyOf    Chiave stabile che identifica un elemento.
+     * @return Pagina costruita.
+     */
+    static <T> Page<T> of(List<T> fetched, int pageSize, String prefix, Function<T, String> keyOf) {
+        if (fetched.size() <= pageSize) {
+            return new Page<>(fetched, null);
+        }
+        List<T> items = fetched.subList(0, pageSize);
+        return new Page<>(new ArrayList<>(items), prefix + ":" + keyOf.apply(items.get(pageSize - 1)));
+    }
+
+    /**
+     * @brief Estrae la chiave dell'elemento da un token di continuazione.
+     *
+     * @param token  Token ricevuto dal chiamante (null = prima pagina).
+     * @param prefix Prefisso atteso.
+     * @return Chiave dell'elemento, oppure null per la prima pagina.
+     *
+     * @throws IllegalArgumentException Se il token non è stato prodotto con il prefisso atteso.
+     */
+    static String keyOf(String token, String prefix) {
+        if (token == null) {
+            return null;
+        }
+        if (!token.startsWith(prefix + ":")) {
+            throw new IllegalArgumentException("Token di continuazione non valido per questa richiesta.");
+        }
+        return token.substring(prefix.length() + 1);
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * @file SaveStatusListener.java
+ * @brief Notifica dell'esito dei salvataggi eseguiti in background.
+ *
+ * Con la persistenza write-behind le modifiche vengono scritte su disco
+ * da un thread dedicato: gli errori di scrittura non possono più essere
+ * sollevati come eccezioni al chiamante e vengono invece notificati
+ * tramite questa interfaccia.
+ *
+ * @note I metodi vengono invocati sul thread di scrittura: un listener che
+ *       aggiorna l'interfaccia grafica deve delegare a Platform.runLater().
+ */
+package swe.group04.libraryms.service;
+
+import java.io.IOException;
+
+/**
+ * @brief Listener dell'esito dei salvataggi dell'archivio.
+ */
+public interface SaveStatusListener {
+
+    /**
+     * @brief Invocato dopo che un gruppo di modifiche è stato scritto su disco.
+     *
+     * @param changes Numero di modifiche scritte con il salvataggio.
+     */
+    void onSaved(int changes);
+
+    /**
+     * @brief Invocato quando il salvataggio di un gruppo di modifiche fallisce.
+     *
+     * Le modifiche non scritte restano in coda e vengono ritentate
+     * alla modifica successiva o alla chiamata di flush().
+     *
+     * @param error          Errore di I/O che ha causato il fallimento.
+     * @param pendingChanges Numero di modifiche non ancora scritte.
+     */
+    void onSaveFailed(IOException error, int pendingChanges);
+}
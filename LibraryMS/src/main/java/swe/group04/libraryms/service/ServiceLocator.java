@@ -10,8 +10,9 @@
  *   quindi operano sul medesimo oggetto LibraryArchive.
  *
  * @note Il caricamento da file dell'archivio non avviene qui: viene
- *       invocato all'avvio dell'applicazione (es. nel controller principale)
- *       tramite LibraryArchiveService::loadArchive().
+ *       invocato una sola volta all'avvio dell'applicazione (Main.init())
+ *       tramite LibraryArchiveService::loadArchive(), oppure su richiesta
+ *       esplicita dell'utente (ricarica dalla schermata principale).
  */
 package swe.group04.libraryms.service;
 
@@ -0,0 +1,255 @@
+/**
+ * @file SortedView.java
+ * @brief Ordinamento di una collezione mantenuto in modo incrementale.
+ *
+ * Ogni elemento è associato a una chiave di ordinamento calcolata una
+ * sola volta, al momento dell'inserimento o del riordino, e conservato in
+ * una mappa ordinata. A parità di chiave vale l'ordine di inserimento:
+ * se gli elementi vengono inseriti nell'ordine dell'archivio, la vista
+ * coincide con un ordinamento stabile della lista dell'archivio.
+ *
+ * Leggere la vista non richiede alcun ordinamento: l'intera lista costa
+ * O(n), una pagina di k elementi O(log n + k).
+ *
+ * @note La classe non è thread-safe: è pensata per essere usata dal
+ *       thread dell'interfaccia, come i servizi che la possiedono.
+ */
+package swe.group04.libraryms.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * @brief Vista ordinata, aggiornata elemento per elemento.
+ *
+ * @param <T> Tipo degli elementi (confrontati per identità).
+ * @param <K> Tipo della chiave di ordinamento.
+ */
+public final class SortedView<T, K> {
+
+    /**
+     * @brief Posizione di un elemento: chiave precalcolata e ordine di inserimento.
+     */
+    private static final class Node<K> {
+        final K key;    ///< Chiave di ordinamento
+        final long seq; ///< Ordine di inserimento
+
+        Node(K key, long seq) {
+            this.key = key;
+            this.seq = seq;
+        }
+    }
+
+    private final Function<T, K> keyExtractor; ///< Calcolo della chiave di ordinamento
+    private final Comparator<Node<K>> order;   ///< Ordine delle chiavi, poi di inserimento
+
+    private final TreeMap<Node<K>, T> ordered;                          ///< Elementi in ordine
+    private final Map<T, Node<K>> nodes = new IdentityHashMap<>();      ///< Elemento → posizione
+    private long nextSeq;                                              ///< Prossimo numero d'ordine
+
+    /**
+     * @brief Crea una vista vuota.
+     *
+     * @param keyExtractor Funzione che calcola la chiave di ordinamento.
+     * @param keyOrder     Ordine delle chiavi (deve gestire eventuali chiavi null).
+     *
+     * @throws IllegalArgumentException Se keyExtractor o keyOrder sono nulli.
+     */
+    public SortedView(Function<T, K> keyExtractor, Comparator<? super K> keyOrder) {
+        if (keyExtractor == null || keyOrder == null) {
+            throw new IllegalArgumentException("La funzione e l'ordine delle chiavi non possono essere nulli.");
+        }
+        this.keyExtractor = keyExtractor;
+        this.order = (a, b) -> {
+            int c = keyOrder.compare(a.key, b.key);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        this.ordered = new TreeMap<>(order);
+    }
+
+    /**
+     * @brief Crea una vista vuota ordinata secondo l'ordine naturale delle chiavi.
+     *
+     * @param keyExtractor Funzione che calcola la chiave (non deve restituire null).
+     * @return Nuova vista.
+     */
+    public static <T, K extends Comparable<? super K>> SortedView<T, K> natural(Function<T, K> keyExtractor) {
+        return new SortedView<>(keyExtractor, Comparator.naturalOrder());
+    }
+
+    /**
+     * @brief Svuota la vista e vi inserisce gli elementi indicati, nell'ordine dato.
+     *
+     * @param elements Elementi da ordinare (i null vengono ignorati).
+     */
+    public void rebuild(Collection<? extends T> elements) {
+        ordered.clear();
+        nodes.clear();
+        nextSeq = 0;
+        for (T e : elements) {
+            add(e);
+        }
+    }
+
+    /**
+     * @brief Inserisce un elemento (o ne ricalcola la chiave, se già presente).
+     *
+     * Un elemento già presente mantiene la propria posizione rispetto agli
+     * elementi con la stessa chiave; uno nuovo viene accodato ad essi.
+     *
+     * @param element Elemento da inserire.
+     */
+    public void add(T element) {
+        if (element == null) {
+            return;
+        }
+        Node<K> previous = nodes.get(element);
+        if (previous != null) {
+            ordered.remove(previous);
+        }
+        Node<K> node = new Node<>(keyExtractor.apply(element), previous != null ? previous.seq : nextSeq++);
+        nodes.put(element, node);
+        ordered.put(node, element);
+    }
+
+    /**
+     * @brief Rimuove un elemento dalla vista.
+     *
+     * @param element Elemento da rimuovere.
+     */
+    public void remove(T element) {
+        Node<K> node = nodes.remove(element);
+        if (node != null) {
+            ordered.remove(node);
+        }
+    }
+
+    /**
+     * @brief Verifica se un elemento è presente nella vista.
+     *
+     * @param element Elemento da cercare.
+     * @return true se l'elemento è presente.
+     */
+    public boolean contains(T element) {
+        return nodes.containsKey(element);
+    }
+
+    /**
+     * @brief Restituisce il numero di elementi nella vista.
+     *
+     * @return Numero di elementi.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @brief Restituisce tutti gli elementi in ordine.
+     *
+     * @return Nuova lista modificabile (mai null).
+     */
+    public List<T> toList() {
+        return new ArrayList<>(ordered.values());
+    }
+
+    /**
+     * @brief Restituisce una vista in sola lettura degli elementi, in ordine.
+     *
+     * Non copia gli elementi: va percorsa senza modificare la vista.
+     *
+     * @return Elementi in ordine.
+     */
+    public Collection<T> values() {
+        return Collections.unmodifiableCollection(ordered.values());
+    }
+
+    /**
+     * @brief Restituisce gli elementi che seguono un elemento dato, in ordine.
+     *
+     * @param after Elemento dopo il quale iniziare (null = dall'inizio).
+     * @param limit Numero massimo di elementi.
+     * @return Al più limit elementi (mai null); vuota se after non è nella vista.
+     */
+    public List<T> page(T after, int limit) {
+        return page(after, limit, e -> true);
+    }
+
+    /**
+     * @brief Restituisce gli elementi che seguono un elemento dato e soddisfano un filtro.
+     *
+     * Scorre la vista a partire da after, fermandosi appena raccolti limit
+     * elementi: conviene quando il filtro è soddisfatto da molti elementi.
+     *
+     * @param after  Elemento dopo il quale iniziare (null = dall'inizio).
+     * @param limit  Numero massimo di elementi.
+     * @param filter Condizione che gli elementi devono soddisfare.
+     * @return Al più limit elementi (mai null); vuota se after non è nella vista.
+     */
+    public List<T> page(T after, int limit, Predicate<? super T> filter) {
+        List<T> result = new ArrayList<>(Math.min(limit, Math.max(nodes.size(), 1)));
+        Map<Node<K>, T> tail = ordered;
+        if (after != null) {
+            Node<K> node = nodes.get(after);
+            if (node == null) {
+                return result;
+            }
+            tail = ordered.tailMap(node, false);
+        }
+        for (T e : tail.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (filter.test(e)) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @brief Restituisce, in ordine, gli elementi di un sottoinsieme che seguono un elemento dato.
+     *
+     * Ordina solo gli elementi del sottoinsieme che soddisfano il filtro:
+     * conviene quando il sottoinsieme è piccolo rispetto alla vista.
+     *
+     * @param subset Elementi tra cui scegliere (quelli assenti dalla vista sono ignorati).
+     * @param after  Elemento dopo il quale iniziare (null = dall'inizio).
+     * @param limit  Numero massimo di elementi.
+     * @param filter Condizione che gli elementi devono soddisfare.
+     * @return Al più limit elementi (mai null); vuota se after non è nella vista.
+     */
+    public List<T> pageWithin(Collection<T> subset, T after, int limit, Predicate<? super T> filter) {
+        List<T> result = new ArrayList<>();
+        Node<K> start = after != null ? nodes.get(after) : null;
+        if (after != null && start == null) {
+            return result;
+        }
+        for (T e : subset) {
+            Node<K> node = nodes.get(e);
+            if (node != null && (start == null || order.compare(node, start) > 0) && filter.test(e)) {
+                result.add(e);
+            }
+        }
+        result.sort(this::compare);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * @brief Confronta due elementi secondo l'ordine della vista.
+     *
+     * @param a Primo elemento (presente nella vista).
+     * @param b Secondo elemento (presente nella vista).
+     * @return Valore negativo, zero o positivo se a precede, coincide o segue b.
+     */
+    public int compare(T a, T b) {
+        return order.compare(nodes.get(a), nodes.get(b));
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * @file TokenIndex.java
+ * @brief Indice invertito da token normalizzati a elementi.
+ *
+ * Ogni elemento indicizzato viene scomposto in token (parole in
+ * minuscolo, separate da qualsiasi carattere non alfanumerico) a partire
+ * dai campi testuali forniti dall'estrattore. Una ricerca restituisce gli
+ * elementi che contengono tutti i termini della query (AND); l'ultimo
+ * termine è confrontato come prefisso, così che la ricerca dal vivo trovi
+ * risultati mentre la parola è ancora in digitazione.
+ *
+ * I token sono ordinati (TreeMap): i termini completi sono ricerche
+ * esatte, il prefisso è un intervallo di chiavi.
+ *
+ * @note La classe non è thread-safe: è pensata per essere usata dal
+ *       thread dell'interfaccia, come i servizi che la possiedono.
+ */
+package swe.group04.libraryms.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * @brief Indice invertito con ricerca AND e prefisso sull'ultimo termine.
+ *
+ * @param <T> Tipo degli elementi indicizzati.
+ */
+public final class TokenIndex<T> {
+
+    private final Function<T, List<String>> fields; ///< Estrattore dei campi testuali
+
+    private final TreeMap<String, Set<T>> postings = new TreeMap<>();       ///< Token → elementi
+    private final Map<T, Set<String>> tokensByElement = new IdentityHashMap<>(); ///< Elemento → token indicizzati
+
+    /**
+     * @brief Crea un indice vuoto.
+     *
+     * @param fields Funzione che restituisce i campi testuali da indicizzare
+     *               (i valori null vengono ignorati).
+     *
+     * @throws IllegalArgumentException Se fields è nullo.
+     */
+    public TokenIndex(Function<T, List<String>> fields) {
+        if (fields == null) {
+            throw new IllegalArgumentException("L'estrattore dei campi non può essere nullo.");
+        }
+        this.fields = fields;
+    }
+
+    /**
+     * @brief Svuota l'indice e vi inserisce gli elementi indicati.
+     *
+     * @param elements Elementi da indicizzare.
+     */
+    public void rebuild(Collection<T> elements) {
+        postings.clear();
+        tokensByElement.clear();
+        for (T e : elements) {
+            add(e);
+        }
+    }
+
+    /**
+     * @brief Indicizza un elemento (o lo reindicizza, se già presente).
+     *
+     * @param element Elemento da indicizzare.
+     */
+    public void add(T element) {
+        if (element == null) {
+            return;
+        }
+        remove(element);
+
+        Set<String> tokens = new HashSet<>();
+        for (String field : fields.apply(element)) {
+            tokens.addAll(tokenize(field));
+        }
+        for (String token : tokens) {
+            postings.computeIfAbsent(token, k -> new LinkedHashSet<>()).add(element);
+        }
+        tokensByElement.put(element, tokens);
+    }
+
+    /**
+     * @brief Rimuove un elemento dall'indice.
+     *
+     * Vengono rimossi i token con cui l'elemento era stato indicizzato,
+     * anche se nel frattempo i suoi campi sono cambiati.
+     *
+     * @param element Elemento da rimuovere.
+     */
+    public void remove(T element) {
+        Set<String> tokens = tokensByElement.remove(element);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            Set<T> set = postings.get(token);
+            if (set != null) {
+                set.remove(element);
+                if (set.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Restituisce il numero di elementi indicizzati.
+     *
+     * @return Numero di elementi.
+     */
+    public int size() {
+        return tokensByElement.size();
+    }
+
+    /**
+     * @brief Cerca gli elementi che contengono tutti i termini della query.
+     *
+     * I termini che precedono l'ultimo devono coincidere con un token;
+     * l'ultimo deve esserne un prefisso.
+     *
+     * @param query Testo della ricerca.
+     * @return Elementi corrispondenti, senza un ordine garantito; tutti gli
+     *         elementi se la query non contiene termini.
+     */
+    public Set<T> search(String query) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new HashSet<>(tokensByElement.keySet());
+        }
+
+        //  Termini completi: si parte dall'insieme più piccolo e si interseca
+        List<Set<T>> required = new ArrayList<>();
+        for (int i = 0; i < terms.size() - 1; i++) {
+            Set<T> set = postings.get(terms.get(i));
+            if (set == null) {
+                return new HashSet<>();
+            }
+            required.add(set);
+        }
+        required.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        String prefix = terms.get(terms.size() - 1);
+        if (required.isEmpty()) {
+            Set<T> result = new HashSet<>();
+            for (Set<T> set : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                result.addAll(set);
+            }
+            return result;
+        }
+
+        Set<T> result = new HashSet<>(required.get(0));
+        for (int i = 1; i < required.size() && !result.isEmpty(); i++) {
+            result.retainAll(required.get(i));
+        }
+        //  I candidati rimasti sono pochi: il prefisso si verifica sui loro token
+        result.removeIf(e -> tokensByElement.get(e).stream().noneMatch(t -> t.startsWith(prefix)));
+        return result;
+    }
+
+    /**
+     * @brief Scompone un testo in token normalizzati.
+     *
+     * Il testo viene portato in minuscolo e diviso su ogni carattere che
+     * non sia una lettera o una cifra.
+     *
+     * @param text Testo da scomporre (null = nessun token).
+     * @return Token nell'ordine in cui compaiono (possono ripetersi).
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean word = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * @file TrigramIndex.java
+ * @brief Indice per trigrammi a supporto della ricerca per sottostringa.
+ *
+ * Ogni elemento indicizzato conserva i propri campi testuali già portati
+ * in minuscolo; ciascun campo viene scomposto nei trigrammi (sequenze di
+ * tre caratteri consecutivi) che contiene. Una stringa di almeno tre
+ * caratteri può comparire in un campo solo se il campo contiene tutti i
+ * suoi trigrammi: l'intersezione delle liste dei trigrammi della query
+ * restringe quindi i candidati, sui quali si esegue infine il controllo
+ * contains() sui campi memorizzati.
+ *
+ * Il risultato coincide con una scansione lineare che confronti
+ * field.toLowerCase().contains(query) su ogni campo: i trigrammi servono
+ * solo a scartare in anticipo gli elementi che non possono corrispondere.
+ * Le query più corte di tre caratteri vengono confrontate con tutti gli
+ * elementi, sempre sui campi già normalizzati.
+ *
+ * @note La classe non è thread-safe: è pensata per essere usata dal
+ *       thread dell'interfaccia, come i servizi che la possiedono.
+ */
+package swe.group04.libraryms.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * @brief Indice per trigrammi con verifica finale per sottostringa.
+ *
+ * @param <T> Tipo degli elementi indicizzati (confrontati per identità).
+ */
+public final class TrigramIndex<T> {
+
+    /**
+     * @brief Dati indicizzati di un elemento.
+     */
+    private static final class Entry {
+        final long seq;            ///< Ordine di inserimento dell'elemento
+        final String[] normalized; ///< Campi in minuscolo (null esclusi)
+        final long[] trigrams;     ///< Trigrammi distinti dei campi
+
+        Entry(long seq, String[] normalized, long[] trigrams) {
+            this.seq = seq;
+            this.normalized = normalized;
+            this.trigrams = trigrams;
+        }
+    }
+
+    private final Function<T, List<String>> fields; ///< Estrattore dei campi testuali
+
+    private final Map<Long, Set<T>> postings = new HashMap<>();      ///< Trigramma → elementi
+    private final Map<T, Entry> entries = new IdentityHashMap<>();   ///< Elemento → dati indicizzati
+    private long nextSeq;                                            ///< Prossimo numero d'ordine
+
+    /**
+     * @brief Crea un indice vuoto.
+     *
+     * @param fields Funzione che restituisce i campi testuali da indicizzare
+     *               (i valori null vengono ignorati).
+     *
+     * @throws IllegalArgumentException Se fields è nullo.
+     */
+    public TrigramIndex(Function<T, List<String>> fields) {
+        if (fields == null) {
+            throw new IllegalArgumentException("L'estrattore dei campi non può essere nullo.");
+        }
+        this.fields = fields;
+    }
+
+    /**
+     * @brief Svuota l'indice e vi inserisce gli elementi indicati.
+     *
+     * L'ordine della collezione diventa l'ordine restituito da search().
+     *
+     * @param elements Elementi da indicizzare.
+     */
+    public void rebuild(Collection<T> elements) {
+        postings.clear();
+        entries.clear();
+        nextSeq = 0;
+        for (T e : elements) {
+            add(e);
+        }
+    }
+
+    /**
+     * @brief Indicizza un elemento (o lo reindicizza, se già presente).
+     *
+     * Un elemento reindicizzato mantiene la propria posizione nell'ordine
+     * dei risultati; uno nuovo viene accodato.
+     *
+     * @param element Elemento da indicizzare.
+     */
+    public void add(T element) {
+        if (element == null) {
+            return;
+        }
+        Entry previous = entries.get(element);
+        long seq = previous != null ? previous.seq : nextSeq++;
+        if (previous != null) {
+            removePostings(element, previous);
+        }
+
+        List<String> normalized = new ArrayList<>();
+        for (String field : fields.apply(element)) {
+            if (field != null) {
+                normalized.add(normalize(field));
+            }
+        }
+        String[] values = normalized.toArray(new String[0]);
+        long[] trigrams = trigramsOf(values);
+        for (long t : trigrams) {
+            postings.computeIfAbsent(t, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(element);
+        }
+        entries.put(element, new Entry(seq, values, trigrams));
+    }
+
+    /**
+     * @brief Rimuove un elemento dall'indice.
+     *
+     * Vengono rimossi i trigrammi con cui l'elemento era stato indicizzato,
+     * anche se nel frattempo i suoi campi sono cambiati.
+     *
+     * @param element Elemento da rimuovere.
+     */
+    public void remove(T element) {
+        Entry entry = entries.remove(element);
+        if (entry != null) {
+            removePostings(element, entry);
+        }
+    }
+
+    /**
+     * @brief Restituisce il numero di elementi indicizzati.
+     *
+     * @return Numero di elementi.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @brief Cerca gli elementi con almeno un campo che contiene la query.
+     *
+     * @param query Query già normalizzata con normalize() (non vuota).
+     * @return Elementi corrispondenti, nell'ordine in cui sono stati
+     *         indicizzati (mai null).
+     */
+    public List<T> search(String query) {
+        List<T> result = new ArrayList<>();
+        for (T e : candidates(query)) {
+            if (matches(e, query)) {
+                result.add(e);
+            }
+        }
+        result.sort(Comparator.comparingLong(e -> entries.get(e).seq));
+        return result;
+    }
+
+    /**
+     * @brief Verifica se un elemento indicizzato ha un campo che contiene la query.
+     *
+     * Il confronto usa i campi memorizzati al momento dell'indicizzazione.
+     *
+     * @param element Elemento indicizzato.
+     * @param query   Query già normalizzata con normalize().
+     * @return true se almeno un campo contiene la query; false se non
+     *         corrisponde o se l'elemento non è indicizzato.
+     */
+    public boolean matches(T element, String query) {
+        Entry entry = entries.get(element);
+        if (entry == null) {
+            return false;
+        }
+        for (String value : entry.normalized) {
+            if (value.contains(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @brief Restituisce gli elementi che possono contenere la query.
+     *
+     * Per query di almeno tre caratteri sono gli elementi che contengono
+     * tutti i trigrammi della query; per query più corte, tutti gli elementi.
+     * L'insieme restituito è una vista: non va modificato.
+     *
+     * @param query Query già normalizzata con normalize().
+     * @return Candidati (mai null), da verificare con matches().
+     */
+    public Collection<T> candidates(String query) {
+        if (query.length() < 3) {
+            return entries.keySet();
+        }
+
+        //  Si parte dalla lista più corta e si verificano le altre
+        long[] trigrams = trigramsOf(new String[] { query });
+        List<Set<T>> sets = new ArrayList<>(trigrams.length);
+        for (long t : trigrams) {
+            Set<T> set = postings.get(t);
+            if (set == null) {
+                return Collections.emptyList();
+            }
+            sets.add(set);
+        }
+        sets.sort(Comparator.comparingInt(Set::size));
+        if (sets.size() == 1) {
+            return sets.get(0);
+        }
+
+        List<T> result = new ArrayList<>();
+        for (T e : sets.get(0)) {
+            boolean all = true;
+            for (int i = 1; i < sets.size() && all; i++) {
+                all = sets.get(i).contains(e);
+            }
+            if (all) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @brief Normalizza un campo o una query per il confronto.
+     *
+     * Usa la stessa conversione in minuscolo della ricerca lineare che
+     * l'indice sostituisce (String.toLowerCase()).
+     *
+     * @param text Testo da normalizzare.
+     * @return Testo in minuscolo.
+     */
+    public static String normalize(String text) {
+        return text.toLowerCase();
+    }
+
+    /* ---------------------------------------------------------------------- */
+    /*                      Metodi di utilità interni                          */
+    /* ---------------------------------------------------------------------- */
+
+    /**
+     * @brief Rimuove un elemento dalle liste dei propri trigrammi.
+     */
+    private void removePostings(T element, Entry entry) {
+        for (long t : entry.trigrams) {
+            Set<T> set = postings.get(t);
+            if (set != null) {
+                set.remove(element);
+                if (set.isEmpty()) {
+                    postings.remove(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Calcola i trigrammi distinti di un insieme di stringhe.
+     *
+     * Ogni trigramma è codificato in un long (16 bit per carattere).
+     * I trigrammi non attraversano il confine tra due campi.
+     */
+    private static long[] trigramsOf(String[] values) {
+        Set<Long> set = new HashSet<>();
+        for (String v : values) {
+            for (int i = 0; i + 3 <= v.length(); i++) {
+                set.add(((long) v.charAt(i) << 32) | ((long) v.charAt(i + 1) << 16) | v.charAt(i + 2));
+            }
+        }
+        long[] result = new long[set.size()];
+        int i = 0;
+        for (long t : set) {
+            result[i++] = t;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * @file UserSearchEngine.java
+ * @brief Motore di ricerca degli utenti, con risultati già ordinati per cognome.
+ *
+ * Mantiene, per ogni utente, i campi di ricerca già normalizzati (tramite
+ * TrigramIndex) e la chiave di ordinamento (chiave di collazione italiana
+ * del cognome, tramite SortedView): a parità di cognome vale l'ordine dell'archivio, lo stesso
+ * ordine prodotto da un ordinamento stabile della lista dell'archivio.
+ *
+ * Una ricerca non alloca copie dei campi e non ordina i risultati:
+ * - se i candidati dell'indice per trigrammi sono molti (o la query è
+ *   più corta di tre caratteri) si scorrono gli utenti in ordine di
+ *   cognome, fermandosi al limite richiesto;
+ * - se sono pochi si verificano solo quelli, ordinandoli per chiave.
+ *
+ * @note La classe non è thread-safe: è pensata per essere usata dal
+ *       thread dell'interfaccia, come UserService che la possiede.
+ */
+package swe.group04.libraryms.service;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import swe.group04.libraryms.models.User;
+
+/**
+ * @brief Ricerca per sottostringa sugli utenti, ordinata per cognome.
+ */
+public final class UserSearchEngine {
+
+    /**
+     * @brief Soglia (in rapporto al numero di utenti) sotto la quale conviene
+     *        verificare i soli candidati invece di scorrere l'ordinamento.
+     */
+    private static final int CANDIDATE_RATIO = 8;
+
+    private final TrigramIndex<User> index = new TrigramIndex<>(
+            u -> Arrays.asList(u.getLastName(), u.getFirstName(), u.getCode(), u.getEmail()));
+
+    private final SortedView<User, CollationKey> byLastName = SortedView.natural(UserSearchEngine::sortKeyOf); ///< Utenti in ordine di cognome
+
+    /**
+     * @brief Svuota il motore e vi inserisce gli utenti indicati.
+     *
+     * @param users Utenti nell'ordine dell'archivio (i null vengono ignorati).
+     */
+    public void rebuild(Collection<User> users) {
+        byLastName.rebuild(users);
+        List<User> indexed = new ArrayList<>(users.size());
+        for (User u : users) {
+            if (u != null) {
+                indexed.add(u);
+            }
+        }
+        index.rebuild(indexed);
+    }
+
+    /**
+     * @brief Inserisce un utente (o aggiorna i suoi dati, se già presente).
+     *
+     * Un utente già presente mantiene la propria posizione rispetto agli
+     * utenti con lo stesso cognome; uno nuovo viene accodato.
+     *
+     * @param user Utente da indicizzare.
+     */
+    public void add(User user) {
+        byLastName.add(user);
+        index.add(user);
+    }
+
+    /**
+     * @brief Rimuove un utente dal motore.
+     *
+     * @param user Utente da rimuovere.
+     */
+    public void remove(User user) {
+        byLastName.remove(user);
+        index.remove(user);
+    }
+
+    /**
+     * @brief Restituisce il numero di utenti indicizzati.
+     *
+     * @return Numero di utenti.
+     */
+    public int size() {
+        return byLastName.size();
+    }
+
+    /**
+     * @brief Restituisce la vista degli utenti ordinata per cognome.
+     *
+     * @return Vista mantenuta dal motore (da non modificare direttamente).
+     */
+    public SortedView<User, CollationKey> byLastName() {
+        return byLastName;
+    }
+
+    /**
+     * @brief Cerca gli utenti con cognome, nome, matricola o email che contengono la query.
+     *
+     * @param query Query già normalizzata con TrigramIndex.normalize()
+     *              (vuota = tutti gli utenti).
+     * @param limit Numero massimo di risultati.
+     * @return Utenti corrispondenti in ordine di cognome (mai null).
+     */
+    public List<User> search(String query, int limit) {
+        return search(query, null, limit);
+    }
+
+    /**
+     * @brief Cerca gli utenti corrispondenti che seguono un utente dato nell'ordine per cognome.
+     *
+     * @param query Query già normalizzata con TrigramIndex.normalize()
+     *              (vuota = tutti gli utenti).
+     * @param after Utente dopo il quale iniziare (null = dall'inizio).
+     * @param limit Numero massimo di risultati.
+     * @return Utenti corrispondenti in ordine di cognome (mai null); vuota
+     *         se after non è indicizzato.
+     */
+    public List<User> search(String query, User after, int limit) {
+        if (limit == 0) {
+            return new ArrayList<>();
+        }
+        if (query.isEmpty()) {
+            return byLastName.page(after, limit);
+        }
+
+        Collection<User> candidates = index.candidates(query);
+        if (candidates.size() <= byLastName.size() / CANDIDATE_RATIO) {
+            //  Pochi candidati: si verificano e si ordinano solo quelli
+            return byLastName.pageWithin(candidates, after, limit, u -> index.matches(u, query));
+        }
+        //  Molti candidati: si scorre l'ordine per cognome fino al limite
+        return byLastName.page(after, limit, u -> index.matches(u, query));
+    }
+
+    /**
+     * @brief Calcola la chiave di ordinamento di un utente.
+     *
+     * Chiave di collazione del cognome (vedi CollationKeys); null equivale
+     * al cognome vuoto.
+     */
+    private static CollationKey sortKeyOf(User user) {
+        return CollationKeys.of(user.getLastName());
+    }
+}
@@ -14,12 +14,13 @@
 package swe.group04.libraryms.service;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import swe.group04.libraryms.exceptions.*;
 import swe.group04.libraryms.models.LibraryArchive;
 import swe.group04.libraryms.models.*;
+import swe.group04.libraryms.persistence.JournalRecord;
 
 /**
  * @brief Implementa la logica di alto livello per la gestione degli utenti.
@@ -33,12 +34,38 @@ public class UserService {
     private final LibraryArchiveService libraryArchiveService; // Servizio per la persistenza dell'archivio
 
     /**
-     * @brief Comparatore case-insensitive per ordinare gli utenti per cognome.
+     * @brief Criteri di ordinamento degli utenti.
+     */
+    public enum SortOrder {
+        LAST_NAME,  ///< Cognome, in ordine alfabetico italiano (case-insensitive)
+        FIRST_NAME, ///< Nome, in ordine alfabetico italiano (case-insensitive)
+        CODE        ///< Matricola
+    }
+
+    /**
+     * @brief Motore di ricerca usato da searchUsers(); mantiene anche l'ordine per cognome.
+     */
+    private final UserSearchEngine searchEngine = new UserSearchEngine();
+
+    /**
+     * @brief Viste ordinate degli utenti, una per criterio.
      *
-     * Se il cognome è null viene considerata la stringa vuota.
+     * A parità di chiave vale l'ordine dell'archivio, come nell'ordinamento
+     * stabile di una copia della lista.
      */
-    private static final Comparator<User> BY_LASTNAME_COMPARATOR =
-            Comparator.comparing(user -> user.getLastName() == null ? "" : user.getLastName().toLowerCase());
+    private final Map<SortOrder, SortedView<User, ?>> sortedViews = new EnumMap<>(Map.of(
+            SortOrder.LAST_NAME, searchEngine.byLastName(),
+            SortOrder.FIRST_NAME, SortedView.natural(u -> CollationKeys.of(u.getFirstName())),
+            SortOrder.CODE, SortedView.natural(u -> u.getCode() == null ? "" : u.getCode())
+    ));
+
+    /**
+     * @brief Prefisso dei token di continuazione della ricerca paginata.
+     */
+    private static final String SEARCH_TOKEN = "SEARCH";
+
+    private LibraryArchive indexedArchive;   ///< Archivio a cui si riferiscono motore e viste
+    private long indexedVersion = -1;        ///< Versione degli utenti indicizzata
 
     /**
      * @brief Costruttore del servizio.
@@ -95,8 +122,10 @@ public class UserService {
         validateEmail(user.getEmail());
         validateMatricolaUniquenessOnAdd(user.getCode());
 
-        getArchive().addUser(user);
-        persistChanges();
+        LibraryArchive archive = getArchive();
+        archive.addUser(user);
+        indexAfterChange(archive, user, false);
+        persistChanges(JournalRecord.addUser(user));
     }
 
     /**
@@ -119,12 +148,20 @@ public class UserService {
      * @throws RuntimeException        Se il salvataggio dell'archivio fallisce (wrapping di IOException).
      */
     public void updateUser(User user) throws MandatoryFieldException, InvalidEmailException{
+        //  I campi sono già stati modificati: l'utente va reindicizzato
+        //  anche se i nuovi valori vengono poi rifiutati
+        if (user != null && getArchive() == indexedArchive && indexedArchive.getUsersVersion() == indexedVersion) {
+            searchEngine.add(user);
+            sortedViews.get(SortOrder.FIRST_NAME).add(user);
+            sortedViews.get(SortOrder.CODE).add(user);
+        }
+
         validateMandatoryFields(user);
         validateEmail(user.getEmail());
         validateMatricolaUniquenessOnUpdate(user);
 
         // L'istanza user è già presente nell'archivio → basta modificarla
-        persistChanges();
+        persistChanges(JournalRecord.updateUser(user));
     }
 
     /**
@@ -151,23 +188,24 @@ public class UserService {
             throw new IllegalArgumentException("user non può essere nullo");
         }
 
-        List<Loan> loans = getArchive().findLoansByUser(user);
-        for (Loan loan : loans) {
-            if (loan != null && loan.isActive()) {
-                throw new UserHasActiveLoanException(
-                        "Impossibile eliminare l'utente: sono presenti prestiti attivi."
-                );
-            }
+        if (getArchive().countActiveLoansByUser(user) > 0) {
+            throw new UserHasActiveLoanException(
+                    "Impossibile eliminare l'utente: sono presenti prestiti attivi."
+            );
         }
 
-        getArchive().removeUser(user);
-        persistChanges();
+        LibraryArchive archive = getArchive();
+        archive.removeUser(user);
+        indexAfterChange(archive, user, true);
+        persistChanges(JournalRecord.removeUser(user));
     }
 
     /**
      * @brief Restituisce la lista degli utenti ordinata per cognome.
      *
-     * L'ordinamento è effettuato su una copia della lista restituita dall'archivio.
+     * L'ordine è mantenuto dal servizio a ogni modifica: la lettura copia
+     * la vista senza riordinare. Se il cognome è null viene considerata la
+     * stringa vuota.
      *
      * @pre  libraryArchiveService != null
      * @post true
@@ -175,9 +213,88 @@ public class UserService {
      * @return Lista di utenti ordinata per cognome (mai null).
      */
     public List<User> getUsersSortedByLastName() {
-        List<User> list = new ArrayList<>(getArchive().getUsers());
-        list.sort(BY_LASTNAME_COMPARATOR);
-        return list;
+        return view(SortOrder.LAST_NAME).toList();
+    }
+
+    /**
+     * @brief Restituisce la lista degli utenti ordinata per nome (ordine alfabetico italiano, case-insensitive).
+     *
+     * @pre  libraryArchiveService != null
+     * @post true
+     *
+     * @return Lista di utenti ordinata per nome (mai null).
+     */
+    public List<User> getUsersSortedByFirstName() {
+        return view(SortOrder.FIRST_NAME).toList();
+    }
+
+    /**
+     * @brief Restituisce la lista degli utenti ordinata per matricola.
+     *
+     * @pre  libraryArchiveService != null
+     * @post true
+     *
+     * @return Lista di utenti ordinata per matricola (mai null).
+     */
+    public List<User> getUsersSortedByCode() {
+        return view(SortOrder.CODE).toList();
+    }
+
+    /**
+     * @brief Restituisce una pagina degli utenti ordinati.
+     *
+     * La pagina contiene gli utenti che seguono after nell'ordine richiesto;
+     * il costo dipende dalla dimensione della pagina, non del numero di utenti.
+     *
+     * @param order    Criterio di ordinamento.
+     * @param after    Ultimo utente della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di utenti della pagina.
+     *
+     * @pre  order != null
+     * @pre  pageSize > 0
+     *
+     * @return Utenti della pagina (mai null); vuota se after non è registrato.
+     *
+     * @throws IllegalArgumentException Se order è nullo o pageSize non è positivo.
+     */
+    public List<User> getUsersPage(SortOrder order, User after, int pageSize) {
+        if (order == null) {
+            throw new IllegalArgumentException("Il criterio di ordinamento non può essere nullo");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva");
+        }
+        return view(order).page(after, pageSize);
+    }
+
+    /**
+     * @brief Restituisce una pagina degli utenti ordinati, con token di continuazione.
+     *
+     * La prima pagina si ottiene con token null; le successive passando il
+     * token restituito dalla pagina precedente con lo stesso criterio.
+     *
+     * @param order    Criterio di ordinamento.
+     * @param token    Token della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di utenti della pagina.
+     *
+     * @pre  order != null
+     * @pre  pageSize > 0
+     *
+     * @return Pagina di utenti (mai null).
+     *
+     * @throws IllegalArgumentException Se order è nullo, pageSize non è positivo o
+     *                                  il token non è valido (o non lo è più).
+     */
+    public Page<User> pageUsers(SortOrder order, String token, int pageSize) {
+        if (order == null) {
+            throw new IllegalArgumentException("Il criterio di ordinamento non può essere nullo");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva");
+        }
+        SortedView<User, ?> view = view(order);
+        User after = anchorOf(view, token, order.name());
+        return Page.of(view.page(after, pageSize + 1), pageSize, order.name(), User::getCode);
     }
 
     /**
@@ -190,6 +307,9 @@ public class UserService {
      * - matricola/codice;
      * - email.
      *
+     * I candidati sono ristretti dall'indice per trigrammi e verificati
+     * sui campi già normalizzati, senza scandire l'intero elenco.
+     *
      * Se la query è vuota (dopo trim), restituisce tutti gli utenti ordinati per cognome.
      *
      * @param query Testo inserito dall'operatore.
@@ -204,33 +324,145 @@ public class UserService {
      * @throws IllegalArgumentException Se query è null.
      */
     public List<User> searchUsers(String query) {
+        return searchUsers(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @brief Ricerca utenti tramite query testuale, restituendo al più limit risultati.
+     *
+     * Stesso criterio di searchUsers(String): i risultati sono i primi
+     * limit utenti, in ordine di cognome, che soddisfano la ricerca. I
+     * campi normalizzati e l'ordinamento sono mantenuti dal motore di
+     * ricerca, così che una ricerca non copi i campi né ordini i risultati.
+     *
+     * @param query Testo inserito dall'operatore.
+     * @param limit Numero massimo di risultati.
+     *
+     * @pre  query != null
+     * @pre  limit >= 0
+     *
+     * @return Lista di utenti ordinata per cognome, con al più limit elementi (mai null).
+     *
+     * @throws IllegalArgumentException Se query è null o limit è negativo.
+     */
+    public List<User> searchUsers(String query, int limit) {
         if (query == null) {
             throw new IllegalArgumentException("La richiesta non può essere nulla");
         }
-
-        String q = query.trim().toLowerCase();
-        if (q.isEmpty()) {
-            return getUsersSortedByLastName();
+        if (limit < 0) {
+            throw new IllegalArgumentException("Il limite dei risultati non può essere negativo");
         }
 
-        List<User> result = new ArrayList<>();
-        for (User u : getArchive().getUsers()) {
+        syncIndexes();
+        return searchEngine.search(TrigramIndex.normalize(query.trim()), limit);
+    }
+
+    /**
+     * @brief Ricerca paginata degli utenti, con token di continuazione.
+     *
+     * Stesso criterio di searchUsers(): le pagine seguono l'ordine per
+     * cognome e il token va ripassato insieme alla stessa query.
+     *
+     * @param query    Testo inserito dall'operatore.
+     * @param token    Token della pagina precedente (null = prima pagina).
+     * @param pageSize Numero massimo di utenti della pagina.
+     *
+     * @pre  query != null
+     * @pre  pageSize > 0
+     *
+     * @return Pagina di utenti che soddisfano il criterio di ricerca (mai null).
+     *
+     * @throws IllegalArgumentException Se query è null, pageSize non è positivo o
+     *                                  il token non è valido (o non lo è più).
+     */
+    public Page<User> pageSearchUsers(String query, String token, int pageSize) {
+        if (query == null) {
+            throw new IllegalArgumentException("La richiesta non può essere nulla");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva");
+        }
+        User after = anchorOf(view(SortOrder.LAST_NAME), token, SEARCH_TOKEN);
+        List<User> fetched = searchEngine.search(TrigramIndex.normalize(query.trim()), after, pageSize + 1);
+        return Page.of(fetched, pageSize, SEARCH_TOKEN, User::getCode);
+    }
 
-            if (u == null) continue;
+    /**
+     * @brief Risolve l'utente a cui si riferisce un token di continuazione.
+     *
+     * @param view   Vista da paginare.
+     * @param token  Token ricevuto (null = prima pagina).
+     * @param prefix Prefisso atteso del token.
+     * @return Ultimo utente della pagina precedente, oppure null per la prima pagina.
+     *
+     * @throws IllegalArgumentException Se il token non è valido o l'utente non è più registrato.
+     */
+    private User anchorOf(SortedView<User, ?> view, String token, String prefix) {
+        String code = Page.keyOf(token, prefix);
+        if (code == null) {
+            return null;
+        }
+        User after = getArchive().findUserByCode(code);
+        if (after == null || !view.contains(after)) {
+            throw new IllegalArgumentException("Il token di continuazione non è più valido: ricominciare dalla prima pagina");
+        }
+        return after;
+    }
 
-            boolean match =
-                    containsIgnoreCase(u.getLastName(), q) ||
-                            containsIgnoreCase(u.getFirstName(), q) ||
-                            containsIgnoreCase(u.getCode(), q) ||
-                            containsIgnoreCase(u.getEmail(), q);
+    /**
+     * @brief Restituisce la vista ordinata richiesta, allineata all'archivio corrente.
+     *
+     * @param order Criterio di ordinamento.
+     * @return Vista ordinata degli utenti.
+     */
+    private SortedView<User, ?> view(SortOrder order) {
+        syncIndexes();
+        return sortedViews.get(order);
+    }
 
-            if (match) {
-                result.add(u);
-            }
+    /**
+     * @brief Allinea motore di ricerca e viste ordinate all'archivio corrente.
+     *
+     * Motore e viste vengono ricostruiti se l'archivio è stato sostituito
+     * (es. dopo un ricaricamento) o se gli utenti sono cambiati senza
+     * passare da questo servizio.
+     */
+    private void syncIndexes() {
+        LibraryArchive archive = getArchive();
+        if (archive != indexedArchive || archive.getUsersVersion() != indexedVersion) {
+            searchEngine.rebuild(archive.getUsers());
+            sortedViews.get(SortOrder.FIRST_NAME).rebuild(archive.getUsers());
+            sortedViews.get(SortOrder.CODE).rebuild(archive.getUsers());
+            indexedArchive = archive;
+            indexedVersion = archive.getUsersVersion();
         }
+    }
 
-        result.sort(BY_LASTNAME_COMPARATOR);
-        return result;
+    /**
+     * @brief Aggiorna motore e viste dopo l'aggiunta o la rimozione di un utente.
+     *
+     * L'aggiornamento è incrementale solo se motore e viste erano allineati
+     * alla versione precedente alla modifica; altrimenti saranno ricostruiti
+     * alla prossima lettura.
+     *
+     * @param archive Archivio modificato.
+     * @param user    Utente aggiunto o rimosso.
+     * @param removed true se l'utente è stato rimosso.
+     */
+    private void indexAfterChange(LibraryArchive archive, User user, boolean removed) {
+        if (archive != indexedArchive || archive.getUsersVersion() != indexedVersion + 1) {
+            return;
+        }
+        if (removed) {
+            searchEngine.remove(user);
+            sortedViews.get(SortOrder.FIRST_NAME).remove(user);
+            sortedViews.get(SortOrder.CODE).remove(user);
+        } else {
+            searchEngine.add(user);
+            sortedViews.get(SortOrder.FIRST_NAME).add(user);
+            sortedViews.get(SortOrder.CODE).add(user);
+        }
+        indexedVersion = archive.getUsersVersion();
     }
 
     /* ---------------------------------------------------------------------- */
@@ -304,13 +536,6 @@ public class UserService {
     /*                Metodi di supporto e persistenza                         */
     /* ---------------------------------------------------------------------- */
 
-    /**
-     * @brief Verifica se un campo contiene la query (case-insensitive).
-     */
-    private boolean containsIgnoreCase(String field, String query) {
-        return field != null && field.toLowerCase().contains(query);
-    }
-
     /**
      * @brief Verifica se una stringa è nulla o composta solo da spazi.
      */
@@ -319,11 +544,13 @@ public class UserService {
     }
 
     /**
-     * @brief Persiste le modifiche dell'archivio tramite LibraryArchiveService.
+     * @brief Persiste una modifica dell'archivio tramite LibraryArchiveService.
+     *
+     * @param record Record che descrive la modifica appena applicata.
      */
-    private void persistChanges() {
+    private void persistChanges(JournalRecord record) {
         try {
-            libraryArchiveService.saveArchive(getArchive());
+            libraryArchiveService.saveChange(record);
         } catch (IOException e) {
             throw new RuntimeException(
                     "Errore durante il salvataggio dell'archivio utenti.",e);
@@ -11,7 +11,15 @@
  * - creazione e registrazione dei prestiti nell’archivio;
  * - recupero dei prestiti per utente e per libro;
  * - distinzione corretta tra prestiti attivi e prestiti restituiti;
- * - corretta serializzazione e deserializzazione dell’archivio.
+ * - corretta serializzazione e deserializzazione dell’archivio;
+ * - allineamento degli indici per chiave dopo inserimenti e rimozioni;
+ * - indici dei prestiti per utente e per libro, divisi per stato e ordinati per ID;
+ * - vista a colonne dei prestiti e relative aggregazioni, mantenuta tra le versioni;
+ * - liste restituite dai getter immutabili e indipendenti dalle modifiche successive;
+ * - versioni (snapshot) coerenti durante modifiche concorrenti;
+ * - registrazione e restituzione dei prestiti pubblicate in un'unica versione,
+ *   senza modifiche perse tra scritture concorrenti;
+ * - stato degli oggetti registrato una sola volta, negli indici per chiave.
  */
 package swe.group04.libraryms.models;
 
@@ -21,7 +29,10 @@ import org.junit.jupiter.api.Test;
 
 import java.io.*;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -378,5 +389,373 @@ class LibraryArchiveTest {
         assertEquals(book1, restored.findBookByIsbn("ISBN-111"));
         assertEquals(user1, restored.findUserByCode("S123"));
         assertNotNull(restored.findLoanById(l.getLoanId()));
+        assertEquals(1, restored.findUserByCode("S123").getActiveLoanCount());
     }
-}
\ No newline at end of file
+
+    // -------------------------------------------------------------------------
+    //                      Indici per chiave
+    // -------------------------------------------------------------------------
+
+    /**
+     * @brief Verifica che le ricerche per chiave restino coerenti con le liste
+     *        dopo rimozioni, anche in presenza di chiavi duplicate.
+     */
+    @Test
+    @DisplayName("Gli indici per chiave seguono inserimenti e rimozioni")
+    void keyIndexesFollowAddAndRemove() {
+        archive.addBook(book1);
+        archive.addUser(user1);
+        Loan l = archive.addLoan(user1, book1, LocalDate.now().plusDays(5));
+
+        archive.removeLoan(l);
+        archive.removeUser(user1);
+        assertNull(archive.findLoanById(l.getLoanId()));
+        assertNull(archive.findUserByCode("S123"));
+
+        //  Con due libri con lo stesso ISBN, rimosso il primo viene trovato il secondo
+        Book duplicate = new Book("Clean Code (2a ed.)", List.of("Robert C. Martin"), 2010, "ISBN-111", 1);
+        archive.addBook(duplicate);
+        assertSame(book1, archive.findBookByIsbn("ISBN-111"));
+        archive.removeBook(book1);
+        assertSame(duplicate, archive.findBookByIsbn("ISBN-111"));
+        archive.removeBook(duplicate);
+        assertNull(archive.findBookByIsbn("ISBN-111"));
+
+        archive.restoreLoan(l);
+        assertSame(l, archive.findLoanById(l.getLoanId()));
+    }
+
+    /**
+     * @brief Verifica che gli indici dei prestiti per utente e per libro
+     *        seguano restituzioni, rimozioni e cambi di riferimento.
+     */
+    @Test
+    @DisplayName("Gli indici dei prestiti per utente e libro separano attivi e restituiti")
+    void loanIndexesTrackStatus() {
+        archive.addUser(user1);
+        archive.addBook(book1);
+        archive.addBook(book2);
+
+        Loan l1 = archive.addLoan(user1, book1, LocalDate.now().plusDays(5));
+        Loan l2 = archive.addLoan(user1, book2, LocalDate.now().plusDays(10));
+        assertEquals(2, archive.countActiveLoansByUser(user1));
+        assertEquals(1, archive.countActiveLoansByBook(book1));
+
+        //  La restituzione sposta il prestito tra i restituiti
+        l1.setReturnDate(LocalDate.now());
+        l1.setStatus(false);
+        assertEquals(1, archive.countActiveLoansByUser(user1));
+        assertEquals(List.of(l2), archive.findActiveLoansByUser(user1));
+        assertEquals(List.of(l1), archive.findReturnedLoansByUser(user1));
+        assertEquals(0, archive.countActiveLoansByBook(book1));
+        assertEquals(List.of(l1, l2), archive.findLoansByUser(user1));
+        assertFalse(archive.isLoanActive(l1.getLoanId()));
+        assertTrue(archive.isLoanActive(l2.getLoanId()));
+
+        //  Il cambio di utente sposta il prestito nell'indice del nuovo utente
+        l2.setUser(user2);
+        assertEquals(0, archive.countActiveLoansByUser(user1));
+        assertEquals(1, archive.countActiveLoansByUser(user2));
+        assertEquals(0, user1.getActiveLoanCount());
+        assertEquals(List.of(l2), user2.getActiveLoans());
+
+        archive.removeLoan(l2);
+        assertEquals(0, archive.countActiveLoansByUser(user2));
+        assertFalse(archive.isLoanActive(l2.getLoanId()));
+        assertTrue(archive.findLoansByBook(book2).isEmpty());
+    }
+
+    /**
+     * @brief Verifica che le partizioni per utente e per libro restino in ordine
+     *        di ID anche quando i prestiti cambiano stato più volte.
+     */
+    @Test
+    @DisplayName("Gli indici dei prestiti per utente e libro restano ordinati per ID")
+    void loanIndexesStayOrderedById() {
+        archive.addUser(user1);
+        archive.addBook(book1);
+
+        List<Loan> loans = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            loans.add(archive.addLoan(user1, book1, LocalDate.now().plusDays(i)));
+        }
+
+        //  Restituzione e riapertura non spostano il prestito in fondo
+        loans.get(3).setStatus(false);
+        loans.get(1).setStatus(false);
+        assertEquals(List.of(loans.get(0), loans.get(2), loans.get(4)), archive.findActiveLoansByUser(user1));
+        assertEquals(List.of(loans.get(1), loans.get(3)), archive.findReturnedLoansByBook(book1));
+
+        loans.get(1).setStatus(true);
+        assertEquals(List.of(loans.get(0), loans.get(1), loans.get(2), loans.get(4)),
+                archive.findActiveLoansByBook(book1));
+        assertEquals(4, archive.countActiveLoansByUser(user1));
+        assertEquals(loans, archive.findLoansByUser(user1));
+        assertEquals(loans, archive.findLoansByBook(book1));
+
+        archive.removeLoan(loans.get(2));
+        assertEquals(List.of(loans.get(0), loans.get(1), loans.get(3), loans.get(4)),
+                archive.findLoansByUser(user1));
+    }
+
+    /**
+     * @brief Verifica la vista a colonne dei prestiti e le aggregazioni sullo storico.
+     */
+    @Test
+    @DisplayName("La vista a colonne riflette i prestiti della versione corrente")
+    void loanColumnsAggregateHistory() {
+        archive.addUser(user1);
+        archive.addUser(user2);
+        archive.addBook(book1);
+        archive.addBook(book2);
+
+        LocalDate today = LocalDate.now();
+        Loan l1 = archive.addLoan(user1, book1, today.minusDays(1));
+        archive.addLoan(user1, book2, today.plusDays(10));
+        archive.addLoan(user2, book1, today.plusDays(3));
+
+        LoanColumns before = archive.getLoanColumns();
+        assertSame(before, archive.getLoanColumns());
+        assertEquals(3, before.size());
+        assertEquals(l1.getLoanId(), before.loanId(0));
+        assertEquals(3, before.countActive());
+        assertEquals(1, before.countOverdue(today));
+        assertEquals(3, before.countOpenedBetween(today, today));
+        assertArrayEquals(new int[] { 2, 1 }, before.countByUser());
+        assertArrayEquals(new int[] { 2, 1 }, before.countByBook());
+        assertEquals(LoanColumns.NO_DATE, before.returnDay(0));
+
+        l1.setReturnDate(today.plusDays(2));
+        l1.setStatus(false);
+
+        LoanColumns after = archive.getLoanColumns();
+        assertNotSame(before, after);
+        assertEquals(3, before.countActive());
+        assertEquals(2, after.countActive());
+        assertFalse(after.isActive(0));
+        assertEquals(0, after.countOverdue(today));
+        assertEquals(2.0, after.averageReturnedDuration());
+    }
+
+    /**
+     * @brief Verifica che le liste restituite dai getter non cambino con l'archivio.
+     */
+    @Test
+    @DisplayName("I getter restituiscono liste immutabili che non seguono le modifiche")
+    void gettersReturnStableSnapshots() {
+        archive.addBook(book1);
+        List<Book> before = archive.getBooks();
+
+        archive.addBook(book2);
+        archive.removeBook(book1);
+
+        assertEquals(List.of(book1), before);
+        assertEquals(List.of(book2), archive.getBooks());
+        assertSame(archive.getBooks(), archive.getBooks());
+        assertThrows(UnsupportedOperationException.class, () -> before.add(book2));
+    }
+
+    /**
+     * @brief Verifica che una versione resti coerente mentre un altro thread modifica l'archivio.
+     */
+    @Test
+    @DisplayName("Le versioni dell'archivio restano coerenti durante modifiche concorrenti")
+    void snapshotsStayConsistentUnderConcurrentWrites() throws Exception {
+        archive.addUser(user1);
+        archive.addBook(book1);
+        ArchiveSnapshot before = archive.snapshot();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 500; i++) {
+                    Book b = new Book("Libro " + i, List.of("Autore"), 2000, "ISBN-W" + i, 1);
+                    archive.addBook(b);
+                    archive.addLoan(user1, b, LocalDate.now().plusDays(i % 30));
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+
+        //  Ogni versione letta ha indici allineati alle liste
+        while (writer.isAlive()) {
+            ArchiveSnapshot s = archive.snapshot();
+            assertEquals(s.getLoans().size(), s.countActiveLoans());
+            for (Loan l : s.getLoans()) {
+                assertSame(l, s.findLoanById(l.getLoanId()));
+                assertSame(l.getBook(), s.findBookByIsbn(l.getBook().getIsbn()));
+            }
+        }
+        writer.join();
+        assertNull(failure.get());
+
+        assertEquals(1, before.getBooks().size());
+        assertTrue(before.getLoans().isEmpty());
+        assertEquals(501, archive.getBooks().size());
+        assertEquals(500, archive.countActiveLoansByUser(user1));
+        assertEquals(501, archive.getNextLoanId());
+    }
+
+    /**
+     * @brief Verifica che registrazione e restituzione pubblichino un'unica versione coerente.
+     */
+    @Test
+    @DisplayName("registerLoan e returnLoan pubblicano prestito e copie in un'unica versione")
+    void registerAndReturnPublishOneVersion() {
+        archive.addUser(user1);
+        archive.addBook(book1);
+        ArchiveSnapshot before = archive.snapshot();
+
+        Loan loan = archive.registerLoan(user1, book1, LocalDate.now().plusDays(7));
+        ArchiveSnapshot registered = archive.snapshot();
+        assertEquals(before.getLoansVersion() + 1, registered.getLoansVersion());
+        assertTrue(registered.stateOf(loan).isActive());
+        assertEquals(2, registered.stateOf(book1).getAvailableCopies());
+        assertEquals(1, registered.stateOf(user1).getActiveLoanCount());
+        assertEquals(3, before.stateOf(book1).getAvailableCopies());
+
+        archive.returnLoan(loan, LocalDate.now());
+        ArchiveSnapshot returned = archive.snapshot();
+        assertFalse(returned.stateOf(loan).isActive());
+        assertEquals(LocalDate.now(), returned.stateOf(loan).getReturnDate());
+        assertEquals(3, returned.stateOf(book1).getAvailableCopies());
+        assertEquals(0, returned.stateOf(user1).getActiveLoanCount());
+        assertEquals(2, registered.stateOf(book1).getAvailableCopies());
+
+        //  Una restituzione ripetuta non modifica nulla
+        assertThrows(IllegalStateException.class, () -> archive.returnLoan(loan, LocalDate.now()));
+        assertSame(returned, archive.snapshot());
+    }
+
+    /**
+     * @brief Verifica che scritture concorrenti sullo stesso libro o prestito non si perdano.
+     */
+    @Test
+    @DisplayName("Le modifiche concorrenti di libri e prestiti non si sovrascrivono")
+    void concurrentWritesAreNotLost() throws Exception {
+        Book book = new Book("Libro", List.of("Autore"), 2000, "ISBN-C", 100);
+        archive.addUser(user1);
+        archive.addBook(book);
+        Loan loan = archive.registerLoan(user1, book, LocalDate.now().plusDays(7));
+
+        AtomicInteger granted = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        try {
+                            archive.registerLoan(user1, book, LocalDate.now().plusDays(7));
+                            granted.incrementAndGet();
+                        } catch (IllegalStateException e) {
+                            //  Copie esaurite
+                        }
+                        loan.setDueDate(LocalDate.now().plusDays(i));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> loan.setStatus(false)));
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure.get());
+
+        //  Nessun prestito oltre le copie, nessuna restituzione persa
+        assertEquals(99, granted.get());
+        assertEquals(0, book.getAvailableCopies());
+        assertFalse(loan.isActive());
+        assertFalse(archive.isLoanActive(loan.getLoanId()));
+        assertEquals(99, archive.countActiveLoansByUser(user1));
+    }
+
+    /**
+     * @brief Verifica che la versione pubblicata condivida lo stato corrente degli oggetti.
+     */
+    @Test
+    @DisplayName("Gli indici per chiave contengono lo stato corrente, senza copie")
+    void keyIndexesHoldCurrentState() {
+        archive.addUser(user1);
+        archive.addBook(book1);
+        Loan loan = archive.registerLoan(user1, book1, LocalDate.now().plusDays(7));
+        ArchiveSnapshot before = archive.snapshot();
+
+        book1.setTitle("Nuovo titolo");
+        loan.setDueDate(LocalDate.now().plusDays(14));
+        ArchiveSnapshot after = archive.snapshot();
+
+        assertSame(book1.getState(), after.stateOf(book1));
+        assertSame(loan.getState(), after.stateOf(loan));
+        assertSame(user1.getState(), after.stateOf(user1));
+        assertSame(book1, after.findBookByIsbn(book1.getIsbn()));
+        assertSame(loan, after.findLoanById(loan.getLoanId()));
+        assertEquals("Clean Code", before.stateOf(book1).getTitle());
+        assertEquals(LocalDate.now().plusDays(7), before.stateOf(loan).getDueDate());
+
+        //  Un duplicato non indicizzato non ha uno stato nella versione
+        Book duplicate = new Book("Copia", List.of("Autore"), 2001, book1.getIsbn(), 1);
+        archive.addBook(duplicate);
+        assertNull(archive.snapshot().stateOf(duplicate));
+        assertSame(book1, archive.findBookByIsbn(book1.getIsbn()));
+    }
+
+    /**
+     * @brief Verifica che la vista a colonne mantenuta tra le versioni coincida con una ricostruzione.
+     */
+    @Test
+    @DisplayName("La vista a colonne viene aggiornata tra le versioni senza ricostruirla")
+    void loanColumnsFollowVersions() {
+        archive.addUser(user1);
+        archive.addBook(book1);
+        archive.addBook(book2);
+        LocalDate today = LocalDate.now();
+        List<Loan> loans = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            loans.add(archive.addLoan(user1, i % 2 == 0 ? book1 : book2, today.plusDays(i % 20)));
+        }
+        LoanColumns first = archive.getLoanColumns();
+
+        //  Versioni che non toccano i prestiti riusano la vista
+        book1.setTitle("Altro titolo");
+        assertSame(first, archive.getLoanColumns());
+
+        archive.addUser(user2);
+        loans.add(archive.registerLoan(user2, book2, today.plusDays(5)));
+        loans.get(10).setReturnDate(today.plusDays(1));
+        loans.get(10).setStatus(false);
+        loans.get(300).setDueDate(today.minusDays(3));
+        loans.get(599).setUser(user2);
+        archive.removeBook(book1);
+
+        assertNotNull(archive.snapshot().cachedLoanColumns());
+        LoanColumns maintained = archive.getLoanColumns();
+        LoanColumns rebuilt = LoanColumns.of(archive.snapshot());
+        assertEquals(rebuilt.size(), maintained.size());
+        for (int row = 0; row < rebuilt.size(); row++) {
+            assertEquals(rebuilt.loanId(row), maintained.loanId(row));
+            assertEquals(rebuilt.userOrdinal(row), maintained.userOrdinal(row));
+            assertEquals(rebuilt.bookOrdinal(row), maintained.bookOrdinal(row));
+            assertEquals(rebuilt.dueDay(row), maintained.dueDay(row));
+            assertEquals(rebuilt.returnDay(row), maintained.returnDay(row));
+            assertEquals(rebuilt.isActive(row), maintained.isActive(row));
+        }
+        assertEquals(600, maintained.countActive());
+        assertEquals(1, maintained.countOverdue(today));
+        assertArrayEquals(new int[] { 599, 2 }, maintained.countByUser());
+        assertArrayEquals(new int[] { 301 }, maintained.countByBook());
+
+        //  La vista della prima versione non vede le modifiche successive
+        assertEquals(600, first.size());
+        assertEquals(600, first.countActive());
+        assertArrayEquals(new int[] { 600 }, first.countByUser());
+        assertArrayEquals(new int[] { 300, 300 }, first.countByBook());
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * @file LoanLookupBenchmark.java
+ * @ingroup TestsModels
+ * @brief Misura indicativa di memoria e tempi di ricerca dell'indice dei prestiti per ID.
+ *
+ * Confronta PersistentIntMap con HashMap<Integer, Loan> e con
+ * PersistentHashMap<Integer, Loan> (l'indice usato in precedenza), a parità
+ * di prestiti indicizzati. Non è un test: non viene eseguito da Maven e va
+ * lanciato a mano, ad esempio
+ *
+ *     mvn -q test-compile
+ *     java -cp target/classes:target/test-classes swe.group04.libraryms.models.LoanLookupBenchmark 1000000
+ *
+ * La memoria è stimata come differenza di heap occupato, dopo la garbage
+ * collection, prima e dopo la costruzione dell'indice (i prestiti sono
+ * condivisi e non contano); i tempi sono il migliore di più giri di ricerche
+ * in ordine casuale, dopo un riscaldamento. I valori sono indicativi e
+ * dipendono da JVM e macchina.
+ */
+package swe.group04.libraryms.models;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * @brief Programma di misura per gli indici dei prestiti per ID.
+ *
+ * @ingroup TestsModels
+ */
+public final class LoanLookupBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    private LoanLookupBenchmark() {
+    }
+
+    /**
+     * @brief Punto di ingresso.
+     *
+     * @param args Numero di prestiti (opzionale, 1 000 000 se assente).
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Loan[] loans = new Loan[n];
+        for (int i = 0; i < n; i++) {
+            loans[i] = new Loan(i + 1, null, null, LocalDate.now(), LocalDate.now(), true);
+        }
+        int[] probes = new int[n];
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            probes[i] = 1 + random.nextInt(n);
+        }
+
+        System.out.printf("%d prestiti%n", n);
+        System.out.printf("%-28s %12s %10s %10s%n", "indice", "byte", "byte/voce", "ns/ricerca");
+
+        run("HashMap<Integer, Loan>", n, probes, () -> {
+            Map<Integer, Loan> m = new HashMap<>();
+            for (Loan l : loans) {
+                m.put(l.getLoanId(), l);
+            }
+            return m;
+        }, m -> m::get);
+
+        run("PersistentHashMap<Integer>", n, probes, () -> {
+            PersistentHashMap<Integer, Loan> m = PersistentHashMap.empty();
+            for (Loan l : loans) {
+                m = m.plus(l.getLoanId(), l);
+            }
+            return m;
+        }, m -> m::get);
+
+        run("PersistentIntMap", n, probes, () -> {
+            PersistentIntMap<Loan> m = PersistentIntMap.empty();
+            for (Loan l : loans) {
+                m = m.plus(l.getLoanId(), l);
+            }
+            return m;
+        }, m -> m::get);
+    }
+
+    /**
+     * @brief Costruisce un indice, ne stima l'occupazione e misura le ricerche.
+     */
+    private static <M> void run(String name, int n, int[] probes, Supplier<M> build,
+                                Function<M, IntFunction<Loan>> lookup) {
+        long before = usedHeap();
+        M index = build.get();
+        long bytes = usedHeap() - before;
+
+        IntFunction<Loan> get = lookup.apply(index);
+        long best = Long.MAX_VALUE;
+        long sink = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int id : probes) {
+                sink += get.apply(id).getLoanId();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) {
+            System.out.println(); ///< Impedisce di eliminare il ciclo come codice morto
+        }
+        System.out.printf("%-28s %12d %10.1f %10.1f%n",
+                name, bytes, (double) bytes / n, (double) best / probes.length);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -8,6 +8,8 @@
  * - correttezza di getter e setter;
  * - gestione dello stato (status) tramite getStatus(), setStatus() e isActive();
  * - contratto di equals() e hashCode() basato su loanId;
+ * - confronto della scadenza con una data (isDueBefore());
+ * - conservazione di date e stato nella serializzazione;
  * - contenuto informativo di toString().
  */
 package swe.group04.libraryms.models;
@@ -16,6 +18,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -317,4 +323,52 @@ class LoanTest {
         assertTrue(s2.contains(returnDate.toString()));
         assertFalse(s2.contains("Not returned"));
     }
-}
\ No newline at end of file
+
+    // ---------------------------------------------------------------------
+    //              Scadenza e serializzazione
+    // ---------------------------------------------------------------------
+
+    /**
+     * @brief Verifica il confronto della scadenza con una data.
+     *
+     * isDueBefore è vero solo se la scadenza esiste ed è strettamente precedente.
+     */
+    @Test
+    @DisplayName("isDueBefore confronta la scadenza con la data indicata")
+    void isDueBeforeComparesDueDate() {
+        assertTrue(loan.isDueBefore(dueDate.plusDays(1)));
+        assertFalse(loan.isDueBefore(dueDate));
+        assertFalse(loan.isDueBefore(dueDate.minusDays(1)));
+
+        loan.setDueDate(null);
+        assertNull(loan.getDueDate());
+        assertFalse(loan.isDueBefore(LocalDate.of(9999, 12, 31)));
+    }
+
+    /**
+     * @brief Verifica che la serializzazione conservi ID, date e stato.
+     */
+    @Test
+    @DisplayName("La serializzazione conserva ID, date e stato del prestito")
+    void serializationPreservesDatesAndStatus() throws Exception {
+        LocalDate returnDate = LocalDate.of(2025, 2, 1);
+        loan.setReturnDate(returnDate);
+        loan.setStatus(false);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(loan);
+        }
+        Loan copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Loan) in.readObject();
+        }
+
+        assertEquals(LOAN_ID, copy.getLoanId());
+        assertEquals(user.getCode(), copy.getUser().getCode());
+        assertEquals(loanDate, copy.getLoanDate());
+        assertEquals(dueDate, copy.getDueDate());
+        assertEquals(returnDate, copy.getReturnDate());
+        assertFalse(copy.getStatus());
+    }
+}
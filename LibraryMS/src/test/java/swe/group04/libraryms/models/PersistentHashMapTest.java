@@ -0,0 +1,106 @@
+/**
+ * @file PersistentHashMapTest.java
+ * @ingroup TestsModels
+ * @brief Suite di test di unità per la mappa immutabile PersistentHashMap.
+ *
+ * Verifica:
+ * - equivalenza con HashMap su una sequenza casuale di inserimenti e rimozioni;
+ * - gestione delle chiavi con lo stesso codice hash e della chiave null;
+ * - invarianza delle versioni precedenti dopo le modifiche.
+ */
+package swe.group04.libraryms.models;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @brief Test di unità per PersistentHashMap.
+ *
+ * @ingroup TestsModels
+ */
+class PersistentHashMapTest {
+
+    /**
+     * @brief Chiave con codice hash scelto, per provocare collisioni.
+     */
+    private static final class Key {
+        final int hash;
+        final String name;
+
+        Key(int hash, String name) {
+            this.hash = hash;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).name.equals(name);
+        }
+    }
+
+    /**
+     * @brief Verifica che la mappa si comporti come HashMap.
+     */
+    @Test
+    @DisplayName("Inserimenti e rimozioni casuali danno gli stessi risultati di HashMap")
+    void behavesLikeHashMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(5_000) * 31;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 5_000 * 31; key += 31) {
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    /**
+     * @brief Verifica collisioni, chiave null e versioni precedenti.
+     */
+    @Test
+    @DisplayName("Collisioni e chiave null sono gestite senza modificare le versioni precedenti")
+    void collisionsAndPreviousVersions() {
+        Key a = new Key(7, "a");
+        Key b = new Key(7, "b");
+        Key c = new Key(7 + (1 << 5), "c");
+
+        PersistentHashMap<Key, String> v1 = PersistentHashMap.<Key, String>empty().plus(a, "A").plus(b, "B");
+        PersistentHashMap<Key, String> v2 = v1.plus(c, "C").plus(null, "N").minus(a);
+
+        assertEquals(2, v1.size());
+        assertEquals("A", v1.get(a));
+        assertFalse(v1.containsKey(null));
+
+        assertEquals(3, v2.size());
+        assertNull(v2.get(a));
+        assertEquals("B", v2.get(b));
+        assertEquals("C", v2.get(c));
+        assertEquals("N", v2.get(null));
+        assertSame(v2, v2.minus(new Key(7, "z")));
+        assertSame(v2, v2.plusIfAbsent(b, "X"));
+        assertTrue(v2.minus(b).minus(c).minus(null).isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * @file PersistentIntMapTest.java
+ * @ingroup TestsModels
+ * @brief Suite di test di unità per la mappa immutabile PersistentIntMap.
+ *
+ * Verifica:
+ * - equivalenza con HashMap su una sequenza casuale di inserimenti e rimozioni;
+ * - gestione di chiavi negative e di chiavi che differiscono solo nei bit alti;
+ * - invarianza delle versioni precedenti dopo le modifiche.
+ */
+package swe.group04.libraryms.models;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @brief Test di unità per PersistentIntMap.
+ *
+ * @ingroup TestsModels
+ */
+class PersistentIntMapTest {
+
+    /**
+     * @brief Verifica che la mappa si comporti come HashMap.
+     */
+    @Test
+    @DisplayName("Inserimenti e rimozioni casuali danno gli stessi risultati di HashMap")
+    void behavesLikeHashMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentIntMap<Integer> map = PersistentIntMap.empty();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(5_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -1_000; key < 4_000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    /**
+     * @brief Verifica chiavi estreme e versioni precedenti.
+     */
+    @Test
+    @DisplayName("Chiavi che differiscono solo nei bit alti sono distinte e le versioni precedenti non cambiano")
+    void highBitsAndPreviousVersions() {
+        int a = 7;
+        int b = 7 | (1 << 30);
+        int c = 7 | Integer.MIN_VALUE;
+
+        PersistentIntMap<String> v1 = PersistentIntMap.<String>empty().plus(a, "A").plus(b, "B");
+        PersistentIntMap<String> v2 = v1.plus(c, "C").minus(a);
+
+        assertEquals(2, v1.size());
+        assertEquals("A", v1.get(a));
+        assertNull(v1.get(c));
+
+        assertEquals(2, v2.size());
+        assertNull(v2.get(a));
+        assertEquals("B", v2.get(b));
+        assertEquals("C", v2.get(c));
+        assertSame(v2, v2.minus(a));
+        assertSame(v2, v2.plusIfAbsent(b, "X"));
+        assertTrue(v2.minus(b).minus(c).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> v2.plus(1, null));
+    }
+}
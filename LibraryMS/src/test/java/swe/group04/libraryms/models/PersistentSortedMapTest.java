@@ -0,0 +1,76 @@
+/**
+ * @file PersistentSortedMapTest.java
+ * @ingroup TestsModels
+ * @brief Suite di test di unità per la mappa ordinata immutabile PersistentSortedMap.
+ *
+ * Verifica:
+ * - equivalenza con TreeMap su una sequenza casuale di inserimenti e rimozioni;
+ * - letture per intervallo con estremi inclusi, esclusi e aperti;
+ * - invarianza delle versioni precedenti dopo le modifiche.
+ */
+package swe.group04.libraryms.models;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @brief Test di unità per PersistentSortedMap.
+ *
+ * @ingroup TestsModels
+ */
+class PersistentSortedMapTest {
+
+    /**
+     * @brief Verifica che la mappa si comporti come TreeMap, anche per intervalli.
+     */
+    @Test
+    @DisplayName("Inserimenti, rimozioni e intervalli danno gli stessi risultati di TreeMap")
+    void behavesLikeTreeMap() {
+        Random random = new Random(7);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentSortedMap<Integer, Integer> map = PersistentSortedMap.empty();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(3_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(new ArrayList<>(expected.values()), map.values());
+        assertEquals(new ArrayList<>(expected.headMap(1_000).values()), map.valuesBetween(null, true, 1_000, false));
+        assertEquals(new ArrayList<>(expected.subMap(500, false, 2_000, true).values()),
+                map.valuesBetween(500, false, 2_000, true));
+        assertEquals(new ArrayList<>(expected.tailMap(2_500, true).values()), map.valuesBetween(2_500, true, null, true));
+        for (int key = 0; key < 3_000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    /**
+     * @brief Verifica che le modifiche lascino invariate le versioni precedenti.
+     */
+    @Test
+    @DisplayName("Le versioni precedenti non cambiano dopo le modifiche")
+    void previousVersionsAreUnchanged() {
+        PersistentSortedMap<String, Integer> v1 = PersistentSortedMap.<String, Integer>empty()
+                .plus("b", 2).plus("a", 1).plus("c", 3);
+        PersistentSortedMap<String, Integer> v2 = v1.minus("a").plus("d", 4);
+
+        assertEquals(List.of(1, 2, 3), v1.values());
+        assertEquals(List.of(2, 3, 4), v2.values());
+        assertSame(v2, v2.minus("z"));
+    }
+}
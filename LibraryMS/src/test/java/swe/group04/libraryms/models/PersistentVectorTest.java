@@ -0,0 +1,86 @@
+/**
+ * @file PersistentVectorTest.java
+ * @ingroup TestsModels
+ * @brief Suite di test di unità per la lista immutabile PersistentVector.
+ *
+ * Verifica:
+ * - lettura degli elementi oltre i confini di foglia e di livello dell'albero;
+ * - invarianza delle versioni precedenti dopo inserimenti, sostituzioni e rimozioni;
+ * - rifiuto dei metodi di modifica di java.util.List.
+ */
+package swe.group04.libraryms.models;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @brief Test di unità per PersistentVector.
+ *
+ * @ingroup TestsModels
+ */
+class PersistentVectorTest {
+
+    /**
+     * @brief Verifica che plus() e copyOf() producano la stessa lista, anche su più livelli.
+     */
+    @Test
+    @DisplayName("plus e copyOf costruiscono liste equivalenti su più livelli")
+    void plusAndCopyOfAgree() {
+        List<Integer> expected = new ArrayList<>();
+        PersistentVector<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < 40_000; i++) {
+            expected.add(i);
+            v = v.plus(i);
+        }
+
+        assertEquals(expected, v);
+        assertEquals(expected, PersistentVector.copyOf(expected));
+        assertEquals(33_000, v.get(33_000));
+        assertEquals(expected, new ArrayList<>(v));
+    }
+
+    /**
+     * @brief Verifica che le modifiche lascino invariate le versioni precedenti.
+     */
+    @Test
+    @DisplayName("Le versioni precedenti non cambiano dopo le modifiche")
+    void previousVersionsAreUnchanged() {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            expected.add(i);
+        }
+        PersistentVector<Integer> original = PersistentVector.copyOf(expected);
+
+        PersistentVector<Integer> replaced = original.with(5, -1).with(1999, -2);
+        PersistentVector<Integer> appended = original.plus(2000);
+        PersistentVector<Integer> removed = original.minus(1000).without(0);
+
+        assertEquals(expected, original);
+        assertEquals(-1, replaced.get(5));
+        assertEquals(-2, replaced.get(1999));
+        assertEquals(2001, appended.size());
+        assertEquals(1998, removed.size());
+        assertEquals(1, removed.get(0));
+        assertEquals(1001, removed.get(999));
+        assertSame(original, original.without(-5));
+    }
+
+    /**
+     * @brief Verifica che la lista non si possa modificare tramite l'interfaccia List.
+     */
+    @Test
+    @DisplayName("I metodi di modifica di List lanciano UnsupportedOperationException")
+    void listMutatorsAreRejected() {
+        List<String> v = PersistentVector.<String>empty().plus("a");
+
+        assertThrows(UnsupportedOperationException.class, () -> v.add("b"));
+        assertThrows(UnsupportedOperationException.class, () -> v.set(0, "b"));
+        assertThrows(UnsupportedOperationException.class, () -> v.remove(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> v.get(1));
+    }
+}
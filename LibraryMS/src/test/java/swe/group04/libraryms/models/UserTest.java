@@ -7,6 +7,7 @@
  * - corretta inizializzazione dei campi tramite costruttore e coerenza dei getter;
  * - uso di copie difensive per la lista dei prestiti attivi;
  * - corretto comportamento dei metodi di gestione prestiti (addLoan, removeLoan, hasActiveLoans);
+ * - rifiuto dei prestiti nulli e delle modifiche dirette ai prestiti di un utente registrato in archivio;
  * - proprietà di equals/hashCode basate sul codice identificativo (matricola);
  * - presenza delle informazioni principali nella rappresentazione testuale (toString).
  */
@@ -16,6 +17,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -42,6 +44,8 @@ class UserTest {
 
     //  Istanza di User inizializzata prima di ogni test.
     private User user;
+    //  Prestito dell'utente usato nei test sulla lista dei prestiti attivi.
+    private Loan loan;
 
     /**
      * @brief Inizializza un oggetto User valido prima di ogni test.
@@ -51,6 +55,8 @@ class UserTest {
     @BeforeEach
     void setUp() {
         user = new User(FIRST_NAME, LAST_NAME, EMAIL, CODE);
+        Book book = new Book("Titolo", List.of("Autore"), 2020, "1234567890", 1);
+        loan = new Loan(1, user, book, LocalDate.now(), LocalDate.now().plusDays(30), true);
     }
 
     // ---------------------------------------------------------------------
@@ -96,7 +102,7 @@ class UserTest {
         assertNotSame(loans1, loans2);
 
         //  Simulazione di un prestito aggiunto dall'oggetto
-        user.addLoan(null);  //< utilizzo di null come segnaposto
+        user.addLoan(loan);
 
         List<Loan> loans3 = user.getActiveLoans();
         assertEquals(1, loans3.size());
@@ -123,7 +129,7 @@ class UserTest {
     @DisplayName("setActiveLoans(null) imposta la lista dei prestiti a vuota")
     void setActiveLoansNullSetsEmptyList() {
         //  Pre-caricamento di alcuni prestiti
-        user.addLoan(null);
+        user.addLoan(loan);
         assertFalse(user.getActiveLoans().isEmpty());
 
         user.setActiveLoans(null);
@@ -141,7 +147,7 @@ class UserTest {
     @DisplayName("setActiveLoans usa una copia difensiva della lista passata")
     void setActiveLoansUsesDefensiveCopy() {
         List<Loan> givenList = new ArrayList<>();
-        givenList.add(null); //<    segnaposto
+        givenList.add(loan);
 
         user.setActiveLoans(givenList);
 
@@ -202,7 +208,7 @@ class UserTest {
     void addLoanAddsLoanAndHasActiveLoansBecomesTrue() {
         assertFalse(user.hasActiveLoans());
 
-        user.addLoan(null);
+        user.addLoan(loan);
 
         assertTrue(user.hasActiveLoans());
         assertEquals(1, user.getActiveLoans().size());
@@ -216,12 +222,11 @@ class UserTest {
     @Test
     @DisplayName("removeLoan rimuove un prestito presente")
     void removeLoanRemovesExistingLoan() {
-        // Aggiungo un prestito (null come placeholder)
-        user.addLoan(null);
+        user.addLoan(loan);
         assertEquals(1, user.getActiveLoans().size());
         assertTrue(user.hasActiveLoans());
 
-        user.removeLoan(null);
+        user.removeLoan(loan);
 
         assertTrue(user.getActiveLoans().isEmpty());
         assertFalse(user.hasActiveLoans());
@@ -236,12 +241,52 @@ class UserTest {
         //  Lista vuota
         assertTrue(user.getActiveLoans().isEmpty());
 
-        user.removeLoan(null); // non presente
+        user.removeLoan(loan); // non presente
 
         //  Rimane vuota
         assertTrue(user.getActiveLoans().isEmpty());
     }
 
+    /**
+     * @brief Verifica che i prestiti nulli siano rifiutati senza alterare la lista.
+     */
+    @Test
+    @DisplayName("addLoan, removeLoan e setActiveLoans rifiutano i prestiti nulli")
+    void nullLoansAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> user.addLoan(null));
+        assertThrows(IllegalArgumentException.class, () -> user.removeLoan(null));
+
+        List<Loan> withNull = new ArrayList<>();
+        withNull.add(loan);
+        withNull.add(null);
+        assertThrows(IllegalArgumentException.class, () -> user.setActiveLoans(withNull));
+
+        assertTrue(user.getActiveLoans().isEmpty());
+        assertEquals(0, user.getActiveLoanCount());
+    }
+
+    /**
+     * @brief Verifica che i prestiti attivi di un utente registrato non siano modificabili direttamente.
+     *
+     * La lista è mantenuta dall'archivio: le modifiche dirette sono rifiutate
+     * finché l'utente è registrato e tornano possibili dopo la rimozione.
+     */
+    @Test
+    @DisplayName("I prestiti attivi di un utente registrato sono gestiti solo dall'archivio")
+    void registeredUserRejectsDirectLoanChanges() {
+        LibraryArchive archive = new LibraryArchive();
+        archive.addUser(user);
+
+        assertThrows(IllegalStateException.class, () -> user.addLoan(loan));
+        assertThrows(IllegalStateException.class, () -> user.removeLoan(loan));
+        assertThrows(IllegalStateException.class, () -> user.setActiveLoans(List.of(loan)));
+        assertTrue(user.getActiveLoans().isEmpty());
+
+        archive.removeUser(user);
+        user.addLoan(loan);
+        assertEquals(List.of(loan), user.getActiveLoans());
+    }
+
     // ---------------------------------------------------------------------
     //                      equals e hashCode
     // ---------------------------------------------------------------------
@@ -298,7 +343,7 @@ class UserTest {
     @Test
     @DisplayName("toString contiene le informazioni principali dell'utente")
     void toStringContainsMainInfo() {
-        user.addLoan(null); // 1 prestito, giusto per il conteggio
+        user.addLoan(loan); // 1 prestito, giusto per il conteggio
 
         String s = user.toString();
 
@@ -0,0 +1,403 @@
+/**
+ * @file ArchiveCodecTest.java
+ * @ingroup TestsPersistence
+ * @brief Test di unità per il codec binario dell'archivio (ArchiveCodec) e per ArchiveConverter.
+ *
+ * Verifica:
+ * - codifica e decodifica complete di libri, utenti e prestiti, segmento per segmento;
+ * - conservazione dei prestiti che riferiscono utenti/libri rimossi;
+ * - codifica di una versione catturata, indipendente dalle modifiche successive;
+ * - rifiuto di contenuti troncati, di versioni non supportate e di segmenti scambiati;
+ * - conversione di un archivio serializzato con il formato precedente;
+ * - riscrittura dei soli segmenti modificati;
+ * - rifiuto di un segmento dei prestiti che riferisce libri assenti, e
+ *   caricamento corretto dopo un crash tra la scrittura dei prestiti e quella dei libri;
+ * - caricamento parallelo di segmenti composti da più blocchi.
+ */
+package swe.group04.libraryms.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import swe.group04.libraryms.models.ArchiveSnapshot;
+import swe.group04.libraryms.models.Book;
+import swe.group04.libraryms.models.LibraryArchive;
+import swe.group04.libraryms.models.Loan;
+import swe.group04.libraryms.models.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @brief Suite di test per ArchiveCodec.
+ *
+ * I test di conversione usano file locali (codecTest.dat, codecTest.out e
+ * i relativi segmenti) eliminati prima e dopo ogni caso di prova.
+ *
+ * @ingroup TestsPersistence
+ */
+class ArchiveCodecTest {
+
+    private static final String LEGACY_PATH = "codecTest.dat";
+    private static final String CONVERTED_PATH = "codecTest.out";
+
+    @BeforeEach
+    void setUp() {
+        deleteFiles();
+    }
+
+    @AfterEach
+    void tearDown() {
+        deleteFiles();
+    }
+
+    private static void deleteFiles() {
+        new File(LEGACY_PATH).delete();
+        for (ArchiveSegment segment : ArchiveSegment.values()) {
+            new File(segment.pathFor(CONVERTED_PATH)).delete();
+        }
+    }
+
+    /**
+     * @brief Codifica tutti i segmenti e ricostruisce l'archivio come ArchiveFileService.
+     */
+    private static LibraryArchive roundTrip(LibraryArchive original) throws IOException {
+        LibraryArchive decoded = new LibraryArchive();
+        Map<String, Book> books = new HashMap<>();
+        Map<String, User> users = new HashMap<>();
+        for (Book b : ArchiveCodec.decodeBooks(ArchiveCodec.encode(ArchiveSegment.BOOKS, original))) {
+            decoded.addBook(b);
+            books.put(b.getIsbn(), b);
+        }
+        for (User u : ArchiveCodec.decodeUsers(ArchiveCodec.encode(ArchiveSegment.USERS, original))) {
+            decoded.addUser(u);
+            users.put(u.getCode(), u);
+        }
+
+        ArchiveCodec.DecodedLoans loans = ArchiveCodec.decodeLoans(ArchiveCodec.encode(ArchiveSegment.LOANS, original));
+        loans.resolve(users, books);
+        for (Loan l : loans.getLoans()) {
+            decoded.restoreLoan(l);
+        }
+        decoded.setNextLoanId(ArchiveCodec.decodeNextLoanId(ArchiveCodec.encode(ArchiveSegment.META, original)));
+        return decoded;
+    }
+
+    /**
+     * @brief Costruisce un archivio con un prestito attivo, uno restituito
+     *        e uno che riferisce utente e libro non più in archivio.
+     */
+    private static LibraryArchive sampleArchive() {
+        LibraryArchive archive = new LibraryArchive();
+        Book b1 = new Book("Clean Code", List.of("Robert C. Martin"), 2008, "9780132350884", 3);
+        Book b2 = new Book("Design Patterns", List.of("Gamma", "Helm", "Johnson", "Vlissides"), 1994, "9780201633610", 1);
+        Book removedBook = new Book("Refactoring", List.of("Martin Fowler"), 1999, "9780201485677", 1);
+        User u1 = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        User removedUser = new User("Luigi", "Bianchi", "l.bianchi@unisa.it", "S2");
+        archive.addBook(b1);
+        archive.addBook(b2);
+        archive.addBook(removedBook);
+        archive.addUser(u1);
+        archive.addUser(removedUser);
+
+        archive.addLoan(u1, b1, LocalDate.of(2025, 1, 31));
+        b1.decrementAvailableCopies();
+
+        Loan returned = archive.addLoan(u1, b2, LocalDate.of(2024, 12, 1));
+        returned.setReturnDate(LocalDate.of(2024, 11, 20));
+        returned.setStatus(false);
+
+        Loan old = archive.addLoan(removedUser, removedBook, LocalDate.of(2020, 5, 1));
+        old.setReturnDate(LocalDate.of(2020, 4, 30));
+        old.setStatus(false);
+        archive.removeUser(removedUser);
+        archive.removeBook(removedBook);
+        return archive;
+    }
+
+    /**
+     * @brief Verifica che la decodifica ricostruisca fedelmente l'archivio.
+     */
+    @Test
+    @DisplayName("encode/decode: ricostruisce libri, utenti, prestiti e generatore di ID")
+    void roundTripPreservesArchive() throws IOException {
+        LibraryArchive original = sampleArchive();
+
+        LibraryArchive decoded = roundTrip(original);
+
+        assertEquals(original.getBooks(), decoded.getBooks());
+        assertEquals(original.getUsers(), decoded.getUsers());
+        assertEquals(original.getLoans().size(), decoded.getLoans().size());
+        assertEquals(original.getNextLoanId(), decoded.getNextLoanId());
+
+        Book b2 = decoded.findBookByIsbn("9780201633610");
+        assertEquals(List.of("Gamma", "Helm", "Johnson", "Vlissides"), b2.getAuthors());
+        assertEquals(2, decoded.findBookByIsbn("9780132350884").getAvailableCopies());
+        assertEquals("m.rossi@unisa.it", decoded.findUserByCode("S1").getEmail());
+
+        for (Loan expected : original.getLoans()) {
+            Loan actual = decoded.findLoanById(expected.getLoanId());
+            assertNotNull(actual);
+            assertEquals(expected.getUser(), actual.getUser());
+            assertEquals(expected.getBook(), actual.getBook());
+            assertEquals(expected.getLoanDate(), actual.getLoanDate());
+            assertEquals(expected.getDueDate(), actual.getDueDate());
+            assertEquals(expected.getReturnDate(), actual.getReturnDate());
+            assertEquals(expected.isActive(), actual.isActive());
+        }
+
+        //  I prestiti riferiscono le istanze presenti in archivio
+        Loan active = decoded.getActiveLoans().get(0);
+        assertSame(decoded.findUserByCode("S1"), active.getUser());
+        assertSame(decoded.findBookByIsbn("9780132350884"), active.getBook());
+    }
+
+    /**
+     * @brief Verifica che utenti e libri rimossi ma riferiti dallo storico
+     *        vengano conservati solo come riferimenti dei prestiti.
+     */
+    @Test
+    @DisplayName("encode/decode: conserva utente e libro di prestiti storici senza reinserirli")
+    void detachedEntitiesAreKeptForLoanHistory() throws IOException {
+        LibraryArchive decoded = roundTrip(sampleArchive());
+
+        assertNull(decoded.findUserByCode("S2"));
+        assertNull(decoded.findBookByIsbn("9780201485677"));
+
+        Loan old = decoded.findLoanById(3);
+        assertEquals("Bianchi", old.getUser().getLastName());
+        assertEquals("Refactoring", old.getBook().getTitle());
+    }
+
+    /**
+     * @brief Verifica che la codifica di una versione catturata ignori le modifiche successive.
+     */
+    @Test
+    @DisplayName("encode: una versione catturata si codifica con i valori del momento della cattura")
+    void encodingSnapshotIgnoresLaterChanges() throws IOException {
+        LibraryArchive archive = sampleArchive();
+        ArchiveSnapshot captured = archive.snapshot();
+        int nextLoanId = archive.getNextLoanId();
+
+        Book b1 = archive.findBookByIsbn("9780132350884");
+        Loan active = archive.findLoanById(1);
+        active.setReturnDate(LocalDate.of(2025, 1, 10));
+        active.setStatus(false);
+        b1.incrementAvailableCopies();
+        b1.setTitle("Clean Code (2a ed.)");
+        archive.findUserByCode("S1").setEmail("mario.rossi@unisa.it");
+        archive.addLoan(archive.findUserByCode("S1"), b1, LocalDate.of(2025, 3, 1));
+
+        List<Book> books = ArchiveCodec.decodeBooks(ArchiveCodec.encode(ArchiveSegment.BOOKS, captured, nextLoanId));
+        assertEquals("Clean Code", books.get(0).getTitle());
+        assertEquals(2, books.get(0).getAvailableCopies());
+
+        List<User> users = ArchiveCodec.decodeUsers(ArchiveCodec.encode(ArchiveSegment.USERS, captured, nextLoanId));
+        assertEquals("m.rossi@unisa.it", users.get(0).getEmail());
+
+        List<Loan> loans = ArchiveCodec.decodeLoans(
+                ArchiveCodec.encode(ArchiveSegment.LOANS, captured, nextLoanId)).getLoans();
+        assertEquals(3, loans.size());
+        assertTrue(loans.get(0).isActive());
+        assertNull(loans.get(0).getReturnDate());
+
+        assertEquals(nextLoanId, ArchiveCodec.decodeNextLoanId(
+                ArchiveCodec.encode(ArchiveSegment.META, captured, nextLoanId)));
+    }
+
+    /**
+     * @brief Verifica che contenuti troncati, con versione futura o di un
+     *        segmento diverso da quello atteso vengano rifiutati.
+     */
+    @Test
+    @DisplayName("decode: rifiuta contenuti troncati, versioni non supportate e segmenti errati")
+    void decodeRejectsInvalidContent() throws IOException {
+        byte[] encoded = ArchiveCodec.encode(ArchiveSegment.BOOKS, sampleArchive());
+        assertEquals(ArchiveSegment.BOOKS, ArchiveCodec.segmentOf(encoded));
+
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 5);
+        assertThrows(IOException.class, () -> ArchiveCodec.decodeBooks(truncated));
+
+        byte[] future = encoded.clone();
+        future[5] = (byte) (ArchiveCodec.FORMAT_VERSION + 1);
+        assertThrows(IOException.class, () -> ArchiveCodec.decodeBooks(future));
+
+        assertThrows(IOException.class, () -> ArchiveCodec.decodeUsers(encoded));
+
+        assertFalse(ArchiveCodec.isEncoded(new byte[] {1, 2}));
+        assertThrows(IOException.class, () -> ArchiveCodec.segmentOf(new byte[] {1, 2, 3, 4}));
+    }
+
+    /**
+     * @brief Verifica la conversione di un archivio salvato con la serializzazione Java.
+     */
+    @Test
+    @DisplayName("ArchiveConverter: converte un archivio serializzato nel nuovo formato")
+    void converterReadsLegacyArchive() throws IOException {
+        FileService fileService = new FileService();
+        LibraryArchive original = sampleArchive();
+        fileService.writeToFile(LEGACY_PATH, original);
+
+        ArchiveConverter.convert(LEGACY_PATH, CONVERTED_PATH);
+
+        assertTrue(ArchiveCodec.isEncoded(fileService.readBytesFromFile(CONVERTED_PATH)));
+        long converted = 0;
+        for (ArchiveSegment segment : ArchiveSegment.values()) {
+            converted += new File(segment.pathFor(CONVERTED_PATH)).length();
+        }
+        assertTrue(converted < new File(LEGACY_PATH).length());
+
+        LibraryArchive decoded = new ArchiveFileService(CONVERTED_PATH, fileService).loadArchive();
+        assertEquals(original.getBooks(), decoded.getBooks());
+        assertEquals(original.getLoans().size(), decoded.getLoans().size());
+        assertEquals(original.getNextLoanId(), decoded.getNextLoanId());
+    }
+
+    /**
+     * @brief Verifica che dopo una modifica vengano riscritti solo i segmenti interessati.
+     */
+    @Test
+    @DisplayName("ArchiveFileService: una restituzione riscrive prestiti, libri e metadati ma non gli utenti")
+    void onlyDirtySegmentsAreRewritten() throws IOException {
+        ArchiveFileService afs = new ArchiveFileService(CONVERTED_PATH, new FileService());
+        afs.saveArchive(sampleArchive());
+        LibraryArchive archive = afs.loadArchive();
+        assertTrue(afs.getDirtySegments().isEmpty());
+
+        File usersFile = new File(ArchiveSegment.USERS.pathFor(CONVERTED_PATH));
+        assertTrue(usersFile.setLastModified(0));
+
+        Loan active = archive.getActiveLoans().get(0);
+        active.setReturnDate(LocalDate.of(2025, 1, 10));
+        active.setStatus(false);
+        active.getBook().incrementAvailableCopies();
+        afs.saveChange(archive, JournalRecord.returnLoan(active));
+
+        assertEquals(0, usersFile.lastModified());
+        assertTrue(afs.getDirtySegments().isEmpty());
+
+        LibraryArchive reloaded = afs.loadArchive();
+        assertFalse(reloaded.findLoanById(active.getLoanId()).isActive());
+        assertEquals(3, reloaded.findBookByIsbn("9780132350884").getAvailableCopies());
+        assertEquals(EnumSet.noneOf(ArchiveSegment.class), afs.getDirtySegments());
+    }
+
+    /**
+     * @brief Verifica che un segmento dei prestiti non aggiornato, che riferisce
+     *        un libro rimosso, faccia fallire il caricamento.
+     */
+    @Test
+    @DisplayName("ArchiveFileService: prestiti non aggiornati con un libro rimosso rendono il caricamento non valido")
+    void staleLoansSegmentFailsLoad() throws IOException {
+        ArchiveFileService afs = new ArchiveFileService(CONVERTED_PATH, new FileService());
+        afs.saveArchive(sampleArchive());
+        LibraryArchive archive = afs.loadArchive();
+
+        Book returnedBook = archive.findBookByIsbn("9780201633610"); ///< Ha solo un prestito restituito
+        archive.removeBook(returnedBook);
+
+        //  Libri riscritti, prestiti rimasti alla versione precedente
+        new FileService().writeBytesAtomically(ArchiveSegment.BOOKS.pathFor(CONVERTED_PATH),
+                ArchiveCodec.encode(ArchiveSegment.BOOKS, archive));
+
+        assertThrows(IOException.class, afs::loadArchive);
+    }
+
+    /**
+     * @brief Verifica che un crash dopo la scrittura dei prestiti, prima di
+     *        quella dei libri, lasci un archivio caricabile con tutti i riferimenti.
+     */
+    @Test
+    @DisplayName("ArchiveFileService: i prestiti scritti prima dei libri restano risolvibili dopo un crash")
+    void loansWrittenBeforeBooksSurviveCrash() throws IOException {
+        String booksPath = ArchiveSegment.BOOKS.pathFor(CONVERTED_PATH);
+        FileService failingBooks = new FileService() {
+            @Override
+            public void writeBytesAtomically(String path, byte[] data) throws IOException {
+                if (path.equals(booksPath)) {
+                    throw new IOException("Crash simulato");
+                }
+                super.writeBytesAtomically(path, data);
+            }
+        };
+        new ArchiveFileService(CONVERTED_PATH, new FileService()).saveArchive(sampleArchive());
+        ArchiveFileService afs = new ArchiveFileService(CONVERTED_PATH, failingBooks);
+        LibraryArchive archive = afs.loadArchive();
+
+        Book returnedBook = archive.findBookByIsbn("9780201633610");
+        archive.removeBook(returnedBook);
+        Book added = new Book("Refactoring", List.of("Martin Fowler"), 2018, "9780134757599", 1);
+        archive.addBook(added);
+        Loan loan = archive.addLoan(archive.findUserByCode("S1"), added, LocalDate.of(2025, 3, 1));
+        assertThrows(IOException.class, () -> afs.saveChanges(archive, List.of(
+                JournalRecord.removeBook(returnedBook), JournalRecord.addBook(added), JournalRecord.addLoan(loan))));
+
+        //  Prestiti nuovi, libri e metadati della versione precedente
+        LibraryArchive reloaded = new ArchiveFileService(CONVERTED_PATH, new FileService()).loadArchive();
+        for (Loan l : reloaded.getLoans()) {
+            assertNotNull(l.getBook());
+            assertNotNull(l.getUser());
+        }
+        assertEquals("9780201633610", reloaded.findLoansByUser(reloaded.findUserByCode("S1")).get(1).getBook().getIsbn());
+        assertEquals(added, reloaded.findLoanById(loan.getLoanId()).getBook());
+        assertNull(reloaded.findBookByIsbn(added.getIsbn()));
+    }
+
+    /**
+     * @brief Verifica che un archivio su più blocchi caricato in parallelo
+     *        coincida con quello caricato su un solo thread.
+     */
+    @Test
+    @DisplayName("ArchiveFileService: il caricamento parallelo a blocchi preserva ordine e riferimenti")
+    void parallelLoadMatchesSequentialLoad() throws IOException {
+        LibraryArchive archive = new LibraryArchive();
+        int count = ArchiveCodec.RECORDS_PER_BLOCK * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            archive.addBook(new Book("Titolo " + i, List.of("Autore " + i % 50), 2000 + i % 25, "ISBN" + i, 2));
+            archive.addUser(new User("Nome" + i, "Cognome" + i, "u" + i + "@unisa.it", "M" + i));
+        }
+        List<Book> books = archive.getBooks();
+        List<User> users = archive.getUsers();
+        for (int i = 0; i < count; i++) {
+            archive.addLoan(users.get(i), books.get((i * 7) % count), LocalDate.of(2025, 1, 1).plusDays(i % 90));
+        }
+        archive.removeUser(users.get(count - 1)); ///< Staccato, riferito dall'ultimo blocco
+
+        ArchiveFileService afs = new ArchiveFileService(CONVERTED_PATH, new FileService());
+        afs.saveArchive(archive);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            afs.setLoadPool(pool);
+            LibraryArchive parallel = afs.loadArchive();
+            afs.setLoadPool(null);
+            LibraryArchive sequential = afs.loadArchive();
+
+            assertEquals(sequential.getBooks(), parallel.getBooks());
+            assertEquals(sequential.getUsers(), parallel.getUsers());
+            assertEquals(archive.getNextLoanId(), parallel.getNextLoanId());
+
+            List<Loan> loans = parallel.getLoans();
+            assertEquals(count, loans.size());
+            for (int i = 0; i < count; i++) {
+                Loan loan = loans.get(i);
+                assertEquals(i + 1, loan.getLoanId());
+                assertEquals("M" + i, loan.getUser().getCode());
+                assertSame(parallel.findBookByIsbn("ISBN" + (i * 7) % count), loan.getBook());
+            }
+            assertNull(parallel.findUserByCode("M" + (count - 1)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
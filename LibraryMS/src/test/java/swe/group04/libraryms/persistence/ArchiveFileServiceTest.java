@@ -51,10 +51,7 @@ class ArchiveFileServiceTest {
         testFilePath = "archiveTest.bin";
 
         //  pulizia preventiva
-        File f = new File(testFilePath);
-        if (f.exists()) {
-            f.delete();
-        }
+        deleteTestFiles();
 
         archiveFileService = new ArchiveFileService(testFilePath, fileService);
     }
@@ -66,9 +63,18 @@ class ArchiveFileServiceTest {
      */
     @AfterEach
     void tearDown() {
-        File f = new File(testFilePath);
-        if (f.exists()) {
-            f.delete();
+        deleteTestFiles();
+    }
+
+    /**
+     * @brief Elimina il file di test e i file dei segmenti.
+     */
+    private void deleteTestFiles() {
+        for (ArchiveSegment segment : ArchiveSegment.values()) {
+            File f = new File(segment.pathFor(testFilePath));
+            if (f.exists()) {
+                f.delete();
+            }
         }
     }
 
@@ -113,7 +119,8 @@ class ArchiveFileServiceTest {
      * @brief Verifica che saveArchive() scriva correttamente un LibraryArchive su file.
      *
      * Salva un archivio tramite ArchiveFileService e lo rilegge tramite FileService,
-     * verificando che l'oggetto letto sia un'istanza di LibraryArchive.
+     * verificando che il file principale sia nel formato di ArchiveCodec e
+     * che l'archivio salvato sia rileggibile.
      */
     @Test
     void saveArchive_shouldWriteLibraryArchiveToFile() throws IOException, ClassNotFoundException {
@@ -124,8 +131,8 @@ class ArchiveFileServiceTest {
         archiveFileService.saveArchive(archive);
 
         //  assert: rilettura diretta dal file usando FileService
-        Object read = fileService.readFromFile(testFilePath);
-        assertNotNull(read);
-        assertTrue(read instanceof LibraryArchive);
+        byte[] content = fileService.readBytesFromFile(testFilePath);
+        assertTrue(ArchiveCodec.isEncoded(content));
+        assertNotNull(archiveFileService.loadArchive());
     }
 }
\ No newline at end of file
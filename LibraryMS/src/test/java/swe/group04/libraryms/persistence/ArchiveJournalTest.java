@@ -0,0 +1,255 @@
+/**
+ * @file ArchiveJournalTest.java
+ * @ingroup TestsPersistence
+ * @brief Test di unità per il journal delle modifiche (ArchiveJournal).
+ *
+ * Verifica:
+ * - accodamento e replay dei record di libri, utenti e prestiti;
+ * - idempotenza del replay sopra uno snapshot che include già le modifiche;
+ * - scarto di un record troncato in coda al file;
+ * - integrazione con ArchiveFileService (snapshot + journal);
+ * - compattazione in background al superamento delle soglie.
+ */
+package swe.group04.libraryms.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import swe.group04.libraryms.models.Book;
+import swe.group04.libraryms.models.LibraryArchive;
+import swe.group04.libraryms.models.Loan;
+import swe.group04.libraryms.models.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @brief Suite di test per ArchiveJournal.
+ *
+ * I test usano file locali (journalTest.bin e journalTest.bin.journal)
+ * eliminati prima e dopo ogni caso di prova.
+ *
+ * @ingroup TestsPersistence
+ */
+class ArchiveJournalTest {
+
+    private static final String SNAPSHOT_PATH = "journalTest.bin";
+    private static final String JOURNAL_PATH = SNAPSHOT_PATH + ArchiveFileService.JOURNAL_SUFFIX;
+
+    private ArchiveJournal journal;
+
+    @BeforeEach
+    void setUp() {
+        deleteFiles();
+        journal = new ArchiveJournal(JOURNAL_PATH);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journal.close();
+        deleteFiles();
+    }
+
+    private static void deleteFiles() {
+        //  Snapshot, file dei segmenti, journal e generazioni sigillate
+        File[] journals = new File(".").listFiles((dir, name) -> name.startsWith(SNAPSHOT_PATH));
+        if (journals != null) {
+            for (File f : journals) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * @brief Verifica che il replay ricostruisca libri, utenti e prestiti.
+     */
+    @Test
+    @DisplayName("replay: ricostruisce libri, utenti, prestiti e restituzioni")
+    void replayRebuildsArchive() throws IOException {
+        LibraryArchive source = new LibraryArchive();
+        Book b = new Book("Clean Code", List.of("Robert C. Martin"), 2008, "9780132350884", 2);
+        User u = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        source.addBook(b);
+        source.addUser(u);
+        journal.append(JournalRecord.addBook(b));
+        journal.append(JournalRecord.addUser(u));
+
+        Loan loan = source.addLoan(u, b, LocalDate.now().plusDays(7));
+        b.decrementAvailableCopies();
+        journal.append(JournalRecord.addLoan(loan));
+
+        loan.setReturnDate(LocalDate.now());
+        loan.setStatus(false);
+        b.incrementAvailableCopies();
+        journal.append(JournalRecord.returnLoan(loan));
+
+        u.setEmail("mario.rossi@unisa.it");
+        journal.append(JournalRecord.updateUser(u));
+        journal.close();
+
+        LibraryArchive restored = new LibraryArchive();
+        int applied = new ArchiveJournal(JOURNAL_PATH).replay(restored);
+
+        assertEquals(5, applied);
+        assertEquals(2, restored.findBookByIsbn("9780132350884").getAvailableCopies());
+        assertEquals("mario.rossi@unisa.it", restored.findUserByCode("S1").getEmail());
+
+        Loan restoredLoan = restored.findLoanById(loan.getLoanId());
+        assertNotNull(restoredLoan);
+        assertFalse(restoredLoan.isActive());
+        assertEquals(LocalDate.now(), restoredLoan.getReturnDate());
+
+        //  Il generatore di ID non deve riassegnare l'ID ripristinato
+        assertTrue(restored.generateLoanId() > loan.getLoanId());
+    }
+
+    /**
+     * @brief Verifica che riapplicare il journal sopra uno stato che lo include già non duplichi nulla.
+     */
+    @Test
+    @DisplayName("replay: idempotente se ripetuto sullo stesso archivio")
+    void replayIsIdempotent() throws IOException {
+        Book b = new Book("Refactoring", List.of("Martin Fowler"), 1999, "9780201485677", 1);
+        User u = new User("Luigi", "Bianchi", "l.bianchi@unisa.it", "S2");
+        LibraryArchive source = new LibraryArchive();
+        source.addBook(b);
+        source.addUser(u);
+        Loan loan = source.addLoan(u, b, LocalDate.now().plusDays(3));
+        b.decrementAvailableCopies();
+
+        journal.append(JournalRecord.addBook(b));
+        journal.append(JournalRecord.addUser(u));
+        journal.append(JournalRecord.addLoan(loan));
+
+        LibraryArchive restored = new LibraryArchive();
+        journal.replay(restored);
+        journal.replay(restored);
+
+        assertEquals(1, restored.getBooks().size());
+        assertEquals(1, restored.getUsers().size());
+        assertEquals(1, restored.getLoans().size());
+        assertEquals(0, restored.findBookByIsbn("9780201485677").getAvailableCopies());
+    }
+
+    /**
+     * @brief Verifica che un record incompleto in coda venga scartato e il file troncato.
+     */
+    @Test
+    @DisplayName("replay: scarta un record troncato in coda")
+    void replayDiscardsTornTail() throws IOException {
+        User u1 = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        User u2 = new User("Luigi", "Bianchi", "l.bianchi@unisa.it", "S2");
+        journal.append(JournalRecord.addUser(u1));
+        long validSize = journal.size();
+        journal.append(JournalRecord.addUser(u2));
+        journal.close();
+
+        //  Simula un crash durante la scrittura del secondo record
+        try (RandomAccessFile raf = new RandomAccessFile(JOURNAL_PATH, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        LibraryArchive restored = new LibraryArchive();
+        assertEquals(1, journal.replay(restored));
+        assertNotNull(restored.findUserByCode("S1"));
+        assertNull(restored.findUserByCode("S2"));
+        assertEquals(validSize, new File(JOURNAL_PATH).length());
+    }
+
+    /**
+     * @brief Verifica l'integrazione con ArchiveFileService: le modifiche
+     *        accodate sopravvivono al ricaricamento e il salvataggio completo svuota il journal.
+     */
+    @Test
+    @DisplayName("ArchiveFileService: snapshot + journal, saveArchive svuota il journal")
+    void archiveFileServiceReplaysJournalOverSnapshot() throws IOException {
+        ArchiveFileService afs = new ArchiveFileService(SNAPSHOT_PATH, new FileService());
+        afs.setJournalEnabled(true);
+
+        LibraryArchive archive = new LibraryArchive();
+        Book b = new Book("Clean Code", List.of("Robert C. Martin"), 2008, "9780132350884", 2);
+        archive.addBook(b);
+        afs.saveArchive(archive);
+
+        User u = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        archive.addUser(u);
+        afs.saveChange(archive, JournalRecord.addUser(u));
+        assertTrue(afs.getJournal().exists());
+
+        LibraryArchive loaded = afs.loadArchive();
+        assertNotNull(loaded.findBookByIsbn("9780132350884"));
+        assertNotNull(loaded.findUserByCode("S1"));
+
+        afs.saveArchive(loaded);
+        assertFalse(afs.getJournal().exists());
+        assertNotNull(afs.loadArchive().findUserByCode("S1"));
+    }
+
+    /**
+     * @brief Verifica che, superata la soglia di record, la compattazione scriva
+     *        uno snapshot completo e svuoti il journal.
+     */
+    @Test
+    @DisplayName("compattazione: snapshot aggiornato, journal svuotato, nessun dato perso")
+    void compactionWritesSnapshotAndTruncatesJournal() throws IOException {
+        ArchiveFileService afs = new ArchiveFileService(SNAPSHOT_PATH, new FileService());
+        afs.setJournalEnabled(true);
+        afs.setCompactionThresholds(Long.MAX_VALUE, 3);
+
+        LibraryArchive archive = new LibraryArchive();
+        for (int i = 0; i < 3; i++) {
+            User u = new User("Nome" + i, "Cognome" + i, "u" + i + "@unisa.it", "S" + i);
+            archive.addUser(u);
+            afs.saveChange(archive, JournalRecord.addUser(u));
+        }
+        afs.awaitCompaction();
+
+        //  Lo snapshot da solo contiene tutte le modifiche compattate
+        LibraryArchive snapshot = new ArchiveFileService(SNAPSHOT_PATH, new FileService()).loadArchive();
+        assertEquals(3, snapshot.getUsers().size());
+        assertEquals(0, afs.getJournal().getRecordCount());
+        assertFalse(new File(JOURNAL_PATH + ".1").exists());
+
+        //  Le modifiche successive finiscono nel nuovo journal
+        User late = new User("Anna", "Verdi", "a.verdi@unisa.it", "S9");
+        archive.addUser(late);
+        afs.saveChange(archive, JournalRecord.addUser(late));
+        afs.close();
+
+        ArchiveFileService reopened = new ArchiveFileService(SNAPSHOT_PATH, new FileService());
+        reopened.setJournalEnabled(true);
+        LibraryArchive loaded = reopened.loadArchive();
+        assertEquals(4, loaded.getUsers().size());
+        assertEquals(1, reopened.getJournal().getRecordCount());
+        reopened.close();
+    }
+
+    /**
+     * @brief Verifica che una generazione sigillata non ancora compattata
+     *        (es. crash durante la compattazione) venga riapplicata al caricamento.
+     */
+    @Test
+    @DisplayName("compattazione interrotta: la generazione sigillata viene riapplicata")
+    void sealedGenerationIsReplayedOnLoad() throws IOException {
+        User u1 = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        User u2 = new User("Luigi", "Bianchi", "l.bianchi@unisa.it", "S2");
+        journal.append(JournalRecord.addUser(u1));
+        journal.sealTo(JOURNAL_PATH + ".1");
+        journal.append(JournalRecord.addUser(u2));
+        journal.close();
+
+        ArchiveFileService afs = new ArchiveFileService(SNAPSHOT_PATH, new FileService());
+        afs.setJournalEnabled(true);
+        LibraryArchive loaded = afs.loadArchive();
+        afs.close();
+
+        assertNotNull(loaded.findUserByCode("S1"));
+        assertNotNull(loaded.findUserByCode("S2"));
+    }
+}
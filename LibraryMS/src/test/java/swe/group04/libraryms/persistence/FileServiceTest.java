@@ -6,7 +6,8 @@
  * Verifica:
  * - la corretta scrittura e lettura di oggetti semplici serializzabili (String);
  * - la corretta gestione di collezioni serializzabili (List);
- * - il corretto sollevamento di eccezioni in caso di lettura da file inesistenti.
+ * - il corretto sollevamento di eccezioni in caso di lettura da file inesistenti;
+ * - la sostituzione atomica del contenuto senza file temporanei residui.
  */
 package swe.group04.libraryms.persistence;
 
@@ -120,4 +121,17 @@ class FileServiceTest {
 
         assertThrows(IOException.class, () -> fileService.readFromFile(nonExistingPath));
     }
-}
\ No newline at end of file
+
+    /**
+     * @brief Verifica che una nuova scrittura sostituisca il contenuto precedente
+     *        senza lasciare il file temporaneo usato per la sostituzione atomica.
+     */
+    @Test
+    void writeToFile_overwrite_shouldReplaceContentWithoutLeftovers() throws IOException {
+        fileService.writeToFile(testFilePath, "prima versione");
+        fileService.writeToFile(testFilePath, "seconda versione");
+
+        assertEquals("seconda versione", fileService.readFromFile(testFilePath));
+        assertFalse(new File(testFilePath + ".tmp").exists());
+    }
+}
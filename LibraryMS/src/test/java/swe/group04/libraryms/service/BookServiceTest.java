@@ -7,7 +7,9 @@
  * - addBook: validazione dei campi obbligatori e dei vincoli sull’ISBN (formato e unicità);
  * - updateBook: validazione minima e gestione degli errori su input non valido;
  * - removeBook: rimozione corretta e blocco della rimozione in presenza di prestiti attivi;
- * - searchBooks: ricerca per corrispondenza su titolo/autore/ISBN.
+ * - searchBooks: ricerca per corrispondenza su titolo/autore/ISBN, con ripiego sulla ricerca per termini;
+ * - searchBooksByTerms: termini in AND su campi diversi, prefisso sull'ultimo.
+ * - FuzzyIndex: dizionario limitato alle parole in uso dopo aggiornamenti ripetuti.
  *
  * @note Per evitare accesso a file reali, viene utilizzata una implementazione fake
  *       in-memory di ArchiveFileService, compatibile con LibraryArchiveService.
@@ -29,7 +31,10 @@ import swe.group04.libraryms.persistence.FileService;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.Year;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -311,4 +316,242 @@ class BookServiceTest {
         assertEquals(1, bookService.searchBooks("1234567890").size());
         assertEquals(b2, bookService.searchBooks("1234567890").get(0));
     }
-}
\ No newline at end of file
+
+    /**
+     * @brief Verifica la ricerca per sottostringa e l'allineamento dell'indice.
+     *
+     * - la query può comparire in qualsiasi punto di un campo (es. a metà ISBN);
+     * - gli spazi fanno parte della query, come nella ricerca lineare;
+     * - le query più corte di tre caratteri sono gestite;
+     * - dopo updateBook e removeBook i risultati riflettono le modifiche.
+     */
+    @Test
+    @DisplayName("searchBooks: sottostringa in qualsiasi punto, indice aggiornato")
+    void searchBooksMatchesInnerSubstringsAndFollowsChanges() throws Exception {
+        Book b1 = book("Reti di Calcolatori", List.of("Kurose", "Ross"), currentYear(), "978-88-7192-580-1", 1);
+        Book b2 = book("Reti Neurali", List.of("Haykin"), currentYear(), "1234567890", 1);
+
+        bookService.addBook(b1);
+        bookService.addBook(b2);
+
+        assertEquals(List.of(b1, b2), bookService.searchBooks("RETI"));
+        assertEquals(List.of(b1), bookService.searchBooks("i di calc"));
+        assertEquals(List.of(b1), bookService.searchBooks("7192-58"));
+        assertEquals(List.of(b2), bookService.searchBooks("45678"));
+        assertEquals(List.of(b2), bookService.searchBooks("yk"));
+        assertTrue(bookService.searchBooks("neurali kurose").isEmpty());
+
+        b2.setTitle("Reti Neurali Profonde");
+        bookService.updateBook(b2);
+        assertEquals(List.of(b2), bookService.searchBooks("profond"));
+
+        bookService.removeBook(b1);
+        assertEquals(List.of(b2), bookService.searchBooks("reti"));
+    }
+
+    /**
+     * @brief Verifica la ricerca per termini e il ripiego di searchBooks().
+     *
+     * - più termini: devono comparire tutti (AND), anche in campi diversi,
+     *   l'ultimo come prefisso;
+     * - l'ISBN è trovato anche senza trattini;
+     * - searchBooks ripiega sui termini solo se nessun libro contiene la query per intero;
+     * - dopo updateBook e removeBook i risultati riflettono le modifiche.
+     */
+    @Test
+    @DisplayName("searchBooksByTerms: termini in AND, prefisso sull'ultimo, ripiego di searchBooks")
+    void searchBooksByTermsUsesAllTerms() throws Exception {
+        Book b1 = book("Il Signore degli Anelli", List.of("J. R. R. Tolkien"), currentYear(), "978-88-452-9261-5", 1);
+        Book b2 = book("Lo Hobbit", List.of("J. R. R. Tolkien"), currentYear(), "1234567890", 1);
+        Book b3 = book("Il Signore delle Mosche", List.of("William Golding"), currentYear(), "0987654321", 1);
+
+        bookService.addBook(b1);
+        bookService.addBook(b2);
+        bookService.addBook(b3);
+
+        assertEquals(List.of(b1), bookService.searchBooksByTerms("tolkien signore"));
+        assertEquals(List.of(b1), bookService.searchBooksByTerms("SIGNORE tolk"));
+        assertEquals(List.of(b1, b3), bookService.searchBooksByTerms("il sig"));
+        assertEquals(List.of(b1), bookService.searchBooksByTerms("9788845292615"));
+        assertTrue(bookService.searchBooksByTerms("hobbit golding").isEmpty());
+        assertEquals(3, bookService.searchBooksByTerms(" ").size());
+
+        //  Ripiego: la query non compare per intero in nessun campo
+        assertEquals(List.of(b1), bookService.searchBooks("tolkien signore"));
+        assertEquals(List.of(b2), bookService.searchBooks("hobbit"));
+        assertTrue(bookService.searchBooks("?!").isEmpty());
+
+        b2.setTitle("Lo Hobbit, o la riconquista del tesoro");
+        bookService.updateBook(b2);
+        assertEquals(List.of(b2), bookService.searchBooksByTerms("tolkien tesoro"));
+
+        bookService.removeBook(b1);
+        assertTrue(bookService.searchBooks("tolkien signore").isEmpty());
+    }
+
+    /**
+     * @brief Verifica la ricerca tollerante agli errori: distanza massima, ordinamento e aggiornamenti.
+     */
+    @Test
+    @DisplayName("searchBooksFuzzy: trova autori e titoli con errori, ordinati per distanza")
+    void searchBooksFuzzyToleratesTypos() throws Exception {
+        Book b1 = book("Reti di Calcolatori", List.of("Kurose", "Ross"), currentYear(), "978-88-7192-580-1", 1);
+        Book b2 = book("Sistemi Operativi", List.of("Tanenbaum"), currentYear(), "1234567890", 1);
+        Book b3 = book("Architettura dei Calcolatori", List.of("Tanenbaum"), currentYear(), "0987654321", 1);
+
+        bookService.addBook(b1);
+        bookService.addBook(b2);
+        bookService.addBook(b3);
+
+        assertTrue(bookService.searchBooks("tanenbuam").isEmpty());
+        assertEquals(List.of(b3, b2), bookService.searchBooksFuzzy("tanenbuam"));
+        assertEquals(List.of(b1), bookService.searchBooksFuzzy("Kuros"));
+        assertTrue(bookService.searchBooksFuzzy("Kurse", 0).isEmpty());
+
+        //  A parità di distanza vale l'ordine per titolo, altrimenti la distanza
+        assertEquals(List.of(b3, b1), bookService.searchBooksFuzzy("calcolatori"));
+        assertEquals(List.of(b1), bookService.searchBooksFuzzy("calcolatori rosx"));
+        b3.setAuthors(List.of("Tanenbam"));
+        bookService.updateBook(b3);
+        assertEquals(List.of(b2, b3), bookService.searchBooksFuzzy("tanenbaum"));
+
+        b1.setAuthors(List.of("Kurose"));
+        bookService.updateBook(b1);
+        assertTrue(bookService.searchBooksFuzzy("calcolatori rosx").isEmpty());
+
+        bookService.removeBook(b2);
+        assertEquals(List.of(b3), bookService.searchBooksFuzzy("tanenbaum"));
+        assertThrows(IllegalArgumentException.class, () -> bookService.searchBooksFuzzy("x", -1));
+    }
+
+    /**
+     * @brief Verifica che aggiornamenti ripetuti di un titolo non facciano
+     *        crescere il dizionario della ricerca tollerante.
+     */
+    @Test
+    @DisplayName("FuzzyIndex: le parole non più in uso non si accumulano nel dizionario")
+    void fuzzyIndexDropsUnusedWords() {
+        FuzzyIndex<Book> index = new FuzzyIndex<>(b -> List.of(b.getTitle()));
+        Book other = book("Reti di Calcolatori", List.of("Kurose"), currentYear(), "1234567890", 1);
+        Book b = book("Titolo 0", List.of("Autore"), currentYear(), "0987654321", 1);
+        index.add(other);
+        index.add(b);
+
+        for (int i = 1; i <= 1000; i++) {
+            b.setTitle("Titolo " + i);
+            index.add(b);
+            //  5 parole in uso, al più 2 non più in uso
+            assertTrue(index.wordCount() <= 7, "parole nel dizionario: " + index.wordCount());
+        }
+
+        assertEquals(List.of(b), List.copyOf(index.distances("titolo 1000", 0).keySet()));
+        assertTrue(index.distances("999", 0).isEmpty());
+        assertEquals(List.of(other), List.copyOf(index.distances("calcolatori", 0).keySet()));
+
+        index.remove(b);
+        index.remove(other);
+        assertEquals(0, index.wordCount());
+    }
+
+    /* ======================================================
+                       Ordinamenti e pagine
+       ====================================================== */
+
+    /**
+     * @brief Verifica che le viste ordinate coincidano con un ordinamento stabile.
+     *
+     * Confronta i tre ordinamenti con il riordino di una copia della lista
+     * dell'archivio, anche dopo updateBook e removeBook, e verifica che le
+     * pagine concatenate restituiscano lo stesso ordine.
+     */
+    @Test
+    @DisplayName("getBooksSortedBy*/getBooksPage: ordine mantenuto dopo le modifiche")
+    void sortedViewsFollowChanges() throws Exception {
+        String[] titles = { "Reti", "algoritmi", "Basi di dati", "reti", "Compilatori" };
+        String[] authors = { "Kurose", "cormen", "Atzeni", "Tanenbaum", "Aho" };
+        for (int i = 0; i < 20; i++) {
+            bookService.addBook(book(titles[i % 5], List.of(authors[(i * 3) % 5]), 1990 + (i % 4),
+                    String.format("%010d", i), 1));
+        }
+
+        Book changed = archiveService.getLibraryArchive().getBooks().get(7);
+        changed.setTitle("Zeta");
+        bookService.updateBook(changed);
+        bookService.removeBook(archiveService.getLibraryArchive().getBooks().get(3));
+
+        assertSortedLike(Comparator.comparing(b -> b.getTitle().toLowerCase()),
+                bookService.getBooksSortedByTitle(), BookService.SortOrder.TITLE);
+        assertSortedLike(Comparator.comparing(b -> b.getAuthors().get(0).toLowerCase()),
+                bookService.getBooksSortedByAuthor(), BookService.SortOrder.AUTHOR);
+        assertSortedLike(Comparator.comparingInt(Book::getReleaseYear),
+                bookService.getBooksSortedByYear(), BookService.SortOrder.YEAR);
+
+        assertThrows(IllegalArgumentException.class, () -> bookService.getBooksPage(null, null, 5));
+        assertThrows(IllegalArgumentException.class, () -> bookService.getBooksPage(BookService.SortOrder.TITLE, null, 0));
+    }
+
+    /**
+     * @brief Verifica la paginazione con token di continuazione.
+     *
+     * - le pagine concatenate coincidono con la lista completa, sia per gli
+     *   ordinamenti sia per la ricerca (anche con pochi candidati o con il
+     *   ripiego sulla ricerca per termini);
+     * - l'ultima pagina non ha token;
+     * - un token di un altro criterio o riferito a un libro rimosso è rifiutato.
+     */
+    @Test
+    @DisplayName("pageBooks/pageSearchBooks: pagine con token di continuazione")
+    void pagesFollowContinuationTokens() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            String title = (i % 10 == 0 ? "Raro " : "Comune ") + (char) ('A' + (i * 7) % 26);
+            bookService.addBook(book(title, List.of("Autore " + i), 2000, String.format("%010d", i), 1));
+        }
+
+        assertEquals(bookService.getBooksSortedByYear(), allPages(t -> bookService.pageBooks(BookService.SortOrder.YEAR, t, 7)));
+        assertEquals(bookService.searchBooks("comune"), allPages(t -> bookService.pageSearchBooks("comune", t, 5)));
+        assertEquals(bookService.searchBooks("raro"), allPages(t -> bookService.pageSearchBooks("raro", t, 3)));
+        assertEquals(36, bookService.searchBooks("autore comune").size());
+        assertEquals(bookService.searchBooks("autore comune"), allPages(t -> bookService.pageSearchBooks("autore comune", t, 5)));
+        assertEquals(bookService.getBooksSortedByTitle(), allPages(t -> bookService.pageSearchBooks("  ", t, 9)));
+
+        Page<Book> first = bookService.pageBooks(BookService.SortOrder.TITLE, null, 10);
+        assertTrue(first.hasNext());
+        assertThrows(IllegalArgumentException.class,
+                () -> bookService.pageBooks(BookService.SortOrder.AUTHOR, first.getNextToken(), 10));
+
+        bookService.removeBook(first.getItems().get(9));
+        assertThrows(IllegalArgumentException.class,
+                () -> bookService.pageBooks(BookService.SortOrder.TITLE, first.getNextToken(), 10));
+    }
+
+    /**
+     * @brief Legge tutte le pagine seguendo i token di continuazione.
+     */
+    private static <T> List<T> allPages(Function<String, Page<T>> fetch) {
+        List<T> all = new ArrayList<>();
+        Page<T> page = fetch.apply(null);
+        all.addAll(page.getItems());
+        while (page.hasNext()) {
+            page = fetch.apply(page.getNextToken());
+            all.addAll(page.getItems());
+        }
+        return all;
+    }
+
+    /**
+     * @brief Confronta una vista con l'ordinamento stabile dell'archivio e con le sue pagine.
+     */
+    private void assertSortedLike(Comparator<Book> comparator, List<Book> actual, BookService.SortOrder order) {
+        List<Book> expected = new ArrayList<>(archiveService.getLibraryArchive().getBooks());
+        expected.sort(comparator);
+        assertEquals(expected, actual);
+
+        List<Book> paged = new ArrayList<>();
+        List<Book> page = bookService.getBooksPage(order, null, 6);
+        while (!page.isEmpty()) {
+            paged.addAll(page);
+            page = bookService.getBooksPage(order, page.get(page.size() - 1), 6);
+        }
+        assertEquals(expected, paged);
+    }
+}
@@ -8,7 +8,9 @@
  * - inizializzazione lazy dell'archivio;
  * - salvataggio e caricamento dell'archivio;
  * - gestione delle eccezioni di I/O (IOException e FileNotFoundException);
- * - coerenza tra archivio persistito e riferimento interno del servizio.
+ * - coerenza tra archivio persistito e riferimento interno del servizio;
+ * - persistenza write-behind: accorpamento delle modifiche, flush() e
+ *   notifica degli errori tramite SaveStatusListener.
  *
  * @note Tutti i test utilizzano una persistenza fittizia in memoria
  *       per evitare l'accesso al file system reale.
@@ -19,11 +21,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import swe.group04.libraryms.models.LibraryArchive;
+import swe.group04.libraryms.models.User;
+import swe.group04.libraryms.persistence.JournalRecord;
 import swe.group04.libraryms.persistence.ArchiveFileService;
 import swe.group04.libraryms.persistence.FileService;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -222,4 +230,121 @@ class LibraryArchiveServiceTest {
         assertTrue(loaded.getUsers().isEmpty());
         assertTrue(loaded.getLoans().isEmpty());
     }
-}
\ No newline at end of file
+
+    /**
+     * @brief Verifica che le modifiche arrivate durante una scrittura in corso
+     *        vengano accorpate in un'unica scrittura successiva.
+     */
+    @Test
+    @DisplayName("write-behind: una raffica di modifiche produce una sola scrittura")
+    void writeBehindCoalescesBurst() throws Exception {
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+
+        ArchiveFileService slow = new InMemoryArchiveFileService() {
+            @Override
+            public void saveChanges(LibraryArchive archive, List<JournalRecord> records) throws IOException {
+                firstWriteStarted.countDown();
+                try {
+                    releaseFirstWrite.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (batchSizes) {
+                    batchSizes.add(records.size());
+                }
+            }
+        };
+        LibraryArchiveService s = new LibraryArchiveService(slow);
+        s.setWriteBehindEnabled(true);
+
+        s.saveChange(JournalRecord.addUser(new User("Mario", "Rossi", "m.rossi@unisa.it", "S1")));
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+
+        //  Modifiche arrivate mentre la prima scrittura è in corso
+        for (int i = 2; i <= 4; i++) {
+            s.saveChange(JournalRecord.addUser(new User("Nome", "Cognome", "u@unisa.it", "S" + i)));
+        }
+        releaseFirstWrite.countDown();
+        s.flush();
+
+        assertEquals(List.of(1, 3), batchSizes);
+        s.close();
+    }
+
+    /**
+     * @brief Verifica che un errore di scrittura venga notificato al listener,
+     *        che le modifiche restino in coda e che flush() le ritenti.
+     */
+    @Test
+    @DisplayName("write-behind: errore notificato al listener, modifiche ritentate al flush")
+    void writeBehindReportsFailureAndRetries() throws Exception {
+        boolean[] failing = {true};
+        List<Integer> written = new ArrayList<>();
+        ArchiveFileService flaky = new InMemoryArchiveFileService() {
+            @Override
+            public void saveChanges(LibraryArchive archive, List<JournalRecord> records) throws IOException {
+                if (failing[0]) {
+                    throw new IOException("disco pieno");
+                }
+                written.add(records.size());
+            }
+        };
+
+        CountDownLatch failed = new CountDownLatch(1);
+        int[] pendingOnFailure = {0};
+        LibraryArchiveService s = new LibraryArchiveService(flaky);
+        s.setWriteBehindEnabled(true);
+        s.setSaveStatusListener(new SaveStatusListener() {
+            @Override
+            public void onSaved(int changes) {
+            }
+
+            @Override
+            public void onSaveFailed(IOException error, int pendingChanges) {
+                pendingOnFailure[0] = pendingChanges;
+                failed.countDown();
+            }
+        });
+
+        //  Nessuna eccezione al chiamante
+        s.saveChange(JournalRecord.addUser(new User("Mario", "Rossi", "m.rossi@unisa.it", "S1")));
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, pendingOnFailure[0]);
+        assertThrows(IOException.class, s::flush);
+
+        failing[0] = false;
+        s.flush();
+        assertEquals(List.of(1), written);
+        s.close();
+    }
+
+    /**
+     * @brief Verifica che con una finestra di group commit le modifiche
+     *        ravvicinate finiscano in un unico commit.
+     */
+    @Test
+    @DisplayName("group commit: modifiche ravvicinate scritte in un solo commit")
+    void groupCommitBatchesRapidChanges() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+        ArchiveFileService recording = new InMemoryArchiveFileService() {
+            @Override
+            public void saveChanges(LibraryArchive archive, List<JournalRecord> records) {
+                batchSizes.add(records.size());
+            }
+        };
+        LibraryArchiveService s = new LibraryArchiveService(recording);
+        s.setWriteBehindEnabled(true);
+        s.setGroupCommitDelay(500);
+
+        for (int i = 1; i <= 5; i++) {
+            s.saveChange(JournalRecord.addUser(new User("Nome", "Cognome", "u@unisa.it", "S" + i)));
+        }
+        s.flush();
+
+        assertEquals(List.of(5), batchSizes);
+        assertThrows(IllegalArgumentException.class, () -> s.setGroupCommitDelay(-1));
+        s.close();
+    }
+}
@@ -8,7 +8,9 @@
  * - controllo della disponibilità delle copie di un libro;
  * - rispetto del limite massimo di prestiti attivi per utente;
  * - corretto aggiornamento dello stato del prestito in fase di restituzione;
- * - coerenza tra stato del prestito e numero di copie disponibili del libro.
+ * - invarianza delle versioni dell'archivio catturate prima di una restituzione;
+ * - coerenza tra stato del prestito e numero di copie disponibili del libro;
+ * - interrogazioni per scadenza (prestiti in ritardo e in scadenza).
  *
  * @note Tutti i test utilizzano un meccanismo di persistenza fittizio
  *       (in-memory) per evitare l'accesso al file system reale.
@@ -21,6 +23,7 @@ import org.junit.jupiter.api.Test;
 import swe.group04.libraryms.exceptions.MaxLoansReachedException;
 import swe.group04.libraryms.exceptions.MandatoryFieldException;
 import swe.group04.libraryms.exceptions.NoAvailableCopiesException;
+import swe.group04.libraryms.models.ArchiveSnapshot;
 import swe.group04.libraryms.models.Book;
 import swe.group04.libraryms.models.LibraryArchive;
 import swe.group04.libraryms.models.Loan;
@@ -206,6 +209,7 @@ class LoanServiceTest {
         assertEquals(0, b.getAvailableCopies());
         assertEquals(1, a.getLoans().size());
         assertTrue(a.getLoans().contains(loan));
+        assertEquals(1, u.getActiveLoanCount());
     }
 
     /**
@@ -245,11 +249,124 @@ class LoanServiceTest {
 
         Loan loan = loanService.registerLoan(u, b, LocalDate.now().plusDays(7));
         assertEquals(0, b.getAvailableCopies());
+        assertTrue(u.hasActiveLoans());
 
         loanService.returnLoan(loan);
 
         assertFalse(loan.isActive());
+        assertEquals(0, u.getActiveLoanCount());
         assertNotNull(loan.getReturnDate());
         assertEquals(1, b.getAvailableCopies());
     }
-}
\ No newline at end of file
+
+    /**
+     * @brief Verifica che una versione dell'archivio non veda una restituzione successiva.
+     */
+    @Test
+    @DisplayName("returnLoan: una versione catturata prima resta invariata")
+    void returnLoanLeavesEarlierSnapshotUnchanged() throws Exception {
+        LibraryArchive a = archiveService.getLibraryArchive();
+        User u = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        Book b = bookWithCopies(2);
+
+        a.addUser(u);
+        a.addBook(b);
+
+        Loan loan = loanService.registerLoan(u, b, LocalDate.now().plusDays(7));
+        ArchiveSnapshot before = a.snapshot();
+
+        loanService.returnLoan(loan);
+
+        assertEquals(List.of(loan), before.getActiveLoans());
+        assertTrue(before.isLoanActive(loan.getLoanId()));
+        assertTrue(before.stateOf(loan).isActive());
+        assertNull(before.stateOf(loan).getReturnDate());
+        assertEquals(1, before.stateOf(b).getAvailableCopies());
+        assertEquals(List.of(loan), before.stateOf(u).getActiveLoans());
+        assertEquals(1, before.getLoanColumns().countActive());
+
+        ArchiveSnapshot after = a.snapshot();
+        assertFalse(after.stateOf(loan).isActive());
+        assertNotNull(after.stateOf(loan).getReturnDate());
+        assertEquals(2, after.stateOf(b).getAvailableCopies());
+        assertEquals(0, after.stateOf(u).getActiveLoanCount());
+        assertEquals(0, after.getLoanColumns().countActive());
+    }
+
+    /**
+     * @brief Verifica le interrogazioni per scadenza sull'indice dei prestiti attivi.
+     *
+     * Le scadenze vengono spostate con setDueDate() dopo la registrazione,
+     * poiché registerLoan non accetta date passate.
+     */
+    @Test
+    @DisplayName("getOverdueLoans/getLoansDueWithin: intervalli per scadenza dei soli prestiti attivi")
+    void dueDateQueriesReadActiveLoansInOrder() throws Exception {
+        LibraryArchive a = archiveService.getLibraryArchive();
+        User u1 = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        User u2 = new User("Luigi", "Bianchi", "l.bianchi@unisa.it", "S2");
+        Book b = bookWithCopies(5);
+        a.addUser(u1);
+        a.addUser(u2);
+        a.addBook(b);
+
+        LocalDate today = LocalDate.now();
+        Loan dueSoon = loanService.registerLoan(u1, b, today.plusDays(3));
+        Loan later = loanService.registerLoan(u1, b, today.plusDays(30));
+        Loan overdue = loanService.registerLoan(u2, b, today.plusDays(1));
+        Loan returned = loanService.registerLoan(u2, b, today.plusDays(1));
+        overdue.setDueDate(today.minusDays(2));
+        returned.setDueDate(today.minusDays(5));
+        loanService.returnLoan(returned);
+
+        assertEquals(List.of(overdue, dueSoon, later), loanService.getActiveLoan());
+        assertEquals(List.of(overdue), loanService.getOverdueLoans());
+        assertEquals(List.of(dueSoon), loanService.getLoansDueWithin(7));
+        assertThrows(IllegalArgumentException.class, () -> loanService.getLoansDueWithin(-1));
+
+        loanService.returnLoan(overdue);
+        assertTrue(loanService.getOverdueLoans().isEmpty());
+    }
+
+    /**
+     * @brief Verifica gli ordinamenti mantenuti per scadenza, data di apertura e ID.
+     *
+     * Le viste devono seguire le modifiche alle date, anche se eseguite
+     * direttamente sul prestito, e le pagine concatenate devono restituire
+     * lo stesso ordine della lista completa.
+     */
+    @Test
+    @DisplayName("getLoansSortedBy*/getLoansPage: ordini aggiornati dopo le modifiche")
+    void sortedViewsFollowDateChanges() throws Exception {
+        LibraryArchive a = archiveService.getLibraryArchive();
+        User u1 = new User("Mario", "Rossi", "m.rossi@unisa.it", "S1");
+        User u2 = new User("Luigi", "Bianchi", "l.bianchi@unisa.it", "S2");
+        Book b = bookWithCopies(5);
+        a.addUser(u1);
+        a.addUser(u2);
+        a.addBook(b);
+
+        LocalDate today = LocalDate.now();
+        Loan first = loanService.registerLoan(u1, b, today.plusDays(10));
+        Loan second = loanService.registerLoan(u1, b, today.plusDays(5));
+        assertEquals(List.of(second, first), loanService.getLoansSortedByDueDate());
+
+        Loan third = loanService.registerLoan(u2, b, today.plusDays(5));
+        first.setLoanDate(today.minusDays(20));
+        third.setDueDate(today.plusDays(1));
+
+        assertEquals(List.of(third, second, first), loanService.getLoansSortedByDueDate());
+        assertEquals(List.of(first, second, third), loanService.getLoansSortedByLoanDate());
+        assertEquals(List.of(first, second, third), loanService.getLoansSortedById());
+
+        assertEquals(List.of(third, second), loanService.getLoansPage(LoanService.SortOrder.DUE_DATE, null, 2));
+        assertEquals(List.of(first), loanService.getLoansPage(LoanService.SortOrder.DUE_DATE, second, 2));
+        assertThrows(IllegalArgumentException.class, () -> loanService.getLoansPage(LoanService.SortOrder.ID, null, 0));
+
+        Page<Loan> page = loanService.pageLoans(LoanService.SortOrder.DUE_DATE, null, 2);
+        assertEquals(List.of(third, second), page.getItems());
+        page = loanService.pageLoans(LoanService.SortOrder.DUE_DATE, page.getNextToken(), 2);
+        assertEquals(List.of(first), page.getItems());
+        assertFalse(page.hasNext());
+    }
+}
@@ -31,6 +31,7 @@ import swe.group04.libraryms.persistence.FileService;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.Year;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -244,6 +245,151 @@ void updateUserDuplicateCodeThrows() throws Exception {
         assertEquals(1, userService.searchUsers("l.bianchi").size());
     }
 
+    /**
+     * @brief Verifica che searchUsers trovi la query in qualsiasi punto dei campi.
+     *
+     * - parte centrale della matricola e dell'email;
+     * - risultati ordinati per cognome;
+     * - dopo updateUser la ricerca usa i nuovi valori.
+     */
+    @Test
+    @DisplayName("searchUsers: sottostringa a metà matricola/email, indice aggiornato")
+    void searchUsersMatchesInnerSubstrings() throws Exception {
+        User u1 = new User("Mario", "Rossi", "m.rossi@unisa.it", "0612701234");
+        User u2 = new User("Luca", "Bianchi", "l.bianchi@studenti.unisa.it", "0612705678");
+        userService.addUser(u1);
+        userService.addUser(u2);
+
+        assertEquals(List.of(u2, u1), userService.searchUsers("127"));
+        assertEquals(List.of(u1), userService.searchUsers("0123"));
+        assertEquals(List.of(u2), userService.searchUsers("STUDENTI.uni"));
+        assertTrue(userService.searchUsers("mario rossi").isEmpty());
+
+        u1.setFirstName("Marco");
+        userService.updateUser(u1);
+        assertTrue(userService.searchUsers("mario").isEmpty());
+        assertEquals(List.of(u1), userService.searchUsers("arco"));
+    }
+
+    /**
+     * @brief Verifica l'ordinamento per cognome e il limite dei risultati.
+     *
+     * Confronta searchUsers con una scansione lineare seguita da un
+     * ordinamento stabile per cognome, sia per query con pochi candidati
+     * sia per query che corrispondono a molti utenti; verifica inoltre che
+     * il limite restituisca i primi risultati dello stesso ordine.
+     */
+    @Test
+    @DisplayName("searchUsers: ordine per cognome come la scansione lineare, con limite")
+    void searchUsersKeepsLastNameOrderAndLimit() throws Exception {
+        String[] lastNames = { "Rossi", "bianchi", "Esposito", "Russo", "Bianchi", "Romano", "Colombo" };
+        for (int i = 0; i < 70; i++) {
+            String last = lastNames[i % lastNames.length];
+            userService.addUser(new User("Nome" + i, last, "u" + i + "@unisa.it", String.format("06127%05d", i * 37)));
+        }
+
+        for (String q : List.of("", "o", "bianchi", "ro", "0612700", "nome1", "@UNISA", "osi", "zzz")) {
+            List<User> expected = new ArrayList<>();
+            for (User u : userService.getUsersSortedByLastName()) {
+                String lq = q.toLowerCase();
+                if (u.getLastName().toLowerCase().contains(lq) || u.getFirstName().toLowerCase().contains(lq)
+                        || u.getCode().toLowerCase().contains(lq) || u.getEmail().toLowerCase().contains(lq)) {
+                    expected.add(u);
+                }
+            }
+            assertEquals(expected, userService.searchUsers(q), "query: " + q);
+            assertEquals(expected.subList(0, Math.min(5, expected.size())), userService.searchUsers(q, 5), "query: " + q);
+        }
+
+        assertTrue(userService.searchUsers("rossi", 0).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers("rossi", -1));
+    }
+
+    /**
+     * @brief Verifica gli ordinamenti per nome e matricola e le pagine per cognome.
+     *
+     * Gli ordinamenti devono riflettere l'aggiornamento di un utente e la
+     * rimozione di un altro.
+     */
+    @Test
+    @DisplayName("getUsersSortedBy*/getUsersPage: ordini aggiornati dopo le modifiche")
+    void sortedViewsFollowChanges() throws Exception {
+        User anna = new User("anna", "Verdi", "a.verdi@unisa.it", "S3");
+        User bruno = new User("Bruno", "Bianchi", "b.bianchi@unisa.it", "S1");
+        User carla = new User("Carla", "Rossi", "c.rossi@unisa.it", "S2");
+        userService.addUser(anna);
+        userService.addUser(bruno);
+        userService.addUser(carla);
+
+        assertEquals(List.of(anna, bruno, carla), userService.getUsersSortedByFirstName());
+        assertEquals(List.of(bruno, carla, anna), userService.getUsersSortedByCode());
+        assertEquals(List.of(bruno, carla, anna), userService.getUsersSortedByLastName());
+
+        anna.setFirstName("Zoe");
+        userService.updateUser(anna);
+        userService.removeUser(bruno);
+
+        assertEquals(List.of(carla, anna), userService.getUsersSortedByFirstName());
+        assertEquals(List.of(carla), userService.getUsersPage(UserService.SortOrder.LAST_NAME, null, 1));
+        assertEquals(List.of(anna), userService.getUsersPage(UserService.SortOrder.LAST_NAME, carla, 1));
+        assertTrue(userService.getUsersPage(UserService.SortOrder.CODE, bruno, 5).isEmpty());
+    }
+
+    /**
+     * @brief Verifica che nomi e cognomi accentati seguano l'ordine alfabetico italiano.
+     *
+     * Con il confronto per toLowerCase() le lettere accentate finivano dopo la "z".
+     */
+    @Test
+    @DisplayName("getUsersSortedBy*: lettere accentate in ordine alfabetico italiano")
+    void sortingFollowsItalianCollation() throws Exception {
+        User zeta = new User("Zoe", "Zeta", "z.zeta@unisa.it", "S1");
+        User ercoli = new User("Élia", "Èrcoli", "e.ercoli@unisa.it", "S2");
+        User esposito = new User("elena", "esposito", "e.esposito@unisa.it", "S3");
+        userService.addUser(zeta);
+        userService.addUser(ercoli);
+        userService.addUser(esposito);
+
+        assertEquals(List.of(ercoli, esposito, zeta), userService.getUsersSortedByLastName());
+        assertEquals(List.of(esposito, ercoli, zeta), userService.getUsersSortedByFirstName());
+        assertEquals(List.of(ercoli, esposito), userService.searchUsers("e.e"));
+    }
+
+    /**
+     * @brief Verifica la ricerca paginata e la paginazione per matricola.
+     *
+     * Le pagine concatenate devono coincidere con i risultati completi e
+     * ogni pagina, tranne l'ultima, deve avere la dimensione richiesta.
+     */
+    @Test
+    @DisplayName("pageUsers/pageSearchUsers: pagine con token di continuazione")
+    void pagesFollowContinuationTokens() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            userService.addUser(new User("Nome" + i, i % 3 == 0 ? "Rossi" : "Esposito", "u" + i + "@unisa.it", "S" + i));
+        }
+
+        List<User> paged = new ArrayList<>();
+        Page<User> page = userService.pageSearchUsers("rossi", null, 4);
+        paged.addAll(page.getItems());
+        while (page.hasNext()) {
+            assertEquals(4, page.getItems().size());
+            page = userService.pageSearchUsers("rossi", page.getNextToken(), 4);
+            paged.addAll(page.getItems());
+        }
+        assertEquals(userService.searchUsers("rossi"), paged);
+
+        paged.clear();
+        page = userService.pageUsers(UserService.SortOrder.CODE, null, 7);
+        paged.addAll(page.getItems());
+        while (page.hasNext()) {
+            page = userService.pageUsers(UserService.SortOrder.CODE, page.getNextToken(), 7);
+            paged.addAll(page.getItems());
+        }
+        assertEquals(userService.getUsersSortedByCode(), paged);
+
+        assertThrows(IllegalArgumentException.class, () -> userService.pageUsers(UserService.SortOrder.CODE, "x", 7));
+    }
+
     
     /* ======================================================
                             removeUser